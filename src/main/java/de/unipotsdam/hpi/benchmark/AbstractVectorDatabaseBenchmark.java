@@ -28,7 +28,7 @@ import java.util.logging.Logger;
 
 import de.unipotsdam.hpi.database.Settings;
 import de.unipotsdam.hpi.database.VectorDatabase;
-import de.unipotsdam.hpi.indexing.CachingBlock;
+import de.unipotsdam.hpi.storage.CacheStatistics;
 import de.unipotsdam.hpi.input.InputVector;
 import de.unipotsdam.hpi.input.IntArrayInputVector;
 import de.unipotsdam.hpi.util.Profiler;
@@ -91,7 +91,10 @@ public abstract class AbstractVectorDatabaseBenchmark {
 		Profiler.stop(PK_COMPLETE);
 
 		Profiler.printMeasurements();
-		CachingBlock.printStatistics();
+		CacheStatistics[] cacheStatistics = vectorDB.getBlockCacheStatistics();
+		for (int i = 0; i < cacheStatistics.length; i++) {
+			logger.info("Block cache of index " + i + ": " + cacheStatistics[i]);
+		}
 	}
 
 	private void mutateVectors(List<InputVector> queryVectors) {
@@ -37,6 +37,8 @@ public class BitSignatureBenchmark {
 		List<long[]> bitSignatures = generateBitSignatures();
 		compareBitSignatures(bitSignatures);
 		calculateCosineSimilarities(bitSignatures);
+		calculateHammingDistances(bitSignatures);
+		calculateBatchHammingDistances(bitSignatures);
 		Profiler.printMeasurements();
 	}
 
@@ -94,6 +96,45 @@ public class BitSignatureBenchmark {
 		logger.info(String.format("Made %d calculations\n", numComparisons));
 	}
 
+	private void calculateHammingDistances(List<long[]> bitSignatures) {
+		Profiler.start("Calculating Hamming distances one by one.");
+		int numSignatures = bitSignatures.size();
+		long checksum = 0;
+		for (int i1 = 0; i1 < numSignatures; i1++) {
+			long[] signature1 = bitSignatures.get(i1);
+			for (int i2 = 0; i2 < numSignatures; i2++) {
+				checksum += BitSignatureUtil.calculateHammingDistance(signature1, bitSignatures.get(i2));
+			}
+		}
+		Profiler.stop("Calculating Hamming distances one by one.");
+		logger.info(String.format("Made %d calculations (checksum %d)\n",
+				(long) numSignatures * numSignatures, checksum));
+	}
+
+	private void calculateBatchHammingDistances(List<long[]> bitSignatures) {
+		// lay out all signatures back to back as the batch kernel expects them
+		int numSignatures = bitSignatures.size();
+		int numLongs = bitSignatures.get(0).length;
+		long[] candidates = new long[numSignatures * numLongs];
+		for (int i = 0; i < numSignatures; i++) {
+			System.arraycopy(bitSignatures.get(i), 0, candidates, i * numLongs, numLongs);
+		}
+		int[] distances = new int[numSignatures];
+
+		Profiler.start("Calculating Hamming distances in batches.");
+		long checksum = 0;
+		for (int i1 = 0; i1 < numSignatures; i1++) {
+			BitSignatureUtil.calculateHammingDistances(bitSignatures.get(i1), candidates,
+					numSignatures, distances);
+			for (int distance : distances) {
+				checksum += distance;
+			}
+		}
+		Profiler.stop("Calculating Hamming distances in batches.");
+		logger.info(String.format("Made %d calculations (checksum %d)\n",
+				(long) numSignatures * numSignatures, checksum));
+	}
+
 	public static void main(String[] args) {
 		if (args.length < 1) {
 		  logger.info("Some stuff about usage and parameters");
@@ -35,6 +35,9 @@ public class IndexBenchmarkSettings extends AbstractSettings {
   @Property("sorting.parallel")
   public boolean performParallelSorting;
 
+  @Property("sorting.radix")
+  public boolean radixSorting;
+
   public int getNumBitSignatures() {
     return numBitSignatures;
   }
@@ -74,4 +77,12 @@ public class IndexBenchmarkSettings extends AbstractSettings {
   public void setPerformParallelSorting(boolean performParallelSorting) {
     this.performParallelSorting = performParallelSorting;
   }
+
+  public boolean isRadixSorting() {
+    return radixSorting;
+  }
+
+  public void setRadixSorting(boolean radixSorting) {
+    this.radixSorting = radixSorting;
+  }
 }
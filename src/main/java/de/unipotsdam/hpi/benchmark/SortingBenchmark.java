@@ -19,6 +19,7 @@ import java.util.Random;
 import java.util.logging.Logger;
 
 import de.unipotsdam.hpi.sorting.ParallelQuickSort;
+import de.unipotsdam.hpi.sorting.RadixSort;
 import de.unipotsdam.hpi.sorting.SortAlgorithm;
 import de.unipotsdam.hpi.sorting.StandardLibSort;
 import de.unipotsdam.hpi.util.BitSignatureUtil;
@@ -42,13 +43,17 @@ public class SortingBenchmark {
 		Profiler.start("Sorting");
 		sortAlgorithm.sort(bitSignatures);
 		Profiler.stop("Sorting");
+		sortAlgorithm.close();
 		
 		Profiler.printMeasurements();
 	}
 
 	private SortAlgorithm<long[]> getSortAlgorithm() {
 		SortAlgorithm<long[]> sortAlgorithm;
-		if (settings.isPerformParallelSorting()) {
+		if (settings.isRadixSorting()) {
+			sortAlgorithm = new RadixSort<long[]>(RadixSort.SIGNATURE_KEYS,
+					settings.isPerformParallelSorting());
+		} else if (settings.isPerformParallelSorting()) {
 			sortAlgorithm = new ParallelQuickSort<long[]>(10000); 
 		} else {
 			sortAlgorithm = new StandardLibSort<long[]>();
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.database;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import java.util.Arrays;
+
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+/**
+ * Small sorted in-memory buffer of permuted signatures that have not yet been merged into
+ * the block index of their permutation. It answers beam lookups like the index, so that
+ * queries find new elements right away.
+ * <p>
+ * This class is not thread-safe.
+ */
+class IndexDelta {
+
+  private long[][] keys = new long[16][];
+  private int[] elementIds = new int[16];
+  private int size = 0;
+
+  /**
+   * Inserts the element behind all elements with the same key.
+   */
+  void insert(long[] key, int elementId) {
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, 2 * size);
+      elementIds = Arrays.copyOf(elementIds, 2 * size);
+    }
+    int position = findPosition(key, true);
+    System.arraycopy(keys, position, keys, position + 1, size - position);
+    System.arraycopy(elementIds, position, elementIds, position + 1, size - position);
+    keys[position] = key;
+    elementIds[position] = elementId;
+    size++;
+  }
+
+  /**
+   * Appends the ids of up to <code>beamRadius</code> elements before and after the
+   * position of the given key.
+   */
+  void getNearestNeighboursElementIds(long[] key, int beamRadius, IntList neighbours) {
+    if (size == 0) {
+      return;
+    }
+    int position = findPosition(key, false);
+    int start = Math.max(0, position - beamRadius);
+    int end = Math.min(size, position + beamRadius);
+    for (int i = start; i < end; i++) {
+      neighbours.add(elementIds[i]);
+    }
+  }
+
+  /**
+   * Finds the first position whose key is greater than (or, unless <code>afterEqualKeys</code>
+   * is set, equal to) the given key.
+   */
+  private int findPosition(long[] key, boolean afterEqualKeys) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      int comparison = BitSignatureUtil.COMPARATOR.compare(keys[middle], key);
+      if (comparison < 0 || (afterEqualKeys && comparison == 0)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  long[] getKey(int index) {
+    return keys[index];
+  }
+
+  int getElementId(int index) {
+    return elementIds[index];
+  }
+
+  /**
+   * Removes the first elements, e.g., once they have been merged into the index.
+   */
+  void removeFirst(int numElements) {
+    System.arraycopy(keys, numElements, keys, 0, size - numElements);
+    System.arraycopy(elementIds, numElements, elementIds, 0, size - numElements);
+    Arrays.fill(keys, size - numElements, size, null);
+    size -= numElements;
+  }
+
+  /**
+   * Removes all elements with the given ids.
+   */
+  void removeElements(IntSet removedElementIds) {
+    int numRetainedElements = 0;
+    for (int i = 0; i < size; i++) {
+      if (!removedElementIds.contains(elementIds[i])) {
+        keys[numRetainedElements] = keys[i];
+        elementIds[numRetainedElements] = elementIds[i];
+        numRetainedElements++;
+      }
+    }
+    Arrays.fill(keys, numRetainedElements, size, null);
+    size = numRetainedElements;
+  }
+
+  int size() {
+    return size;
+  }
+
+}
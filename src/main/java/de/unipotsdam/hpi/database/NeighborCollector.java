@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.database;
+
+/**
+ * Receives the verified neighbors of a query, i.e. candidates from the indexes
+ * whose similarity to the query has been calculated.
+ * 
+ * @see VectorDatabase
+ */
+interface NeighborCollector {
+
+  /**
+   * Is called at most once per element and query.
+   */
+  void collect(int elementId, double similarity);
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.database;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+/**
+ * Owns the buffers that a single query needs while probing the permutation indexes:
+ * the permuted signature, the candidate list with the Hamming distances of the
+ * candidates, the set of already verified candidates and the top-k heaps. A context is
+ * bound to one thread and reused for all queries that thread executes, so that, once
+ * the buffers have grown to their working size, a query allocates nothing but its
+ * result.
+ * <p>
+ * A context must not be used by two queries at the same time.
+ */
+class QueryContext {
+
+  // buffers are shrunk again when a single query has grown them beyond this size
+  private static final int MAX_RETAINED_CANDIDATES = 1 << 16;
+
+  private long[] permutedSignature = new long[0];
+  private int[] distances = new int[0];
+  private final IntArrayList candidates = new IntArrayList();
+  private final IntOpenHashSet seenElements = new IntOpenHashSet();
+  private TopKHeap heap;
+  // reranking keeps fewer elements than it gets candidates, so it has a heap of its own
+  private TopKHeap rerankHeap;
+  private final MapCollector mapCollector = new MapCollector();
+
+  /**
+   * Returns a buffer for permuted signatures of the given length. Its content is undefined.
+   */
+  long[] getPermutedSignatureBuffer(int length) {
+    if (permutedSignature.length != length) {
+      permutedSignature = new long[length];
+    }
+    return permutedSignature;
+  }
+
+  /**
+   * Returns a buffer for at least the given number of Hamming distances. Its content is
+   * undefined.
+   */
+  int[] getDistanceBuffer(int minLength) {
+    if (distances.length < minLength) {
+      distances = new int[Math.max(minLength, 2 * distances.length)];
+    }
+    return distances;
+  }
+
+  /**
+   * Returns the empty candidate list.
+   */
+  IntArrayList getCandidates() {
+    if (candidates.size() > MAX_RETAINED_CANDIDATES) {
+      candidates.clear();
+      candidates.trim(MAX_RETAINED_CANDIDATES);
+    } else {
+      candidates.clear();
+    }
+    return candidates;
+  }
+
+  /**
+   * Returns the empty set of seen elements.
+   */
+  IntOpenHashSet getSeenElements() {
+    if (seenElements.size() > MAX_RETAINED_CANDIDATES) {
+      seenElements.clear();
+      seenElements.trim(MAX_RETAINED_CANDIDATES);
+    } else {
+      seenElements.clear();
+    }
+    return seenElements;
+  }
+
+  /**
+   * Returns an empty heap with the given capacity.
+   */
+  TopKHeap getHeap(int k) {
+    if (heap == null || heap.getCapacity() != k) {
+      heap = new TopKHeap(k);
+    } else {
+      heap.clear();
+    }
+    return heap;
+  }
+
+  /**
+   * Returns an empty heap with the given capacity for reranking. It is independent of
+   * {@link #getHeap(int)}.
+   */
+  TopKHeap getRerankHeap(int k) {
+    if (rerankHeap == null || rerankHeap.getCapacity() != k) {
+      rerankHeap = new TopKHeap(k);
+    } else {
+      rerankHeap.clear();
+    }
+    return rerankHeap;
+  }
+
+  /**
+   * Returns a collector that puts the neighbors into the given map.
+   */
+  NeighborCollector getMapCollector(Int2DoubleMap target) {
+    mapCollector.target = target;
+    return mapCollector;
+  }
+
+  /**
+   * Releases the references to the results of the last query.
+   */
+  void release() {
+    mapCollector.target = null;
+  }
+
+  private static class MapCollector implements NeighborCollector {
+
+    private Int2DoubleMap target;
+
+    public void collect(int elementId, double similarity) {
+      target.put(elementId, similarity);
+    }
+  }
+}
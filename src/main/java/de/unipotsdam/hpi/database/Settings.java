@@ -50,6 +50,60 @@ public class Settings extends AbstractSettings {
 	
   @Property("input.size")
   public int inputVectorSize = 1;
+
+  @Property("query.parallelism")
+  public int queryParallelism = 1;
+
+  @Property("query.prefetch")
+  public int prefetchParallelism = 4;
+
+  @Property("signatures.offheap")
+  public boolean offHeapSignatures = false;
+
+  @Property("signatures.mapped")
+  public boolean mappedSignatures = false;
+
+  @Property("signatures.concurrent")
+  public boolean concurrentSignatureIndex = true;
+
+  @Property("store_vectors")
+  public boolean saveInputVectors = false;
+
+  @Property("query.rerank")
+  public int rerankSize = 0;
+
+  @Property("sorting.memory")
+  public int sortingMemory = 0;
+
+  @Property("indexing.parallelism")
+  public int indexingParallelism = 1;
+
+  @Property("sorting.radix")
+  public boolean radixSorting = false;
+
+  @Property("index.block.append")
+  public boolean appendOnlyBlockStorage = true;
+
+  @Property("index.block.compression")
+  public boolean compressedBlocks = false;
+
+  @Property("index.block.cache")
+  public int blockCacheSize = 256;
+
+  @Property("indexing.incremental")
+  public boolean incrementalIndexing = false;
+
+  @Property("indexing.delta.size")
+  public int maxDeltaSize = 10000;
+
+  @Property("deletes.compaction.threshold")
+  public double compactionThreshold = 0.05d;
+
+  @Property("ingest.batch.size")
+  public int ingestBatchSize = 256;
+
+  @Property("ingest.queue.size")
+  public int ingestQueueSize = 16;
 	
 	public int getLshSize() {
 		return lshSize;
@@ -115,4 +169,232 @@ public class Settings extends AbstractSettings {
     this.inputVectorSize = inputVectorSize;
   }
 
+  public int getQueryParallelism() {
+    return queryParallelism;
+  }
+
+  /**
+   * Sets the maximum number of threads that probe the permutation indexes of a
+   * single query concurrently. A value of 1 probes them sequentially.
+   */
+  public void setQueryParallelism(int queryParallelism) {
+    this.queryParallelism = queryParallelism;
+  }
+
+  public int getPrefetchParallelism() {
+    return prefetchParallelism;
+  }
+
+  /**
+   * Sets the number of threads that load the neighbor blocks of a query's beam in the
+   * background. The threads are shared by the indexes of the database. A value of 0
+   * disables prefetching.
+   */
+  public void setPrefetchParallelism(int prefetchParallelism) {
+    this.prefetchParallelism = prefetchParallelism;
+  }
+
+  public boolean isOffHeapSignatures() {
+    return offHeapSignatures;
+  }
+
+  /**
+   * Sets whether the signatures that are looked up during queries are packed into
+   * direct memory instead of being kept as objects on the heap.
+   */
+  public void setOffHeapSignatures(boolean offHeapSignatures) {
+    this.offHeapSignatures = offHeapSignatures;
+  }
+
+  public boolean isMappedSignatures() {
+    return mappedSignatures;
+  }
+
+  /**
+   * Sets whether queries look up the signatures in the memory-mapped signature file
+   * instead of loading them onto the heap. Requires the signatures to be saved.
+   */
+  public void setMappedSignatures(boolean mappedSignatures) {
+    this.mappedSignatures = mappedSignatures;
+  }
+
+  public boolean isConcurrentSignatureIndex() {
+    return concurrentSignatureIndex;
+  }
+
+  /**
+   * Sets whether on-heap signatures are looked up in a lock-free table instead of a
+   * synchronized map.
+   */
+  public void setConcurrentSignatureIndex(boolean concurrentSignatureIndex) {
+    this.concurrentSignatureIndex = concurrentSignatureIndex;
+  }
+
+  public boolean isSaveInputVectors() {
+    return saveInputVectors;
+  }
+
+  /**
+   * Sets whether the input vectors are stored besides their signatures. This is
+   * required to re-rank query results with exact similarities.
+   */
+  public void setSaveInputVectors(boolean saveInputVectors) {
+    this.saveInputVectors = saveInputVectors;
+  }
+
+  public int getRerankSize() {
+    return rerankSize;
+  }
+
+  /**
+   * Sets the number of best candidates of a top-k query that are re-scored with their
+   * exact cosine similarity. A value of 0 disables re-ranking. Re-ranking requires the
+   * input vectors to be stored.
+   */
+  public void setRerankSize(int rerankSize) {
+    this.rerankSize = rerankSize;
+  }
+
+  public int getSortingMemory() {
+    return sortingMemory;
+  }
+
+  /**
+   * Sets the memory in megabytes that the permuted signatures may occupy while they are
+   * sorted for index creation. Beyond that, sorted runs are spilled to disk and merged.
+   * A value of 0 sorts all signatures in memory. The signature lookup of the indexes is
+   * not part of this memory, see {@link #setOffHeapSignatures(boolean)}.
+   */
+  public void setSortingMemory(int sortingMemory) {
+    this.sortingMemory = sortingMemory;
+  }
+
+  public int getIndexingParallelism() {
+    return indexingParallelism;
+  }
+
+  /**
+   * Sets how many permutation indexes are built at the same time. Concurrently built
+   * indexes share a single scan of the bit signatures and split the sorting memory
+   * among them, or half of the maximum heap if no sorting memory is set. Fewer indexes
+   * are built at once if their shares would become too small. A value of 1 builds one
+   * index after the other.
+   */
+  public void setIndexingParallelism(int indexingParallelism) {
+    this.indexingParallelism = indexingParallelism;
+  }
+
+  public boolean isRadixSorting() {
+    return radixSorting;
+  }
+
+  /**
+   * Sets whether the permuted signatures are sorted with a radix sort on their bits
+   * rather than with a comparison sort when they are sorted externally or by parallel
+   * index builders. The in-memory build always radix-sorts its signature batches.
+   */
+  public void setRadixSorting(boolean radixSorting) {
+    this.radixSorting = radixSorting;
+  }
+
+  public boolean isIncrementalIndexing() {
+    return incrementalIndexing;
+  }
+
+  /**
+   * Sets whether vectors that are submitted after the indexes have been created are
+   * added to in-memory deltas of the indexes, which are merged into the indexes in the
+   * background, instead of requiring a rebuild of all indexes.
+   */
+  public void setIncrementalIndexing(boolean incrementalIndexing) {
+    this.incrementalIndexing = incrementalIndexing;
+  }
+
+  public int getMaxDeltaSize() {
+    return maxDeltaSize;
+  }
+
+  /**
+   * Sets the number of elements in the in-memory deltas from which on a background merge
+   * into the indexes is started.
+   */
+  public void setMaxDeltaSize(int maxDeltaSize) {
+    this.maxDeltaSize = maxDeltaSize;
+  }
+
+  public double getCompactionThreshold() {
+    return compactionThreshold;
+  }
+
+  /**
+   * Sets the fraction of deleted elements that the indexes may still contain before a
+   * background compaction removes them.
+   */
+  public void setCompactionThreshold(double compactionThreshold) {
+    this.compactionThreshold = compactionThreshold;
+  }
+
+  public boolean isAppendOnlyBlockStorage() {
+    return appendOnlyBlockStorage;
+  }
+
+  /**
+   * Sets whether the blocks of an index are appended to a single data file with an
+   * offset table. Otherwise, blocks are aggregated in files that are rewritten as a whole
+   * whenever one of their blocks changes.
+   */
+  public void setAppendOnlyBlockStorage(boolean appendOnlyBlockStorage) {
+    this.appendOnlyBlockStorage = appendOnlyBlockStorage;
+  }
+
+  public boolean isCompressedBlocks() {
+    return compressedBlocks;
+  }
+
+  /**
+   * Sets whether the element ids of index blocks are stored as variable-length deltas
+   * instead of raw 4-byte ints. This is off by default: the ids of a block are in
+   * signature order, so their deltas span the whole id range and hardly save space
+   * unless signature order and id order correlate.
+   */
+  public void setCompressedBlocks(boolean compressedBlocks) {
+    this.compressedBlocks = compressedBlocks;
+  }
+
+  public int getBlockCacheSize() {
+    return blockCacheSize;
+  }
+
+  /**
+   * Sets the number of megabytes that the decoded index blocks may take in the block
+   * cache, which is shared by the indexes of the database.
+   */
+  public void setBlockCacheSize(int blockCacheSize) {
+    this.blockCacheSize = blockCacheSize;
+  }
+
+  public int getIngestBatchSize() {
+    return ingestBatchSize;
+  }
+
+  /**
+   * Sets the number of input vectors that are hashed and stored together during a
+   * parallel import.
+   */
+  public void setIngestBatchSize(int ingestBatchSize) {
+    this.ingestBatchSize = ingestBatchSize;
+  }
+
+  public int getIngestQueueSize() {
+    return ingestQueueSize;
+  }
+
+  /**
+   * Sets the number of batches that may wait between two stages of a parallel import.
+   * Reading input vectors blocks once the queues are full.
+   */
+  public void setIngestQueueSize(int ingestQueueSize) {
+    this.ingestQueueSize = ingestQueueSize;
+  }
+
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.database;
+
+/**
+ * A bounded binary min-heap over (element id, similarity) pairs that retains the k
+ * most similar elements offered to it. Ids and similarities live in primitive
+ * arrays, so offering elements does not allocate.
+ * <p>
+ * The root of the heap is the worst retained element, such that a candidate can be
+ * rejected with a single comparison once the heap is full.
+ */
+public class TopKHeap implements NeighborCollector {
+
+  private final int capacity;
+  private final int[] elementIds;
+  private final double[] similarities;
+  private int size;
+
+  public TopKHeap(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    this.capacity = capacity;
+    this.elementIds = new int[capacity];
+    this.similarities = new double[capacity];
+  }
+
+  public void collect(int elementId, double similarity) {
+    offer(elementId, similarity);
+  }
+
+  /**
+   * Adds the element if the heap is not full yet or if it is better than the worst
+   * retained element, which is evicted in that case.
+   * 
+   * @return whether the element was retained
+   */
+  public boolean offer(int elementId, double similarity) {
+    if (size < capacity) {
+      elementIds[size] = elementId;
+      similarities[size] = similarity;
+      siftUp(size++);
+      return true;
+    }
+
+    if (!isWorse(elementIds[0], similarities[0], elementId, similarity)) {
+      return false;
+    }
+    elementIds[0] = elementId;
+    similarities[0] = similarity;
+    siftDown(0, size);
+    return true;
+  }
+
+  /**
+   * Returns the similarity a candidate must exceed to be retained or
+   * {@link Double#NEGATIVE_INFINITY} as long as the heap is not full.
+   */
+  public double getThreshold() {
+    return size < capacity ? Double.NEGATIVE_INFINITY : similarities[0];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public boolean isFull() {
+    return size == capacity;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Returns the retained elements ordered from most to least similar. The heap
+   * remains unchanged.
+   */
+  public TopKResult toResult() {
+    int[] resultIds = new int[size];
+    double[] resultSimilarities = new double[size];
+    System.arraycopy(elementIds, 0, resultIds, 0, size);
+    System.arraycopy(similarities, 0, resultSimilarities, 0, size);
+
+    // in-place heap sort: repeatedly move the worst element to the end
+    for (int end = size - 1; end > 0; end--) {
+      swap(resultIds, resultSimilarities, 0, end);
+      siftDown(resultIds, resultSimilarities, 0, end);
+    }
+    return new TopKResult(resultIds, resultSimilarities);
+  }
+
+  private void siftUp(int index) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (!isWorse(elementIds[index], similarities[index], elementIds[parent],
+          similarities[parent])) {
+        break;
+      }
+      swap(elementIds, similarities, index, parent);
+      index = parent;
+    }
+  }
+
+  private void siftDown(int index, int end) {
+    siftDown(elementIds, similarities, index, end);
+  }
+
+  private static void siftDown(int[] ids, double[] sims, int index, int end) {
+    while (true) {
+      int child = (index << 1) + 1;
+      if (child >= end) {
+        return;
+      }
+      if (child + 1 < end
+          && isWorse(ids[child + 1], sims[child + 1], ids[child], sims[child])) {
+        child++;
+      }
+      if (!isWorse(ids[child], sims[child], ids[index], sims[index])) {
+        return;
+      }
+      swap(ids, sims, index, child);
+      index = child;
+    }
+  }
+
+  /**
+   * An element is worse than another one if it is less similar or, on equal
+   * similarity, has the greater id.
+   */
+  private static boolean isWorse(int id1, double similarity1, int id2, double similarity2) {
+    if (similarity1 != similarity2) {
+      return similarity1 < similarity2;
+    }
+    return id1 > id2;
+  }
+
+  private static void swap(int[] ids, double[] sims, int index1, int index2) {
+    int tmpId = ids[index1];
+    ids[index1] = ids[index2];
+    ids[index2] = tmpId;
+    double tmpSimilarity = sims[index1];
+    sims[index1] = sims[index2];
+    sims[index2] = tmpSimilarity;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.database;
+
+import java.util.Arrays;
+
+/**
+ * The result of a top-k query. Element ids and their similarities are stored in two
+ * parallel arrays, ordered from the most similar element to the least similar one.
+ * Elements with equal similarity are ordered by ascending id.
+ */
+public class TopKResult {
+
+  private final int[] elementIds;
+  private final double[] similarities;
+
+  public TopKResult(int[] elementIds, double[] similarities) {
+    if (elementIds.length != similarities.length) {
+      throw new IllegalArgumentException("Ids and similarities must be of same length.");
+    }
+    this.elementIds = elementIds;
+    this.similarities = similarities;
+  }
+
+  public int size() {
+    return elementIds.length;
+  }
+
+  public int[] getElementIds() {
+    return elementIds;
+  }
+
+  public double[] getSimilarities() {
+    return similarities;
+  }
+
+  public int getElementId(int rank) {
+    return elementIds[rank];
+  }
+
+  public double getSimilarity(int rank) {
+    return similarities[rank];
+  }
+
+  public boolean contains(int elementId) {
+    for (int id : elementIds) {
+      if (id == elementId) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("TopKResult[%s, %s]", Arrays.toString(elementIds),
+        Arrays.toString(similarities));
+  }
+}
@@ -15,8 +15,12 @@
  */
 package de.unipotsdam.hpi.database;
 
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
@@ -24,32 +28,66 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import de.unipotsdam.hpi.indexing.BinaryIndexFormat;
+import de.unipotsdam.hpi.indexing.BlockPrefetcher;
 import de.unipotsdam.hpi.indexing.Index;
 import de.unipotsdam.hpi.indexing.IndexPair;
 import de.unipotsdam.hpi.indexing.ReferenceBlockBasedIndex;
+import de.unipotsdam.hpi.indexing.SignatureBatch;
 import de.unipotsdam.hpi.input.InputVector;
+import de.unipotsdam.hpi.input.SparseInputVector;
 import de.unipotsdam.hpi.lsh.LshFunction;
 import de.unipotsdam.hpi.permutation.ListBasedPermutationFunction;
 import de.unipotsdam.hpi.permutation.NullPermutationFunction;
 import de.unipotsdam.hpi.permutation.PermutationFunction;
+import de.unipotsdam.hpi.sorting.ExternalSort;
 import de.unipotsdam.hpi.sorting.ParallelQuickSort;
+import de.unipotsdam.hpi.sorting.RadixSort;
 import de.unipotsdam.hpi.sorting.SortAlgorithm;
 import de.unipotsdam.hpi.sorting.StandardLibSort;
+import de.unipotsdam.hpi.sparse.DefaultSparseIntList;
+import de.unipotsdam.hpi.sparse.SparseIntList;
 import de.unipotsdam.hpi.storage.BitSignatureDiskStorage;
+import de.unipotsdam.hpi.storage.MappedBitSignatureStorage;
+import de.unipotsdam.hpi.storage.ConcurrentBitSignatureIndex;
 import de.unipotsdam.hpi.storage.BitSignatureInMemoryStorage;
-import de.unipotsdam.hpi.storage.BitSignatureIndex;
+import de.unipotsdam.hpi.storage.BitSignatureLookup;
 import de.unipotsdam.hpi.storage.BitSignatureStorage;
+import de.unipotsdam.hpi.storage.BlockCache;
+import de.unipotsdam.hpi.storage.CacheStatistics;
+import de.unipotsdam.hpi.storage.MutableBitSignatureLookup;
+import de.unipotsdam.hpi.storage.OffHeapBitSignatureIndex;
+import de.unipotsdam.hpi.storage.SparseInputVectorStorage;
+import de.unipotsdam.hpi.util.AtomicBitSet;
 import de.unipotsdam.hpi.util.BitSignatureUtil;
 import de.unipotsdam.hpi.util.FileUtils;
+import de.unipotsdam.hpi.util.HammingCosineTable;
 import de.unipotsdam.hpi.util.Profiler;
+import de.unipotsdam.hpi.util.StripedIntSet;
 
 /**
  * This class encapsulates a scalable, queryable store for high-dimensional vectors.
@@ -65,6 +103,7 @@ public class VectorDatabase {
 	private static final String LSH_FUNCTION_FILE = "lsh-func.ser";
 	private static final String PERMUTATION_FUNCTIONS_FILE = "permutation-funcs.ser";
 	private static final String VECTOR_DB_PROPERTIES = "vector-db.properties";
+	private static final String TOMBSTONES_FILE = "tombstones.ser";
 	
 	// profiling keys
 	private static final String PK_LSH_GENERATION = "Generate LSH function";
@@ -74,20 +113,44 @@ public class VectorDatabase {
 	private static final String PK_SIGNATURE_STORE_SAVING = "Save to signature store";
 	private static final String PK_PERMUTING = "Permute signatures";
 	private static final String PK_LOAD_AND_LSH = "Load and hash vectors";
+	private static final String PK_RERANKING = "Re-rank candidates";
+	
+	// similarity bound that accepts every candidate
+	private static final double NO_MIN_SIMILARITY = -1.0d;
 	
 	// storage sub paths
 	private static final String INDEX_PATH = "index";
 	private static final String SIGNATURE_STORAGE_PATH = "signature_storage";
+	private static final String VECTOR_STORAGE_PATH = "vector_storage";
+	private static final String SORT_PATH = "sort";
+
+	// signatures are handed to concurrent index builders in batches of this size
+	private static final int BUILD_BATCH_SIZE = 4096;
+	private static final int BUILD_QUEUE_SIZE = 4;
+	// smallest sorting memory that a concurrent index builder is started with
+	private static final long MIN_BUILDER_MEMORY = 16L << 20;
+	private static final List<IndexPair> END_OF_PAIRS = new ArrayList<IndexPair>(0);
+	private static final List<InputVector> END_OF_VECTORS = new ArrayList<InputVector>(0);
+	private static final HashedBatch END_OF_HASHED_BATCHES = new HashedBatch(END_OF_VECTORS, END_OF_PAIRS);
+
+	// number of delta elements that are merged into an index while queries are blocked
+	private static final int MERGE_CHUNK_SIZE = 1000;
 
 	private int bitSignatureSize;
 	private int blockSize;
 	private int numPermutations;
 	private String basePath;
 	private boolean saveBitSignatures;
+	private boolean saveInputVectors;
+	private int rerankSize;
 
 	private LshFunction lshFunction;
 	private BitSignatureStorage signatureStorage;
-	private BitSignatureIndex signatureIndex;
+	private volatile SparseInputVectorStorage vectorStorage;
+	private BitSignatureLookup signatureIndex;
+	// the signature index if it is on the heap, which incremental indexing requires
+	private MutableBitSignatureLookup mutableSignatureIndex;
+	private HammingCosineTable cosineTable;
 	private PermutationFunction[] permutationFunctions;
 	private Index[] indexes;
 	private Path storagePath;
@@ -97,8 +160,49 @@ public class VectorDatabase {
 
 	private boolean performParallelLsh;
 	private boolean performParallelSorting;
+	private boolean radixSorting;
+	private int sortingMemory;
+	private int indexingParallelism;
+	private boolean incrementalIndexing;
+	private int maxDeltaSize;
+	private double compactionThreshold;
+	private int ingestBatchSize;
+	private int ingestQueueSize;
+	private boolean appendOnlyBlockStorage;
+	private boolean compressedBlocks;
+	// keep the decoded blocks and the prefetch threads of the indexes of this database only
+	private final BlockCache blockCache = new BlockCache(BlockCache.DEFAULT_CAPACITY);
+	private final BlockPrefetcher blockPrefetcher = new BlockPrefetcher(0);
+	private int queryParallelism;
+	private boolean offHeapSignatures;
+	private boolean mappedSignatures;
+	private boolean concurrentSignatureIndex;
 	private Settings settings;
   private int vectorSize;
+  
+  // shared by all queries that probe their permutation indexes in parallel
+  private ForkJoinPool queryPool;
+  
+  // incremental indexing: new elements of each permutation that are not yet merged into its index
+  private IndexDelta[] deltas;
+  // guards indexes, deltas and signature index against concurrent merges
+  private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+  private ExecutorService mergeExecutor;
+  private Future<?> pendingMerge;
+  
+  // ids of deleted elements, which queries skip
+  private AtomicBitSet tombstones = new AtomicBitSet();
+  // deleted ids that may still be contained in the indexes or deltas
+  private final IntOpenHashSet pendingDeletes = new IntOpenHashSet();
+  private Future<?> pendingCompaction;
+  
+  // reusable query buffers of each thread
+  private final ThreadLocal<QueryContext> queryContexts = new ThreadLocal<QueryContext>() {
+    @Override
+    protected QueryContext initialValue() {
+      return new QueryContext();
+    }
+  };
 
 	public VectorDatabase(Settings settings) throws IOException {
 		this.size = 0;
@@ -112,9 +216,37 @@ public class VectorDatabase {
 		this.numPermutations = settings.getNumPermutations();
 		this.basePath = settings.getBasePath();
 		this.saveBitSignatures = settings.isSaveBitSignatures();
+		this.saveInputVectors = settings.isSaveInputVectors();
+		this.rerankSize = settings.getRerankSize();
 		this.performParallelLsh = settings.isPerformParallelLsh();
 		this.performParallelSorting = settings.isPerformParallelSorting();
+		this.radixSorting = settings.isRadixSorting();
+		this.sortingMemory = settings.getSortingMemory();
+		this.indexingParallelism = settings.getIndexingParallelism();
+		this.incrementalIndexing = settings.isIncrementalIndexing();
+		this.maxDeltaSize = settings.getMaxDeltaSize();
+		this.compactionThreshold = settings.getCompactionThreshold();
+		this.ingestBatchSize = settings.getIngestBatchSize();
+		this.ingestQueueSize = settings.getIngestQueueSize();
+		this.appendOnlyBlockStorage = settings.isAppendOnlyBlockStorage();
+		this.compressedBlocks = settings.isCompressedBlocks();
+		blockCache.setCapacity((long) settings.getBlockCacheSize() << 20);
+		blockPrefetcher.setParallelism(settings.getPrefetchParallelism());
 		this.vectorSize = settings.getInputVectorSize();
+		this.queryParallelism = settings.getQueryParallelism();
+		this.offHeapSignatures = settings.isOffHeapSignatures();
+		this.mappedSignatures = settings.isMappedSignatures();
+		this.concurrentSignatureIndex = settings.isConcurrentSignatureIndex();
+		this.cosineTable = new HammingCosineTable(BitSignatureUtil.calculateSignatureSize(bitSignatureSize));
+
+		if (incrementalIndexing && offHeapSignatures) {
+			throw new IllegalArgumentException(
+					"Incremental indexing requires on-heap signatures.");
+		}
+		if (mappedSignatures && (incrementalIndexing || offHeapSignatures || !saveBitSignatures)) {
+			throw new IllegalArgumentException(
+					"Mapped signatures require stored signatures and exclude incremental indexing and off-heap signatures.");
+		}
 
 		if (bitSignatureSize % BitSignatureUtil.BASE_TYPE_SIZE != 0) {
 		  logger.warning("Warning: Non-aligned bit-signature size: "
@@ -147,7 +279,8 @@ public class VectorDatabase {
 			Profiler.stop(PK_LSH_GENERATION);
 
 			// Signature store
-			initializeBitSignatureStorage();
+			initializeBitSignatureStorage(false);
+			initializeVectorStorage(false);
 
 			// Permutation functions
 			permutationFunctions = new PermutationFunction[numPermutations];
@@ -165,12 +298,25 @@ public class VectorDatabase {
 		}
 	}
 	
-	private void initializeBitSignatureStorage() {
+	private void initializeBitSignatureStorage(boolean appendToExistingStorage) {
 	  Path basePath = FileUtils.toPath(this.basePath);
 	  storagePath = basePath.resolve(SIGNATURE_STORAGE_PATH);
-	  signatureStorage = saveBitSignatures ? new BitSignatureDiskStorage(
-        storagePath, bitSignatureSize, false)
-        : new BitSignatureInMemoryStorage();
+	  if (mappedSignatures) {
+	    signatureStorage = new MappedBitSignatureStorage(storagePath, bitSignatureSize,
+	        appendToExistingStorage);
+	  } else {
+	    signatureStorage = saveBitSignatures ? new BitSignatureDiskStorage(
+	        storagePath, bitSignatureSize, appendToExistingStorage)
+	        : new BitSignatureInMemoryStorage();
+	  }
+	}
+
+	private void initializeVectorStorage(boolean appendToExistingStorage) {
+	  if (saveInputVectors) {
+	    Path basePath = FileUtils.toPath(this.basePath);
+	    vectorStorage = new SparseInputVectorStorage(basePath.resolve(VECTOR_STORAGE_PATH),
+	        appendToExistingStorage);
+	  }
 	}
 
 	/**
@@ -202,47 +348,154 @@ public class VectorDatabase {
 			createBitSignaturesSequentially(inputVectors);
 	}
 
+	/**
+	 * Imports the input vectors in a pipeline of stages that are connected by bounded
+	 * queues: the calling thread reads batches of vectors, one LSH worker per core hashes
+	 * whole batches and a single writer appends the signatures of each batch to the
+	 * storages. Reading blocks while the queues are full, so that no more than a few
+	 * batches are held in memory.
+	 */
 	private void createBitSignaturesInParallel(
 			Iterator<InputVector> inputVectors) {
 		Profiler.start(PK_LOAD_AND_LSH);
-		ExecutorService executor = Executors.newFixedThreadPool(Runtime
-				.getRuntime().availableProcessors());
-		while (inputVectors.hasNext()) {
-			final InputVector inputVector = inputVectors.next();
-			ensureInitialized(inputVector);
-			size++;
-			executor.execute(new Runnable() {
-
-				public void run() {
-					long[] signature = lshFunction.createSignature(inputVector);
-					int id = inputVector.getId();
-					IndexPair indexPair = new IndexPair(signature, id);
-
-					// Profiler.start(PK_SIGNATURE_STORE_SAVING);
-					signatureStorage.store(indexPair);
-					// Profiler.stop(PK_SIGNATURE_STORE_SAVING);
-
-					if (size % 20000 == 0) {
-					  logger.info("Processed " + size + " elements.");
+		long startTime = System.currentTimeMillis();
+		int numWorkers = Runtime.getRuntime().availableProcessors();
+		final BlockingQueue<List<InputVector>> vectorBatches = new ArrayBlockingQueue<List<InputVector>>(
+				ingestQueueSize);
+		final BlockingQueue<HashedBatch> hashedBatches = new ArrayBlockingQueue<HashedBatch>(
+				ingestQueueSize);
+		IngestStage readStage = new IngestStage("Read");
+		final IngestStage hashStage = new IngestStage("Hashed");
+		final IngestStage writeStage = new IngestStage("Wrote");
+
+		ExecutorService executor = Executors.newFixedThreadPool(numWorkers + 1);
+		try {
+			List<Future<?>> stages = new ArrayList<Future<?>>(numWorkers + 1);
+			for (int i = 0; i < numWorkers; i++) {
+				stages.add(executor.submit(new Callable<Void>() {
+
+					public Void call() throws InterruptedException {
+						List<InputVector> batch;
+						while ((batch = vectorBatches.take()) != END_OF_VECTORS) {
+							long startNanos = System.nanoTime();
+							List<IndexPair> pairs = new ArrayList<IndexPair>(batch.size());
+							for (InputVector inputVector : batch) {
+								pairs.add(new IndexPair(lshFunction.createSignature(inputVector),
+										inputVector.getId()));
+							}
+							hashStage.record(batch.size(), System.nanoTime() - startNanos);
+							hashedBatches.put(new HashedBatch(batch, pairs));
+						}
+						return null;
 					}
-
+				}));
+			}
+			Future<?> writer = executor.submit(new Callable<Void>() {
+
+				public Void call() throws InterruptedException {
+					HashedBatch batch;
+					while ((batch = hashedBatches.take()) != END_OF_HASHED_BATCHES) {
+						long startNanos = System.nanoTime();
+						signatureStorage.store(batch.pairs);
+						for (InputVector inputVector : batch.vectors) {
+							storeInputVector(inputVector);
+						}
+						if (isIndexedIncrementally()) {
+							for (IndexPair pair : batch.pairs) {
+								insertIntoDeltas(pair);
+							}
+						}
+						long numWrittenElements = writeStage.record(batch.pairs.size(),
+								System.nanoTime() - startNanos);
+						if (numWrittenElements / 20000 != (numWrittenElements - batch.pairs.size()) / 20000) {
+							logger.info("Processed " + numWrittenElements + " elements.");
+						}
+					}
+					return null;
 				}
-
 			});
+			stages.add(writer);
+
+			List<InputVector> batch = new ArrayList<InputVector>(ingestBatchSize);
+			long startNanos = System.nanoTime();
+			while (inputVectors.hasNext()) {
+				InputVector inputVector = inputVectors.next();
+				ensureInitialized(inputVector);
+				size++;
+				batch.add(inputVector);
+				if (batch.size() == ingestBatchSize) {
+					readStage.record(batch.size(), System.nanoTime() - startNanos);
+					putIntoStage(vectorBatches, batch, stages);
+					batch = new ArrayList<InputVector>(ingestBatchSize);
+					startNanos = System.nanoTime();
+				}
+			}
+			if (!batch.isEmpty()) {
+				readStage.record(batch.size(), System.nanoTime() - startNanos);
+				putIntoStage(vectorBatches, batch, stages);
+			}
 
+			for (int i = 0; i < numWorkers; i++) {
+				putIntoStage(vectorBatches, END_OF_VECTORS, stages);
+			}
+			for (int i = 0; i < numWorkers; i++) {
+				awaitStage(stages.get(i), stages);
+			}
+			putIntoStage(hashedBatches, END_OF_HASHED_BATCHES, stages);
+			awaitStage(writer, stages);
+		} finally {
+			executor.shutdownNow();
 		}
+		Profiler.stop(PK_LOAD_AND_LSH);
 
-		executor.shutdown();
+		Profiler.start(PK_SIGNATURE_STORE_SAVING);
+		signatureStorage.flushOutput();
+		Profiler.stop(PK_SIGNATURE_STORE_SAVING);
+
+		logger.info("Imported " + writeStage.getNumElements() + " vectors in "
+				+ Profiler.formatTime(System.currentTimeMillis() - startTime) + " with "
+				+ numWorkers + " LSH worker(s): " + readStage + ", " + hashStage + ", " + writeStage
+				+ ".");
+	}
+
+	/**
+	 * Puts the element into the queue of the next stage, waiting while the queue is full.
+	 * Fails if any stage has failed in the meantime and thus may never take the element.
+	 */
+	private <T> void putIntoStage(BlockingQueue<T> queue, T element, List<Future<?>> stages) {
 		try {
-			executor.awaitTermination(1, TimeUnit.DAYS);
+			while (!queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+				checkStages(stages);
+			}
 		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
-		Profiler.stop(PK_LOAD_AND_LSH);
+	}
 
-		Profiler.start(PK_SIGNATURE_STORE_SAVING);
-		signatureStorage.flushOutput();
-		Profiler.stop(PK_SIGNATURE_STORE_SAVING);
+	/**
+	 * Waits until the stage has finished. Fails if any stage has failed in the meantime.
+	 */
+	private void awaitStage(Future<?> stage, List<Future<?>> stages) {
+		while (true) {
+			try {
+				stage.get(100, TimeUnit.MILLISECONDS);
+				return;
+			} catch (TimeoutException e) {
+				checkStages(stages);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				getTaskResult(stage);
+			}
+		}
+	}
+
+	private void checkStages(List<Future<?>> stages) {
+		for (Future<?> stage : stages) {
+			if (stage.isDone()) {
+				getTaskResult(stage);
+			}
+		}
 	}
 
 	private void createBitSignaturesSequentially(
@@ -260,7 +513,10 @@ public class VectorDatabase {
 
 			Profiler.start(PK_SIGNATURE_STORE_SAVING);
 			signatureStorage.store(indexPair);
+			storeInputVector(inputVector);
 			Profiler.stop(PK_SIGNATURE_STORE_SAVING);
+			if (isIndexedIncrementally())
+				insertIntoDeltas(indexPair);
 
 			if (size % 20000 == 0) {
 			  logger.info("Processed " + size + " elements.");
@@ -273,84 +529,748 @@ public class VectorDatabase {
 		Profiler.stop(PK_SIGNATURE_STORE_SAVING);
 	}
 
+	private void storeInputVector(InputVector inputVector) {
+	  if (vectorStorage == null)
+	    return;
+	  
+	  SparseInputVector sparseVector;
+	  if (inputVector instanceof SparseInputVector) {
+	    sparseVector = (SparseInputVector) inputVector;
+	  } else {
+	    SparseIntList.Cursor cursor = inputVector.toSparseIntList().createCursor();
+	    DefaultSparseIntList sparseIntList = new DefaultSparseIntList(16);
+	    while (cursor.move()) {
+	      sparseIntList.add(cursor.getPosition(), cursor.getValue());
+	    }
+	    sparseIntList.setSize(inputVector.size());
+	    sparseVector = new SparseInputVector(inputVector.getId(), sparseIntList);
+	  }
+	  vectorStorage.store(sparseVector);
+	}
+
 	public void create() throws IOException {
 		signatureStorage.closeOutput();
+		if (vectorStorage != null)
+		  vectorStorage.closeOutput();
 
-		createIndexes();
+		if (isIndexedIncrementally()) {
+			mergeDeltas();
+			compact();
+			saveIndexes();
+		} else {
+			createIndexes();
+		}
 		storeRecoverInformation();
 	}
 
 	/**
-	 * Creates indexes for the current bit signatures.
+	 * Tells whether submitted vectors go into the deltas of the existing indexes.
+	 */
+	private boolean isIndexedIncrementally() {
+		return incrementalIndexing && indexes != null;
+	}
+
+	/**
+	 * Adds the new element to the signature index and to the delta of every permutation,
+	 * where queries find it until it is merged into the index. Starts a background merge
+	 * once the deltas have grown too large.
+	 */
+	private void insertIntoDeltas(IndexPair pair) {
+		int numDeltaElements;
+		indexLock.writeLock().lock();
+		try {
+			ensureBitSignaturesIndexed();
+			mutableSignatureIndex.add(pair);
+			if (deltas == null) {
+				deltas = new IndexDelta[numPermutations];
+				for (int i = 0; i < numPermutations; i++) {
+					deltas[i] = new IndexDelta();
+				}
+			}
+			for (int i = 0; i < numPermutations; i++) {
+				deltas[i].insert(permutationFunctions[i].permute(pair.getBitSignature()),
+						pair.getElementId());
+			}
+			numDeltaElements = deltas[0].size();
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+		if (numDeltaElements >= maxDeltaSize) {
+			scheduleMerge();
+		}
+	}
+
+	/**
+	 * Merges all elements of the deltas into the indexes and waits until this is done.
+	 */
+	public void mergeDeltas() {
+		while (getNumDeltaElements() > 0) {
+			try {
+				scheduleMerge().get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Could not merge deltas.", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of elements that have not been merged into all indexes yet.
+	 */
+	public int getNumDeltaElements() {
+		indexLock.readLock().lock();
+		try {
+			if (deltas == null) {
+				return 0;
+			}
+			int numElements = 0;
+			for (IndexDelta delta : deltas) {
+				numElements = Math.max(numElements, delta.size());
+			}
+			return numElements;
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the single background thread that merges deltas and compacts indexes, so
+	 * that these tasks never run at the same time.
+	 */
+	private synchronized ExecutorService getMergeExecutor() {
+		if (mergeExecutor == null) {
+			mergeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "vector-database-merge");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return mergeExecutor;
+	}
+
+	private synchronized Future<?> scheduleMerge() {
+		if (pendingMerge == null || pendingMerge.isDone()) {
+			pendingMerge = getMergeExecutor().submit(new Runnable() {
+
+				public void run() {
+					mergeDeltasIntoIndexes();
+				}
+			});
+		}
+		return pendingMerge;
+	}
+
+	/**
+	 * Moves the delta elements into the indexes chunk by chunk, so that queries are not
+	 * blocked for the whole merge. Every element is at any time either in the delta or in
+	 * the index of a permutation.
+	 */
+	private void mergeDeltasIntoIndexes() {
+		long startTime = System.currentTimeMillis();
+		int numMergedElements = 0;
+		for (int i = 0; i < numPermutations; i++) {
+			boolean isMerged = false;
+			while (!isMerged) {
+				indexLock.writeLock().lock();
+				try {
+					IndexDelta delta = deltas[i];
+					int numElements = Math.min(MERGE_CHUNK_SIZE, delta.size());
+					for (int j = 0; j < numElements; j++) {
+						if (!tombstones.get(delta.getElementId(j))) {
+							indexes[i].insertElement(new IndexPair(delta.getKey(j), delta.getElementId(j)));
+						}
+					}
+					delta.removeFirst(numElements);
+					numMergedElements += numElements;
+					isMerged = delta.size() == 0;
+				} catch (IOException e) {
+					logger.log(Level.SEVERE, "Could not merge delta of index " + i + ".", e);
+					throw new RuntimeException(e);
+				} finally {
+					indexLock.writeLock().unlock();
+				}
+			}
+		}
+		logger.info("Merged " + numMergedElements + " delta elements into the indexes in "
+				+ Profiler.formatTime(System.currentTimeMillis() - startTime) + ".");
+	}
+
+	/**
+	 * Deletes the element. Queries do not return it from now on, but it is removed from
+	 * the indexes only by the next compaction, which is started in the background once
+	 * the fraction of deleted elements exceeds the compaction threshold. Ids of deleted
+	 * elements must not be reused.<br>
+	 * The delete is only saved to disk by the next compaction or {@link #create()}, so it
+	 * is lost if the database is recovered before either has finished.
+	 */
+	public void delete(int elementId) {
+		if (!tombstones.set(elementId)) {
+			return;
+		}
+		int numPendingDeletes;
+		synchronized (pendingDeletes) {
+			pendingDeletes.add(elementId);
+			numPendingDeletes = pendingDeletes.size();
+		}
+		if (indexes != null && numPendingDeletes > compactionThreshold * signatureIndex.size()) {
+			scheduleCompaction();
+		}
+	}
+
+	public boolean isDeleted(int elementId) {
+		return tombstones.get(elementId);
+	}
+
+	/**
+	 * Removes all deleted elements from the indexes and waits until this is done.
+	 */
+	public void compact() {
+		while (indexes != null && getNumPendingDeletes() > 0) {
+			try {
+				scheduleCompaction().get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Could not compact indexes.", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Returns the block cache statistics of each permutation index or an empty array if
+	 * the indexes have not been created yet.
+	 */
+	public CacheStatistics[] getBlockCacheStatistics() {
+		indexLock.readLock().lock();
+		try {
+			if (indexes == null) {
+				return new CacheStatistics[0];
+			}
+			CacheStatistics[] statistics = new CacheStatistics[indexes.length];
+			for (int i = 0; i < indexes.length; i++) {
+				statistics[i] = indexes[i].getCacheStatistics();
+			}
+			return statistics;
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of deleted elements that have not been removed from the indexes yet.
+	 */
+	public int getNumPendingDeletes() {
+		synchronized (pendingDeletes) {
+			return pendingDeletes.size();
+		}
+	}
+
+	private synchronized Future<?> scheduleCompaction() {
+		if (pendingCompaction == null || pendingCompaction.isDone()) {
+			pendingCompaction = getMergeExecutor().submit(new Runnable() {
+
+				public void run() {
+					compactIndexes();
+				}
+			});
+		}
+		return pendingCompaction;
+	}
+
+	/**
+	 * Removes the deleted elements from the indexes chunk by chunk, so that queries are not
+	 * blocked for the whole compaction. Only the blocks that might hold the permuted
+	 * signatures of the deleted elements are rewritten. Deletes that arrive in the
+	 * meantime are left for the next compaction. Does nothing if the indexes are being
+	 * recreated. Saves the tombstones once done.
+	 */
+	private void compactIndexes() {
+		indexLock.readLock().lock();
+		try {
+			if (indexes == null) {
+				return;
+			}
+		} finally {
+			indexLock.readLock().unlock();
+		}
+		int[] deletedElementIds;
+		synchronized (pendingDeletes) {
+			deletedElementIds = pendingDeletes.toIntArray();
+		}
+		if (deletedElementIds.length == 0) {
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+		int numRemovedElements = 0;
+		for (int start = 0; start < deletedElementIds.length; start += MERGE_CHUNK_SIZE) {
+			int end = Math.min(start + MERGE_CHUNK_SIZE, deletedElementIds.length);
+			IntOpenHashSet removedElementIds = new IntOpenHashSet(end - start);
+			List<long[]> signatures = new ArrayList<long[]>(end - start);
+			indexLock.readLock().lock();
+			try {
+				for (int j = start; j < end; j++) {
+					removedElementIds.add(deletedElementIds[j]);
+					// elements that were never added are in no index
+					if (signatureIndex.contains(deletedElementIds[j])) {
+						signatures.add(signatureIndex.getBitSignature(deletedElementIds[j]));
+					}
+				}
+			} finally {
+				indexLock.readLock().unlock();
+			}
+
+			for (int i = 0; i < numPermutations; i++) {
+				long[][] permutedSignatures = new long[signatures.size()][];
+				for (int j = 0; j < permutedSignatures.length; j++) {
+					permutedSignatures[j] = permutationFunctions[i].permute(signatures.get(j));
+				}
+				indexLock.writeLock().lock();
+				try {
+					numRemovedElements += indexes[i].removeElements(removedElementIds, permutedSignatures);
+					if (deltas != null) {
+						deltas[i].removeElements(removedElementIds);
+					}
+				} finally {
+					indexLock.writeLock().unlock();
+				}
+			}
+			synchronized (pendingDeletes) {
+				pendingDeletes.removeAll(removedElementIds);
+			}
+		}
+		storeTombstones();
+		logger.info("Removed " + numRemovedElements + " entries of " + deletedElementIds.length
+				+ " deleted elements from the indexes in "
+				+ Profiler.formatTime(System.currentTimeMillis() - startTime) + ".");
+	}
+
+	/**
+	 * Writes the indexes in the binary index format if they all support it, and as
+	 * serialized objects otherwise. Files of the other format are removed, so that a
+	 * recovery does not pick them up.
+	 */
+	private void saveIndexes() throws IOException {
+		indexLock.readLock().lock();
+		try {
+			Path serializedIndexesPath = FileUtils.toPath(basePath, INDEXES_FILE);
+			Path[] binaryIndexPaths = getBinaryIndexPaths();
+			if (isBinaryIndexFormatSupported()) {
+				for (int i = 0; i < numPermutations; i++) {
+					BinaryIndexFormat.write(indexes[i], binaryIndexPaths[i]);
+				}
+				Files.deleteIfExists(serializedIndexesPath);
+			} else {
+				FileUtils.save(indexes, serializedIndexesPath);
+				for (Path binaryIndexPath : binaryIndexPaths) {
+					Files.deleteIfExists(binaryIndexPath);
+				}
+			}
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	private boolean isBinaryIndexFormatSupported() {
+		for (Index index : indexes) {
+			if (!BinaryIndexFormat.isSupported(index)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Path[] getBinaryIndexPaths() throws IOException {
+		Path[] indexPaths = FileUtils.getPaths(indexPath, numPermutations, "index");
+		Path[] binaryIndexPaths = new Path[numPermutations];
+		for (int i = 0; i < numPermutations; i++) {
+			binaryIndexPaths[i] = indexPaths[i].resolve(BinaryIndexFormat.FILE_NAME);
+		}
+		return binaryIndexPaths;
+	}
+
+	/**
+	 * Creates indexes for the current bit signatures. The previous indexes are dropped
+	 * before their files are overwritten, and the new ones are only published once they
+	 * are complete.
 	 * 
 	 * @throws IOException
 	 */
 	private void createIndexes() throws IOException {
+		dropIndexes();
 
 		FileUtils.clearDirectory(indexPath);
 		Path[] indexPaths = FileUtils.getPaths(indexPath, numPermutations,
 				"index");
 
-		IndexPair[] permutatedElements = new IndexPair[size];
-		indexes = new Index[numPermutations];
+		Index[] newIndexes = new Index[numPermutations];
 		int keySize = BitSignatureUtil.calculateSignatureSize(bitSignatureSize);
+		// the new indexes skip all elements that are deleted by now
+		IntOpenHashSet removedElementIds;
+		synchronized (pendingDeletes) {
+			removedElementIds = new IntOpenHashSet(pendingDeletes);
+		}
+
+		int parallelism = Math.min(indexingParallelism, numPermutations);
+		if (parallelism > 1) {
+			createIndexesInParallel(newIndexes, indexPaths, keySize, parallelism);
+		} else if (sortingMemory > 0) {
+			createIndexesWithExternalSort(newIndexes, indexPaths, keySize);
+		} else {
+			createIndexesInMemory(newIndexes, indexPaths, keySize);
+		}
+		indexLock.writeLock().lock();
+		try {
+			indexes = newIndexes;
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+		synchronized (pendingDeletes) {
+			pendingDeletes.removeAll(removedElementIds);
+		}
+
+		saveIndexes();
+	}
+
+	/**
+	 * Waits for a running compaction and then drops the indexes, so that no compaction
+	 * works on them while their files are replaced.
+	 */
+	private void dropIndexes() {
+		while (true) {
+			Future<?> compaction;
+			indexLock.writeLock().lock();
+			try {
+				synchronized (this) {
+					compaction = pendingCompaction;
+				}
+				if (compaction == null || compaction.isDone()) {
+					indexes = null;
+					return;
+				}
+			} finally {
+				indexLock.writeLock().unlock();
+			}
+			try {
+				compaction.get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				// the indexes are recreated anyway
+				logger.log(Level.WARNING, "Could not compact indexes.", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Creates the indexes without holding all permuted signatures in memory: they are
+	 * sorted in runs that fit into the sorting memory and merged while the index blocks
+	 * are written. The signature lookup of the reference blocks is the configured one
+	 * and is not covered by the sorting memory; off-heap or mapped signatures keep it off
+	 * the heap.
+	 */
+	private void createIndexesWithExternalSort(Index[] indexes, Path[] indexPaths, int keySize) throws IOException {
+		Path sortPath = FileUtils.toPath(basePath).resolve(SORT_PATH);
+		FileUtils.createDirectoryIfNotExists(sortPath);
+		long memoryBudget = (long) sortingMemory << 20;
 
 		for (int i = 0; i < numPermutations; i++) {
-			permuteElements(permutatedElements, i);
-			sortElements(permutatedElements);
-			buildIndex(indexPaths, permutatedElements, keySize, i);
+			PermutationFunction permutationFunction = permutationFunctions[i];
+			ExternalSort externalSort = new ExternalSort(sortPath, keySize, memoryBudget,
+					createSortAlgorithm());
+			try {
+				Profiler.start(PK_SIGNATURE_SORTING);
+				for (IndexPair pair : signatureStorage) {
+					if (tombstones.get(pair.getElementId())) {
+						continue;
+					}
+					long[] permutedSignature = permutationFunction.permute(pair.getBitSignature());
+					externalSort.add(new IndexPair(permutedSignature, pair.getElementId()));
+				}
+				Iterator<IndexPair> sortedElements = externalSort.sort();
+				Profiler.stop(PK_SIGNATURE_SORTING);
+				logger.info("Sorted permutation " + i + " in " + externalSort.getNumRuns() + " runs.");
+
+				Profiler.start(PK_INDEX_CREATION);
+				ensureBitSignaturesIndexed();
+				Index index = new ReferenceBlockBasedIndex(indexPaths[i], keySize, blockSize,
+						signatureIndex, permutationFunction, appendOnlyBlockStorage,
+						compressedBlocks);
+				index.setBlockCache(blockCache);
+				index.setBlockPrefetcher(blockPrefetcher);
+				index.bulkLoad(sortedElements);
+				indexes[i] = index;
+				Profiler.stop(PK_INDEX_CREATION);
+				logger.info("Created index " + i + ".");
+			} finally {
+				externalSort.close();
+			}
+		}
+		FileUtils.clearAndDeleteDirecotry(sortPath);
+	}
+
+	/**
+	 * Creates the indexes of several permutations at the same time. A single scan of the
+	 * signature storage feeds batches of signatures to one builder per permutation, which
+	 * permutes, sorts and writes its index concurrently to the other builders. If there are
+	 * more permutations than the given parallelism, they are built in several waves; the
+	 * sorting memory is split among the builders of a wave. Without a configured sorting
+	 * memory, the builders share half of the maximum heap. A wave only has as many
+	 * builders as get at least {@link #MIN_BUILDER_MEMORY} each. The configured signature
+	 * lookup is not covered by the sorting memory.
+	 */
+	private void createIndexesInParallel(Index[] indexes, Path[] indexPaths, int keySize,
+			int parallelism)
+			throws IOException {
+		Path sortPath = FileUtils.toPath(basePath).resolve(SORT_PATH);
+		FileUtils.createDirectoryIfNotExists(sortPath);
+		ensureBitSignaturesIndexed();
+
+		long totalMemory = sortingMemory > 0 ? (long) sortingMemory << 20
+				: Runtime.getRuntime().maxMemory() / 2;
+		int maxWaveSize = (int) Math.max(1, Math.min(parallelism, totalMemory / MIN_BUILDER_MEMORY));
+		if (maxWaveSize < parallelism) {
+			logger.info("Building at most " + maxWaveSize + " indexes at the same time within "
+					+ (totalMemory >> 20) + " MB.");
 		}
 
-		FileUtils.save(indexes, FileUtils.toPath(basePath, INDEXES_FILE));
+		Profiler.start(PK_INDEX_CREATION);
+		ExecutorService executor = Executors.newFixedThreadPool(maxWaveSize);
+		try {
+			for (int first = 0; first < numPermutations; first += maxWaveSize) {
+				int waveSize = Math.min(maxWaveSize, numPermutations - first);
+				long memoryBudget = totalMemory / waveSize;
+
+				List<IndexBuilder> builders = new ArrayList<IndexBuilder>(waveSize);
+				List<Future<Index>> futures = new ArrayList<Future<Index>>(waveSize);
+				for (int i = first; i < first + waveSize; i++) {
+					Path builderSortPath = sortPath.resolve("permutation-" + i);
+					FileUtils.createDirectoryIfNotExists(builderSortPath);
+					// the permutations already keep the cores busy, so each run is sorted sequentially
+					SortAlgorithm<IndexPair> sortAlgorithm = radixSorting ? new RadixSort<IndexPair>(
+							RadixSort.INDEX_PAIR_KEYS, false) : new StandardLibSort<IndexPair>();
+					ExternalSort externalSort = new ExternalSort(builderSortPath, keySize,
+							memoryBudget, sortAlgorithm);
+					IndexBuilder builder = new IndexBuilder(i, indexPaths[i], keySize, externalSort);
+					builders.add(builder);
+					futures.add(executor.submit(builder));
+				}
+
+				List<IndexPair> batch = new ArrayList<IndexPair>(BUILD_BATCH_SIZE);
+				for (IndexPair pair : signatureStorage) {
+					if (tombstones.get(pair.getElementId())) {
+						continue;
+					}
+					batch.add(pair);
+					if (batch.size() == BUILD_BATCH_SIZE) {
+						feedBuilders(builders, futures, batch);
+						batch = new ArrayList<IndexPair>(BUILD_BATCH_SIZE);
+					}
+				}
+				if (!batch.isEmpty()) {
+					feedBuilders(builders, futures, batch);
+				}
+				feedBuilders(builders, futures, END_OF_PAIRS);
+
+				for (int i = 0; i < waveSize; i++) {
+					indexes[first + i] = getTaskResult(futures.get(i));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Profiler.stop(PK_INDEX_CREATION);
+		FileUtils.clearAndDeleteDirecotry(sortPath);
 	}
 
-	private void permuteElements(IndexPair[] permutatedElements, int i) {
-		PermutationFunction permutationFunction = permutationFunctions[i];
+	private void feedBuilders(List<IndexBuilder> builders, List<Future<Index>> futures,
+			List<IndexPair> batch) {
+		for (int i = 0; i < builders.size(); i++) {
+			BlockingQueue<List<IndexPair>> queue = builders.get(i).batches;
+			Future<Index> future = futures.get(i);
+			try {
+				while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+					if (future.isDone()) {
+						// the builder has failed and will not take any more batches
+						getTaskResult(future);
+						throw new IllegalStateException("Index builder terminated prematurely.");
+					}
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
 
-		int signatureNum = 0;
-		Profiler.start(PK_SIGNATURE_STORE_LOADING);
-		for (IndexPair pair : signatureStorage) {
-			Profiler.stop(PK_SIGNATURE_STORE_LOADING);
+	/**
+	 * Waits for the result of the background task and rethrows its failure.
+	 */
+	private <T> T getTaskResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException("Background task failed.", e.getCause());
+		}
+	}
 
-			Profiler.start(PK_PERMUTING);
-			long[] permutedSignature = permutationFunction.permute(pair
-					.getBitSignature());
-			Profiler.stop(PK_PERMUTING);
+	/**
+	 * Vectors and their signatures as handed from the LSH workers to the writer of a
+	 * parallel import.
+	 */
+	private static class HashedBatch {
 
-			permutatedElements[signatureNum] = new IndexPair(permutedSignature,
-					pair.getElementId());
-			signatureNum++;
+		private final List<InputVector> vectors;
+		private final List<IndexPair> pairs;
 
-			Profiler.start(PK_SIGNATURE_STORE_LOADING);
+		HashedBatch(List<InputVector> vectors, List<IndexPair> pairs) {
+			this.vectors = vectors;
+			this.pairs = pairs;
 		}
-		Profiler.stop(PK_SIGNATURE_STORE_LOADING);
 	}
 
-	private void sortElements(IndexPair[] permutatedElements) {
-		SortAlgorithm<IndexPair> sortAlgorithm;
-		if (performParallelSorting) {
-			sortAlgorithm = new ParallelQuickSort<IndexPair>(10000);
-		} else {
-			sortAlgorithm = new StandardLibSort<IndexPair>();
+	/**
+	 * Counts the elements that a stage of a parallel import has processed and the time
+	 * it was busy with them, not counting the time spent waiting for other stages.
+	 */
+	private static class IngestStage {
+
+		private final String name;
+		private final AtomicLong numElements = new AtomicLong();
+		private final AtomicLong busyNanos = new AtomicLong();
+
+		IngestStage(String name) {
+			this.name = name;
 		}
-		sortAlgorithm.setComparator(IndexPair.COMPARATOR);
 
-		Profiler.start(PK_SIGNATURE_SORTING);
-		sortAlgorithm.sort(permutatedElements);
-		Profiler.stop(PK_SIGNATURE_SORTING);
+		/**
+		 * @return the number of elements processed so far
+		 */
+		long record(int numElements, long nanos) {
+			busyNanos.addAndGet(nanos);
+			return this.numElements.addAndGet(numElements);
+		}
+
+		long getNumElements() {
+			return numElements.get();
+		}
 
-		sortAlgorithm.close();
+		@Override
+		public String toString() {
+			long millis = TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+			long throughput = numElements.get() * 1000 / Math.max(1, millis);
+			return name + " " + numElements.get() + " in " + millis + " ms (" + throughput + "/s)";
+		}
 	}
 
-	private void buildIndex(Path[] indexPaths, IndexPair[] permutatedElements,
-			int keySize, int i) {
-		Profiler.start(PK_INDEX_CREATION);
-		ensureBitSignaturesIndexed();
-		Index index = new ReferenceBlockBasedIndex(indexPaths[i], keySize, blockSize, signatureIndex, permutationFunctions[i]);
-		index.bulkLoad(permutatedElements);
-		indexes[i] = index;
-		Profiler.stop(PK_INDEX_CREATION);
-		logger.info("Created index " + i + ".");
+	/**
+	 * Builds the index of a single permutation from the batches of signatures that are put
+	 * into its queue until {@link #END_OF_PAIRS} arrives.
+	 */
+	private class IndexBuilder implements Callable<Index> {
+
+		private final BlockingQueue<List<IndexPair>> batches = new ArrayBlockingQueue<List<IndexPair>>(
+				BUILD_QUEUE_SIZE);
+		private final int permutation;
+		private final Path indexPath;
+		private final int keySize;
+		private final ExternalSort externalSort;
+
+		IndexBuilder(int permutation, Path indexPath, int keySize, ExternalSort externalSort) {
+			this.permutation = permutation;
+			this.indexPath = indexPath;
+			this.keySize = keySize;
+			this.externalSort = externalSort;
+		}
+
+		public Index call() throws InterruptedException {
+			PermutationFunction permutationFunction = permutationFunctions[permutation];
+			try {
+				List<IndexPair> batch;
+				while ((batch = batches.take()) != END_OF_PAIRS) {
+					for (IndexPair pair : batch) {
+						long[] permutedSignature = permutationFunction.permute(pair.getBitSignature());
+						externalSort.add(new IndexPair(permutedSignature, pair.getElementId()));
+					}
+				}
+				Iterator<IndexPair> sortedElements = externalSort.sort();
+
+				Index index = new ReferenceBlockBasedIndex(indexPath, keySize, blockSize,
+						signatureIndex, permutationFunction, appendOnlyBlockStorage,
+						compressedBlocks);
+				index.setBlockCache(blockCache);
+				index.setBlockPrefetcher(blockPrefetcher);
+				index.bulkLoad(sortedElements);
+				logger.info("Created index " + permutation + " from " + externalSort.getNumRuns()
+						+ " sorted runs.");
+				return index;
+			} finally {
+				externalSort.close();
+			}
+		}
+	}
+
+	/**
+	 * Creates the indexes from signature batches, so that each permutation needs no more
+	 * than the two flat arrays of a batch: all signatures are read into one batch, which
+	 * is permuted into a second batch that is sorted in place and loaded into the index.
+	 */
+	private void createIndexesInMemory(Index[] indexes, Path[] indexPaths, int keySize) {
+		Profiler.start(PK_SIGNATURE_STORE_LOADING);
+		SignatureBatch signatures = new SignatureBatch(keySize, size);
+		signatureStorage.readInto(signatures);
+		if (!tombstones.isEmpty()) {
+			signatures.removeElements(tombstones);
+		}
+		Profiler.stop(PK_SIGNATURE_STORE_LOADING);
+
+		SignatureBatch permutedSignatures = new SignatureBatch(keySize, signatures.size());
+		ForkJoinPool sortingPool = performParallelSorting ? new ForkJoinPool() : null;
+		try {
+			for (int i = 0; i < numPermutations; i++) {
+				Profiler.start(PK_PERMUTING);
+				permutedSignatures.permute(signatures, permutationFunctions[i]);
+				Profiler.stop(PK_PERMUTING);
+
+				Profiler.start(PK_SIGNATURE_SORTING);
+				permutedSignatures.sort(sortingPool);
+				Profiler.stop(PK_SIGNATURE_SORTING);
+
+				Profiler.start(PK_INDEX_CREATION);
+				ensureBitSignaturesIndexed();
+				Index index = new ReferenceBlockBasedIndex(indexPaths[i], keySize, blockSize,
+						signatureIndex, permutationFunctions[i], appendOnlyBlockStorage,
+						compressedBlocks);
+				index.setBlockCache(blockCache);
+				index.setBlockPrefetcher(blockPrefetcher);
+				index.bulkLoad(permutedSignatures);
+				indexes[i] = index;
+				Profiler.stop(PK_INDEX_CREATION);
+				logger.info("Created index " + i + ".");
+			}
+		} finally {
+			if (sortingPool != null) {
+				sortingPool.shutdown();
+			}
+		}
+	}
+
+	private SortAlgorithm<IndexPair> createSortAlgorithm() {
+		if (radixSorting) {
+			return new RadixSort<IndexPair>(RadixSort.INDEX_PAIR_KEYS, performParallelSorting);
+		} else if (performParallelSorting) {
+			return new ParallelQuickSort<IndexPair>(10000);
+		} else {
+			return new StandardLibSort<IndexPair>();
+		}
 	}
 
 	private void storeRecoverInformation() throws FileNotFoundException,
@@ -367,27 +1287,60 @@ public class VectorDatabase {
 
 		recoveryPath = FileUtils.toPath(basePath, LSH_FUNCTION_FILE).toString();
 		FileUtils.save(lshFunction, recoveryPath);
+
+		storeTombstones();
+	}
+
+	private void storeTombstones() {
+		FileUtils.save(tombstones, FileUtils.toPath(basePath, TOMBSTONES_FILE));
 	}
 
 	public void recover() throws IOException {
 		loadRecoverInformation();
 		recoverSignatureIndex();
+		indexPath = FileUtils.toPath(basePath).resolve(INDEX_PATH);
 		recoverIndex();
+
+		// further vectors are added to the recovered database
+		isInitializedForCreate = true;
 	}
 
   private void recoverSignatureIndex() {
-    initializeBitSignatureStorage();
+    initializeBitSignatureStorage(true);
+    initializeVectorStorage(true);
     ensureBitSignaturesIndexed();
     
   }
   
+  /**
+   * Maps the indexes from the binary index format if they were saved in it, and
+   * deserializes them otherwise.
+   */
   private void recoverIndex() throws IOException {
+    Path[] binaryIndexPaths = getBinaryIndexPaths();
+    boolean isBinaryIndexFormat = true;
+    for (Path binaryIndexPath : binaryIndexPaths) {
+      isBinaryIndexFormat &= binaryIndexPath.toFile().exists();
+    }
+    if (isBinaryIndexFormat) {
+      indexes = new Index[numPermutations];
+      for (int i = 0; i < numPermutations; i++) {
+        indexes[i] = BinaryIndexFormat.read(binaryIndexPaths[i], binaryIndexPaths[i].getParent(),
+            signatureIndex, permutationFunctions[i]);
+        indexes[i].setBlockCache(blockCache);
+        indexes[i].setBlockPrefetcher(blockPrefetcher);
+      }
+      return;
+    }
+    
 		indexes = (Index[]) FileUtils.load(FileUtils.toPath(basePath,
 				INDEXES_FILE));
 		
 		for (int i = 0; i < indexes.length; i++) {
 		  Index index = indexes[i];
 		  index.recover();
+		  index.setBlockCache(blockCache);
+		  index.setBlockPrefetcher(blockPrefetcher);
       if (index instanceof ReferenceBlockBasedIndex) {
         ReferenceBlockBasedIndex referenceBasedIndex = (ReferenceBlockBasedIndex) index;
         referenceBasedIndex.setBitSignatureIndex(signatureIndex);
@@ -410,10 +1363,15 @@ public class VectorDatabase {
 
 		recoverPath = FileUtils.toPath(basePath, LSH_FUNCTION_FILE).toString();
 		lshFunction = (LshFunction) FileUtils.load(recoverPath);
+
+		Path tombstonesPath = FileUtils.toPath(basePath, TOMBSTONES_FILE);
+		if (tombstonesPath.toFile().exists()) {
+			tombstones = (AtomicBitSet) FileUtils.load(tombstonesPath);
+		}
 		
 		logger.info("LshFunction: " + lshFunction.toString());
 		
-		initializeBitSignatureStorage();
+		initializeBitSignatureStorage(true);
 	}
 
 	public void deleteFiles() {
@@ -446,93 +1404,527 @@ public class VectorDatabase {
 	  return getNearNeighborsWithDistance(signature, beamRadius, minSimilarity);
 	}
 	
+	/**
+	 * Gets the <code>k</code> elements most similar to the query vector, ordered by
+	 * descending similarity. In contrast to {@link #getNearNeighborsWithDistance(InputVector, int, double)},
+	 * only a bounded heap of the best candidates is kept during verification.
+	 */
+	public TopKResult getTopKNearNeighbors(InputVector queryVector, int beamRadius, int k) {
+	  return getTopKNearNeighbors(queryVector, beamRadius, k, NO_MIN_SIMILARITY);
+	}
+
+	/**
+	 * Gets at most <code>k</code> elements that are most similar to the query vector and
+	 * have at least the given similarity, ordered by descending similarity.
+	 * <p>
+	 * If a re-rank size is configured, the best candidates by signature similarity are
+	 * re-scored with their exact cosine similarity to the query vector, and the result
+	 * holds the exact similarities. The minimum similarity then only applies to the
+	 * signature similarities of the candidates.
+	 */
+	public TopKResult getTopKNearNeighbors(InputVector queryVector, int beamRadius, int k,
+	    double minSimilarity) {
+	  long[] querySignature = lshFunction.createSignature(queryVector);
+
+	  if (!isReranking())
+	    return getTopKNearNeighbors(querySignature, beamRadius, k, minSimilarity);
+	  TopKResult candidates = getTopKNearNeighbors(querySignature, beamRadius,
+	      Math.max(k, rerankSize), minSimilarity);
+	  return rerank(queryVector.toSparseIntList(), candidates, k);
+	}
+
+	/**
+	 * Gets the <code>k</code> elements most similar to the original element, ordered by
+	 * descending similarity. The original element itself is part of the result.
+	 * 
+	 * @see #getNearNeighborsWithDistance(int, int, double)
+	 */
+	public TopKResult getTopKNearNeighbors(int elementId, int beamRadius, int k) {
+	  return getTopKNearNeighbors(elementId, beamRadius, k, NO_MIN_SIMILARITY);
+	}
+
+	public TopKResult getTopKNearNeighbors(int elementId, int beamRadius, int k,
+	    double minSimilarity) {
+	  long[] signature = getBitSignature(elementId);
+
+	  if (!isReranking())
+	    return getTopKNearNeighbors(signature, beamRadius, k, minSimilarity);
+	  TopKResult candidates = getTopKNearNeighbors(signature, beamRadius,
+	      Math.max(k, rerankSize), minSimilarity);
+	  return rerank(getInputVector(elementId).toSparseIntList(), candidates, k);
+	}
+
+	/**
+	 * Answers a batch of queries as {@link #getNearNeighborsWithDistance(InputVector, int, double)}
+	 * would answer each of them. Per permutation, the permuted query signatures are sorted, such
+	 * that every index is walked only once for the whole batch. As the neighbors of all queries
+	 * are fetched from an index at once, very large batches should be split up by the caller.
+	 * 
+	 * @return the result of the i-th query vector at position i
+	 */
+	public Int2DoubleMap[] getNearNeighborsWithDistance(List<InputVector> queryVectors,
+	    int beamRadius, double minSimilarity) {
+	  return getNearNeighborsWithDistance(createSignatures(queryVectors), beamRadius, minSimilarity);
+	}
+
+	/**
+	 * Answers a batch of queries for the given elements.
+	 * 
+	 * @see #getNearNeighborsWithDistance(List, int, double)
+	 */
+	public Int2DoubleMap[] getNearNeighborsWithDistance(int[] elementIds,
+	    int beamRadius, double minSimilarity) {
+	  return getNearNeighborsWithDistance(getBitSignatures(elementIds), beamRadius, minSimilarity);
+	}
+
+	/**
+	 * Answers a batch of top-k queries.
+	 * 
+	 * @see #getNearNeighborsWithDistance(List, int, double)
+	 */
+	public TopKResult[] getTopKNearNeighbors(List<InputVector> queryVectors, int beamRadius, int k) {
+	  if (!isReranking())
+	    return getTopKNearNeighbors(createSignatures(queryVectors), beamRadius, k);
+	  
+	  TopKResult[] results = getTopKNearNeighbors(createSignatures(queryVectors), beamRadius,
+	      Math.max(k, rerankSize));
+	  for (int i = 0; i < results.length; i++) {
+	    results[i] = rerank(queryVectors.get(i).toSparseIntList(), results[i], k);
+	  }
+	  return results;
+	}
+
+	/**
+	 * Answers a batch of top-k queries for the given elements.
+	 * 
+	 * @see #getNearNeighborsWithDistance(List, int, double)
+	 */
+	public TopKResult[] getTopKNearNeighbors(int[] elementIds, int beamRadius, int k) {
+	  if (!isReranking())
+	    return getTopKNearNeighbors(getBitSignatures(elementIds), beamRadius, k);
+	  
+	  TopKResult[] results = getTopKNearNeighbors(getBitSignatures(elementIds), beamRadius,
+	      Math.max(k, rerankSize));
+	  for (int i = 0; i < results.length; i++) {
+	    results[i] = rerank(getInputVector(elementIds[i]).toSparseIntList(), results[i], k);
+	  }
+	  return results;
+	}
+
+	private long[][] createSignatures(List<InputVector> queryVectors) {
+	  long[][] signatures = new long[queryVectors.size()][];
+	  for (int i = 0; i < signatures.length; i++) {
+	    signatures[i] = lshFunction.createSignature(queryVectors.get(i));
+	  }
+	  return signatures;
+	}
+
+	private long[][] getBitSignatures(int[] elementIds) {
+	  long[][] signatures = new long[elementIds.length][];
+	  for (int i = 0; i < signatures.length; i++) {
+	    signatures[i] = getBitSignature(elementIds[i]);
+	  }
+	  return signatures;
+	}
+
 	public long[] getBitSignature(int elementId) {
 	  ensureBitSignaturesIndexed();
 	  
-	  return signatureIndex.getIndexPair(elementId).getBitSignature();
+	  lockForQuery();
+	  try {
+	    return signatureIndex.getBitSignature(elementId);
+	  } finally {
+	    unlockAfterQuery();
+	  }
+	}
+	
+	/**
+	 * Keeps merges of incrementally added elements and compactions after deletes from
+	 * changing the indexes while a query reads them. As elements can be deleted at any
+	 * time, the lock is taken regardless of the settings; it is uncontended unless such a
+	 * background task is running.
+	 */
+	private void lockForQuery() {
+	  indexLock.readLock().lock();
+	}
+	
+	private void unlockAfterQuery() {
+	  indexLock.readLock().unlock();
+	}
+	
+	/**
+	 * Gets the original vector of the element. This requires the input vectors to be
+	 * stored. When first called, this method maps the vector storage into memory.
+	 */
+	public SparseInputVector getInputVector(int elementId) {
+	  ensureInputVectorsIndexed();
+	  
+	  return vectorStorage.getVector(elementId);
+	}
+	
+	/**
+	 * Maps the vectors that have been stored since the last call. This is cheap and does
+	 * not block other queries if no vectors have been stored in the meantime.
+	 */
+	private void ensureInputVectorsIndexed() {
+	  SparseInputVectorStorage vectorStorage = this.vectorStorage;
+	  if (vectorStorage == null) {
+	    throw new IllegalStateException("Input vectors are not stored.");
+	  }
+	  vectorStorage.openForRandomAccess();
 	}
 	
 	private synchronized void ensureBitSignaturesIndexed() {
 	  if (signatureIndex == null) {
-	    signatureIndex = signatureStorage.generateIndex();
+	    if (signatureStorage instanceof MappedBitSignatureStorage) {
+	      // queries read the signatures from the page cache
+	      MappedBitSignatureStorage mappedStorage = (MappedBitSignatureStorage) signatureStorage;
+	      mappedStorage.openForRandomAccess();
+	      signatureIndex = mappedStorage;
+	    } else if (offHeapSignatures) {
+	      int keySize = BitSignatureUtil.calculateSignatureSize(bitSignatureSize);
+	      signatureIndex = OffHeapBitSignatureIndex.build(signatureStorage, keySize);
+	    } else if (concurrentSignatureIndex) {
+	      mutableSignatureIndex = ConcurrentBitSignatureIndex.build(signatureStorage);
+	      signatureIndex = mutableSignatureIndex;
+	    } else {
+	      mutableSignatureIndex = signatureStorage.generateIndex();
+	      signatureIndex = mutableSignatureIndex;
+	    }
 	  }
 	}
 	
 	private Int2DoubleMap getNearNeighborsWithDistance(long[] signature, int beamRadius, double minSimilarity) {
-	  // implementatins may be switched here for the moment
-	  // to method getNearNeighborsWithDistanceFromIndexPairs which is better suited when using a SignatureStoringBlockBasedIndex
-	  
 	  return getNearNeighborsWithDistanceFromElementIds(signature, beamRadius, minSimilarity);
 	}
 	
 	private Int2DoubleMap getNearNeighborsWithDistanceFromElementIds(long[] signature,
       int beamRadius, double minSimilarity) {
-    logger.info("Query with beam " + beamRadius + " and min similarity " + minSimilarity);
+    if (logger.isLoggable(Level.FINE))
+      logger.fine("Query with beam " + beamRadius + " and min similarity " + minSimilarity);
     Profiler.start("Find nearest neighbors");
 
-    // create all permutations of this signature...
+    QueryContext context = queryContexts.get();
     Int2DoubleMap distances = new Int2DoubleOpenHashMap();
-    IntSet seenElements = new IntOpenHashSet();
-    for (int i = 0; i < numPermutations; i++) {
-      PermutationFunction permutationFunction = permutationFunctions[i];
-      Index index = indexes[i];
-      long[] permutedSignature = permutationFunction
-          .permute(signature);
-
-      // ...and get the nearest neighbors from the corresponding index
-      int[] neighbors = index.getNearestNeighboursElementIds(
-          permutedSignature, beamRadius);
-
-      // store the neighbors that are close enough
-      for (int neighbor : neighbors) {
-        if (seenElements.add(neighbor)) {
-          IndexPair correspondingPair = signatureIndex.getIndexPair(neighbor);
-          
-          double similarity = BitSignatureUtil
-            .calculateBitVectorCosine(signature, correspondingPair.getBitSignature());
-          if (similarity >= minSimilarity)
-            distances.put(neighbor, similarity);
-        }
-      }
+    try {
+      collectNearNeighbors(signature, beamRadius, minSimilarity, context,
+          context.getMapCollector(distances));
+    } finally {
+      context.release();
     }
 
     Profiler.stop("Find nearest neighbors");
     return distances;
   }
+
+	private TopKResult getTopKNearNeighbors(long[] signature, int beamRadius, int k,
+	    double minSimilarity) {
+	  if (logger.isLoggable(Level.FINE))
+	    logger.fine("Top-" + k + " query with beam " + beamRadius + " and min similarity " + minSimilarity);
+	  Profiler.start("Find top-k nearest neighbors");
+
+	  QueryContext context = queryContexts.get();
+	  TopKHeap heap = context.getHeap(k);
+	  collectNearNeighbors(signature, beamRadius, minSimilarity, context, heap);
+	  TopKResult result = heap.toResult();
+
+	  Profiler.stop("Find top-k nearest neighbors");
+	  return result;
+	}
+
+	private Int2DoubleMap[] getNearNeighborsWithDistance(long[][] signatures, int beamRadius,
+	    double minSimilarity) {
+	  if (logger.isLoggable(Level.FINE))
+	    logger.fine("Batch of " + signatures.length + " queries with beam " + beamRadius
+	        + " and min similarity " + minSimilarity);
+	  Profiler.start("Find nearest neighbors for batch");
+	  
+	  final Int2DoubleMap[] distances = new Int2DoubleMap[signatures.length];
+	  NeighborCollector[] collectors = new NeighborCollector[signatures.length];
+	  for (int i = 0; i < signatures.length; i++) {
+	    final Int2DoubleMap queryDistances = new Int2DoubleOpenHashMap();
+	    distances[i] = queryDistances;
+	    collectors[i] = new NeighborCollector() {
+	      
+	      public void collect(int elementId, double similarity) {
+	        queryDistances.put(elementId, similarity);
+	      }
+	    };
+	  }
+	  collectNearNeighbors(signatures, beamRadius, minSimilarity, collectors);
+	  
+	  Profiler.stop("Find nearest neighbors for batch");
+	  return distances;
+	}
+
+	private TopKResult[] getTopKNearNeighbors(long[][] signatures, int beamRadius, int k) {
+	  if (logger.isLoggable(Level.FINE))
+	    logger.fine("Batch of " + signatures.length + " top-" + k + " queries with beam " + beamRadius);
+	  Profiler.start("Find top-k nearest neighbors for batch");
+	  
+	  TopKHeap[] heaps = new TopKHeap[signatures.length];
+	  for (int i = 0; i < signatures.length; i++) {
+	    heaps[i] = new TopKHeap(k);
+	  }
+	  collectNearNeighbors(signatures, beamRadius, NO_MIN_SIMILARITY, heaps);
+	  
+	  TopKResult[] results = new TopKResult[signatures.length];
+	  for (int i = 0; i < signatures.length; i++) {
+	    results[i] = heaps[i].toResult();
+	  }
+	  
+	  Profiler.stop("Find top-k nearest neighbors for batch");
+	  return results;
+	}
+
+	private boolean isReranking() {
+	  return rerankSize > 0;
+	}
+
+	/**
+	 * Re-scores the candidates with their exact cosine similarity to the query vector and
+	 * keeps the best <code>k</code> of them.
+	 */
+	private TopKResult rerank(SparseIntList queryVector, TopKResult candidates, int k) {
+	  Profiler.start(PK_RERANKING);
+	  ensureInputVectorsIndexed();
+	  
+	  double queryNorm = Math.sqrt(queryVector.scalarProduct(queryVector));
+	  TopKHeap heap = queryContexts.get().getRerankHeap(k);
+	  for (int rank = 0; rank < candidates.size(); rank++) {
+	    int elementId = candidates.getElementId(rank);
+	    SparseIntList vector = vectorStorage.getVector(elementId).toSparseIntList();
+	    double norm = Math.sqrt(vector.scalarProduct(vector));
+	    double similarity = queryNorm == 0 || norm == 0 ? 0.0d
+	        : vector.scalarProduct(queryVector) / (queryNorm * norm);
+	    heap.offer(elementId, similarity);
+	  }
+	  TopKResult result = heap.toResult();
+	  
+	  Profiler.stop(PK_RERANKING);
+	  return result;
+	}
+
+	/**
+	 * Batch variant of {@link #collectNearNeighbors(long[], int, double, QueryContext, NeighborCollector)}: The
+	 * i-th collector receives the neighbors of the i-th signature.
+	 */
+	private void collectNearNeighbors(long[][] signatures, int beamRadius,
+	    double minSimilarity, NeighborCollector[] collectors) {
+	  lockForQuery();
+	  try {
+	    collectNearNeighborsLocked(signatures, beamRadius, minSimilarity, collectors);
+	  } finally {
+	    unlockAfterQuery();
+	  }
+	}
 	
-	// unused but may be switched with getNearNeighborsWithDistanceFromElementIds()
-	private Int2DoubleMap getNearNeighborsWithDistanceFromIndexPairs(long[] signature,
-      int beamRadius, double minSimilarity) {
-    logger.info("Query with beam " + beamRadius + " and min similarity " + minSimilarity);
-    Profiler.start("Find nearest neighbors");
+	private void collectNearNeighborsLocked(long[][] signatures, int beamRadius,
+	    double minSimilarity, NeighborCollector[] collectors) {
+	  int numQueries = signatures.length;
+	  QueryContext context = queryContexts.get();
+	  IntSet[] seenElements = new IntSet[numQueries];
+	  for (int query = 0; query < numQueries; query++) {
+	    seenElements[query] = new IntOpenHashSet();
+	  }
+	  
+	  int[] queryOrder = new int[numQueries];
+	  long[][] sortedSignatures = new long[numQueries][];
+	  for (int i = 0; i < numPermutations; i++) {
+	    final long[][] permutedSignatures = new long[numQueries][];
+	    for (int query = 0; query < numQueries; query++) {
+	      permutedSignatures[query] = permutationFunctions[i].permute(signatures[query]);
+	      queryOrder[query] = query;
+	    }
+	    
+	    // sort the queries by their permuted signatures...
+	    IntArrays.quickSort(queryOrder, new AbstractIntComparator() {
+	      
+	      public int compare(int query1, int query2) {
+	        return BitSignatureUtil.COMPARATOR.compare(permutedSignatures[query1],
+	            permutedSignatures[query2]);
+	      }
+	    });
+	    for (int j = 0; j < numQueries; j++) {
+	      sortedSignatures[j] = permutedSignatures[queryOrder[j]];
+	    }
+	    
+	    // ...so that the index can be probed in a single pass
+	    int[][] neighbors = indexes[i].getNearestNeighboursElementIds(sortedSignatures, beamRadius);
+	    
+	    for (int j = 0; j < numQueries; j++) {
+	      int query = queryOrder[j];
+	      int[] queryNeighbors = neighbors[j];
+	      if (deltas != null) {
+	        IntArrayList allNeighbors = new IntArrayList(queryNeighbors);
+	        deltas[i].getNearestNeighboursElementIds(sortedSignatures[j], beamRadius, allNeighbors);
+	        queryNeighbors = allNeighbors.toIntArray();
+	      }
+	      int numUnseen = 0;
+	      for (int neighbor : queryNeighbors) {
+	        if (seenElements[query].add(neighbor))
+	          queryNeighbors[numUnseen++] = neighbor;
+	      }
+	      verifyCandidates(signatures[query], queryNeighbors, numUnseen, minSimilarity,
+	          context, collectors[query]);
+	    }
+	  }
+	}
 
-    // create all permutations of this signature...
-    Int2DoubleMap distances = new Int2DoubleOpenHashMap();
-    IntSet seenElements = new IntOpenHashSet();
+	/**
+	 * Probes all permutation indexes for the given signature and passes every distinct
+	 * candidate with at least the given similarity to the collector. All intermediate
+	 * buffers are taken from the given context.
+	 */
+	private void collectNearNeighbors(long[] signature, int beamRadius,
+	    double minSimilarity, QueryContext context, NeighborCollector collector) {
+	  lockForQuery();
+	  try {
+	    collectNearNeighborsLocked(signature, beamRadius, minSimilarity, context, collector);
+	  } finally {
+	    unlockAfterQuery();
+	  }
+	}
+	
+	private void collectNearNeighborsLocked(long[] signature, int beamRadius,
+	    double minSimilarity, QueryContext context, NeighborCollector collector) {
+	  if (queryParallelism > 1 && numPermutations > 1) {
+	    collectNearNeighborsInParallel(signature, beamRadius, minSimilarity, collector);
+	    return;
+	  }
+	  
+    IntSet seenElements = context.getSeenElements();
     for (int i = 0; i < numPermutations; i++) {
-      PermutationFunction permutationFunction = permutationFunctions[i];
-      Index index = indexes[i];
-      long[] permutedSignature = permutationFunction
-          .permute(signature);
-
-      // ...and get the nearest neighbors from the corresponding index
-      IndexPair[] neighbors = index.getNearestNeighboursPairs(
-          permutedSignature, beamRadius);
-
-      // store the neighbors that are close enough
-      for (IndexPair neighbor : neighbors) {
-        if (seenElements.add(neighbor.getElementId())) {
-          double similarity = BitSignatureUtil
-              .calculateBitVectorCosine(permutedSignature,
-                  neighbor.getBitSignature());
-          if (similarity >= minSimilarity)
-            distances.put(neighbor.getElementId(), similarity);
-        }
+      IntArrayList neighbors = probeIndex(i, signature, beamRadius, context);
+
+      // pass on the neighbors that are close enough
+      int[] elements = neighbors.elements();
+      int numUnseen = 0;
+      for (int j = 0, numNeighbors = neighbors.size(); j < numNeighbors; j++) {
+        int neighbor = elements[j];
+        if (seenElements.add(neighbor))
+          elements[numUnseen++] = neighbor;
       }
+      verifyCandidates(signature, elements, numUnseen, minSimilarity, context, collector);
     }
+	}
 
-    Profiler.stop("Find nearest neighbors");
-    return distances;
-  }
+	/**
+	 * Distributes the permutation indexes over at most <code>queryParallelism</code> tasks
+	 * on the shared query pool. The tasks deduplicate candidates through a common
+	 * concurrent set, so that every candidate is verified only once, and buffer their
+	 * neighbors until they are handed to the (not thread-safe) collector.
+	 */
+	private void collectNearNeighborsInParallel(final long[] signature, final int beamRadius,
+	    final double minSimilarity, NeighborCollector collector) {
+	  final int numTasks = Math.min(queryParallelism, numPermutations);
+	  final StripedIntSet seenElements = new StripedIntSet(numTasks);
+	  ForkJoinPool pool = getQueryPool();
+	  
+	  List<ForkJoinTask<NeighborBuffer>> tasks = new ArrayList<ForkJoinTask<NeighborBuffer>>(numTasks);
+	  for (int task = 0; task < numTasks; task++) {
+	    final int firstPermutation = task;
+	    tasks.add(pool.submit(new Callable<NeighborBuffer>() {
+
+	      public NeighborBuffer call() {
+	        NeighborBuffer buffer = new NeighborBuffer();
+	        QueryContext context = queryContexts.get();
+	        for (int i = firstPermutation; i < numPermutations; i += numTasks) {
+	          IntArrayList neighbors = probeIndex(i, signature, beamRadius, context);
+	          
+	          int[] elements = neighbors.elements();
+	          int numUnseen = 0;
+	          for (int j = 0, numNeighbors = neighbors.size(); j < numNeighbors; j++) {
+	            int neighbor = elements[j];
+	            if (seenElements.add(neighbor))
+	              elements[numUnseen++] = neighbor;
+	          }
+	          verifyCandidates(signature, elements, numUnseen, minSimilarity, context, buffer);
+	        }
+	        return buffer;
+	      }
+	    }));
+	  }
+	  
+	  for (ForkJoinTask<NeighborBuffer> task : tasks) {
+	    task.join().drainTo(collector);
+	  }
+	}
+
+	/**
+	 * Permutes the signature for the i-th index and gets the nearest neighbors from that
+	 * index. The returned list is the candidate buffer of the context and is only valid
+	 * until the next probe with that context.
+	 */
+	private IntArrayList probeIndex(int i, long[] signature, int beamRadius, QueryContext context) {
+	  long[] permutedSignature = permutationFunctions[i].permute(signature,
+	      context.getPermutedSignatureBuffer(signature.length));
+	  IntArrayList neighbors = context.getCandidates();
+	  indexes[i].getNearestNeighboursElementIds(permutedSignature, beamRadius, neighbors);
+	  if (deltas != null)
+	    deltas[i].getNearestNeighboursElementIds(permutedSignature, beamRadius, neighbors);
+	  return neighbors;
+	}
+
+	/**
+	 * Scores the first <code>numCandidates</code> candidates against the signature in one
+	 * batch and passes those with at least the given similarity to the collector. The
+	 * similarity bound is turned into a Hamming distance bound, so that most dissimilar
+	 * candidates are rejected before their full distance is known. Deleted candidates
+	 * that have not been compacted away yet are dropped first.
+	 */
+	private void verifyCandidates(long[] signature, int[] candidates, int numCandidates,
+	    double minSimilarity, QueryContext context, NeighborCollector collector) {
+	  int maxDistance = cosineTable.getMaxDistance(minSimilarity);
+	  if (maxDistance < 0 || numCandidates == 0)
+	    return;
+	  
+	  if (!tombstones.isEmpty()) {
+	    int numLiveCandidates = 0;
+	    for (int j = 0; j < numCandidates; j++) {
+	      if (!tombstones.get(candidates[j]))
+	        candidates[numLiveCandidates++] = candidates[j];
+	    }
+	    numCandidates = numLiveCandidates;
+	    if (numCandidates == 0)
+	      return;
+	  }
+	  
+	  int[] distances = context.getDistanceBuffer(numCandidates);
+	  signatureIndex.calculateHammingDistances(signature, candidates, numCandidates,
+	      maxDistance, distances);
+	  
+	  for (int j = 0; j < numCandidates; j++) {
+	    if (distances[j] <= maxDistance)
+	      collector.collect(candidates[j], cosineTable.getSimilarity(distances[j]));
+	  }
+	}
+
+	private synchronized ForkJoinPool getQueryPool() {
+	  if (queryPool == null) {
+	    queryPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	  }
+	  return queryPool;
+	}
+
+	/**
+	 * Buffers the neighbors found by a single task of a parallel query.
+	 */
+	private static class NeighborBuffer implements NeighborCollector {
+
+	  private final IntArrayList elementIds = new IntArrayList();
+	  private final DoubleArrayList similarities = new DoubleArrayList();
+
+	  public void collect(int elementId, double similarity) {
+	    elementIds.add(elementId);
+	    similarities.add(similarity);
+	  }
+
+	  public void drainTo(NeighborCollector collector) {
+	    for (int i = 0; i < elementIds.size(); i++) {
+	      collector.collect(elementIds.getInt(i), similarities.getDouble(i));
+	    }
+	  }
+	}
 	
 }
@@ -50,6 +50,96 @@ public class VectorDatabaseBuilder {
     return this;
   }
   
+  public VectorDatabaseBuilder queryParallelism(int queryParallelism) {
+    vdbSettings.setQueryParallelism(queryParallelism);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder prefetchParallelism(int prefetchParallelism) {
+    vdbSettings.setPrefetchParallelism(prefetchParallelism);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder offHeapSignatures(boolean offHeapSignatures) {
+    vdbSettings.setOffHeapSignatures(offHeapSignatures);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder mappedSignatures(boolean mappedSignatures) {
+    vdbSettings.setMappedSignatures(mappedSignatures);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder concurrentSignatureIndex(boolean concurrentSignatureIndex) {
+    vdbSettings.setConcurrentSignatureIndex(concurrentSignatureIndex);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder saveInputVectors(boolean saveInputVectors) {
+    vdbSettings.setSaveInputVectors(saveInputVectors);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder rerankSize(int rerankSize) {
+    vdbSettings.setRerankSize(rerankSize);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder sortingMemory(int sortingMemory) {
+    vdbSettings.setSortingMemory(sortingMemory);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder indexingParallelism(int indexingParallelism) {
+    vdbSettings.setIndexingParallelism(indexingParallelism);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder radixSorting(boolean radixSorting) {
+    vdbSettings.setRadixSorting(radixSorting);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder incrementalIndexing(boolean incrementalIndexing) {
+    vdbSettings.setIncrementalIndexing(incrementalIndexing);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder maxDeltaSize(int maxDeltaSize) {
+    vdbSettings.setMaxDeltaSize(maxDeltaSize);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder compactionThreshold(double compactionThreshold) {
+    vdbSettings.setCompactionThreshold(compactionThreshold);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder appendOnlyBlockStorage(boolean appendOnlyBlockStorage) {
+    vdbSettings.setAppendOnlyBlockStorage(appendOnlyBlockStorage);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder compressedBlocks(boolean compressedBlocks) {
+    vdbSettings.setCompressedBlocks(compressedBlocks);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder blockCacheSize(int blockCacheSize) {
+    vdbSettings.setBlockCacheSize(blockCacheSize);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder ingestBatchSize(int ingestBatchSize) {
+    vdbSettings.setIngestBatchSize(ingestBatchSize);
+    return this;
+  }
+  
+  public VectorDatabaseBuilder ingestQueueSize(int ingestQueueSize) {
+    vdbSettings.setIngestQueueSize(ingestQueueSize);
+    return this;
+  }
+  
   public VectorDatabase buildVectorDatabase() {
     try {
       VectorDatabase vdb = new VectorDatabase(vdbSettings);
@@ -15,11 +15,16 @@
  */
 package de.unipotsdam.hpi.indexing;
 
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Iterator;
 
-import de.unipotsdam.hpi.util.BitSignatureUtil;
+import de.unipotsdam.hpi.storage.BlockCache;
+import de.unipotsdam.hpi.storage.CacheStatistics;
 import de.unipotsdam.hpi.util.FileUtils;
 
 /**
@@ -33,11 +38,15 @@ public abstract class AbstractBlockBasedIndex<T extends LinkedBlock<T>> implemen
 	private static final long serialVersionUID = -8071670886248402811L;
 
 	protected T firstBlock;
+	protected BlockDirectory<T> directory;
 	transient protected Path basePath;
 	protected String basePathString;
 	protected int keySize;
 	protected int blockSize;
 	protected int blockIdCounter = 0;
+	transient private CacheStatistics cacheStatistics;
+	transient private BlockCache blockCache;
+	transient private BlockPrefetcher blockPrefetcher;
 	public static final double INITIAL_LOAD_FACTOR = 0.75d;
 
 	/**
@@ -52,6 +61,7 @@ public abstract class AbstractBlockBasedIndex<T extends LinkedBlock<T>> implemen
 		this.basePathString = basePath.toString();
 		this.keySize = keySize;
 		this.blockSize = blockSize;
+		this.directory = new BlockDirectory<T>(keySize);
 	}
 
 	public void insertElement(long[] key, int value) throws IOException {
@@ -66,6 +76,26 @@ public abstract class AbstractBlockBasedIndex<T extends LinkedBlock<T>> implemen
 	
 	public abstract int[] getNearestNeighboursElementIds(long[] key, int beamRadius);
 
+	/**
+	 * Copies the result of {@link #getNearestNeighboursElementIds(long[], int)}.
+	 * Subclasses should append to the list directly.
+	 */
+	public void getNearestNeighboursElementIds(long[] key, int beamRadius, IntList neighbours) {
+		int[] elementIds = getNearestNeighboursElementIds(key, beamRadius);
+		neighbours.addElements(neighbours.size(), elementIds);
+	}
+
+	/**
+	 * Looks up each key separately. Subclasses may exploit the order of the keys.
+	 */
+	public int[][] getNearestNeighboursElementIds(long[][] sortedKeys, int beamRadius) {
+		int[][] neighbours = new int[sortedKeys.length][];
+		for (int i = 0; i < sortedKeys.length; i++) {
+			neighbours[i] = getNearestNeighboursElementIds(sortedKeys[i], beamRadius);
+		}
+		return neighbours;
+	}
+
 //	public abstract void bulkLoad(IndexPair[] keyValuePairs);
 
 	public abstract int getElement(long[] key);
@@ -75,25 +105,86 @@ public abstract class AbstractBlockBasedIndex<T extends LinkedBlock<T>> implemen
 	 * the given key.
 	 */
 	protected T getBlockFor(long[] key) {
-		// Scan the blocks until we find a block that has a greater start key
-		// than the given key.
-		// If that does not happen, we need to return the last block.
-		T lastValidBlock = null;
-		for (T curBlock = firstBlock; curBlock != null; curBlock = curBlock
-				.getNextBlock()) {
-			int comparison = BitSignatureUtil.COMPARATOR.compare(key,
-					curBlock.getStartKey());
-			if (comparison == 0)
-				// shortcut for exact matches
-				return curBlock;
-			else if (comparison > 0)
-				// search key is still greater than
-				lastValidBlock = curBlock;
-			else
-				// search key is smaller
-				break;
+		int position = directory.find(key);
+		if (position < 0)
+			// all blocks have a greater start key
+			return null;
+		return directory.get(position);
+	}
+
+	/**
+	 * Find the directory position of the block that potentially might contain
+	 * the entry associated with the given key or -1 if all blocks have a
+	 * greater start key.
+	 */
+	protected int getBlockPositionFor(long[] key) {
+		return directory.find(key);
+	}
+
+	/**
+	 * Finds the directory positions of all blocks that might contain entries with one of
+	 * the given keys. Besides the block found for a key, these are the following blocks
+	 * with the same start key and, as blocks are split regardless of duplicate keys, the
+	 * block before them.
+	 * 
+	 * @return the positions in descending order, so that blocks can be removed from the
+	 *         directory while walking them
+	 */
+	protected int[] getBlockPositionsFor(long[][] keys) {
+		IntOpenHashSet positions = new IntOpenHashSet();
+		for (long[] key : keys) {
+			int position = directory.find(key);
+			if (position < 0)
+				continue;
+			if (position > 0 && Arrays.equals(directory.get(position).getStartKey(), key)) {
+				positions.add(position - 1);
+			}
+			positions.add(position);
+			for (int nextPosition = position + 1; nextPosition < directory.size()
+					&& Arrays.equals(directory.get(nextPosition).getStartKey(), key); nextPosition++) {
+				positions.add(nextPosition);
+			}
+		}
+		int[] sortedPositions = positions.toIntArray();
+		Arrays.sort(sortedPositions);
+		for (int i = 0, j = sortedPositions.length - 1; i < j; i++, j--) {
+			int position = sortedPositions[i];
+			sortedPositions[i] = sortedPositions[j];
+			sortedPositions[j] = position;
+		}
+		return sortedPositions;
+	}
+
+	/**
+	 * Links the new block right after the given block. The new block still has
+	 * to be added to the directory once its start key is known.
+	 */
+	protected void linkBlockAfter(T block, T newBlock) {
+		newBlock.setPreviousBlock(block);
+		newBlock.setNextBlock(block.getNextBlock());
+		block.setNextBlock(newBlock);
+		if (newBlock.getNextBlock() != null) {
+			newBlock.getNextBlock().setPreviousBlock(newBlock);
+		}
+	}
+
+	/**
+	 * Removes the block from the linked list of blocks. The directory still has to be
+	 * rebuilt afterwards.
+	 */
+	protected void unlinkBlock(T block) {
+		T previousBlock = block.getPreviousBlock();
+		T nextBlock = block.getNextBlock();
+		if (previousBlock == null) {
+			firstBlock = nextBlock;
+		} else {
+			previousBlock.setNextBlock(nextBlock);
+		}
+		if (nextBlock != null) {
+			nextBlock.setPreviousBlock(previousBlock);
 		}
-		return lastValidBlock;
+		block.setPreviousBlock(null);
+		block.setNextBlock(null);
 	}
 
 	public int size() {
@@ -113,12 +204,53 @@ public abstract class AbstractBlockBasedIndex<T extends LinkedBlock<T>> implemen
 		}
 	}
 
+	public synchronized CacheStatistics getCacheStatistics() {
+		if (cacheStatistics == null) {
+			cacheStatistics = new CacheStatistics();
+		}
+		return cacheStatistics;
+	}
+
+	/**
+	 * Returns the cache of the decoded blocks of this index, which is the shared cache
+	 * unless another one was set.
+	 */
+	public BlockCache getBlockCache() {
+		return blockCache == null ? BlockCache.getShared() : blockCache;
+	}
+
+	/**
+	 * Sets the cache of the decoded blocks. Subclasses pass it on to their existing block
+	 * storages.
+	 */
+	public void setBlockCache(BlockCache blockCache) {
+		this.blockCache = blockCache;
+	}
+
+	/**
+	 * Returns the prefetcher that loads the blocks of a query's beam, which is the shared
+	 * one unless another one was set.
+	 */
+	public BlockPrefetcher getBlockPrefetcher() {
+		return blockPrefetcher == null ? BlockPrefetcher.getShared() : blockPrefetcher;
+	}
+
+	public void setBlockPrefetcher(BlockPrefetcher blockPrefetcher) {
+		this.blockPrefetcher = blockPrefetcher;
+	}
+
 	public void recover() {
 		this.basePath = FileUtils.toPath(basePathString);
 		
 		for (T block = firstBlock; block != null; block = block.getNextBlock()) {
 			block.recover();
 		}
+		
+		if (directory == null) {
+			// index was stored before block directories were introduced
+			directory = new BlockDirectory<T>(keySize);
+			directory.rebuild(firstBlock);
+		}
 	}
 	
 	public void bulkLoad(IndexPair[] keyValuePairs) {
@@ -150,13 +282,83 @@ public abstract class AbstractBlockBasedIndex<T extends LinkedBlock<T>> implemen
         remainingPairs -= pairsToWrite;
         offset += pairsToWrite;
       }
+      directory.rebuild(firstBlock);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 	
+	/**
+	 * Streams the sorted pairs into newly created blocks. Only the pairs of the block
+	 * that is currently written are held in memory.
+	 */
+	public void bulkLoad(Iterator<IndexPair> sortedPairs) {
+		try {
+			int pairsPerBlock = (int) Math.ceil(INITIAL_LOAD_FACTOR * blockSize);
+			T lastBlock = null;
+			IndexPair previousPair = null;
+			while (sortedPairs.hasNext()) {
+				// blocks may keep the array, so use a new one for every block
+				IndexPair[] blockPairs = new IndexPair[pairsPerBlock];
+				int numPairs = 0;
+				while (numPairs < pairsPerBlock && sortedPairs.hasNext()) {
+					IndexPair pair = sortedPairs.next();
+					if (previousPair != null && IndexPair.COMPARATOR.compare(previousPair, pair) > 0) {
+						throw new IllegalArgumentException("Pairs are not sorted: " + pair);
+					}
+					blockPairs[numPairs++] = pair;
+					previousPair = pair;
+				}
+				if (numPairs < pairsPerBlock) {
+					blockPairs = Arrays.copyOf(blockPairs, numPairs);
+				}
+
+				T currentBlock = createNewBlock();
+				if (firstBlock == null) {
+					firstBlock = currentBlock;
+				}
+				if (lastBlock != null) {
+					lastBlock.setNextBlock(currentBlock);
+					currentBlock.setPreviousBlock(lastBlock);
+				}
+				lastBlock = currentBlock;
+
+				bulkLoadBlock(currentBlock, blockPairs, 0, numPairs);
+			}
+			directory.rebuild(firstBlock);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void bulkLoad(SignatureBatch sortedBatch) {
+		try {
+			int pairsPerBlock = (int) Math.ceil(INITIAL_LOAD_FACTOR * blockSize);
+			T lastBlock = null;
+			for (int offset = 0; offset < sortedBatch.size(); offset += pairsPerBlock) {
+				T currentBlock = createNewBlock();
+				if (firstBlock == null) {
+					firstBlock = currentBlock;
+				}
+				if (lastBlock != null) {
+					lastBlock.setNextBlock(currentBlock);
+					currentBlock.setPreviousBlock(lastBlock);
+				}
+				lastBlock = currentBlock;
+
+				int pairsToWrite = Math.min(sortedBatch.size() - offset, pairsPerBlock);
+				bulkLoadBlock(currentBlock, sortedBatch, offset, pairsToWrite);
+			}
+			directory.rebuild(firstBlock);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	protected abstract T createNewBlock() throws IOException;
 	
 	protected abstract void bulkLoadBlock(T block, IndexPair[] pairs, int offset, int pairsToWrite) throws IOException;
 
+	protected abstract void bulkLoadBlock(T block, SignatureBatch batch, int offset, int pairsToWrite) throws IOException;
+
 }
@@ -56,4 +56,15 @@ abstract public class AbstractLinkedBlock<T extends LinkedBlock<T>> implements L
 		return startKey;
 	}
 
+	/**
+	 * Returns <code>true</code>. Blocks that read their elements from disk should
+	 * override this along with {@link #prefetch()}.
+	 */
+	public boolean isCached() {
+		return true;
+	}
+
+	public void prefetch() {
+	}
+
 }
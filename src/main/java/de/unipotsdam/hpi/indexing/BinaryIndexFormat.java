@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import de.unipotsdam.hpi.permutation.PermutationFunction;
+import de.unipotsdam.hpi.storage.AppendOnlyReferenceBlockStorage;
+import de.unipotsdam.hpi.storage.BitSignatureLookup;
+
+/**
+ * Persists the block list of a {@link ReferenceBlockBasedIndex} whose blocks are in an
+ * {@link AppendOnlyReferenceBlockStorage}, as an alternative to serializing the linked
+ * blocks. The file holds a header and the block directory as flat arrays in block order:
+ * 
+ * <pre>
+ * int magic, int version, int keySize, int blockSize, int blockIdCounter, int numBlocks,
+ * long storageFileLength, long storageGarbageBytes, int compressed,
+ * int[numBlocks] blockIds, int[numBlocks] sizes, int[numBlocks] encodedSizes,
+ * long[numBlocks] offsets, long[numBlocks * keySize] startKeys
+ * </pre>
+ * 
+ * Offsets point into the data file of the storage; empty blocks have the offset -1.
+ * Encoded sizes are the number of bytes of the blocks in the data file.
+ * When read, the file is mapped into memory and the arrays are copied out in bulk.
+ */
+public class BinaryIndexFormat {
+
+  public static final String FILE_NAME = "index.bin";
+
+  private static final int MAGIC = 0x4C534849;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 7 * 4 + 2 * 8;
+
+  private BinaryIndexFormat() {
+  }
+
+  /**
+   * Tells whether the index can be written in this format.
+   */
+  public static boolean isSupported(Index index) {
+    return index instanceof ReferenceBlockBasedIndex
+        && ((ReferenceBlockBasedIndex) index).isAppendOnlyBlockStorage();
+  }
+
+  /**
+   * Writes the block directory of the index. The file is replaced only once it has been
+   * written completely.
+   */
+  public static void write(Index index, Path file) throws IOException {
+    if (!isSupported(index)) {
+      throw new IllegalArgumentException("Index does not use an append-only block storage: "
+          + index);
+    }
+    ReferenceBlockBasedIndex referenceIndex = (ReferenceBlockBasedIndex) index;
+    AppendOnlyReferenceBlockStorage storage = referenceIndex.getAppendOnlyStorage();
+    int keySize = referenceIndex.keySize;
+
+    int numBlocks = 0;
+    for (ReferenceBlock block = referenceIndex.firstBlock; block != null; block = block.getNextBlock()) {
+      numBlocks++;
+    }
+    int[] blockIds = new int[numBlocks];
+    int[] sizes = new int[numBlocks];
+    int[] encodedSizes = new int[numBlocks];
+    long[] offsets = new long[numBlocks];
+    long[] startKeys = new long[numBlocks * keySize];
+    int position = 0;
+    for (ReferenceBlock block = referenceIndex.firstBlock; block != null; block = block.getNextBlock()) {
+      blockIds[position] = block.getBlockId();
+      sizes[position] = block.getSize();
+      if (block.getSize() == 0) {
+        offsets[position] = -1;
+      } else {
+        offsets[position] = storage.getBlockOffset(block.getBlockId());
+        encodedSizes[position] = storage.getEncodedBlockLength(block.getBlockId());
+      }
+      if (block.getStartKey() != null) {
+        System.arraycopy(block.getStartKey(), 0, startKeys, position * keySize, keySize);
+      }
+      position++;
+    }
+
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tempFile.toFile())));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(keySize);
+      out.writeInt(referenceIndex.blockSize);
+      out.writeInt(referenceIndex.blockIdCounter);
+      out.writeInt(numBlocks);
+      out.writeLong(storage == null ? 0 : storage.getFileLength());
+      out.writeLong(storage == null ? 0 : storage.getGarbageBytes());
+      out.writeInt(storage != null && storage.isCompressed() ? 1 : 0);
+      for (int blockId : blockIds) {
+        out.writeInt(blockId);
+      }
+      for (int size : sizes) {
+        out.writeInt(size);
+      }
+      for (int encodedSize : encodedSizes) {
+        out.writeInt(encodedSize);
+      }
+      for (long offset : offsets) {
+        out.writeLong(offset);
+      }
+      for (long startKey : startKeys) {
+        out.writeLong(startKey);
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Reads an index that was written by {@link #write(Index, Path)}. Its blocks are
+   * expected in the data file within the given base path.
+   * 
+   * @throws IOException
+   *           if the file cannot be read or is not in the current version of this format
+   */
+  public static ReferenceBlockBasedIndex read(Path file, Path basePath,
+      BitSignatureLookup bitSignatureIndex, PermutationFunction permutationFunction)
+      throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      if (channel.size() < HEADER_SIZE) {
+        throw new IOException("Truncated index file " + file);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not an index file: " + file);
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported index format version " + version + " in " + file);
+      }
+      int keySize = buffer.getInt();
+      int blockSize = buffer.getInt();
+      int blockIdCounter = buffer.getInt();
+      int numBlocks = buffer.getInt();
+      long storageFileLength = buffer.getLong();
+      long storageGarbageBytes = buffer.getLong();
+      boolean compressed = buffer.getInt() != 0;
+      long expectedSize = HEADER_SIZE + 3L * 4 * numBlocks + 8L * numBlocks
+          + 8L * numBlocks * keySize;
+      if (channel.size() != expectedSize) {
+        throw new IOException("Index file " + file + " has " + channel.size()
+            + " bytes instead of " + expectedSize);
+      }
+
+      int[] blockIds = new int[numBlocks];
+      int[] sizes = new int[numBlocks];
+      int[] encodedSizes = new int[numBlocks];
+      long[] offsets = new long[numBlocks];
+      long[] startKeys = new long[numBlocks * keySize];
+      readInts(buffer, blockIds);
+      readInts(buffer, sizes);
+      readInts(buffer, encodedSizes);
+      readLongs(buffer, offsets);
+      readLongs(buffer, startKeys);
+
+      AppendOnlyReferenceBlockStorage storage = new AppendOnlyReferenceBlockStorage(
+          basePath.resolve(ReferenceBlockBasedIndex.BLOCKS_FILE), compressed, storageFileLength,
+          storageGarbageBytes);
+      ReferenceBlockBasedIndex index = new ReferenceBlockBasedIndex(basePath, keySize,
+          blockSize, bitSignatureIndex, permutationFunction, true, compressed);
+      ReferenceBlock firstBlock = null;
+      ReferenceBlock previousBlock = null;
+      for (int i = 0; i < numBlocks; i++) {
+        ReferenceBlock block = new ReferenceBlock(blockSize, keySize, storage, blockIds[i]);
+        long[] startKey = new long[keySize];
+        System.arraycopy(startKeys, i * keySize, startKey, 0, keySize);
+        block.restore(sizes[i], startKey);
+        if (offsets[i] >= 0) {
+          storage.restoreBlock(blockIds[i], offsets[i], sizes[i], encodedSizes[i]);
+        }
+        if (previousBlock == null) {
+          firstBlock = block;
+        } else {
+          previousBlock.setNextBlock(block);
+          block.setPreviousBlock(previousBlock);
+        }
+        previousBlock = block;
+      }
+      index.restore(storage, firstBlock, blockIdCounter);
+      return index;
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static void readInts(ByteBuffer buffer, int[] target) {
+    buffer.asIntBuffer().get(target);
+    buffer.position(buffer.position() + 4 * target.length);
+  }
+
+  private static void readLongs(ByteBuffer buffer, long[] target) {
+    buffer.asLongBuffer().get(target);
+    buffer.position(buffer.position() + 8 * target.length);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+/**
+ * Sorted directory over the blocks of an {@link AbstractBlockBasedIndex}. The start
+ * keys of all blocks are kept in one flat array in block order, so that the block for
+ * a key can be found by binary search instead of scanning the linked block list.<br>
+ * The directory must be kept up to date by the index whenever blocks are added or
+ * their start keys change.
+ */
+public class BlockDirectory<T extends LinkedBlock<T>> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private int keySize;
+  private long[] startKeys;
+  private Object[] blocks;
+  private int size;
+
+  /**
+   * @param keySize
+   *          in longs
+   */
+  public BlockDirectory(int keySize) {
+    this.keySize = keySize;
+    this.startKeys = new long[INITIAL_CAPACITY * keySize];
+    this.blocks = new Object[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Replaces the contents of this directory with the blocks linked to the given first
+   * block.
+   */
+  public void rebuild(T firstBlock) {
+    size = 0;
+    for (T block = firstBlock; block != null; block = block.getNextBlock()) {
+      insert(size, block);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(int position) {
+    if (position < 0 || position >= size) {
+      throw new IndexOutOfBoundsException("No block at position " + position
+          + ". Size is " + size);
+    }
+    return (T) blocks[position];
+  }
+
+  /**
+   * Finds the position of the block that potentially might contain the entry
+   * associated with the given key, i.e., the first block with an equal start key or
+   * else the last block with a smaller start key.
+   * 
+   * @return the block's position or -1 if all blocks have greater start keys
+   */
+  public int find(long[] key) {
+    int low = 0;
+    int high = size;
+    // find the first block whose start key is not smaller than the key
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compareStartKey(middle, key) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    if (low < size && compareStartKey(low, key) == 0) {
+      return low;
+    }
+    return low - 1;
+  }
+
+  /**
+   * Inserts the block at the given position. Its start key must fit in between its
+   * neighbors.
+   */
+  public void insert(int position, T block) {
+    if (position < 0 || position > size) {
+      throw new IndexOutOfBoundsException("Cannot insert at position " + position
+          + ". Size is " + size);
+    }
+    ensureCapacity(size + 1);
+    System.arraycopy(blocks, position, blocks, position + 1, size - position);
+    System.arraycopy(startKeys, position * keySize, startKeys, (position + 1) * keySize,
+        (size - position) * keySize);
+    blocks[position] = block;
+    size++;
+    update(position);
+  }
+
+  /**
+   * Re-reads the start key of the block at the given position.
+   */
+  public void update(int position) {
+    long[] startKey = get(position).getStartKey();
+    if (startKey == null) {
+      throw new IllegalStateException("Block at position " + position + " has no start key.");
+    }
+    System.arraycopy(startKey, 0, startKeys, position * keySize, keySize);
+  }
+
+  public void remove(int position) {
+    get(position);
+    System.arraycopy(blocks, position + 1, blocks, position, size - position - 1);
+    System.arraycopy(startKeys, (position + 1) * keySize, startKeys, position * keySize,
+        (size - position - 1) * keySize);
+    size--;
+    blocks[size] = null;
+  }
+
+  private int compareStartKey(int position, long[] key) {
+    return BitSignatureUtil.compare(startKeys, position * keySize, key, 0, keySize);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > blocks.length) {
+      int newCapacity = Math.max(capacity, blocks.length << 1);
+      blocks = Arrays.copyOf(blocks, newCapacity);
+      startKeys = Arrays.copyOf(startKeys, newCapacity * keySize);
+    }
+  }
+}
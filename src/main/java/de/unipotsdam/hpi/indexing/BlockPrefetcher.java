@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads blocks on a pool of I/O threads, so that a query waits for the blocks of its
+ * beam at once instead of reading them one after another. Prefetching is only a hint:
+ * requests are dropped when the pool is saturated, and failures are left to the query,
+ * which loads the block itself then.
+ * <p>
+ * Every database has a prefetcher of its own, while indexes that are used on their own
+ * share {@link #getShared()}. The threads of a pool are started on demand.
+ */
+public class BlockPrefetcher {
+
+  private static final Logger logger = Logger.getLogger(BlockPrefetcher.class.getName());
+
+  public static final int DEFAULT_PARALLELISM = 4;
+
+  // number of pending requests per thread
+  private static final int QUEUE_SIZE_PER_THREAD = 256;
+
+  private static final BlockPrefetcher SHARED = new BlockPrefetcher(DEFAULT_PARALLELISM);
+
+  private volatile ThreadPoolExecutor executor;
+
+  /**
+   * @param parallelism
+   *          is the number of I/O threads; 0 disables prefetching
+   */
+  public BlockPrefetcher(int parallelism) {
+    setParallelism(parallelism);
+  }
+
+  /**
+   * Returns the prefetcher of the indexes that were not given one of their own.
+   */
+  public static BlockPrefetcher getShared() {
+    return SHARED;
+  }
+
+  /**
+   * Replaces the pool with one of the given number of threads. Pending requests of the
+   * former pool are still served.
+   */
+  public synchronized void setParallelism(int parallelism) {
+    if (parallelism < 0) {
+      throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
+    }
+    ThreadPoolExecutor oldExecutor = executor;
+    if (oldExecutor != null && oldExecutor.getMaximumPoolSize() == parallelism) {
+      return;
+    }
+    if (parallelism == 0) {
+      executor = null;
+    } else {
+      ThreadPoolExecutor newExecutor = new ThreadPoolExecutor(parallelism, parallelism, 30,
+          TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE_PER_THREAD * parallelism),
+          new PrefetchThreadFactory(), new ThreadPoolExecutor.DiscardPolicy());
+      newExecutor.allowCoreThreadTimeOut(true);
+      executor = newExecutor;
+    }
+    if (oldExecutor != null) {
+      oldExecutor.shutdown();
+    }
+  }
+
+  public boolean isEnabled() {
+    return executor != null;
+  }
+
+  /**
+   * Requests the block to be loaded in the background unless it is cached.
+   */
+  public void prefetch(LinkedBlock<?> block) {
+    ThreadPoolExecutor executor = this.executor;
+    if (executor == null || block.isCached()) {
+      return;
+    }
+    submit(executor, block);
+  }
+
+  /**
+   * Requests the blocks that a beam of the given radius reaches below
+   * <code>lowerBlock</code> (inclusive) and above <code>higherBlock</code> (inclusive).
+   * Both blocks may be <code>null</code>. Once the cache is warm, all of these blocks
+   * are usually cached, and the beam is only walked without requesting anything.
+   */
+  public <T extends LinkedBlock<T>> void prefetchBeam(T lowerBlock, T higherBlock, int beamRadius) {
+    ThreadPoolExecutor executor = this.executor;
+    if (executor == null) {
+      return;
+    }
+    List<T> uncachedBlocks = null;
+    int remainingElements = beamRadius;
+    for (T block = lowerBlock; block != null && remainingElements > 0; block = block.getPreviousBlock()) {
+      uncachedBlocks = addIfUncached(block, uncachedBlocks);
+      remainingElements -= block.getSize();
+    }
+    remainingElements = beamRadius;
+    for (T block = higherBlock; block != null && remainingElements > 0; block = block.getNextBlock()) {
+      uncachedBlocks = addIfUncached(block, uncachedBlocks);
+      remainingElements -= block.getSize();
+    }
+    if (uncachedBlocks == null) {
+      return;
+    }
+    for (T block : uncachedBlocks) {
+      submit(executor, block);
+    }
+  }
+
+  private static <T extends LinkedBlock<T>> List<T> addIfUncached(T block, List<T> uncachedBlocks) {
+    if (block.isCached()) {
+      return uncachedBlocks;
+    }
+    if (uncachedBlocks == null) {
+      uncachedBlocks = new ArrayList<T>();
+    }
+    uncachedBlocks.add(block);
+    return uncachedBlocks;
+  }
+
+  private void submit(ThreadPoolExecutor executor, final LinkedBlock<?> block) {
+    executor.execute(new Runnable() {
+
+      public void run() {
+        try {
+          block.prefetch();
+        } catch (RuntimeException e) {
+          if (logger.isLoggable(Level.FINE))
+            logger.log(Level.FINE, "Could not prefetch block.", e);
+        }
+      }
+    });
+  }
+
+  private static class PrefetchThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadCounter = new AtomicInteger();
+
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "block-prefetch-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
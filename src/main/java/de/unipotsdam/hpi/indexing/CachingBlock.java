@@ -22,20 +22,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
-import java.lang.ref.SoftReference;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.logging.Logger;
 
+import de.unipotsdam.hpi.storage.BlockCache;
+import de.unipotsdam.hpi.storage.CacheStatistics;
 import de.unipotsdam.hpi.util.BitSignatureUtil;
 import de.unipotsdam.hpi.util.EncodingUtils;
 
 /**
  * Is associated with a file that contains the actual elements of this block.<br>
- * It also uses a {@link SoftReference} to keep elements in memory as long as possible.
+ * Its elements are kept in the {@link BlockCache} of the index while they are in use.
  * 
  * @author Sebastian
  */
@@ -43,14 +42,10 @@ public class CachingBlock extends AbstractSignatureStoringBlock implements Seria
 	
 	private static final long serialVersionUID = 8965038039252466052L;
 	
-	private static final Logger logger = Logger.getLogger(CachingBlock.class.getName());
-
-	private static AtomicInteger hitCount = new AtomicInteger();
-	private static AtomicInteger missCount = new AtomicInteger();
-
 	static final int INT_SIZE_IN_BYTES = 4;
 
-	transient private SoftReference<IndexPair[]> cache;
+	transient private CacheStatistics cacheStatistics;
+	transient private BlockCache blockCache;
 
 	private File file;
 
@@ -110,7 +105,8 @@ public class CachingBlock extends AbstractSignatureStoringBlock implements Seria
 		size = length;
 		IndexPair[] cachedPairs = new IndexPair[length];
 		System.arraycopy(pairs, offset, cachedPairs, 0, length);
-		cache = new SoftReference<IndexPair[]>(cachedPairs);
+		getBlockCache().put(this, 0, cachedPairs,
+				BlockCache.weightOf(cachedPairs, keySize), cacheStatistics);
 	}
 
 	private void writePair(OutputStream out, IndexPair pair)
@@ -150,27 +146,34 @@ public class CachingBlock extends AbstractSignatureStoringBlock implements Seria
 	}
 
 	/**
-	 * get a number of sequential elements of this block starting from a
-	 * specified index
-	 * 
-	 * @param startIndex
-	 * @param numElements
+	 * Returns the cached elements or reads them. Concurrent readers of an
+	 * uncached block wait for a single read. The returned array is shared and
+	 * must not be modified.
 	 */
-	private synchronized IndexPair[] getOrLoadPairs() {
-		IndexPair[] pairs;
-		if (cache != null && (pairs = cache.get()) != null) {
-			hitCount.incrementAndGet();
-			return pairs;
-		}
+	private IndexPair[] getOrLoadPairs() {
+		return getBlockCache().getOrLoad(this, 0, cacheStatistics,
+				new BlockCache.Loader<IndexPair[]>() {
+					public IndexPair[] load() {
+						return loadPairs();
+					}
+
+					public long weightOf(IndexPair[] pairs) {
+						return BlockCache.weightOf(pairs, keySize);
+					}
+				});
+	}
 
-		missCount.incrementAndGet();
-		pairs = new IndexPair[size];
+	private IndexPair[] loadPairs() {
+		long startTime = System.nanoTime();
+		IndexPair[] pairs = new IndexPair[size];
+		// a block may be read by several threads after an invalidation
+		byte[] readBuffer = new byte[keyBuffer.length];
 		FileInputStream in = null;
 		try {
 			in = new FileInputStream(file);
 			// in.skip(startPos);
 			for (int i = 0; i < size; i++) {
-				IndexPair pair = readPair(in);
+				IndexPair pair = readPair(in, readBuffer);
 				pairs[i] = pair;
 			}
 		} catch (IOException e) {
@@ -184,14 +187,15 @@ public class CachingBlock extends AbstractSignatureStoringBlock implements Seria
 				}
 		}
 
-		this.cache = new SoftReference<IndexPair[]>(pairs);
-
+		if (cacheStatistics != null) {
+			cacheStatistics.recordLoad(System.nanoTime() - startTime);
+		}
 		return pairs;
 	}
 
-	private IndexPair readPair(FileInputStream in) throws IOException {
+	private IndexPair readPair(FileInputStream in, byte[] readBuffer) throws IOException {
 		long[] key = new long[keySize];
-		EncodingUtils.readCompleteArray(key, keyBuffer, in);
+		EncodingUtils.readCompleteArray(key, readBuffer, in);
 		int elementId = EncodingUtils.readInt(in);
 		IndexPair pair = new IndexPair(key, elementId);
 		return pair;
@@ -232,6 +236,13 @@ public class CachingBlock extends AbstractSignatureStoringBlock implements Seria
 				retainedElements.add(element);
 		}
 
+		if (retainedElements.isEmpty()) {
+			// bulk loading nothing would keep the old elements
+			startKey = null;
+			size = 0;
+			clearCache();
+			return;
+		}
 		bulkLoad(retainedElements
 				.toArray(new IndexPair[retainedElements.size()]));
 	}
@@ -260,20 +271,43 @@ public class CachingBlock extends AbstractSignatureStoringBlock implements Seria
 	 * 
 	 * @throws IOException
 	 */
+	@Override
+	public boolean isCached() {
+		return size == 0 || getBlockCache().contains(this, 0);
+	}
+
+	@Override
+	public void prefetch() {
+		if (!isCached()) {
+			getOrLoadPairs();
+		}
+	}
+
 	public void close() throws IOException {
-//		channel.close();
+		clearCache();
 	}
 	
 	public void clearCache() {
-		cache = null;
+		getBlockCache().invalidate(this, 0);
 	}
 	
-	public static void printStatistics() {
-		int hits = hitCount.get();
-		int misses = missCount.get();
-		
-		double accesses = hits + misses;
-		logger.info(String.format("Hit rate:  %3.3f (%4d)\n", hits / accesses, hits));
+	/**
+	 * Sets where the accesses to the cached elements are counted.
+	 */
+	public void setCacheStatistics(CacheStatistics statistics) {
+		this.cacheStatistics = statistics;
+	}
+
+	/**
+	 * Sets the cache that keeps the elements while they are in use. The shared cache is
+	 * used if none is set.
+	 */
+	public void setBlockCache(BlockCache blockCache) {
+		this.blockCache = blockCache;
+	}
+
+	private BlockCache getBlockCache() {
+		return blockCache == null ? BlockCache.getShared() : blockCache;
 	}
 
 	public void recover() {
@@ -15,8 +15,15 @@
  */
 package de.unipotsdam.hpi.indexing;
 
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Iterator;
+
+import de.unipotsdam.hpi.storage.BlockCache;
+import de.unipotsdam.hpi.storage.CacheStatistics;
 
 /**
  * Keys are bit signatures (ie byte arrays). Values are integers that represent
@@ -32,6 +39,23 @@ public interface Index extends Serializable {
 	void insertElement(IndexPair pair) throws IOException;
 	
 	void deleteElement(long[] key);
+
+	/**
+	 * Removes all elements with the given ids from the index. Blocks that become empty
+	 * are dropped.
+	 * 
+	 * @return the number of removed elements
+	 */
+	int removeElements(IntSet elementIds);
+
+	/**
+	 * Removes the elements with the given ids like {@link #removeElements(IntSet)}, but
+	 * only rewrites the blocks that might contain one of the given keys, i.e., the
+	 * signatures of these elements as permuted for this index.
+	 * 
+	 * @return the number of removed elements
+	 */
+	int removeElements(IntSet elementIds, long[][] keys);
 	
 	/**
    * Gets the nearest neighbor around the given key. Fetches at least as many smaller
@@ -53,8 +77,37 @@ public interface Index extends Serializable {
 	 */
 	int[] getNearestNeighboursElementIds(long[] key, int beamRadius);
 
+	/**
+	 * Gets the nearest neighbors around the given key, as
+	 * {@link #getNearestNeighboursElementIds(long[], int)} would, but appends them to the
+	 * given list instead of allocating a new array. Callers can reuse the list across
+	 * queries.
+	 */
+	void getNearestNeighboursElementIds(long[] key, int beamRadius, IntList neighbours);
+
+	/**
+	 * Gets the nearest neighbors for each of the given keys, as
+	 * {@link #getNearestNeighboursElementIds(long[], int)} would. The keys must be sorted
+	 * ascending, which allows implementations to walk their blocks only once for the
+	 * whole batch.
+	 * 
+	 * @return an array with the neighbors of the i-th key at position i
+	 */
+	int[][] getNearestNeighboursElementIds(long[][] sortedKeys, int beamRadius);
+
 	void bulkLoad(IndexPair[] keyValuePairs);
 
+	/**
+	 * Loads the pairs, which must be sorted by their keys, without requiring all of them
+	 * to be in memory at once.
+	 */
+	void bulkLoad(Iterator<IndexPair> sortedPairs);
+
+	/**
+	 * Loads the elements of the batch, which must be sorted by their signatures.
+	 */
+	void bulkLoad(SignatureBatch sortedBatch);
+
 	/**
 	 * Returns the value associated with the element or throws an
 	 * IllegalArgumentException if not present.
@@ -70,4 +123,22 @@ public interface Index extends Serializable {
 	 * Should be called after an index is deserialized.
 	 */
 	void recover();
+
+	/**
+	 * Returns the statistics of the blocks of this index in its block cache.
+	 */
+	CacheStatistics getCacheStatistics();
+
+	/**
+	 * Sets the cache that keeps the decoded blocks of this index instead of the shared
+	 * one. It should be set before the blocks are accessed, as blocks that are already
+	 * in the previous cache stay there until they are evicted.
+	 */
+	void setBlockCache(BlockCache blockCache);
+
+	/**
+	 * Sets the prefetcher that loads the blocks of a query's beam in the background
+	 * instead of the shared one.
+	 */
+	void setBlockPrefetcher(BlockPrefetcher blockPrefetcher);
 }
@@ -64,6 +64,18 @@ public interface LinkedBlock<T extends LinkedBlock<T>> extends Serializable {
 	 */
 	long[] getStartKey();
 
+	/**
+	 * Tells whether the elements of this block can be accessed without reading them from
+	 * disk.
+	 */
+	boolean isCached();
+
+	/**
+	 * Loads the elements of this block into memory unless they are there already, so
+	 * that a following access does not have to wait for the disk.
+	 */
+	void prefetch();
+
 	/**
 	 * Closes connection to any system resources held by this block.
 	 */
@@ -28,11 +28,14 @@ import java.util.HashSet;
 import java.util.Set;
 
 import de.unipotsdam.hpi.util.BitSignatureUtil;
-import de.unipotsdam.hpi.util.EncodingUtils;
 
 /**
  * Uses {@link ByteBuffer} for writing elements to disk. We could implement
  * another version with {@link MappedByteBuffer}.
+ * <p>
+ * Reads use absolute positions on the mapped buffer and never move its
+ * position, so that any number of threads can read the block concurrently.
+ * Writes must not run concurrently with reads.
  * 
  * @author Thorben
  * 
@@ -99,16 +102,16 @@ public class MappedIoBlock extends AbstractSignatureStoringBlock {
 
 		size = 0;
 		startKey = pairs[offset].getBitSignature();
-		byteBuffer.position(0);
+		ByteBuffer writeBuffer = byteBuffer.duplicate();
 		for (int i = offset; i < offset + length; i++) {
 			IndexPair pair = pairs[i];
-			putAll(byteBuffer, pair.getBitSignature());
-			byteBuffer.putInt(pair.getElementId());
+			putAll(writeBuffer, pair.getBitSignature());
+			writeBuffer.putInt(pair.getElementId());
 		}
 		size += length;
 	}
 
-	private void putAll(MappedByteBuffer buffer, long[] longs) {
+	private void putAll(ByteBuffer buffer, long[] longs) {
 		for (long l : longs) {
 			buffer.putLong(l);
 		}
@@ -126,7 +129,7 @@ public class MappedIoBlock extends AbstractSignatureStoringBlock {
 	 * @param startIndex
 	 * @param numElements
 	 */
-	public synchronized IndexPair[] getElements(int startIndex, int numElements) {
+	public IndexPair[] getElements(int startIndex, int numElements) {
 		int bufferCapacity = byteBuffer.capacity();
 		int startPos = getBufferPos(startIndex);
 		int endPos = getBufferPos(startIndex + numElements);
@@ -139,26 +142,26 @@ public class MappedIoBlock extends AbstractSignatureStoringBlock {
 		if (!byteBuffer.isLoaded()) {
 			byteBuffer.load();
 		}
-		byteBuffer.position(startPos);
 		IndexPair[] pairs = new IndexPair[numElements];
+		int position = startPos;
 		for (int i = 0; i < numElements; i++) {
-			long[] key = getKey(byteBuffer);
-			int elementId = byteBuffer.getInt();
-			IndexPair pair = new IndexPair(key, elementId);
-			pairs[i] = pair;
+			long[] key = getKey(position, new long[keySize]);
+			int elementId = byteBuffer.getInt(position + keyBuffer.length);
+			pairs[i] = new IndexPair(key, elementId);
+			position += keyBuffer.length + INT_SIZE_IN_BYTES;
 		}
 
 		return pairs;
 	}
 
-	private long[] getKey(MappedByteBuffer buffer) {
-		long[] key = new long[keySize];
-		return getKey(buffer, key);
-	}
-
-	private long[] getKey(MappedByteBuffer buffer, long[] key) {
-		byteBuffer.get(keyBuffer);
-		EncodingUtils.copy(keyBuffer, key);
+	/**
+	 * Reads the key at the given byte position without moving the position of
+	 * the buffer.
+	 */
+	private long[] getKey(int position, long[] key) {
+		for (int i = 0; i < keySize; i++) {
+			key[i] = byteBuffer.getLong(position + (i << 3));
+		}
 		return key;
 	}
 
@@ -168,18 +171,17 @@ public class MappedIoBlock extends AbstractSignatureStoringBlock {
 	 * @throws IllegalArgumentException
 	 *             if key not present in this block
 	 */
-	public synchronized int get(long[] key) {
+	public int get(long[] key) {
 		if (!byteBuffer.isLoaded()) {
 			byteBuffer.load();
 		}
-		byteBuffer.position(0);
 		long[] curKey = new long[keySize];
 		for (int i = 0; i < size; i++) {
-			getKey(byteBuffer, curKey);
-			int elementId = byteBuffer.getInt();
+			int position = getBufferPos(i);
+			getKey(position, curKey);
 			int comparison = BitSignatureUtil.COMPARATOR.compare(key, curKey);
 			if (comparison == 0) {
-				return elementId;
+				return byteBuffer.getInt(position + keyBuffer.length);
 			} else if (comparison < 0) {
 				break;
 			}
@@ -196,12 +198,12 @@ public class MappedIoBlock extends AbstractSignatureStoringBlock {
 			return;
 		IndexPair[] elements = getElements();
 		startKey = elements[0].getBitSignature();
-		byteBuffer.position(0);
+		ByteBuffer writeBuffer = byteBuffer.duplicate();
 		for (IndexPair element : elements) {
 			if (Arrays.equals(key, element.getBitSignature()))
 				continue;
-			putAll(byteBuffer, element.getBitSignature());
-			byteBuffer.putInt(element.getElementId());
+			putAll(writeBuffer, element.getBitSignature());
+			writeBuffer.putInt(element.getElementId());
 		}
 		size--;
 	}
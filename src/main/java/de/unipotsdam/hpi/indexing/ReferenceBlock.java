@@ -2,29 +2,24 @@ package de.unipotsdam.hpi.indexing;
 
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntSet;
 
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.logging.Logger;
+import java.util.Arrays;
 
-import de.unipotsdam.hpi.storage.AggregatedReferenceBlockStorage;
+import de.unipotsdam.hpi.storage.ReferenceBlockStorage;
 import de.unipotsdam.hpi.util.BitSignatureUtil;
 
 public class ReferenceBlock extends AbstractLinkedBlock<ReferenceBlock> {
 
   private static final long serialVersionUID = 8949680599151025769L;
   
-  private static final Logger logger = Logger.getLogger(ReferenceBlock.class.getName());
-
-  private static AtomicInteger hitCount = new AtomicInteger();
-  private static AtomicInteger missCount = new AtomicInteger();
-  
   private int blockId;
   
-  private AggregatedReferenceBlockStorage storage;
+  private ReferenceBlockStorage storage;
   
   
-  public ReferenceBlock(int capacity, int keySize, AggregatedReferenceBlockStorage storage, int id) {
+  public ReferenceBlock(int capacity, int keySize, ReferenceBlockStorage storage, int id) {
     this.capacity = capacity;
     this.keySize = keySize;
     this.blockId = id;
@@ -44,9 +39,7 @@ public class ReferenceBlock extends AbstractLinkedBlock<ReferenceBlock> {
       return;
     }
     
-    int[] localElementIds = new int[length];
-    System.arraycopy(elementIds, offset, localElementIds, 0, length);
-    storage.writeBlock(blockId, localElementIds);
+    storage.writeBlock(blockId, elementIds, offset, length);
 
     if (startKey != null) {
       this.startKey = startKey;
@@ -59,7 +52,7 @@ public class ReferenceBlock extends AbstractLinkedBlock<ReferenceBlock> {
     if (size >= capacity)
       throw new IllegalStateException("Block is full!");
     
-    int[] oldPairs = getElements();
+    int[] oldPairs = size == 0 ? new int[0] : getElements();
     int[] newPairs = new int[oldPairs.length + 1];
     
     int beforeElements = Math.min(oldPairs.length, index);
@@ -69,7 +62,7 @@ public class ReferenceBlock extends AbstractLinkedBlock<ReferenceBlock> {
     newPairs[index] = elementId;
     System.arraycopy(oldPairs, beforeElements, newPairs, index + 1, afterElements);
 
-    if (BitSignatureUtil.COMPARATOR.compare(key, startKey) < 0) {
+    if (startKey == null || BitSignatureUtil.COMPARATOR.compare(key, startKey) < 0) {
       startKey = key;
     }
     bulkLoad(newPairs, null);
@@ -105,24 +98,70 @@ public class ReferenceBlock extends AbstractLinkedBlock<ReferenceBlock> {
 
   }
 
-  public void close() throws IOException {
+  @Override
+  public boolean isCached() {
+    return size == 0 || storage.isCached(blockId);
+  }
+
+  @Override
+  public void prefetch() {
+    if (!isCached()) {
+      getOrLoadElementIds();
+    }
+  }
 
+  public void close() throws IOException {
+    storage.close();
   }
 
   public void recover() {
 
   }
   
-  private synchronized int[] getOrLoadElementIds() {
-    return storage.getBlock(blockId);
+  /**
+   * Removes the given elements from this block without writing the block. The caller
+   * has to write the returned ids to the storage of this block.
+   * 
+   * @return the remaining element ids or <code>null</code> if none was removed
+   */
+  int[] removeElements(IntSet elementIds) {
+    if (size == 0)
+      return null;
+    
+    int[] containedElementIds = getOrLoadElementIds();
+    int[] retainedElementIds = new int[containedElementIds.length];
+    int numRetainedElements = 0;
+    for (int containedElementId : containedElementIds) {
+      if (!elementIds.contains(containedElementId)) {
+        retainedElementIds[numRetainedElements++] = containedElementId;
+      }
+    }
+    if (numRetainedElements == containedElementIds.length)
+      return null;
+    
+    // note: start key remains the same, even if the lowest element is deleted
+    size = numRetainedElements;
+    return Arrays.copyOf(retainedElementIds, numRetainedElements);
   }
   
-  public static void printStatistics() {
-    int hits = hitCount.get();
-    int misses = missCount.get();
-    
-    double accesses = hits + misses;
-    logger.info(String.format("Hit rate:  %3.3f (%4d)\n", hits / accesses, hits));
+  /**
+   * Sets the state of a block whose ids are already in the storage.
+   */
+  void restore(int size, long[] startKey) {
+    this.size = size;
+    this.startKey = startKey;
+  }
+  
+  int getBlockId() {
+    return blockId;
+  }
+  
+  ReferenceBlockStorage getStorage() {
+    return storage;
+  }
+  
+  private int[] getOrLoadElementIds() {
+    return storage.getBlock(blockId);
   }
 
 }
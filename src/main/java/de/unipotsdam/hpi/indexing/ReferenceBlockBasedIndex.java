@@ -1,54 +1,151 @@
 package de.unipotsdam.hpi.indexing;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntSet;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import de.unipotsdam.hpi.permutation.PermutationFunction;
 import de.unipotsdam.hpi.storage.AggregatedReferenceBlockStorage;
-import de.unipotsdam.hpi.storage.BitSignatureIndex;
+import de.unipotsdam.hpi.storage.AppendOnlyReferenceBlockStorage;
+import de.unipotsdam.hpi.storage.IdListCodec;
+import de.unipotsdam.hpi.storage.BitSignatureLookup;
+import de.unipotsdam.hpi.storage.BlockCache;
+import de.unipotsdam.hpi.storage.ReferenceBlockStorage;
 import de.unipotsdam.hpi.util.BitSignatureUtil;
 
 public class ReferenceBlockBasedIndex extends AbstractBlockBasedIndex<ReferenceBlock> {
 
   private static final long serialVersionUID = 1L;
   
-  transient protected BitSignatureIndex bitSignatureIndex;
+  // name of the data file of an append-only block storage within the index directory
+  static final String BLOCKS_FILE = "blocks";
+  
+  transient protected BitSignatureLookup bitSignatureIndex;
   transient protected PermutationFunction permutationFunction;
   
   private int storageCounter = 0;
   private int blocksPerFile = 100;
+  private boolean appendOnlyBlockStorage = false;
+  private boolean compressedBlocks = false;
   
   transient AggregatedReferenceBlockStorage currentStorage;
+  private AppendOnlyReferenceBlockStorage appendOnlyStorage;
   
-  public ReferenceBlockBasedIndex(Path basePath, int keySize, int blockSize, BitSignatureIndex bitSignatureIndex, 
+  public ReferenceBlockBasedIndex(Path basePath, int keySize, int blockSize, BitSignatureLookup bitSignatureIndex, 
       PermutationFunction permutationFunction) {
+    this(basePath, keySize, blockSize, bitSignatureIndex, permutationFunction, false);
+  }
+  
+  /**
+   * @param appendOnlyBlockStorage
+   *          if set, all blocks are appended to a single {@link AppendOnlyReferenceBlockStorage},
+   *          otherwise they are aggregated in files of {@link #blocksPerFile} blocks that are
+   *          rewritten whenever one of their blocks changes
+   */
+  public ReferenceBlockBasedIndex(Path basePath, int keySize, int blockSize, BitSignatureLookup bitSignatureIndex, 
+      PermutationFunction permutationFunction, boolean appendOnlyBlockStorage) {
+    this(basePath, keySize, blockSize, bitSignatureIndex, permutationFunction,
+        appendOnlyBlockStorage, false);
+  }
+  
+  /**
+   * @param compressedBlocks
+   *          if set, the element ids of the blocks are stored as variable-length deltas
+   *          (see {@link IdListCodec}) instead of raw ints
+   */
+  public ReferenceBlockBasedIndex(Path basePath, int keySize, int blockSize, BitSignatureLookup bitSignatureIndex, 
+      PermutationFunction permutationFunction, boolean appendOnlyBlockStorage,
+      boolean compressedBlocks) {
     super(basePath, keySize, blockSize);
     this.bitSignatureIndex = bitSignatureIndex;
     this.permutationFunction = permutationFunction;
+    this.appendOnlyBlockStorage = appendOnlyBlockStorage;
+    this.compressedBlocks = compressedBlocks;
   }
 
   protected ReferenceBlock createNewBlock() throws IOException {
-    AggregatedReferenceBlockStorage storage = resolveBlockStorage();
+    ReferenceBlockStorage storage = resolveBlockStorage();
     ReferenceBlock block = new ReferenceBlock(blockSize, keySize, storage, blockIdCounter++);
     return block;
   }
   
-  protected AggregatedReferenceBlockStorage resolveBlockStorage() {
+  protected ReferenceBlockStorage resolveBlockStorage() {
+    if (appendOnlyBlockStorage) {
+      if (appendOnlyStorage == null) {
+        appendOnlyStorage = new AppendOnlyReferenceBlockStorage(basePath.resolve(BLOCKS_FILE),
+            compressedBlocks);
+        appendOnlyStorage.setCacheStatistics(getCacheStatistics());
+        appendOnlyStorage.setBlockCache(getBlockCache());
+      }
+      return appendOnlyStorage;
+    }
+    
     if (currentStorage == null || storageCounter % blocksPerFile == 0) {
       int storageId = storageCounter / blocksPerFile;
       Path storagePath = basePath.resolve("blockIndex" + storageId);
-      currentStorage = new AggregatedReferenceBlockStorage(storagePath);
+      currentStorage = new AggregatedReferenceBlockStorage(storagePath, compressedBlocks);
+      currentStorage.setCacheStatistics(getCacheStatistics());
+      currentStorage.setBlockCache(getBlockCache());
     }
     storageCounter++;
     
     return currentStorage;
   }
   
+  /**
+   * Returns the storage of all blocks or <code>null</code> if the blocks are aggregated
+   * in several storages.
+   */
+  AppendOnlyReferenceBlockStorage getAppendOnlyStorage() {
+    return appendOnlyBlockStorage ? appendOnlyStorage : null;
+  }
+  
+  boolean isAppendOnlyBlockStorage() {
+    return appendOnlyBlockStorage;
+  }
+  
+  /**
+   * Replaces the blocks of this (empty) index with the given, already stored blocks.
+   */
+  void restore(AppendOnlyReferenceBlockStorage storage, ReferenceBlock firstBlock, int blockIdCounter) {
+    this.appendOnlyStorage = storage;
+    storage.setCacheStatistics(getCacheStatistics());
+    storage.setBlockCache(getBlockCache());
+    this.firstBlock = firstBlock;
+    this.blockIdCounter = blockIdCounter;
+    directory.rebuild(firstBlock);
+  }
+  
+  @Override
+  public void recover() {
+    super.recover();
+    for (ReferenceBlock block = firstBlock; block != null; block = block.getNextBlock()) {
+      block.getStorage().setCacheStatistics(getCacheStatistics());
+      block.getStorage().setBlockCache(getBlockCache());
+    }
+  }
+  
+  @Override
+  public void setBlockCache(BlockCache blockCache) {
+    super.setBlockCache(blockCache);
+    if (appendOnlyStorage != null) {
+      appendOnlyStorage.setBlockCache(blockCache);
+    }
+    for (ReferenceBlock block = firstBlock; block != null; block = block.getNextBlock()) {
+      block.getStorage().setBlockCache(blockCache);
+    }
+  }
+  
   /**
    * This is anyway a very expensive operation, since it requires to apply the permutation function.
    */
@@ -62,20 +159,28 @@ public class ReferenceBlockBasedIndex extends AbstractBlockBasedIndex<ReferenceB
    * TODO: Returns non-permuted signature which breaks the API
    */
   public int[] getNearestNeighboursElementIds(long[] key, int beamRadius) {
+    IntList neighbours = new IntArrayList(3 * blockSize);
+    getNearestNeighboursElementIds(key, beamRadius, neighbours);
+    return neighbours.toArray(new int[neighbours.size()]);
+  }
+  
+  @Override
+  public void getNearestNeighboursElementIds(long[] key, int beamRadius, IntList neighbours) {
     ReferenceBlock containingBlock = getBlockFor(key);
     ReferenceBlock lowerBlock = null;
     ReferenceBlock higherBlock = null;
     
-    IntList neighbours = new IntArrayList(3 * blockSize);
-    
     if (containingBlock == null) {
       higherBlock = firstBlock;
     } else {
-      neighbours.addElements(neighbours.size(), containingBlock.getElements());
-      
       lowerBlock = containingBlock.getPreviousBlock();
       higherBlock = containingBlock.getNextBlock();
     }
+    // the neighbor blocks are read in the background while the containing block is loaded
+    getBlockPrefetcher().prefetchBeam(lowerBlock, higherBlock, beamRadius);
+    if (containingBlock != null) {
+      neighbours.addElements(neighbours.size(), containingBlock.getElements());
+    }
     
     int fetchSmallerElements = beamRadius, fetchGreaterElements = beamRadius;
     
@@ -92,8 +197,82 @@ public class ReferenceBlockBasedIndex extends AbstractBlockBasedIndex<ReferenceB
       fetchGreaterElements -= higherBlock.getSize();
       higherBlock = higherBlock.getNextBlock();
     }
+  }
+  
+  /**
+   * Walks the blocks once for all keys, jumping to the block of each key through the
+   * block directory. Blocks are loaded at most once per batch: loaded blocks are kept
+   * while they may still be part of the beam of a following key and released as soon
+   * as the beam has moved past them.
+   */
+  @Override
+  public int[][] getNearestNeighboursElementIds(long[][] sortedKeys, int beamRadius) {
+    int[][] neighbours = new int[sortedKeys.length][];
+    // loaded blocks by their directory positions
+    Int2ObjectMap<int[]> loadedBlocks = new Int2ObjectOpenHashMap<int[]>();
+    int numBlocks = directory.size();
+    // the lowest directory position of the previous beam
+    int lowestLoadedPosition = 0;
     
-    return neighbours.toArray(new int[neighbours.size()]);
+    for (int i = 0; i < sortedKeys.length; i++) {
+      long[] key = sortedKeys[i];
+      if (i > 0 && BitSignatureUtil.COMPARATOR.compare(sortedKeys[i - 1], key) > 0) {
+        throw new IllegalArgumentException("Keys are not sorted at position " + i);
+      }
+      
+      int containingPosition = getBlockPositionFor(key);
+      IntList keyNeighbours = new IntArrayList(3 * blockSize);
+      int lowerPosition = containingPosition - 1;
+      int higherPosition = containingPosition + 1;
+      int lowestPosition = Math.max(containingPosition, 0);
+      if (containingPosition >= 0) {
+        keyNeighbours.addElements(keyNeighbours.size(),
+            getElements(containingPosition, loadedBlocks));
+      }
+      
+      int fetchSmallerElements = beamRadius, fetchGreaterElements = beamRadius;
+      
+      while (lowerPosition >= 0 && fetchSmallerElements > 0) {
+        int[] elements = getElements(lowerPosition, loadedBlocks);
+        keyNeighbours.addElements(keyNeighbours.size(), elements);
+        
+        fetchSmallerElements -= elements.length;
+        lowestPosition = lowerPosition;
+        lowerPosition--;
+      }
+      
+      while (higherPosition < numBlocks && fetchGreaterElements > 0) {
+        int[] elements = getElements(higherPosition, loadedBlocks);
+        keyNeighbours.addElements(keyNeighbours.size(), elements);
+        
+        fetchGreaterElements -= elements.length;
+        higherPosition++;
+      }
+      
+      // following keys will not need the blocks before this beam
+      if (lowestPosition > lowestLoadedPosition) {
+        IntIterator positions = loadedBlocks.keySet().iterator();
+        while (positions.hasNext()) {
+          if (positions.nextInt() < lowestPosition) {
+            positions.remove();
+          }
+        }
+        lowestLoadedPosition = lowestPosition;
+      }
+      
+      neighbours[i] = keyNeighbours.toIntArray();
+    }
+    
+    return neighbours;
+  }
+  
+  private int[] getElements(int position, Int2ObjectMap<int[]> loadedBlocks) {
+    int[] elements = loadedBlocks.get(position);
+    if (elements == null) {
+      elements = directory.get(position).getElements();
+      loadedBlocks.put(position, elements);
+    }
+    return elements;
   }
   
   @Override
@@ -106,43 +285,45 @@ public class ReferenceBlockBasedIndex extends AbstractBlockBasedIndex<ReferenceB
     if (firstBlock == null) {
       firstBlock = createNewBlock();
       firstBlock.insertElement(pair.getElementId(), pair.getBitSignature(), 0);
+      directory.insert(0, firstBlock);
     } else {
-      ReferenceBlock block = getBlockFor(pair.getBitSignature());
-      if (block == null) {
+      int blockPosition = getBlockPositionFor(pair.getBitSignature());
+      if (blockPosition < 0) {
         // If there is no block that might contain the pair, all blocks
         // have a greater start key.
         // So add to the first block.
-        block = firstBlock;
+        blockPosition = 0;
       }
+      ReferenceBlock block = directory.get(blockPosition);
       if (block.getSize() < block.getCapacity()) {
         int position = determineBlockPositionForElement(block, pair);
         block.insertElement(pair.getElementId(), pair.getBitSignature(), position);
+        directory.update(blockPosition);
       } else {
         // Split the block and add the elements:
         // 1. Create a new block and link it right after the current
         // block.
         ReferenceBlock newBlock = createNewBlock();
-        newBlock.setPreviousBlock(block);
-        newBlock.setNextBlock(block.getNextBlock());
-        block.setNextBlock(newBlock);
-        if (newBlock.getNextBlock() != null) {
-          newBlock.getNextBlock().setPreviousBlock(newBlock);
-        }
+        linkBlockAfter(block, newBlock);
 
         // 2. Retrieve all elements and spread them over the new blocks.
         IndexPair[] pairs = resolveBlock(block);
         int splitIndex = pairs.length / 2 + 1;
         bulkLoadBlock(block, pairs, 0, splitIndex);
         bulkLoadBlock(newBlock, pairs, splitIndex, pairs.length - splitIndex);
+        directory.update(blockPosition);
+        directory.insert(blockPosition + 1, newBlock);
 
         // 3. Find the target block for the new element and add it.
         if (BitSignatureUtil.COMPARATOR.compare(pair.getBitSignature(),
             newBlock.getStartKey()) < 0) {
           int insertIndex = determineBlockPositionForElement(block, pair);
           block.insertElement(pair.getElementId(), pair.getBitSignature(), insertIndex);
+          directory.update(blockPosition);
         } else {
           int insertIndex = determineBlockPositionForElement(newBlock, pair);
           newBlock.insertElement(pair.getElementId(), pair.getBitSignature(), insertIndex);
+          directory.update(blockPosition + 1);
         }
       }
     }
@@ -174,8 +355,8 @@ public class ReferenceBlockBasedIndex extends AbstractBlockBasedIndex<ReferenceB
     
     for (int i = 0; i < elementIds.length; i++) {
       int elementId = elementIds[i];
-      IndexPair pair = bitSignatureIndex.getIndexPair(elementId);
-      long[] permutedSignature = permutationFunction.permute(pair.getBitSignature());
+      long[] signature = bitSignatureIndex.getBitSignature(elementId);
+      long[] permutedSignature = permutationFunction.permute(signature);
       resolvedElements[i] = new IndexPair(permutedSignature, elementId);
     }
     
@@ -187,10 +368,10 @@ public class ReferenceBlockBasedIndex extends AbstractBlockBasedIndex<ReferenceB
       return;
     }
     
-    int[] elementIds = new int[pairs.length];
+    int[] elementIds = new int[length];
     
-    for (int i = 0; i < pairs.length; i++) {
-      IndexPair pair = pairs[i];
+    for (int i = 0; i < length; i++) {
+      IndexPair pair = pairs[offset + i];
       
       if (!bitSignatureIndex.contains(pair.getElementId())) {
         throw new RuntimeException("Element not in bit signature index: "+ pair);
@@ -199,7 +380,22 @@ public class ReferenceBlockBasedIndex extends AbstractBlockBasedIndex<ReferenceB
       elementIds[i] = pair.getElementId();
     }
     
-    block.bulkLoad(elementIds, offset, length, pairs[offset].getBitSignature());
+    block.bulkLoad(elementIds, 0, length, pairs[offset].getBitSignature());
+  }
+
+  protected void bulkLoadBlock(ReferenceBlock block, SignatureBatch batch, int offset, int length) {
+    if (length == 0) {
+      return;
+    }
+
+    int[] elementIds = batch.getElementIds();
+    for (int i = offset; i < offset + length; i++) {
+      if (!bitSignatureIndex.contains(elementIds[i])) {
+        throw new RuntimeException("Element not in bit signature index: " + elementIds[i]);
+      }
+    }
+
+    block.bulkLoad(elementIds, offset, length, batch.getSignature(offset));
   }
   
   @Override
@@ -208,6 +404,92 @@ public class ReferenceBlockBasedIndex extends AbstractBlockBasedIndex<ReferenceB
     
   }
 
+  /**
+   * Rewrites all blocks that contain removed elements. The blocks of a storage are
+   * collected first, so that each storage is written only once.
+   */
+  @Override
+  public int removeElements(IntSet elementIds) {
+    if (elementIds.isEmpty()) {
+      return 0;
+    }
+    
+    Map<ReferenceBlockStorage, Int2ObjectMap<int[]>> rewrittenBlocks = 
+        new IdentityHashMap<ReferenceBlockStorage, Int2ObjectMap<int[]>>();
+    int numRemovedElements = 0;
+    ReferenceBlock block = firstBlock;
+    while (block != null) {
+      ReferenceBlock nextBlock = block.getNextBlock();
+      numRemovedElements += removeElements(block, elementIds, rewrittenBlocks);
+      block = nextBlock;
+    }
+    
+    writeBlocks(rewrittenBlocks);
+    if (numRemovedElements > 0) {
+      directory.rebuild(firstBlock);
+    }
+    return numRemovedElements;
+  }
+
+  /**
+   * Rewrites only the blocks that might contain the given keys and keeps the directory
+   * up to date instead of rebuilding it.
+   */
+  @Override
+  public int removeElements(IntSet elementIds, long[][] keys) {
+    if (elementIds.isEmpty()) {
+      return 0;
+    }
+    
+    Map<ReferenceBlockStorage, Int2ObjectMap<int[]>> rewrittenBlocks = 
+        new IdentityHashMap<ReferenceBlockStorage, Int2ObjectMap<int[]>>();
+    int numRemovedElements = 0;
+    for (int position : getBlockPositionsFor(keys)) {
+      ReferenceBlock block = directory.get(position);
+      numRemovedElements += removeElements(block, elementIds, rewrittenBlocks);
+      // the start key of a block remains the same unless it is dropped
+      if (block.getSize() == 0) {
+        directory.remove(position);
+      }
+    }
+    
+    writeBlocks(rewrittenBlocks);
+    return numRemovedElements;
+  }
+
+  /**
+   * Removes the elements from the block and collects its retained ids for writing. A
+   * block that becomes empty is unlinked, and no ids are written for it.
+   * 
+   * @return the number of removed elements
+   */
+  private int removeElements(ReferenceBlock block, IntSet elementIds,
+      Map<ReferenceBlockStorage, Int2ObjectMap<int[]>> rewrittenBlocks) {
+    int sizeBefore = block.getSize();
+    int[] retainedElementIds = block.removeElements(elementIds);
+    if (retainedElementIds == null) {
+      return 0;
+    }
+    Int2ObjectMap<int[]> storageBlocks = rewrittenBlocks.get(block.getStorage());
+    if (storageBlocks == null) {
+      storageBlocks = new Int2ObjectOpenHashMap<int[]>();
+      rewrittenBlocks.put(block.getStorage(), storageBlocks);
+    }
+    if (retainedElementIds.length == 0) {
+      storageBlocks.put(block.getBlockId(), null);
+      unlinkBlock(block);
+    } else {
+      storageBlocks.put(block.getBlockId(), retainedElementIds);
+    }
+    return sizeBefore - retainedElementIds.length;
+  }
+
+  private void writeBlocks(Map<ReferenceBlockStorage, Int2ObjectMap<int[]>> rewrittenBlocks) {
+    for (Map.Entry<ReferenceBlockStorage, Int2ObjectMap<int[]>> storageBlocks : rewrittenBlocks.entrySet()) {
+      storageBlocks.getKey().writeBlocks(storageBlocks.getValue());
+    }
+  }
+
   @Override
   public int getElement(long[] key) {
     ReferenceBlock block = getBlockFor(key);
@@ -215,10 +497,12 @@ public class ReferenceBlockBasedIndex extends AbstractBlockBasedIndex<ReferenceB
       throw new IllegalArgumentException("Key not present in index.");
     
     int[] elementIds = block.getElements();
+    long[] associatedKey = new long[keySize];
+    long[] permutedKeyBuffer = new long[keySize];
     
     for (int elementId : elementIds) {
-      long[] associatedKey = bitSignatureIndex.getIndexPair(elementId).getBitSignature();
-      long[] permutedKey = permutationFunction.permute(associatedKey);
+      bitSignatureIndex.copyBitSignature(elementId, associatedKey);
+      long[] permutedKey = permutationFunction.permute(associatedKey, permutedKeyBuffer);
       if (BitSignatureUtil.COMPARATOR.compare(key, permutedKey) == 0) {
         return elementId;
       }
@@ -238,7 +522,7 @@ public class ReferenceBlockBasedIndex extends AbstractBlockBasedIndex<ReferenceB
     throw new UnsupportedOperationException("not implemented");
   }
 
-  public void setBitSignatureIndex(BitSignatureIndex bitSignatureIndex) {
+  public void setBitSignatureIndex(BitSignatureLookup bitSignatureIndex) {
     this.bitSignatureIndex = bitSignatureIndex;
   }
 
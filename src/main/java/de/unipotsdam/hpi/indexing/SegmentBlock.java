@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.util.Arrays;
+
+import de.unipotsdam.hpi.storage.SignatureSegmentStorage;
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+/**
+ * Keeps its elements in a slot of a {@link SignatureSegmentStorage} that is shared with
+ * the other blocks of the index.
+ */
+public class SegmentBlock extends AbstractSignatureStoringBlock {
+
+  private static final long serialVersionUID = 1L;
+
+  private final SignatureSegmentStorage storage;
+  private final int slot;
+
+  public SegmentBlock(int capacity, int keySize, SignatureSegmentStorage storage) {
+    if (capacity > storage.getSlotCapacity()) {
+      throw new IllegalArgumentException("Cannot store " + capacity
+          + " elements in slots of capacity " + storage.getSlotCapacity());
+    }
+    this.capacity = capacity;
+    this.keySize = keySize;
+    this.storage = storage;
+    this.slot = storage.allocateSlot();
+  }
+
+  /**
+   * Inserts a subset of pairs of the given array. The pairs must fit into this block.
+   * The pairs are assumed to be already sorted.
+   */
+  public void bulkLoad(IndexPair[] pairs, int offset, int length) {
+    if (length > capacity) {
+      throw new RuntimeException("Cannot write " + length
+          + " elements to a block of size " + capacity);
+    }
+    if (length == 0) {
+      return;
+    }
+
+    storage.write(slot, pairs, offset, length);
+    startKey = pairs[offset].getBitSignature();
+    size = length;
+  }
+
+  public IndexPair[] getElements() {
+    return getElements(0, size);
+  }
+
+  public IndexPair[] getElements(int startIndex, int numElements) {
+    if (startIndex + numElements > size) {
+      throw new RuntimeException("Out of bounds: Cannot access the end index "
+          + (startIndex + numElements) + " in this block. Size is " + size);
+    }
+    if (size == 0) {
+      return new IndexPair[0];
+    }
+
+    IndexPair[] pairs = storage.read(slot);
+    if (numElements == pairs.length) {
+      return pairs;
+    }
+    IndexPair[] result = new IndexPair[numElements];
+    System.arraycopy(pairs, startIndex, result, 0, numElements);
+    return result;
+  }
+
+  /**
+   * Retrieves the element associated with the given key.
+   *
+   * @throws IllegalArgumentException
+   *           if key not present in this block
+   */
+  public int get(long[] key) {
+    for (IndexPair pair : getElements()) {
+      int comparison = BitSignatureUtil.COMPARATOR.compare(key, pair.getBitSignature());
+      if (comparison == 0) {
+        return pair.getElementId();
+      } else if (comparison < 0) {
+        break;
+      }
+    }
+    throw new IllegalArgumentException("No such entry found in the block: "
+        + Arrays.toString(key));
+  }
+
+  /**
+   * Deletes the element with the specified key, if any.
+   */
+  public void deleteElement(long[] key) {
+    if (size == 0)
+      return;
+
+    IndexPair[] elements = getElements();
+    IndexPair[] retainedElements = new IndexPair[elements.length];
+    int numRetainedElements = 0;
+    for (IndexPair element : elements) {
+      if (!Arrays.equals(element.getBitSignature(), key))
+        retainedElements[numRetainedElements++] = element;
+    }
+    if (numRetainedElements == elements.length)
+      return;
+
+    if (numRetainedElements == 0) {
+      storage.write(slot, retainedElements, 0, 0);
+      startKey = null;
+      size = 0;
+    } else {
+      bulkLoad(retainedElements, 0, numRetainedElements);
+    }
+  }
+
+  /**
+   * Inserts the given pair into this block.
+   *
+   * @throws IllegalStateException
+   *           if the block is already full
+   */
+  public void insertElement(IndexPair indexPair) {
+    if (size >= capacity)
+      throw new IllegalStateException("Block is full!");
+
+    IndexPair[] oldPairs = getElements();
+    IndexPair[] newPairs = new IndexPair[oldPairs.length + 1];
+    newPairs[0] = indexPair;
+    System.arraycopy(oldPairs, 0, newPairs, 1, oldPairs.length);
+    Arrays.sort(newPairs, IndexPair.COMPARATOR);
+    bulkLoad(newPairs);
+  }
+
+  @Override
+  public boolean isCached() {
+    return size == 0 || storage.isCached(slot);
+  }
+
+  @Override
+  public void prefetch() {
+    if (!isCached()) {
+      storage.read(slot);
+    }
+  }
+
+  /**
+   * Gives the slot of this block back to the storage. The block must not be used
+   * afterwards.
+   */
+  void release() {
+    storage.releaseSlot(slot);
+    size = 0;
+    startKey = null;
+  }
+
+  /**
+   * Does nothing, the shared storage is closed by the index.
+   */
+  public void close() {
+  }
+
+  /**
+   * Does nothing, the shared storage maps its segments again when they are accessed.
+   */
+  public void recover() {
+  }
+
+  int getSlot() {
+    return slot;
+  }
+
+  SignatureSegmentStorage getStorage() {
+    return storage;
+  }
+}
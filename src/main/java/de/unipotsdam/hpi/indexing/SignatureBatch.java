@@ -0,0 +1,241 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import de.unipotsdam.hpi.permutation.PermutationFunction;
+import de.unipotsdam.hpi.sorting.InPlaceRadixSort;
+import de.unipotsdam.hpi.util.AtomicBitSet;
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+/**
+ * Column-wise alternative to an array of {@link IndexPair}s: all signatures are kept in
+ * a single flat array, where the signature of the i-th element starts at
+ * <code>i * keySize</code>, and the element ids in a parallel array. This avoids two
+ * objects per element when large numbers of signatures are permuted, sorted and loaded
+ * into an index.
+ */
+public class SignatureBatch {
+
+  // largest array length that all JVMs support
+  private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+  private final int keySize;
+  private long[] signatures;
+  private int[] elementIds;
+  private int size = 0;
+
+  public SignatureBatch(int keySize, int capacity) {
+    if (keySize <= 0) {
+      throw new IllegalArgumentException("Illegal key size: " + keySize);
+    }
+    this.keySize = keySize;
+    checkCapacity(capacity);
+    this.signatures = new long[keySize * Math.max(capacity, 1)];
+    this.elementIds = new int[Math.max(capacity, 1)];
+  }
+
+  /**
+   * Appends a copy of the given signature.
+   */
+  public void add(long[] signature, int elementId) {
+    add(signature, 0, elementId);
+  }
+
+  /**
+   * Appends a copy of the signature that starts at the given offset.
+   */
+  public void add(long[] signature, int offset, int elementId) {
+    ensureCapacity(size + 1);
+    System.arraycopy(signature, offset, signatures, size * keySize, keySize);
+    elementIds[size] = elementId;
+    size++;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > elementIds.length) {
+      checkCapacity(capacity);
+      int newCapacity = (int) Math.min(MAX_ARRAY_LENGTH / keySize,
+          Math.max(capacity, 2L * elementIds.length));
+      elementIds = Arrays.copyOf(elementIds, newCapacity);
+      signatures = Arrays.copyOf(signatures, newCapacity * keySize);
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *           if the signatures of the given number of elements do not fit into a single
+   *           array
+   */
+  private void checkCapacity(int capacity) {
+    if ((long) capacity * keySize > MAX_ARRAY_LENGTH) {
+      throw new IllegalArgumentException("A batch cannot hold " + capacity
+          + " signatures of " + keySize + " longs, which exceed the maximum array length.");
+    }
+  }
+
+  /**
+   * Removes all elements but keeps the allocated arrays.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Removes the elements whose ids are set in the given bit set, keeping the order of
+   * the other elements.
+   */
+  public void removeElements(AtomicBitSet removedElementIds) {
+    int numRetainedElements = 0;
+    for (int i = 0; i < size; i++) {
+      if (!removedElementIds.get(elementIds[i])) {
+        if (numRetainedElements != i) {
+          System.arraycopy(signatures, i * keySize, signatures, numRetainedElements * keySize,
+              keySize);
+          elementIds[numRetainedElements] = elementIds[i];
+        }
+        numRetainedElements++;
+      }
+    }
+    size = numRetainedElements;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getKeySize() {
+    return keySize;
+  }
+
+  /**
+   * Returns the flat signature array. The signature of the i-th element starts at
+   * {@link #getOffset(int)}.
+   */
+  public long[] getSignatures() {
+    return signatures;
+  }
+
+  /**
+   * Returns the element ids. Only the first {@link #size()} entries are valid.
+   */
+  public int[] getElementIds() {
+    return elementIds;
+  }
+
+  public int getOffset(int index) {
+    return index * keySize;
+  }
+
+  public int getElementId(int index) {
+    checkIndex(index);
+    return elementIds[index];
+  }
+
+  /**
+   * Returns a copy of the signature of the i-th element.
+   */
+  public long[] getSignature(int index) {
+    checkIndex(index);
+    int offset = index * keySize;
+    return Arrays.copyOfRange(signatures, offset, offset + keySize);
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " for size " + size);
+    }
+  }
+
+  /**
+   * Replaces the content of this batch with the permuted signatures of the source batch.
+   */
+  public void permute(SignatureBatch source, PermutationFunction permutationFunction) {
+    if (source.keySize != keySize) {
+      throw new IllegalArgumentException("Key sizes differ: " + source.keySize + " and "
+          + keySize);
+    }
+    size = 0;
+    ensureCapacity(source.size);
+    for (int i = 0; i < source.size; i++) {
+      int offset = i * keySize;
+      permutationFunction.permute(source.signatures, offset, signatures, offset, keySize);
+    }
+    System.arraycopy(source.elementIds, 0, elementIds, 0, source.size);
+    size = source.size;
+  }
+
+  /**
+   * Sorts the elements by their signatures in place, in the order of
+   * {@link BitSignatureUtil#COMPARATOR}, with the {@link InPlaceRadixSort}.
+   * 
+   * @param pool sorts large buckets in parallel if not <code>null</code>
+   */
+  public void sort(ForkJoinPool pool) {
+    InPlaceRadixSort.sort(new BatchSortable(), 0, size, keySize, pool);
+  }
+
+  /**
+   * Tells whether the elements are sorted by their signatures.
+   */
+  public boolean isSorted() {
+    for (int i = 1; i < size; i++) {
+      if (BitSignatureUtil.compare(signatures, (i - 1) * keySize, signatures, i * keySize,
+          keySize) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Swaps signatures word by word, so that concurrent swaps need no shared buffer.
+   */
+  private class BatchSortable implements InPlaceRadixSort.Sortable {
+
+    public long getWord(int index, int wordIndex) {
+      return signatures[index * keySize + wordIndex];
+    }
+
+    public void swap(int index1, int index2) {
+      int offset1 = index1 * keySize;
+      int offset2 = index2 * keySize;
+      for (int i = 0; i < keySize; i++) {
+        long word = signatures[offset1 + i];
+        signatures[offset1 + i] = signatures[offset2 + i];
+        signatures[offset2 + i] = word;
+      }
+
+      int elementId = elementIds[index1];
+      elementIds[index1] = elementIds[index2];
+      elementIds[index2] = elementId;
+    }
+
+    public void sortDirectly(int start, int end, int wordIndex) {
+      // insertion sort on the words that may still differ
+      int length = keySize - wordIndex;
+      for (int i = start + 1; i < end; i++) {
+        for (int j = i; j > start && BitSignatureUtil.compare(signatures, (j - 1) * keySize + wordIndex,
+            signatures, j * keySize + wordIndex, length) > 0; j--) {
+          swap(j - 1, j);
+        }
+      }
+    }
+  }
+
+}
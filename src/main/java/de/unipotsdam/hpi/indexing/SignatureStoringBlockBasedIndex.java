@@ -1,76 +1,242 @@
 package de.unipotsdam.hpi.indexing;
 
+import it.unimi.dsi.fastutil.ints.IntSet;
+
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import de.unipotsdam.hpi.storage.BlockCache;
+import de.unipotsdam.hpi.storage.SignatureSegmentStorage;
 import de.unipotsdam.hpi.util.BitSignatureUtil;
 
 public class SignatureStoringBlockBasedIndex extends AbstractBlockBasedIndex<SignatureStoringBlock> {
 
   public SignatureStoringBlockBasedIndex(Path basePath, int keySize,
       int blockSize) {
+    this(basePath, keySize, blockSize, false);
+  }
+
+  /**
+   * @param segmentedBlockStorage
+   *          if set, the blocks are kept in slots of a few large segment files (see
+   *          {@link SignatureSegmentStorage}), otherwise every block has a file of its own
+   */
+  public SignatureStoringBlockBasedIndex(Path basePath, int keySize,
+      int blockSize, boolean segmentedBlockStorage) {
     super(basePath, keySize, blockSize);
+    this.segmentedBlockStorage = segmentedBlockStorage;
   }
 
   private static final long serialVersionUID = 1L;
 
+  private boolean segmentedBlockStorage = false;
+  private SignatureSegmentStorage segmentStorage;
+
   protected SignatureStoringBlock createNewBlock() throws IOException {
+    if (segmentedBlockStorage) {
+      if (segmentStorage == null) {
+        segmentStorage = new SignatureSegmentStorage(basePath, keySize, blockSize);
+        segmentStorage.setCacheStatistics(getCacheStatistics());
+        segmentStorage.setBlockCache(getBlockCache());
+      }
+      return new SegmentBlock(blockSize, keySize, segmentStorage);
+    }
     Path blockPath = basePath.resolve("blockIndex" + blockIdCounter++);
     CachingBlock block = new CachingBlock(blockSize, keySize, blockPath);
+    block.setCacheStatistics(getCacheStatistics());
+    block.setBlockCache(getBlockCache());
     return block;
   }
   
+  /**
+   * Returns the storage of the blocks or <code>null</code> if every block has a file of
+   * its own.
+   */
+  SignatureSegmentStorage getSegmentStorage() {
+    return segmentStorage;
+  }
+  
+  @Override
+  public void recover() {
+    super.recover();
+    if (segmentStorage != null) {
+      segmentStorage.setCacheStatistics(getCacheStatistics());
+      segmentStorage.setBlockCache(getBlockCache());
+    }
+    for (SignatureStoringBlock block = firstBlock; block != null; block = block.getNextBlock()) {
+      if (block instanceof CachingBlock) {
+        ((CachingBlock) block).setCacheStatistics(getCacheStatistics());
+        ((CachingBlock) block).setBlockCache(getBlockCache());
+      }
+    }
+  }
+  
+  @Override
+  public void setBlockCache(BlockCache blockCache) {
+    super.setBlockCache(blockCache);
+    if (segmentStorage != null) {
+      segmentStorage.setBlockCache(blockCache);
+    }
+    for (SignatureStoringBlock block = firstBlock; block != null; block = block.getNextBlock()) {
+      if (block instanceof CachingBlock) {
+        ((CachingBlock) block).setBlockCache(blockCache);
+      }
+    }
+  }
+  
+  @Override
+  public void close() throws IOException {
+    super.close();
+    if (segmentStorage != null) {
+      segmentStorage.close();
+    }
+  }
+  
   public void insertElement(IndexPair pair) throws IOException {
     // If there is no block yet, allocate one and insert the element.
     if (firstBlock == null) {
       firstBlock = createNewBlock();
       firstBlock.insertElement(pair);
+      directory.insert(0, firstBlock);
     } else {
-      SignatureStoringBlock block = getBlockFor(pair.getBitSignature());
-      if (block == null) {
+      int blockPosition = getBlockPositionFor(pair.getBitSignature());
+      if (blockPosition < 0) {
         // If there is no block that might contain the pair, all blocks
         // have a greater start key.
         // So add to the first block.
-        block = firstBlock;
+        blockPosition = 0;
       }
+      SignatureStoringBlock block = directory.get(blockPosition);
       if (block.getSize() < block.getCapacity()) {
         block.insertElement(pair);
+        directory.update(blockPosition);
       } else {
         // Split the block and add the elements:
         // 1. Create a new block and link it right after the current
         // block.
         SignatureStoringBlock newBlock = createNewBlock();
-        newBlock.setPreviousBlock(block);
-        newBlock.setNextBlock(block.getNextBlock());
-        block.setNextBlock(newBlock);
-        if (newBlock.getNextBlock() != null) {
-          newBlock.getNextBlock().setPreviousBlock(newBlock);
-        }
+        linkBlockAfter(block, newBlock);
 
         // 2. Retrieve all elements and spread them over the new blocks.
         IndexPair[] pairs = block.getElements();
         int splitIndex = pairs.length / 2 + 1;
         block.bulkLoad(pairs, 0, splitIndex);
         newBlock.bulkLoad(pairs, splitIndex, pairs.length - splitIndex);
+        directory.update(blockPosition);
+        directory.insert(blockPosition + 1, newBlock);
 
         // 3. Find the target block for the new element and add it.
         if (BitSignatureUtil.COMPARATOR.compare(pair.getBitSignature(),
             newBlock.getStartKey()) < 0) {
           block.insertElement(pair);
+          directory.update(blockPosition);
         } else {
           newBlock.insertElement(pair);
+          directory.update(blockPosition + 1);
         }
       }
     }
   }
 
   public void deleteElement(long[] key) {
-    SignatureStoringBlock block = getBlockFor(key);
-    if (block != null) {
+    int blockPosition = getBlockPositionFor(key);
+    if (blockPosition >= 0) {
+      SignatureStoringBlock block = directory.get(blockPosition);
       block.deleteElement(key);
+      if (block.getStartKey() != null) {
+        directory.update(blockPosition);
+      } else {
+        // the block has become empty
+        dropBlock(block);
+        directory.remove(blockPosition);
+      }
+    }
+  }
+  
+  public int removeElements(IntSet elementIds) {
+    if (elementIds.isEmpty()) {
+      return 0;
+    }
+    
+    int numRemovedElements = 0;
+    SignatureStoringBlock block = firstBlock;
+    while (block != null) {
+      SignatureStoringBlock nextBlock = block.getNextBlock();
+      IndexPair[] retainedElements = retainElements(block, elementIds);
+      if (retainedElements != null) {
+        numRemovedElements += block.getSize() - retainedElements.length;
+        if (retainedElements.length == 0) {
+          dropBlock(block);
+        } else {
+          block.bulkLoad(retainedElements);
+        }
+      }
+      block = nextBlock;
+    }
+    
+    if (numRemovedElements > 0) {
+      directory.rebuild(firstBlock);
+    }
+    return numRemovedElements;
+  }
+  
+  public int removeElements(IntSet elementIds, long[][] keys) {
+    if (elementIds.isEmpty()) {
+      return 0;
+    }
+    
+    int numRemovedElements = 0;
+    for (int position : getBlockPositionsFor(keys)) {
+      SignatureStoringBlock block = directory.get(position);
+      IndexPair[] retainedElements = retainElements(block, elementIds);
+      if (retainedElements != null) {
+        numRemovedElements += block.getSize() - retainedElements.length;
+        if (retainedElements.length == 0) {
+          dropBlock(block);
+          directory.remove(position);
+        } else {
+          block.bulkLoad(retainedElements);
+          directory.update(position);
+        }
+      }
+    }
+    return numRemovedElements;
+  }
+  
+  /**
+   * @return the elements of the block that are not removed or <code>null</code> if the
+   *         block contains none of the removed elements
+   */
+  private IndexPair[] retainElements(SignatureStoringBlock block, IntSet elementIds) {
+    IndexPair[] elements = block.getElements();
+    List<IndexPair> retainedElements = new ArrayList<IndexPair>(elements.length);
+    for (IndexPair element : elements) {
+      if (!elementIds.contains(element.getElementId())) {
+        retainedElements.add(element);
+      }
+    }
+    if (retainedElements.size() == elements.length) {
+      return null;
+    }
+    return retainedElements.toArray(new IndexPair[retainedElements.size()]);
+  }
+  
+  /**
+   * Unlinks the empty block and frees its storage. The caller updates the directory.
+   */
+  private void dropBlock(SignatureStoringBlock block) {
+    unlinkBlock(block);
+    if (block instanceof SegmentBlock) {
+      ((SegmentBlock) block).release();
+    } else {
+      try {
+        block.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
     }
   }
   
@@ -83,6 +249,13 @@ public class SignatureStoringBlockBasedIndex extends AbstractBlockBasedIndex<Sig
     int fetchSmallerElements = beamRadius, fetchGreaterElements = beamRadius;
     SignatureStoringBlock smallerBlock = null, greaterBlock = null;
     List<IndexPair> neighbours = new ArrayList<IndexPair>(2 * beamRadius);
+    // the neighbor blocks are read in the background while this block is loaded
+    if (block == null) {
+      getBlockPrefetcher().prefetchBeam(null, firstBlock, beamRadius);
+    } else {
+      getBlockPrefetcher().prefetchBeam(block.getPreviousBlock(), block.getNextBlock(),
+          beamRadius);
+    }
     if (block == null) {
       // All blocks' start keys are greater than the given key. So, the
       // best we can do, is to fetch all small elements.
@@ -135,40 +308,6 @@ public class SignatureStoringBlockBasedIndex extends AbstractBlockBasedIndex<Sig
     return neighbours.toArray(new IndexPair[neighbours.size()]);
   }
   
-  public void bulkLoad(IndexPair[] keyValuePairs) {
-    try {
-      int pairsPerBlock = (int) Math
-          .ceil(INITIAL_LOAD_FACTOR * blockSize);
-      // ceil keyValuePairs.length / pairsPerBlock
-      int numBlocks = (keyValuePairs.length + pairsPerBlock - 1)
-          / pairsPerBlock;
-      SignatureStoringBlock currentBlock = null;
-      SignatureStoringBlock lastBlock = null;
-      int offset = 0;
-      int remainingPairs = keyValuePairs.length;
-      for (int i = 0; i < numBlocks; i++) {
-        currentBlock = createNewBlock();
-
-        if (firstBlock == null) {
-          firstBlock = currentBlock;
-        }
-
-        if (lastBlock != null) {
-          lastBlock.setNextBlock(currentBlock);
-          currentBlock.setPreviousBlock(lastBlock);
-        }
-        lastBlock = currentBlock;
-
-        int pairsToWrite = Math.min(remainingPairs, pairsPerBlock);
-        currentBlock.bulkLoad(keyValuePairs, offset, pairsToWrite);
-        remainingPairs -= pairsToWrite;
-        offset += pairsToWrite;
-      }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-  }
-  
   public int getElement(long[] key) {
     SignatureStoringBlock block = getBlockFor(key);
     if (block == null)
@@ -185,6 +324,17 @@ public class SignatureStoringBlockBasedIndex extends AbstractBlockBasedIndex<Sig
       int offset, int pairsToWrite) throws IOException {
     block.bulkLoad(pairs, offset, pairsToWrite);
   }
+
+  @Override
+  protected void bulkLoadBlock(SignatureStoringBlock block, SignatureBatch batch,
+      int offset, int pairsToWrite) throws IOException {
+    // the blocks store index pairs, so they are created for one block at a time
+    IndexPair[] pairs = new IndexPair[pairsToWrite];
+    for (int i = 0; i < pairsToWrite; i++) {
+      pairs[i] = new IndexPair(batch.getSignature(offset + i), batch.getElementId(offset + i));
+    }
+    block.bulkLoad(pairs, 0, pairsToWrite);
+  }
   
   private class IndexIterator implements Iterator<IndexPair> {
 
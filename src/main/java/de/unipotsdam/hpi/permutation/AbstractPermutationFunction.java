@@ -31,6 +31,15 @@ public abstract class AbstractPermutationFunction implements
 	 * @param output has to be 0 initialized
 	 */
 	protected void createPermutation(int[] mapping, long[] input, long[] output) {
+		createPermutation(mapping, input, 0, output, 0);
+	}
+
+	/**
+	 * Like {@link #createPermutation(int[], long[], long[])}, but for signatures that
+	 * start at the given offsets.
+	 */
+	protected void createPermutation(int[] mapping, long[] input, int inputOffset,
+			long[] output, int outputOffset) {
 		int elementPos;
 		int bitPos;
 
@@ -38,13 +47,13 @@ public abstract class AbstractPermutationFunction implements
 			
 			// test bit i
 			bitPos = i & BitSignatureUtil.BASE_TYPE_SIZE - 1;
-			elementPos = i >> BitSignatureUtil.LOG_BASE_TYPE_SIZE;
+			elementPos = inputOffset + (i >> BitSignatureUtil.LOG_BASE_TYPE_SIZE);
 			if ((input[elementPos] & (MAX_BIT >>> bitPos)) != 0) {
 		
 				// set bit in output
 				int targetPosition = mapping[i];
 				bitPos = targetPosition & (BitSignatureUtil.BASE_TYPE_SIZE - 1);
-				elementPos = targetPosition >> BitSignatureUtil.LOG_BASE_TYPE_SIZE;
+				elementPos = outputOffset + (targetPosition >> BitSignatureUtil.LOG_BASE_TYPE_SIZE);
 				output[elementPos] |= MAX_BIT >>> bitPos;
 			}
 		}
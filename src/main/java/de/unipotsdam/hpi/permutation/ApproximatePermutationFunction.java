@@ -45,4 +45,13 @@ public class ApproximatePermutationFunction implements PermutationFunction {
 		throw new RuntimeException("Not implemented!");
 	}
 
+	public long[] permute(long[] signature, long[] target) {
+		throw new RuntimeException("Not implemented!");
+	}
+
+	public void permute(long[] signatures, int offset, long[] target, int targetOffset,
+			int length) {
+		throw new RuntimeException("Not implemented!");
+	}
+
 }
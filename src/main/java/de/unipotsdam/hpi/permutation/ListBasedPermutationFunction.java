@@ -17,6 +17,7 @@ package de.unipotsdam.hpi.permutation;
 
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 
+import java.util.Arrays;
 import java.util.Collections;
 
 public class ListBasedPermutationFunction extends AbstractPermutationFunction {
@@ -40,5 +41,17 @@ public class ListBasedPermutationFunction extends AbstractPermutationFunction {
 		createPermutation(mapping, signature, permutation);
 		return permutation;
 	}
+
+	public long[] permute(long[] signature, long[] target) {
+		Arrays.fill(target, 0L);
+		createPermutation(mapping, signature, target);
+		return target;
+	}
+
+	public void permute(long[] signatures, int offset, long[] target, int targetOffset,
+			int length) {
+		Arrays.fill(target, targetOffset, targetOffset + length, 0L);
+		createPermutation(mapping, signatures, offset, target, targetOffset);
+	}
 	
 }
@@ -23,4 +23,13 @@ public class NullPermutationFunction implements PermutationFunction {
 		return signature;
 	}
 
+	public long[] permute(long[] signature, long[] target) {
+		return signature;
+	}
+
+	public void permute(long[] signatures, int offset, long[] target, int targetOffset,
+			int length) {
+		System.arraycopy(signatures, offset, target, targetOffset, length);
+	}
+
 }
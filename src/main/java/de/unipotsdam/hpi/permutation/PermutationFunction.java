@@ -20,5 +20,22 @@ import java.io.Serializable;
 public interface PermutationFunction extends Serializable {
 
 	long[] permute(long[] signature);
+
+	/**
+	 * Permutes the signature into the given target, which must have the same length as
+	 * the signature and is overwritten completely. This variant does not allocate and
+	 * is meant for the query path, where the target is a reused buffer.
+	 * 
+	 * @return the permuted signature, which is the target or, if the function does not
+	 *         change signatures, the signature itself
+	 */
+	long[] permute(long[] signature, long[] target);
+
+	/**
+	 * Permutes the signature of the given length that starts at the offset into the
+	 * target array at the target offset. This allows to permute signatures that are
+	 * stored back to back in a single array.
+	 */
+	void permute(long[] signatures, int offset, long[] target, int targetOffset, int length);
 	
 }
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.sorting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+
+/**
+ * Sorts more index pairs than fit into memory. Added pairs are buffered until the
+ * memory budget is exhausted; then the buffer is sorted and spilled to disk as a run.
+ * Finally, the runs are merged into a single sorted stream. If all pairs fit into the
+ * budget, nothing is written to disk.
+ * <p>
+ * The read buffers of a merge are taken from the same budget. If there are more runs
+ * than buffers fit into it, groups of runs are first merged into longer runs, until
+ * the remaining runs can be merged at once.
+ * <p>
+ * Runs consist of fixed-width binary records: the signature as big-endian longs followed
+ * by the element id.
+ */
+public class ExternalSort {
+
+  // rough heap footprint of an index pair and its signature besides the signature content
+  private static final int PAIR_OVERHEAD = 64;
+  private static final int READ_BUFFER_SIZE = 1 << 16;
+  private static final int MAX_FAN_IN = 64;
+
+  private final Path directory;
+  private final int keySize;
+  private final int maxBufferedPairs;
+  // number of runs that are merged at once
+  private final int maxFanIn;
+  private final SortAlgorithm<IndexPair> sortAlgorithm;
+
+  private IndexPair[] buffer = new IndexPair[16];
+  private int numBufferedPairs = 0;
+  private final List<Path> runs = new ArrayList<Path>();
+  private final List<Integer> runSizes = new ArrayList<Integer>();
+  private final List<DataInputStream> openInputs = new ArrayList<DataInputStream>();
+  private boolean isSorted = false;
+
+  /**
+   * @param directory is where the runs are written to
+   * @param keySize is the number of longs per signature
+   * @param memoryBudget is the number of bytes that buffered pairs may occupy
+   * @param sortAlgorithm sorts the runs; its comparator is set by this class
+   */
+  public ExternalSort(Path directory, int keySize, long memoryBudget,
+      SortAlgorithm<IndexPair> sortAlgorithm) {
+    this(directory, keySize, memoryBudget, sortAlgorithm,
+        (int) Math.max(2, Math.min(MAX_FAN_IN, memoryBudget / READ_BUFFER_SIZE)));
+  }
+
+  ExternalSort(Path directory, int keySize, long memoryBudget,
+      SortAlgorithm<IndexPair> sortAlgorithm, int maxFanIn) {
+    if (maxFanIn < 2) {
+      throw new IllegalArgumentException("Illegal fan-in: " + maxFanIn);
+    }
+    this.directory = directory;
+    this.keySize = keySize;
+    long pairSize = PAIR_OVERHEAD + 8L * keySize;
+    this.maxBufferedPairs = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, memoryBudget / pairSize));
+    this.maxFanIn = maxFanIn;
+    this.sortAlgorithm = sortAlgorithm;
+    sortAlgorithm.setComparator(IndexPair.COMPARATOR);
+  }
+
+  public void add(IndexPair pair) {
+    if (isSorted) {
+      throw new IllegalStateException("Pairs have already been sorted.");
+    }
+    if (pair.getBitSignature().length != keySize) {
+      throw new IllegalArgumentException("Illegal key size: " + pair);
+    }
+    if (numBufferedPairs == maxBufferedPairs) {
+      spill();
+    }
+    if (numBufferedPairs == buffer.length) {
+      buffer = Arrays.copyOf(buffer, (int) Math.min(maxBufferedPairs, 2L * buffer.length));
+    }
+    buffer[numBufferedPairs++] = pair;
+  }
+
+  /**
+   * Returns the number of runs that have been written to disk so far, including the
+   * runs of intermediate merges.
+   */
+  public int getNumRuns() {
+    return runs.size();
+  }
+
+  /**
+   * Returns all added pairs in sorted order. Must be called only once.
+   */
+  public Iterator<IndexPair> sort() {
+    if (isSorted) {
+      throw new IllegalStateException("Pairs have already been sorted.");
+    }
+    isSorted = true;
+
+    if (runs.isEmpty()) {
+      // the buffer is sorted in place; it may be larger than the number of pairs
+      sortAlgorithm.sort(buffer, 0, numBufferedPairs);
+      List<IndexPair> pairs = Arrays.asList(buffer).subList(0, numBufferedPairs);
+      buffer = null;
+      return pairs.iterator();
+    }
+
+    if (numBufferedPairs > 0) {
+      spill();
+    }
+    buffer = null;
+
+    // merge the oldest runs until all remaining ones can be merged at once
+    int firstRun = 0;
+    while (runs.size() - firstRun > maxFanIn) {
+      // copies, because the merged run is appended to the lists
+      List<Path> mergedRuns = new ArrayList<Path>(runs.subList(firstRun, firstRun + maxFanIn));
+      List<Integer> mergedRunSizes = new ArrayList<Integer>(
+          runSizes.subList(firstRun, firstRun + maxFanIn));
+      int numPairs = 0;
+      for (int runSize : mergedRunSizes) {
+        numPairs += runSize;
+      }
+      writeRun(new MergeIterator(mergedRuns, mergedRunSizes), numPairs);
+      deleteRuns(firstRun, firstRun + maxFanIn);
+      firstRun += maxFanIn;
+    }
+    return new MergeIterator(runs.subList(firstRun, runs.size()),
+        runSizes.subList(firstRun, runs.size()));
+  }
+
+  /**
+   * Sorts the buffered pairs and writes them to a new run.
+   */
+  private void spill() {
+    sortAlgorithm.sort(buffer, 0, numBufferedPairs);
+    writeRun(Arrays.asList(buffer).subList(0, numBufferedPairs).iterator(), numBufferedPairs);
+
+    Arrays.fill(buffer, 0, numBufferedPairs, null);
+    numBufferedPairs = 0;
+  }
+
+  /**
+   * Writes the given, sorted pairs to a new run.
+   */
+  private void writeRun(Iterator<IndexPair> pairs, int numPairs) {
+    Path run = directory.resolve("run-" + runs.size());
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(run.toFile())))) {
+      while (pairs.hasNext()) {
+        IndexPair pair = pairs.next();
+        for (long word : pair.getBitSignature()) {
+          out.writeLong(word);
+        }
+        out.writeInt(pair.getElementId());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Could not write run " + run, e);
+    }
+    runs.add(run);
+    runSizes.add(numPairs);
+  }
+
+  /**
+   * Deletes the files of the given runs, which have been merged completely.
+   */
+  private void deleteRuns(int fromRun, int toRun) {
+    for (int i = fromRun; i < toRun; i++) {
+      try {
+        Files.deleteIfExists(runs.get(i));
+      } catch (IOException e) {
+        throw new RuntimeException("Could not delete run " + runs.get(i), e);
+      }
+    }
+  }
+
+  /**
+   * Deletes all runs. The iterator returned by {@link #sort()} must not be used
+   * afterwards.
+   */
+  public void close() {
+    for (DataInputStream in : openInputs) {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // the run is deleted anyway
+      }
+    }
+    openInputs.clear();
+    for (Path run : runs) {
+      try {
+        Files.deleteIfExists(run);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not delete run " + run, e);
+      }
+    }
+    runs.clear();
+    runSizes.clear();
+    sortAlgorithm.close();
+  }
+
+  /**
+   * Reads one run sequentially.
+   */
+  private class RunReader {
+
+    private final DataInputStream in;
+    private int remainingPairs;
+    private IndexPair current;
+
+    RunReader(Path run, int size) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.toFile()),
+          READ_BUFFER_SIZE));
+      openInputs.add(in);
+      remainingPairs = size;
+      advance();
+    }
+
+    void advance() throws IOException {
+      if (remainingPairs == 0) {
+        current = null;
+        in.close();
+        openInputs.remove(in);
+        return;
+      }
+      long[] signature = new long[keySize];
+      for (int i = 0; i < keySize; i++) {
+        signature[i] = in.readLong();
+      }
+      current = new IndexPair(signature, in.readInt());
+      remainingPairs--;
+    }
+  }
+
+  /**
+   * Merges the given runs by repeatedly taking the smallest head of a run.
+   */
+  private class MergeIterator implements Iterator<IndexPair> {
+
+    private final PriorityQueue<RunReader> readers;
+
+    MergeIterator(List<Path> runs, List<Integer> runSizes) {
+      readers = new PriorityQueue<RunReader>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+
+        public int compare(RunReader reader1, RunReader reader2) {
+          return IndexPair.COMPARATOR.compare(reader1.current, reader2.current);
+        }
+      });
+      try {
+        for (int i = 0; i < runs.size(); i++) {
+          RunReader reader = new RunReader(runs.get(i), runSizes.get(i));
+          if (reader.current != null) {
+            readers.add(reader);
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Could not open runs", e);
+      }
+    }
+
+    public boolean hasNext() {
+      return !readers.isEmpty();
+    }
+
+    public IndexPair next() {
+      RunReader reader = readers.poll();
+      if (reader == null) {
+        throw new NoSuchElementException();
+      }
+      IndexPair next = reader.current;
+      try {
+        reader.advance();
+      } catch (IOException e) {
+        throw new RuntimeException("Could not read run", e);
+      }
+      if (reader.current != null) {
+        readers.add(reader);
+      }
+      return next;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.sorting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+/**
+ * Most-significant-digit radix sort on the unsigned bytes of bit signatures, from the
+ * highest byte of the first word downwards, which yields the order of
+ * {@link BitSignatureUtil#COMPARATOR}. The elements are swapped into their buckets in
+ * place, so no buffer is needed. Elements are only accessed through a {@link Sortable},
+ * so that arrays of objects as well as flat signature arrays can be sorted.
+ */
+public class InPlaceRadixSort {
+
+  /**
+   * Gives access to the elements to be sorted by their index. Swaps of disjoint ranges
+   * may happen concurrently when the sort is run in parallel.
+   */
+  public interface Sortable {
+
+    /**
+     * Returns the given word of the signature of the element at the given index.
+     */
+    long getWord(int index, int wordIndex);
+
+    void swap(int index1, int index2);
+
+    /**
+     * Sorts a small range of elements whose signatures agree on the words before the
+     * given one.
+     */
+    void sortDirectly(int start, int end, int wordIndex);
+
+  }
+
+  private static final int RADIX_BITS = 8;
+  private static final int RADIX = 1 << RADIX_BITS;
+  private static final int DIGITS_PER_WORD = BitSignatureUtil.BASE_TYPE_SIZE / RADIX_BITS;
+  // ranges up to this size are sorted directly
+  private static final int DIRECT_SORTING_SIZE = 32;
+  // ranges up to this size are not split into further tasks
+  private static final int SEQUENTIAL_SORTING_SIZE = 1 << 14;
+
+  private InPlaceRadixSort() {
+  }
+
+  /**
+   * Sorts the elements from <code>start</code> (inclusive) to <code>end</code>
+   * (exclusive), whose signatures all consist of <code>keySize</code> words.
+   *
+   * @param pool sorts large buckets in parallel if not <code>null</code>
+   */
+  public static void sort(Sortable sortable, int start, int end, int keySize, ForkJoinPool pool) {
+    SortStep step = new SortStep(sortable, start, end, 0, keySize * DIGITS_PER_WORD);
+    if (pool != null) {
+      pool.invoke(step);
+    } else {
+      step.sortSequentially(start, end, 0);
+    }
+  }
+
+  private static class SortStep extends RecursiveAction {
+
+    private static final long serialVersionUID = -6318937270519405862L;
+
+    private final Sortable sortable;
+    private final int startIndex;
+    private final int endIndex;
+    private final int digit;
+    private final int numDigits;
+
+    SortStep(Sortable sortable, int startIndex, int endIndex, int digit, int numDigits) {
+      this.sortable = sortable;
+      this.startIndex = startIndex;
+      this.endIndex = endIndex;
+      this.digit = digit;
+      this.numDigits = numDigits;
+    }
+
+    @Override
+    protected void compute() {
+      if (endIndex - startIndex <= SEQUENTIAL_SORTING_SIZE) {
+        sortSequentially(startIndex, endIndex, digit);
+        return;
+      }
+      int currentDigit = digit;
+      int[] bucketStarts;
+      do {
+        if (currentDigit == numDigits) {
+          return;
+        }
+        bucketStarts = distribute(startIndex, endIndex, currentDigit++);
+      } while (bucketStarts == null);
+      if (currentDigit == numDigits) {
+        return;
+      }
+      List<SortStep> nextSteps = new ArrayList<SortStep>();
+      for (int bucket = 0; bucket < RADIX; bucket++) {
+        if (bucketStarts[bucket + 1] - bucketStarts[bucket] > 1) {
+          nextSteps.add(new SortStep(sortable, bucketStarts[bucket], bucketStarts[bucket + 1],
+              currentDigit, numDigits));
+        }
+      }
+      invokeAll(nextSteps);
+    }
+
+    void sortSequentially(int start, int end, int currentDigit) {
+      // skip over digits that all elements share instead of recursing through them
+      while (end - start > 1 && currentDigit < numDigits) {
+        if (end - start <= DIRECT_SORTING_SIZE) {
+          sortable.sortDirectly(start, end, currentDigit / DIGITS_PER_WORD);
+          return;
+        }
+        int[] bucketStarts = distribute(start, end, currentDigit);
+        currentDigit++;
+        if (bucketStarts != null) {
+          if (currentDigit < numDigits) {
+            for (int bucket = 0; bucket < RADIX; bucket++) {
+              sortSequentially(bucketStarts[bucket], bucketStarts[bucket + 1], currentDigit);
+            }
+          }
+          return;
+        }
+      }
+    }
+
+    /**
+     * Moves the elements of the range into the buckets of the given digit.
+     *
+     * @return the start indices of the buckets followed by the end index or
+     *         <code>null</code> if all elements fell into the same bucket and nothing was
+     *         moved
+     */
+    private int[] distribute(int start, int end, int currentDigit) {
+      int wordIndex = currentDigit / DIGITS_PER_WORD;
+      int shift = BitSignatureUtil.BASE_TYPE_SIZE - RADIX_BITS * (currentDigit % DIGITS_PER_WORD + 1);
+
+      int[] bucketStarts = new int[RADIX + 1];
+      for (int i = start; i < end; i++) {
+        bucketStarts[digitOf(i, wordIndex, shift) + 1]++;
+      }
+      bucketStarts[0] = start;
+      for (int bucket = 0; bucket < RADIX; bucket++) {
+        if (bucketStarts[bucket + 1] == end - start) {
+          return null;
+        }
+        bucketStarts[bucket + 1] += bucketStarts[bucket];
+      }
+
+      // swap every element into its bucket
+      int[] nextPositions = Arrays.copyOf(bucketStarts, RADIX);
+      for (int bucket = 0; bucket < RADIX; bucket++) {
+        int bucketEnd = bucketStarts[bucket + 1];
+        while (nextPositions[bucket] < bucketEnd) {
+          int elementBucket = digitOf(nextPositions[bucket], wordIndex, shift);
+          if (elementBucket == bucket) {
+            nextPositions[bucket]++;
+          } else {
+            sortable.swap(nextPositions[bucket], nextPositions[elementBucket]++);
+          }
+        }
+      }
+      return bucketStarts;
+    }
+
+    private int digitOf(int index, int wordIndex, int shift) {
+      return (int) (sortable.getWord(index, wordIndex) >>> shift) & (RADIX - 1);
+    }
+  }
+
+}
@@ -39,8 +39,12 @@ public class ParallelQuickSort<T> implements SortAlgorithm<T> {
 	}
 
 	public void sort(T[] data) {
-		forkJoinPool.invoke(new QuickSortStep<T>(data, comparator, 0,
-				data.length, directSortingSize));
+		sort(data, 0, data.length);
+	}
+
+	public void sort(T[] data, int fromIndex, int toIndex) {
+		forkJoinPool.invoke(new QuickSortStep<T>(data, comparator, fromIndex,
+				toIndex, directSortingSize));
 	}
 
 	public void close() {
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.sorting;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+/**
+ * Most-significant-digit radix sort on bit signatures. The signatures are distributed by
+ * their unsigned bytes, from the highest byte of the first long downwards, which yields
+ * the same order as {@link BitSignatureUtil#COMPARATOR}. The elements are swapped in
+ * place by the {@link InPlaceRadixSort}. Buckets that have become small are sorted with
+ * the comparator instead, if one is set. In parallel mode, large buckets are sorted as
+ * separate fork/join tasks.
+ * <p>
+ * All signatures must have the same length.
+ *
+ * @param <T> The type of element to be sorted.
+ */
+public class RadixSort<T> implements SortAlgorithm<T> {
+
+  /**
+   * Gives access to the signature by which an element is sorted.
+   */
+  public interface KeyExtractor<T> {
+
+    long[] getKey(T element);
+
+  }
+
+  public static final KeyExtractor<long[]> SIGNATURE_KEYS = new KeyExtractor<long[]>() {
+
+    public long[] getKey(long[] signature) {
+      return signature;
+    }
+  };
+
+  public static final KeyExtractor<IndexPair> INDEX_PAIR_KEYS = new KeyExtractor<IndexPair>() {
+
+    public long[] getKey(IndexPair pair) {
+      return pair.getBitSignature();
+    }
+  };
+
+  private final KeyExtractor<T> keyExtractor;
+  private final ForkJoinPool forkJoinPool;
+  private Comparator<T> comparator;
+
+  /**
+   * @param keyExtractor provides the signatures of the elements
+   * @param parallel tells whether buckets shall be sorted in parallel
+   */
+  public RadixSort(KeyExtractor<T> keyExtractor, boolean parallel) {
+    this.keyExtractor = keyExtractor;
+    this.forkJoinPool = parallel ? new ForkJoinPool() : null;
+  }
+
+  public void setComparator(Comparator<T> comparator) {
+    this.comparator = comparator;
+  }
+
+  public void sort(T[] data) {
+    sort(data, 0, data.length);
+  }
+
+  public void sort(T[] data, int fromIndex, int toIndex) {
+    if (toIndex - fromIndex < 2) {
+      return;
+    }
+    int keySize = keyExtractor.getKey(data[fromIndex]).length;
+    for (int i = fromIndex; i < toIndex; i++) {
+      if (keyExtractor.getKey(data[i]).length != keySize) {
+        throw new IllegalArgumentException("Signatures must be of same length.");
+      }
+    }
+
+    InPlaceRadixSort.sort(new ArraySortable(data, keySize), fromIndex, toIndex, keySize,
+        forkJoinPool);
+  }
+
+  public void close() {
+    if (forkJoinPool != null) {
+      forkJoinPool.shutdown();
+    }
+  }
+
+  /**
+   * Swaps the elements of the array and sorts small ranges with the comparator or by
+   * insertion.
+   */
+  private class ArraySortable implements InPlaceRadixSort.Sortable {
+
+    private final T[] data;
+    private final int keySize;
+
+    ArraySortable(T[] data, int keySize) {
+      this.data = data;
+      this.keySize = keySize;
+    }
+
+    public long getWord(int index, int wordIndex) {
+      return keyExtractor.getKey(data[index])[wordIndex];
+    }
+
+    public void swap(int index1, int index2) {
+      T element = data[index1];
+      data[index1] = data[index2];
+      data[index2] = element;
+    }
+
+    public void sortDirectly(int start, int end, int wordIndex) {
+      if (comparator != null) {
+        Arrays.sort(data, start, end, comparator);
+        return;
+      }
+      // insertion sort on the words that may still differ
+      int length = keySize - wordIndex;
+      for (int i = start + 1; i < end; i++) {
+        T element = data[i];
+        long[] key = keyExtractor.getKey(element);
+        int j = i - 1;
+        while (j >= start
+            && BitSignatureUtil.compare(keyExtractor.getKey(data[j]), wordIndex, key, wordIndex, length) > 0) {
+          data[j + 1] = data[j];
+          j--;
+        }
+        data[j + 1] = element;
+      }
+    }
+  }
+
+}
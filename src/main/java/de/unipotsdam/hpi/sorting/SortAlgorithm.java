@@ -23,6 +23,12 @@ public interface SortAlgorithm<T> {
 	
 	void sort(T[] data);
 	
+	/**
+	 * Sorts the elements from <code>fromIndex</code> (inclusive) to
+	 * <code>toIndex</code> (exclusive) and leaves the others untouched.
+	 */
+	void sort(T[] data, int fromIndex, int toIndex);
+	
 	void close();
 	
 }
@@ -33,10 +33,14 @@ public class StandardLibSort<T> implements SortAlgorithm<T> {
 	}
 
 	public void sort(T[] data) {
+		sort(data, 0, data.length);
+	}
+
+	public void sort(T[] data, int fromIndex, int toIndex) {
 		if (comparator == null) {
 			throw new IllegalStateException("No comparator was set!");
 		}
-		Arrays.sort(data, comparator);
+		Arrays.sort(data, fromIndex, toIndex, comparator);
 	}
 	
 	public void close() {
@@ -34,7 +34,7 @@ abstract public class AbstractSparseIntList implements SparseIntList {
 			moveI1 = i1.getPosition() <= i2.getPosition();
 			moveI2 = i2.getPosition() <= i1.getPosition();
 			if (moveI1 && moveI2) {
-				scalarProduct += i1.getValue() * i2.getValue();
+				scalarProduct += (long) i1.getValue() * (long) i2.getValue();
 			}
 			if (moveI1) {
 				isI1Valid = i1.move();
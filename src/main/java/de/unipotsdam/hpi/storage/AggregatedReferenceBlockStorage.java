@@ -5,50 +5,120 @@ import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntMap.Entry;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Serializable;
-import java.lang.ref.SoftReference;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import de.unipotsdam.hpi.util.EncodingUtils;
 
-public class AggregatedReferenceBlockStorage implements Serializable {
+/**
+ * Stores a number of blocks in one file, which is rewritten as a whole whenever one of
+ * the blocks changes. Since a miss reads the whole file anyway, all of its blocks are
+ * put into the {@link BlockCache} then. A write takes the unchanged blocks from
+ * the cache where possible, reads only the others from the file and caches the written
+ * blocks.
+ * <p>
+ * Blocks are either stored as raw 4-byte ids or, if the storage is compressed, encoded
+ * by the {@link IdListCodec}.
+ */
+public class AggregatedReferenceBlockStorage implements ReferenceBlockStorage {
 
   private static final long serialVersionUID = 1L;
   
   private File file;
-  transient private SoftReference<Int2ObjectMap<int[]>> cache;
+  private boolean compressed;
   private Int2IntMap cacheMetaData;
-  
-  private static AtomicInteger hitCount = new AtomicInteger();
-  private static AtomicInteger missCount = new AtomicInteger();
+  transient private CacheStatistics cacheStatistics;
+  transient private BlockCache blockCache;
   
   public AggregatedReferenceBlockStorage(Path filePath) {
+    this(filePath, false);
+  }
+  
+  /**
+   * @param compressed
+   *          tells whether the blocks are encoded by the {@link IdListCodec}
+   */
+  public AggregatedReferenceBlockStorage(Path filePath, boolean compressed) {
     this.file = filePath.toFile();
+    this.compressed = compressed;
     this.cacheMetaData = new Int2IntAVLTreeMap();
   }
   
   public void writeBlock(int id, int[] values) {
-    cacheMetaData.put(id, values.length);
-    
-    Int2ObjectMap<int[]> storage = getOrLoadStorage();
-    storage.put(id, values);
+    Int2ObjectMap<int[]> blocks = new Int2ObjectOpenHashMap<int[]>(1);
+    blocks.put(id, values);
+    writeBlocks(blocks);
+  }
+  
+  public void writeBlock(int id, int[] values, int offset, int length) {
+    int[] localValues = new int[length];
+    System.arraycopy(values, offset, localValues, 0, length);
+    writeBlock(id, localValues);
+  }
+  
+  /**
+   * Writes several blocks at once, so that the file is rewritten only once. Blocks that
+   * are mapped to <code>null</code> are removed.
+   */
+  public synchronized void writeBlocks(Int2ObjectMap<int[]> blocks) {
+    Int2ObjectMap<int[]> storage = new Int2ObjectOpenHashMap<int[]>(cacheMetaData.size());
+    IntSet missingIds = new IntOpenHashSet();
+    for (Entry metaEntry : cacheMetaData.int2IntEntrySet()) {
+      int id = metaEntry.getIntKey();
+      if (blocks.containsKey(id)) {
+        continue;
+      }
+      int[] values = getBlockCache().peek(this, id);
+      if (values != null) {
+        storage.put(id, values);
+      } else {
+        missingIds.add(id);
+      }
+    }
+    if (!missingIds.isEmpty()) {
+      storage.putAll(readBlocks(missingIds));
+    }
+
+    for (Int2ObjectMap.Entry<int[]> block : blocks.int2ObjectEntrySet()) {
+      int id = block.getIntKey();
+      int[] values = block.getValue();
+      if (values == null) {
+        getBlockCache().invalidate(this, id);
+        cacheMetaData.remove(id);
+      } else {
+        cacheMetaData.put(id, values.length);
+        storage.put(id, values);
+      }
+    }
     
     OutputStream out = null;
     try {
       out = new BufferedOutputStream(new FileOutputStream(file));
       
+      byte[] encodedValues = new byte[0];
       for (Entry metaEntry : cacheMetaData.int2IntEntrySet()) {
         int[] storedValues = storage.get(metaEntry.getIntKey());
-        for (int i = 0; i < storedValues.length; i++) {
-          EncodingUtils.writeInt(storedValues[i], out);
+        if (compressed) {
+          int maxLength = IdListCodec.maxEncodedLength(storedValues.length);
+          if (encodedValues.length < maxLength) {
+            encodedValues = new byte[maxLength];
+          }
+          int length = IdListCodec.encode(storedValues, 0, storedValues.length, encodedValues, 0);
+          out.write(encodedValues, 0, length);
+        } else {
+          for (int i = 0; i < storedValues.length; i++) {
+            EncodingUtils.writeInt(storedValues[i], out);
+          }
         }
       }
     } catch (IOException e) {
@@ -62,32 +132,79 @@ public class AggregatedReferenceBlockStorage implements Serializable {
       }
 
     }
+    
+    for (Int2ObjectMap.Entry<int[]> block : blocks.int2ObjectEntrySet()) {
+      if (block.getValue() != null) {
+        getBlockCache().put(this, block.getIntKey(), block.getValue(),
+            BlockCache.weightOf(block.getValue()), cacheStatistics);
+      }
+    }
+  }
+  
+  public int[] getBlock(final int id) {
+    return getBlockCache().getOrLoad(this, id, cacheStatistics,
+        new BlockCache.Loader<int[]>() {
+          public int[] load() {
+            return loadBlock(id);
+          }
+
+          public long weightOf(int[] values) {
+            return BlockCache.weightOf(values);
+          }
+        });
   }
   
-  public int[] getBlock(int id) {
-    Int2ObjectMap<int[]> storage = getOrLoadStorage();
+  /**
+   * Reads all blocks and caches all but the requested one, which is cached by the caller.
+   */
+  private synchronized int[] loadBlock(int id) {
+    // another thread may have read the file while this one was waiting
+    int[] values = getBlockCache().peek(this, id);
+    if (values != null) {
+      return values;
+    }
     
-    return storage.get(id);
+    long startTime = System.nanoTime();
+    Int2ObjectMap<int[]> blocks = readBlocks(null);
+    if (cacheStatistics != null) {
+      cacheStatistics.recordLoad(System.nanoTime() - startTime);
+    }
+    for (Int2ObjectMap.Entry<int[]> block : blocks.int2ObjectEntrySet()) {
+      if (block.getIntKey() == id) {
+        continue;
+      }
+      getBlockCache().put(this, block.getIntKey(), block.getValue(),
+          BlockCache.weightOf(block.getValue()), cacheStatistics);
+    }
+    return blocks.get(id);
+  }
+  
+  public boolean isCached(int id) {
+    return getBlockCache().contains(this, id);
   }
   
-  private synchronized Int2ObjectMap<int[]> getOrLoadStorage() {
-    Int2ObjectMap<int[]> cachedElements;
-    if (cache != null && (cachedElements = cache.get()) != null) {
-      hitCount.incrementAndGet();
-      return cachedElements;
+  /**
+   * Reads the blocks with the given ids, or all blocks if the ids are <code>null</code>,
+   * and skips over the others.
+   */
+  private Int2ObjectMap<int[]> readBlocks(IntSet ids) {
+    Int2ObjectMap<int[]> blocks = new Int2ObjectOpenHashMap<int[]>();
+    if (compressed) {
+      readCompressedBlocks(ids, blocks);
+      return blocks;
     }
-
-    missCount.incrementAndGet();
-    cachedElements = new Int2ObjectOpenHashMap<int[]>();
     FileInputStream in = null;
     try {
       file.createNewFile();
       in = new FileInputStream(file);
-      // in.skip(startPos);
       
       for (Entry metaEntry : cacheMetaData.int2IntEntrySet()) {
         int keyId = metaEntry.getIntKey();
         int valueSize = metaEntry.getIntValue();
+        if (ids != null && !ids.contains(keyId)) {
+          skipFully(in, 4L * valueSize);
+          continue;
+        }
         
         int[] values = new int[valueSize];
         
@@ -96,10 +213,8 @@ public class AggregatedReferenceBlockStorage implements Serializable {
           values[i] = elementId;
         }
         
-        cachedElements.put(keyId, values);
+        blocks.put(keyId, values);
       }
-      
-      
     } catch (IOException e) {
       throw new RuntimeException(e);
     } finally {
@@ -110,14 +225,58 @@ public class AggregatedReferenceBlockStorage implements Serializable {
           e.printStackTrace();
         }
     }
+    
+    return blocks;
+  }
+  
+  private void skipFully(InputStream in, long numBytes) throws IOException {
+    while (numBytes > 0) {
+      long numSkippedBytes = in.skip(numBytes);
+      if (numSkippedBytes <= 0) {
+        throw new IOException("Truncated block file " + file);
+      }
+      numBytes -= numSkippedBytes;
+    }
+  }
+  
+  private void readCompressedBlocks(IntSet ids, Int2ObjectMap<int[]> blocks) {
+    try {
+      file.createNewFile();
+      byte[] encodedBlocks = Files.readAllBytes(file.toPath());
+      int position = 0;
+      for (Entry metaEntry : cacheMetaData.int2IntEntrySet()) {
+        if (ids != null && !ids.contains(metaEntry.getIntKey())) {
+          position = IdListCodec.skip(encodedBlocks, position, metaEntry.getIntValue());
+          continue;
+        }
+        int[] values = new int[metaEntry.getIntValue()];
+        position = IdListCodec.decode(encodedBlocks, position, values, values.length);
+        blocks.put(metaEntry.getIntKey(), values);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new RuntimeException("Truncated block file " + file, e);
+    }
+  }
+  
+  public void clearCache() {
+    getBlockCache().invalidateAll(this);
+  }
+  
+  public void setCacheStatistics(CacheStatistics statistics) {
+    this.cacheStatistics = statistics;
+  }
 
-    this.cache = new SoftReference<Int2ObjectMap<int[]>>(cachedElements);
+  public void setBlockCache(BlockCache blockCache) {
+    this.blockCache = blockCache;
+  }
 
-    return cachedElements;
+  private BlockCache getBlockCache() {
+    return blockCache == null ? BlockCache.getShared() : blockCache;
   }
   
-  public void clearCache() {
-    cache = null;
+  public void close() {
   }
   
 }
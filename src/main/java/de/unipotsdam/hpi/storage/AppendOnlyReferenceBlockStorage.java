@@ -0,0 +1,368 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Appends every written block to the end of a single data file and remembers its
+ * offset, so that blocks are never rewritten when other blocks change and each block
+ * can be read on its own. Overwritten and removed blocks leave garbage in the file,
+ * which is dropped by rewriting the live blocks once it exceeds their size.
+ * <p>
+ * Blocks are either stored as raw 4-byte ids or, if the storage is compressed, encoded
+ * by the {@link IdListCodec}. The offset table is kept in memory and serialized with
+ * the storage. Decoded blocks are cached in the {@link BlockCache} of the index.
+ */
+public class AppendOnlyReferenceBlockStorage implements ReferenceBlockStorage {
+
+  private static final long serialVersionUID = 2L;
+
+  // garbage below this size is never compacted
+  private static final long MIN_GARBAGE_BYTES = 1 << 20;
+
+  private final File file;
+  private final boolean compressed;
+  private final Int2LongMap offsets = new Int2LongOpenHashMap();
+  private final Int2IntMap lengths = new Int2IntOpenHashMap();
+  // number of bytes of each block in the file
+  private final Int2IntMap encodedLengths = new Int2IntOpenHashMap();
+  private long fileLength = 0;
+  private long garbageBytes = 0;
+
+  transient private RandomAccessFile randomAccessFile;
+  transient private FileChannel channel;
+  transient private ByteBuffer buffer;
+  transient private CacheStatistics cacheStatistics;
+  transient private BlockCache blockCache;
+
+  public AppendOnlyReferenceBlockStorage(Path filePath) {
+    this(filePath, false);
+  }
+
+  /**
+   * @param compressed
+   *          tells whether the blocks are encoded by the {@link IdListCodec}
+   */
+  public AppendOnlyReferenceBlockStorage(Path filePath, boolean compressed) {
+    this.file = filePath.toFile();
+    this.compressed = compressed;
+  }
+
+  /**
+   * Reopens an existing data file whose offset table is restored through
+   * {@link #restoreBlock(int, long, int, int)}.
+   */
+  public AppendOnlyReferenceBlockStorage(Path filePath, boolean compressed, long fileLength,
+      long garbageBytes) {
+    this(filePath, compressed);
+    this.fileLength = fileLength;
+    this.garbageBytes = garbageBytes;
+  }
+
+  public synchronized void restoreBlock(int id, long offset, int length, int encodedLength) {
+    offsets.put(id, offset);
+    lengths.put(id, length);
+    encodedLengths.put(id, encodedLength);
+  }
+
+  public void writeBlock(int id, int[] values) {
+    writeBlock(id, values, 0, values.length);
+  }
+
+  public synchronized void writeBlock(int id, int[] values, int offset, int length) {
+    removeBlock(id);
+    try {
+      ByteBuffer byteBuffer;
+      if (compressed) {
+        byteBuffer = getBuffer(IdListCodec.maxEncodedLength(length));
+        byteBuffer.limit(IdListCodec.encode(values, offset, length, byteBuffer.array(), 0));
+      } else {
+        byteBuffer = getBuffer(4 * length);
+        byteBuffer.asIntBuffer().put(values, offset, length);
+        byteBuffer.limit(4 * length);
+      }
+      int encodedLength = byteBuffer.limit();
+      long blockOffset = fileLength;
+      long position = blockOffset;
+      FileChannel channel = getChannel();
+      while (byteBuffer.hasRemaining()) {
+        position += channel.write(byteBuffer, position);
+      }
+      fileLength = position;
+      offsets.put(id, blockOffset);
+      lengths.put(id, length);
+      encodedLengths.put(id, encodedLength);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    compactIfNecessary();
+  }
+
+  public synchronized void writeBlocks(Int2ObjectMap<int[]> blocks) {
+    for (Int2ObjectMap.Entry<int[]> block : blocks.int2ObjectEntrySet()) {
+      int[] values = block.getValue();
+      if (values == null) {
+        removeBlock(block.getIntKey());
+      } else {
+        writeBlock(block.getIntKey(), values);
+      }
+    }
+    compactIfNecessary();
+  }
+
+  private void removeBlock(int id) {
+    getBlockCache().invalidate(this, id);
+    if (lengths.containsKey(id)) {
+      garbageBytes += encodedLengths.remove(id);
+      lengths.remove(id);
+      offsets.remove(id);
+    }
+  }
+
+  public int[] getBlock(final int id) {
+    return getBlockCache().getOrLoad(this, id, cacheStatistics,
+        new BlockCache.Loader<int[]>() {
+          public int[] load() {
+            return loadBlock(id);
+          }
+
+          public long weightOf(int[] values) {
+            return BlockCache.weightOf(values);
+          }
+        });
+  }
+
+  /**
+   * Reads the block. The file is read outside of the lock, so that several blocks can be
+   * loaded concurrently.
+   */
+  private int[] loadBlock(int id) {
+    while (true) {
+      long offset;
+      int length, encodedLength;
+      FileChannel channel;
+      synchronized (this) {
+        if (!lengths.containsKey(id)) {
+          return null;
+        }
+        offset = offsets.get(id);
+        length = lengths.get(id);
+        encodedLength = encodedLengths.get(id);
+        try {
+          channel = getChannel();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+      long startTime = System.nanoTime();
+      ByteBuffer byteBuffer = ByteBuffer.allocate(encodedLength);
+      try {
+        readFully(channel, byteBuffer, offset);
+      } catch (ClosedChannelException e) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new RuntimeException("Interrupted while reading " + file, e);
+        }
+        // the file has been closed or replaced by a compaction in the meantime
+        continue;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      byteBuffer.flip();
+      int[] values = new int[length];
+      if (compressed) {
+        IdListCodec.decode(byteBuffer.array(), 0, values, values.length);
+      } else {
+        byteBuffer.asIntBuffer().get(values);
+      }
+      if (cacheStatistics != null) {
+        cacheStatistics.recordLoad(System.nanoTime() - startTime);
+      }
+      return values;
+    }
+  }
+
+  /**
+   * Reads the given number of bytes into the (reused) buffer.
+   */
+  private ByteBuffer readBytes(FileChannel channel, long offset, int length) throws IOException {
+    ByteBuffer byteBuffer = getBuffer(length);
+    byteBuffer.limit(length);
+    readFully(channel, byteBuffer, offset);
+    byteBuffer.flip();
+    return byteBuffer;
+  }
+
+  private void readFully(FileChannel channel, ByteBuffer byteBuffer, long offset)
+      throws IOException {
+    long position = offset;
+    while (byteBuffer.hasRemaining()) {
+      int numBytes = channel.read(byteBuffer, position);
+      if (numBytes < 0) {
+        throw new IOException("Unexpected end of " + file + " at " + position);
+      }
+      position += numBytes;
+    }
+  }
+
+  /**
+   * Rewrites the live blocks into a new file once the garbage outweighs them, so that
+   * the file stays within twice the size of its content.
+   */
+  private void compactIfNecessary() {
+    long liveBytes = fileLength - garbageBytes;
+    if (garbageBytes < MIN_GARBAGE_BYTES || garbageBytes < liveBytes) {
+      return;
+    }
+
+    File compactedFile = new File(file.getPath() + ".compacted");
+    try {
+      FileChannel channel = getChannel();
+      long position = 0;
+      RandomAccessFile compactedRandomAccessFile = new RandomAccessFile(compactedFile, "rw");
+      try {
+        FileChannel compactedChannel = compactedRandomAccessFile.getChannel();
+        compactedChannel.truncate(0);
+        // the blocks are copied as they are, without decoding them
+        for (Int2IntMap.Entry block : encodedLengths.int2IntEntrySet()) {
+          int id = block.getIntKey();
+          ByteBuffer byteBuffer = readBytes(channel, offsets.get(id), block.getIntValue());
+          offsets.put(id, position);
+          while (byteBuffer.hasRemaining()) {
+            position += compactedChannel.write(byteBuffer, position);
+          }
+        }
+      } finally {
+        compactedRandomAccessFile.close();
+      }
+      close();
+      Files.move(compactedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      fileLength = position;
+      garbageBytes = 0;
+    } catch (IOException e) {
+      throw new RuntimeException("Could not compact " + file, e);
+    }
+  }
+
+  private FileChannel getChannel() throws IOException {
+    if (channel != null && !channel.isOpen()) {
+      // an interrupted read has closed the channel
+      close();
+    }
+    if (channel == null) {
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      channel = randomAccessFile.getChannel();
+      if (fileLength == 0) {
+        // drop leftovers of a former storage at the same path
+        channel.truncate(0);
+      }
+    }
+    return channel;
+  }
+
+  private ByteBuffer getBuffer(int numBytes) {
+    if (buffer == null || buffer.capacity() < numBytes) {
+      buffer = ByteBuffer.allocate(numBytes);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  public boolean isCached(int id) {
+    return getBlockCache().contains(this, id);
+  }
+
+  public void clearCache() {
+    getBlockCache().invalidateAll(this);
+  }
+
+  public void setCacheStatistics(CacheStatistics statistics) {
+    this.cacheStatistics = statistics;
+  }
+
+  public void setBlockCache(BlockCache blockCache) {
+    this.blockCache = blockCache;
+  }
+
+  private BlockCache getBlockCache() {
+    return blockCache == null ? BlockCache.getShared() : blockCache;
+  }
+
+  public synchronized void close() {
+    if (randomAccessFile != null) {
+      try {
+        randomAccessFile.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      randomAccessFile = null;
+      channel = null;
+    }
+  }
+
+  /**
+   * Returns the size of the data file, including the garbage.
+   */
+  public synchronized long getFileLength() {
+    return fileLength;
+  }
+
+  public synchronized long getGarbageBytes() {
+    return garbageBytes;
+  }
+
+  /**
+   * Returns the position of the block in the data file or -1 if there is no such block.
+   */
+  public synchronized long getBlockOffset(int id) {
+    return lengths.containsKey(id) ? offsets.get(id) : -1;
+  }
+
+  /**
+   * Returns the number of values of the block or -1 if there is no such block.
+   */
+  public synchronized int getBlockLength(int id) {
+    return lengths.containsKey(id) ? lengths.get(id) : -1;
+  }
+
+  /**
+   * Returns the number of bytes that the block takes in the data file or -1 if there is
+   * no such block.
+   */
+  public synchronized int getEncodedBlockLength(int id) {
+    return encodedLengths.containsKey(id) ? encodedLengths.get(id) : -1;
+  }
+
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+}
@@ -25,8 +25,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.List;
 
 import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.indexing.SignatureBatch;
 import de.unipotsdam.hpi.util.BitSignatureUtil;
 import de.unipotsdam.hpi.util.EncodingUtils;
 
@@ -53,6 +55,18 @@ public class BitSignatureDiskStorage implements BitSignatureStorage {
 		}
 	}
 
+	synchronized public void store(List<IndexPair> indexPairs) {
+		ensureOutputStreamOpen();
+		try {
+			for (IndexPair indexPair : indexPairs) {
+				EncodingUtils.writeLongArray(indexPair.getBitSignature(), out);
+				EncodingUtils.writeInt(indexPair.getElementId(), out);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	private void ensureOutputStreamOpen() {
 		if (out == null) {
 			try {
@@ -70,6 +84,8 @@ public class BitSignatureDiskStorage implements BitSignatureStorage {
 			try {
 				out.close();
 				out = null;
+				// signatures stored later on must not overwrite these ones
+				appendToExistingStorage = true;
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
@@ -166,4 +182,35 @@ public class BitSignatureDiskStorage implements BitSignatureStorage {
     
     return index;
   };
+
+  /**
+   * Reads the signatures directly into the batch, without creating index pairs.
+   */
+  public void readInto(SignatureBatch batch) {
+    closeOutput();
+    long[] signature = new long[signatureLen >> BitSignatureUtil.LOG_BASE_TYPE_SIZE];
+    byte[] buffer = new byte[signatureLen / Byte.SIZE];
+    InputStream in = null;
+    try {
+      in = new BufferedInputStream(new FileInputStream(path.toFile()));
+      while (true) {
+        try {
+          EncodingUtils.readCompleteArray(signature, buffer, in);
+        } catch (EOFException e) {
+          break;
+        }
+        batch.add(signature, EncodingUtils.readInt(in));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
 }
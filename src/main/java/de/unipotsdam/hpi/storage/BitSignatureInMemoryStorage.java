@@ -20,6 +20,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.indexing.SignatureBatch;
 
 public class BitSignatureInMemoryStorage implements BitSignatureStorage {
 
@@ -33,6 +34,10 @@ public class BitSignatureInMemoryStorage implements BitSignatureStorage {
 		signatures.add(indexPair);
 	}
 
+	synchronized public void store(List<IndexPair> indexPairs) {
+		signatures.addAll(indexPairs);
+	}
+
 	public void clear() {
 		signatures.clear();
 	}
@@ -51,4 +56,10 @@ public class BitSignatureInMemoryStorage implements BitSignatureStorage {
     return index;
   }
 
+  public void readInto(SignatureBatch batch) {
+    for (IndexPair pair : signatures) {
+      batch.add(pair.getBitSignature(), pair.getElementId());
+    }
+  }
+
 }
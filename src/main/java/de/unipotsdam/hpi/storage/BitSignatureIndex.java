@@ -4,8 +4,13 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.util.BitSignatureUtil;
 
-public class BitSignatureIndex {
+/**
+ * Keeps the {@link IndexPair}s of all elements on the heap. Every access synchronizes on
+ * the underlying map; {@link ConcurrentBitSignatureIndex} serves lookups without locks.
+ */
+public class BitSignatureIndex implements MutableBitSignatureLookup {
 
   private Int2ObjectMap<IndexPair> index = Int2ObjectMaps.synchronize(new Int2ObjectOpenHashMap<IndexPair>());
   
@@ -20,4 +25,44 @@ public class BitSignatureIndex {
   public boolean contains(int elementId) {
     return index.containsKey(elementId);
   }
+
+  public int size() {
+    return index.size();
+  }
+
+  public long[] getBitSignature(int elementId) {
+    IndexPair pair = getIndexPair(elementId);
+    if (pair == null) {
+      throw new IllegalArgumentException("Unknown element: " + elementId);
+    }
+    return pair.getBitSignature();
+  }
+
+  public void copyBitSignature(int elementId, long[] target) {
+    long[] signature = getBitSignature(elementId);
+    System.arraycopy(signature, 0, target, 0, signature.length);
+  }
+
+  public int calculateHammingDistance(int elementId, long[] signature) {
+    return BitSignatureUtil.calculateHammingDistance(getBitSignature(elementId), signature);
+  }
+
+  public void calculateHammingDistances(long[] signature, int[] elementIds, int numElements,
+      int[] distances) {
+    calculateHammingDistances(signature, elementIds, numElements, Integer.MAX_VALUE, distances);
+  }
+
+  public void calculateHammingDistances(long[] signature, int[] elementIds, int numElements,
+      int maxDistance, int[] distances) {
+    int length = signature.length;
+    for (int i = 0; i < numElements; i++) {
+      long[] candidate = getBitSignature(elementIds[i]);
+      if (candidate.length != length) {
+        throw new IllegalArgumentException("Signature of element " + elementIds[i]
+            + " has " + candidate.length + " instead of " + length + " longs.");
+      }
+      distances[i] = BitSignatureUtil.calculateHammingDistance(signature, 0, candidate, 0, length,
+          maxDistance);
+    }
+  }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+/**
+ * Read access to the original (unpermuted) bit signatures of all elements by their
+ * element id.
+ */
+public interface BitSignatureLookup {
+
+  boolean contains(int elementId);
+
+  /**
+   * Returns the number of stored signatures.
+   */
+  int size();
+
+  /**
+   * Returns the signature of the given element. Implementations may return their
+   * internal array, so the result must not be modified.
+   * 
+   * @throws IllegalArgumentException if the element is unknown
+   */
+  long[] getBitSignature(int elementId);
+
+  /**
+   * Copies the signature of the given element into the target, which must have the
+   * length of a signature.
+   * 
+   * @throws IllegalArgumentException if the element is unknown
+   */
+  void copyBitSignature(int elementId, long[] target);
+
+  /**
+   * Calculates the Hamming distance between the signature of the given element and the
+   * given signature without copying the former.
+   * 
+   * @throws IllegalArgumentException if the element is unknown
+   */
+  int calculateHammingDistance(int elementId, long[] signature);
+
+  /**
+   * Calculates the Hamming distances between the given signature and the signatures of
+   * the first <code>numElements</code> given elements.
+   * 
+   * @param distances receives the distance to the i-th element at position i
+   * @throws IllegalArgumentException if an element is unknown
+   */
+  void calculateHammingDistances(long[] signature, int[] elementIds, int numElements,
+      int[] distances);
+
+  /**
+   * Calculates the Hamming distances like
+   * {@link #calculateHammingDistances(long[], int[], int, int[])}, but may stop
+   * calculating the distance of an element as soon as it exceeds <code>maxDistance</code>.
+   * For such elements, the distances are only known to be greater than
+   * <code>maxDistance</code>.
+   */
+  void calculateHammingDistances(long[] signature, int[] elementIds, int numElements,
+      int maxDistance, int[] distances);
+
+}
@@ -15,9 +15,12 @@
  */
 package de.unipotsdam.hpi.storage;
 
+import java.util.List;
+
 import de.unipotsdam.hpi.database.VectorDatabase;
 import de.unipotsdam.hpi.indexing.Index;
 import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.indexing.SignatureBatch;
 
 /**
  * Stores bit signatures ({@link IndexPair}) the import process of a {@link VectorDatabase},
@@ -33,6 +36,11 @@ public interface BitSignatureStorage extends Iterable<IndexPair> {
 	 */
 	void store(IndexPair indexPair);
 
+	/**
+	 * Appends all pairs of the batch at once. Storing must be thread-safe.
+	 */
+	void store(List<IndexPair> indexPairs);
+
 	public void clear();
 
 	public void flushOutput();
@@ -40,4 +48,9 @@ public interface BitSignatureStorage extends Iterable<IndexPair> {
 	public void closeOutput();
 	
 	public BitSignatureIndex generateIndex();
+
+	/**
+	 * Appends all stored signatures to the given batch.
+	 */
+	public void readInto(SignatureBatch batch);
 }
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+
+/**
+ * Keeps decoded blocks of all indexes in memory within a fixed budget of bytes. Blocks
+ * are identified by their owner, e.g., a block storage, and an id within that owner;
+ * their size is estimated by the caller.
+ * <p>
+ * Eviction follows a segmented LRU policy: new blocks enter a probationary segment and
+ * are promoted to a protected segment when they are hit again. Victims are taken from
+ * the probationary segment first, so that a scan over many blocks that are used only
+ * once does not flush the blocks that queries keep coming back to. The protected
+ * segment takes at most {@link #PROTECTED_SHARE} of the budget; blocks that fall out of
+ * it get another chance in the probationary segment.
+ * <p>
+ * Lookups do not block: the cached blocks are published in a concurrent map and
+ * the cached values must not be modified by anyone. The recency of a hit block is only
+ * updated if the lock of the eviction policy is free at that moment, so under contention
+ * the policy approximates the access order. {@link #getOrLoad} makes sure that
+ * concurrent misses on the same block load it only once.
+ */
+public class BlockCache {
+
+  public static final long DEFAULT_CAPACITY = 256L << 20;
+
+  static final double PROTECTED_SHARE = 0.8d;
+
+  // estimated sizes of object headers and references
+  private static final int ARRAY_OVERHEAD = 16;
+  private static final int OBJECT_OVERHEAD = 16;
+  private static final int REFERENCE_SIZE = 8;
+
+  private static final BlockCache SHARED = new BlockCache(DEFAULT_CAPACITY);
+
+  private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+  private final ConcurrentHashMap<Key, FutureTask<Object>> loads =
+      new ConcurrentHashMap<Key, FutureTask<Object>>();
+
+  // guards the segments and the weights; the entries map is only changed under this lock
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<Key, Entry>();
+  private final LinkedHashMap<Key, Entry> protectedSegment = new LinkedHashMap<Key, Entry>();
+  private volatile long capacity;
+  private long probationWeight = 0;
+  private long protectedWeight = 0;
+
+  public BlockCache(long capacity) {
+    setCapacity(capacity);
+  }
+
+  /**
+   * Returns the cache that is shared by all indexes.
+   */
+  public static BlockCache getShared() {
+    return SHARED;
+  }
+
+  /**
+   * Sets the maximum number of bytes of the cached blocks and evicts blocks if needed.
+   */
+  public void setCapacity(long capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Illegal capacity: " + capacity);
+    }
+    lock.lock();
+    try {
+      this.capacity = capacity;
+      evict();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the estimated number of bytes of all cached blocks.
+   */
+  public long getWeight() {
+    lock.lock();
+    try {
+      return probationWeight + protectedWeight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the cached block or <code>null</code> and counts the access.
+   * 
+   * @param statistics
+   *          receives the hit or miss; may be <code>null</code>
+   */
+  @SuppressWarnings("unchecked")
+  public <V> V get(Object owner, int blockId, CacheStatistics statistics) {
+    Key key = new Key(owner, blockId);
+    Entry entry = entries.get(key);
+    if (entry != null && lock.tryLock()) {
+      try {
+        touch(key);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    if (statistics != null) {
+      if (entry == null) {
+        statistics.recordMiss();
+      } else {
+        statistics.recordHit();
+      }
+    }
+    return entry == null ? null : (V) entry.value;
+  }
+
+  /**
+   * Returns the cached block or loads it with the given loader and caches it. If other
+   * threads miss the same block at the same time, only one of them runs the loader and
+   * the others wait for its result. A load that is overtaken by a {@link #put} or an
+   * invalidation of the block is returned to the waiting threads but not cached.
+   * 
+   * @param statistics
+   *          receives the hit or miss and the eviction of the block; may be
+   *          <code>null</code>
+   * @return the block or <code>null</code> if the loader returned <code>null</code>
+   */
+  @SuppressWarnings("unchecked")
+  public <V> V getOrLoad(Object owner, int blockId, CacheStatistics statistics,
+      final Loader<V> loader) {
+    V value = get(owner, blockId, statistics);
+    if (value != null) {
+      return value;
+    }
+
+    Key key = new Key(owner, blockId);
+    FutureTask<Object> load = new FutureTask<Object>(new Callable<Object>() {
+      public Object call() {
+        return loader.load();
+      }
+    });
+    FutureTask<Object> runningLoad = loads.putIfAbsent(key, load);
+    if (runningLoad == null) {
+      // the block may have been cached while this thread registered its load
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        loads.remove(key, load);
+        return (V) entry.value;
+      }
+      load.run();
+      runningLoad = load;
+    }
+
+    try {
+      value = (V) runningLoad.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for block " + blockId, e);
+    } catch (ExecutionException e) {
+      loads.remove(key, runningLoad);
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+
+    if (runningLoad == load) {
+      lock.lock();
+      try {
+        // only cache the block if it has not been changed or dropped during the load
+        if (value != null && loads.get(key) == load) {
+          put(key, value, loader.weightOf(value), statistics);
+        }
+        loads.remove(key, load);
+      } finally {
+        lock.unlock();
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Returns the cached block or <code>null</code> without counting the access or
+   * changing the recency of the block.
+   */
+  @SuppressWarnings("unchecked")
+  public <V> V peek(Object owner, int blockId) {
+    Entry entry = entries.get(new Key(owner, blockId));
+    return entry == null ? null : (V) entry.value;
+  }
+
+  public boolean contains(Object owner, int blockId) {
+    return entries.containsKey(new Key(owner, blockId));
+  }
+
+  private void touch(Key key) {
+    Entry entry = protectedSegment.remove(key);
+    if (entry != null) {
+      // move to the most recently used end
+      protectedSegment.put(key, entry);
+    } else {
+      entry = probation.remove(key);
+      if (entry != null) {
+        probationWeight -= entry.weight;
+        promote(key, entry);
+      }
+    }
+  }
+
+  private void promote(Key key, Entry entry) {
+    protectedSegment.put(key, entry);
+    protectedWeight += entry.weight;
+    long maxProtectedWeight = (long) (PROTECTED_SHARE * capacity);
+    Iterator<Map.Entry<Key, Entry>> iterator = protectedSegment.entrySet().iterator();
+    while (protectedWeight > maxProtectedWeight && iterator.hasNext()) {
+      Map.Entry<Key, Entry> demoted = iterator.next();
+      iterator.remove();
+      protectedWeight -= demoted.getValue().weight;
+      probation.put(demoted.getKey(), demoted.getValue());
+      probationWeight += demoted.getValue().weight;
+    }
+  }
+
+  /**
+   * Adds the block to the probationary segment, replacing a cached block with the same
+   * owner and id. Blocks that exceed the whole budget are not cached.
+   * 
+   * @param weight
+   *          is the estimated number of bytes of the block
+   * @param statistics
+   *          receives the eviction of the block; may be <code>null</code>
+   */
+  public void put(Object owner, int blockId, Object value, long weight,
+      CacheStatistics statistics) {
+    Key key = new Key(owner, blockId);
+    lock.lock();
+    try {
+      loads.remove(key);
+      put(key, value, weight, statistics);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void put(Key key, Object value, long weight, CacheStatistics statistics) {
+    remove(key);
+    if (weight > capacity) {
+      return;
+    }
+    Entry entry = new Entry(value, weight, statistics);
+    probation.put(key, entry);
+    entries.put(key, entry);
+    probationWeight += weight;
+    evict();
+  }
+
+  public void invalidate(Object owner, int blockId) {
+    Key key = new Key(owner, blockId);
+    lock.lock();
+    try {
+      loads.remove(key);
+      remove(key);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drops all blocks of the given owner.
+   */
+  public void invalidateAll(Object owner) {
+    lock.lock();
+    try {
+      Iterator<Key> loadIterator = loads.keySet().iterator();
+      while (loadIterator.hasNext()) {
+        if (loadIterator.next().owner == owner) {
+          loadIterator.remove();
+        }
+      }
+      probationWeight -= invalidateAll(probation, owner);
+      protectedWeight -= invalidateAll(protectedSegment, owner);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long invalidateAll(Map<Key, Entry> segment, Object owner) {
+    long weight = 0;
+    Iterator<Map.Entry<Key, Entry>> iterator = segment.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Key, Entry> entry = iterator.next();
+      if (entry.getKey().owner == owner) {
+        weight += entry.getValue().weight;
+        iterator.remove();
+        entries.remove(entry.getKey());
+      }
+    }
+    return weight;
+  }
+
+  private void remove(Key key) {
+    entries.remove(key);
+    Entry entry = probation.remove(key);
+    if (entry != null) {
+      probationWeight -= entry.weight;
+    }
+    entry = protectedSegment.remove(key);
+    if (entry != null) {
+      protectedWeight -= entry.weight;
+    }
+  }
+
+  private void evict() {
+    evict(probation, true);
+    evict(protectedSegment, false);
+  }
+
+  private void evict(Map<Key, Entry> segment, boolean isProbation) {
+    Iterator<Map.Entry<Key, Entry>> iterator = segment.entrySet().iterator();
+    while (probationWeight + protectedWeight > capacity && iterator.hasNext()) {
+      Map.Entry<Key, Entry> victimEntry = iterator.next();
+      Entry victim = victimEntry.getValue();
+      iterator.remove();
+      entries.remove(victimEntry.getKey());
+      if (isProbation) {
+        probationWeight -= victim.weight;
+      } else {
+        protectedWeight -= victim.weight;
+      }
+      if (victim.statistics != null) {
+        victim.statistics.recordEviction();
+      }
+    }
+  }
+
+  /**
+   * Estimates the number of bytes of an array of element ids.
+   */
+  public static long weightOf(int[] elementIds) {
+    return ARRAY_OVERHEAD + 4L * elementIds.length;
+  }
+
+  /**
+   * Estimates the number of bytes of an array of pairs including their signatures.
+   */
+  public static long weightOf(IndexPair[] pairs, int keySize) {
+    long pairWeight = REFERENCE_SIZE + OBJECT_OVERHEAD + 4 + REFERENCE_SIZE
+        + ARRAY_OVERHEAD + 8L * keySize;
+    return ARRAY_OVERHEAD + pairWeight * pairs.length;
+  }
+
+  /**
+   * Loads a block on a cache miss.
+   */
+  public interface Loader<V> {
+
+    /**
+     * Reads and decodes the block. The returned value must not be modified afterwards.
+     * 
+     * @return the block or <code>null</code> if there is no such block
+     */
+    V load();
+
+    /**
+     * Estimates the number of bytes of the loaded block.
+     */
+    long weightOf(V value);
+  }
+
+  private static final class Key {
+
+    private final Object owner;
+    private final int blockId;
+
+    private Key(Object owner, int blockId) {
+      this.owner = owner;
+      this.blockId = blockId;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(owner) + blockId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return owner == other.owner && blockId == other.blockId;
+    }
+  }
+
+  private static final class Entry {
+
+    private final Object value;
+    private final long weight;
+    private final CacheStatistics statistics;
+
+    private Entry(Object value, long weight, CacheStatistics statistics) {
+      this.value = value;
+      this.weight = weight;
+      this.statistics = statistics;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how the blocks of one index fare in the {@link BlockCache}. Loads are the
+ * misses that have been read from disk, along with the time that took.
+ */
+public class CacheStatistics {
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong loadNanos = new AtomicLong();
+
+  void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  void recordEviction() {
+    evictions.incrementAndGet();
+  }
+
+  /**
+   * Records that a block has been loaded within the given time.
+   */
+  public void recordLoad(long nanos) {
+    loads.incrementAndGet();
+    loadNanos.addAndGet(nanos);
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public long getLoads() {
+    return loads.get();
+  }
+
+  public long getLoadNanos() {
+    return loadNanos.get();
+  }
+
+  public double getHitRate() {
+    long hits = getHits();
+    long accesses = hits + getMisses();
+    return accesses == 0 ? 0d : hits / (double) accesses;
+  }
+
+  public void reset() {
+    hits.set(0);
+    misses.set(0);
+    evictions.set(0);
+    loads.set(0);
+    loadNanos.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("hit rate %.3f (%d hits, %d misses), %d evictions, %d loads in %d ms",
+        getHitRate(), getHits(), getMisses(), getEvictions(), getLoads(),
+        getLoadNanos() / 1000000);
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+/**
+ * A {@link MutableBitSignatureLookup} whose lookups take no lock, unlike those of the
+ * {@link BitSignatureIndex}. Element ids are mapped to
+ * record ordinals in a primitive open-addressing table with linear probing. Each slot
+ * packs the element id and the ordinal into a single long, so a slot is published with
+ * one volatile write after its record has been written, and readers never observe a
+ * half-written entry.
+ * <p>
+ * Writers are serialized. When the table gets too full, the writer builds a larger one
+ * and publishes it through a volatile reference; readers keep probing the table they
+ * started with, which already contains every element added before.
+ */
+public class ConcurrentBitSignatureIndex implements MutableBitSignatureLookup {
+
+  private static final long EMPTY_SLOT = -1L;
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private volatile Table table;
+  private volatile int size = 0;
+
+  public ConcurrentBitSignatureIndex() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize
+   *          is the number of elements that can be added without growing the table
+   */
+  public ConcurrentBitSignatureIndex(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+    }
+    table = new Table(tableSizeFor(expectedSize), Math.max(expectedSize, 16));
+  }
+
+  /**
+   * Adds the given signatures to a new index.
+   */
+  public static ConcurrentBitSignatureIndex build(Iterable<IndexPair> pairs) {
+    ConcurrentBitSignatureIndex index = new ConcurrentBitSignatureIndex();
+    for (IndexPair pair : pairs) {
+      index.add(pair);
+    }
+    return index;
+  }
+
+  @Override
+  public synchronized void add(IndexPair indexPair) {
+    int elementId = indexPair.getElementId();
+    Table table = this.table;
+    int slot = table.findSlot(elementId);
+    long entry = table.slots.get(slot);
+    if (entry != EMPTY_SLOT) {
+      // replace the record of a known element in place
+      table.records.set(ordinalOf(entry), indexPair);
+      return;
+    }
+
+    int ordinal = size;
+    if (ordinal == Integer.MAX_VALUE) {
+      throw new IllegalStateException("Index is full.");
+    }
+    if (ordinal >= table.records.length() || 2 * (ordinal + 1) > table.slots.length()) {
+      table = grow(table, ordinal + 1);
+      slot = table.findSlot(elementId);
+    }
+    table.records.set(ordinal, indexPair);
+    table.slots.set(slot, pack(elementId, ordinal));
+    size = ordinal + 1;
+  }
+
+  /**
+   * Copies the table into one that holds at least the given number of elements and
+   * publishes it.
+   */
+  private Table grow(Table table, int minSize) {
+    int numSlots = table.slots.length();
+    while (2 * (long) minSize > numSlots) {
+      numSlots <<= 1;
+    }
+    int numRecords = table.records.length();
+    while (numRecords < minSize) {
+      numRecords = (int) Math.min(Integer.MAX_VALUE, 2L * numRecords);
+    }
+
+    Table newTable = new Table(numSlots, numRecords);
+    for (int ordinal = 0; ordinal < size; ordinal++) {
+      IndexPair pair = table.records.get(ordinal);
+      newTable.records.set(ordinal, pair);
+      newTable.slots.set(newTable.findSlot(pair.getElementId()), pack(pair.getElementId(), ordinal));
+    }
+    this.table = newTable;
+    return newTable;
+  }
+
+  @Override
+  public IndexPair getIndexPair(int id) {
+    Table table = this.table;
+    long entry = table.slots.get(table.findSlot(id));
+    return entry == EMPTY_SLOT ? null : table.records.get(ordinalOf(entry));
+  }
+
+  @Override
+  public boolean contains(int elementId) {
+    Table table = this.table;
+    return table.slots.get(table.findSlot(elementId)) != EMPTY_SLOT;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  public long[] getBitSignature(int elementId) {
+    IndexPair pair = getIndexPair(elementId);
+    if (pair == null) {
+      throw new IllegalArgumentException("Unknown element: " + elementId);
+    }
+    return pair.getBitSignature();
+  }
+
+  public void copyBitSignature(int elementId, long[] target) {
+    long[] signature = getBitSignature(elementId);
+    System.arraycopy(signature, 0, target, 0, signature.length);
+  }
+
+  public int calculateHammingDistance(int elementId, long[] signature) {
+    return BitSignatureUtil.calculateHammingDistance(getBitSignature(elementId), signature);
+  }
+
+  public void calculateHammingDistances(long[] signature, int[] elementIds, int numElements,
+      int[] distances) {
+    calculateHammingDistances(signature, elementIds, numElements, Integer.MAX_VALUE, distances);
+  }
+
+  public void calculateHammingDistances(long[] signature, int[] elementIds, int numElements,
+      int maxDistance, int[] distances) {
+    int length = signature.length;
+    for (int i = 0; i < numElements; i++) {
+      long[] candidate = getBitSignature(elementIds[i]);
+      if (candidate.length != length) {
+        throw new IllegalArgumentException("Signature of element " + elementIds[i]
+            + " has " + candidate.length + " instead of " + length + " longs.");
+      }
+      distances[i] = BitSignatureUtil.calculateHammingDistance(signature, 0, candidate, 0, length,
+          maxDistance);
+    }
+  }
+
+  private static long pack(int elementId, int ordinal) {
+    return ((long) elementId << 32) | ordinal;
+  }
+
+  private static int ordinalOf(long entry) {
+    return (int) entry;
+  }
+
+  private static int tableSizeFor(int expectedSize) {
+    int numSlots = 16;
+    while (numSlots < 2L * expectedSize) {
+      numSlots <<= 1;
+    }
+    return numSlots;
+  }
+
+  private static final class Table {
+
+    // an ordinal is never -1, so no entry equals EMPTY_SLOT
+    private final AtomicLongArray slots;
+    private final AtomicReferenceArray<IndexPair> records;
+    private final int mask;
+
+    private Table(int numSlots, int numRecords) {
+      slots = new AtomicLongArray(numSlots);
+      for (int i = 0; i < numSlots; i++) {
+        slots.set(i, EMPTY_SLOT);
+      }
+      records = new AtomicReferenceArray<IndexPair>(numRecords);
+      mask = numSlots - 1;
+    }
+
+    /**
+     * Returns the slot that holds the given element or the empty slot where it belongs.
+     */
+    private int findSlot(int elementId) {
+      int slot = mix(elementId) & mask;
+      while (true) {
+        long entry = slots.get(slot);
+        if (entry == EMPTY_SLOT || (int) (entry >>> 32) == elementId) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    private static int mix(int x) {
+      int h = x * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+  }
+}
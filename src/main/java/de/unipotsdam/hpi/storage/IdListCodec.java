@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+/**
+ * Encodes lists of element ids as the differences between neighboring ids, each written
+ * as a zig-zag variable-length integer of one to five bytes. The ids keep their order,
+ * so the differences may be negative. A difference takes one or two bytes only if the
+ * neighboring ids were assigned close to each other. The ids of an index block are in
+ * signature order, which is unrelated to the order of their assignment, so their
+ * differences are spread over the whole id range. In a large database they mostly take
+ * three to five bytes, which saves little over raw 4-byte ints.
+ */
+public final class IdListCodec {
+
+  private IdListCodec() {
+  }
+
+  /**
+   * Returns the maximum number of bytes that the given number of ids take.
+   */
+  public static int maxEncodedLength(int length) {
+    return 5 * length;
+  }
+
+  /**
+   * Encodes <code>length</code> ids beginning at <code>offset</code> into the target
+   * array, which must have room for {@link #maxEncodedLength(int)} bytes.
+   * 
+   * @return the position after the last written byte
+   */
+  public static int encode(int[] values, int offset, int length, byte[] target, int targetOffset) {
+    int position = targetOffset;
+    int previous = 0;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      int delta = values[i] - previous;
+      previous = values[i];
+      int zigZag = (delta << 1) ^ (delta >> 31);
+      while ((zigZag & ~0x7F) != 0) {
+        target[position++] = (byte) ((zigZag & 0x7F) | 0x80);
+        zigZag >>>= 7;
+      }
+      target[position++] = (byte) zigZag;
+    }
+    return position;
+  }
+
+  /**
+   * Decodes <code>length</code> ids into the beginning of the target array, which may be
+   * reused across calls.
+   * 
+   * @return the position after the last read byte
+   */
+  public static int decode(byte[] source, int sourceOffset, int[] target, int length) {
+    int position = sourceOffset;
+    int previous = 0;
+    for (int i = 0; i < length; i++) {
+      int b = source[position++];
+      int zigZag = b & 0x7F;
+      for (int shift = 7; b < 0; shift += 7) {
+        b = source[position++];
+        zigZag |= (b & 0x7F) << shift;
+      }
+      previous += (zigZag >>> 1) ^ -(zigZag & 1);
+      target[i] = previous;
+    }
+    return position;
+  }
+
+  /**
+   * Skips <code>length</code> encoded ids.
+   * 
+   * @return the position after the last skipped byte
+   */
+  public static int skip(byte[] source, int sourceOffset, int length) {
+    int position = sourceOffset;
+    int numSkippedIds = 0;
+    while (numSkippedIds < length) {
+      // the last byte of an id has no continuation bit
+      if (source[position++] >= 0) {
+        numSkippedIds++;
+      }
+    }
+    return position;
+  }
+}
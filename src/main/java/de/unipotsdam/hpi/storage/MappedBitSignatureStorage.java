@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.indexing.SignatureBatch;
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+import de.unipotsdam.hpi.util.EncodingUtils;
+
+/**
+ * Stores the signatures in fixed-width records, in the same format as
+ * {@link BitSignatureDiskStorage}: the signature words followed by the element id. For
+ * reading, the file is memory-mapped, so that signatures can be accessed by their
+ * ordinal, i.e., the position of their record, and queries read them straight from the
+ * page cache. Only the mapping from element ids to ordinals is kept on the heap.
+ * <p>
+ * Signatures that are stored after {@link #openForRandomAccess()} become visible to
+ * lookups with the next call of that method. Lookups must not run concurrently to it.
+ */
+public class MappedBitSignatureStorage implements BitSignatureStorage, BitSignatureLookup {
+
+  // maximum size of a mapped chunk
+  private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+  private final Path path;
+  private final int signatureSize;
+  private final int recordSize;
+  private final int recordsPerChunk;
+  private boolean appendToExistingStorage;
+  private BufferedOutputStream out;
+
+  private RandomAccessFile randomAccessFile;
+  private ByteBuffer[] chunks = new ByteBuffer[0];
+  private int numMappedRecords = 0;
+  private final Int2IntOpenHashMap ordinals = new Int2IntOpenHashMap();
+
+  /**
+   * @param signatureLen
+   *          is the number of bits per signature
+   */
+  public MappedBitSignatureStorage(Path path, int signatureLen, boolean appendToExistingStorage) {
+    this.path = path;
+    this.signatureSize = signatureLen >> BitSignatureUtil.LOG_BASE_TYPE_SIZE;
+    this.recordSize = signatureSize * 8 + 4;
+    this.recordsPerChunk = MAX_CHUNK_BYTES / recordSize;
+    this.appendToExistingStorage = appendToExistingStorage;
+    ordinals.defaultReturnValue(-1);
+  }
+
+  synchronized public void store(IndexPair indexPair) {
+    ensureOutputStreamOpen();
+    try {
+      EncodingUtils.writeLongArray(indexPair.getBitSignature(), out);
+      EncodingUtils.writeInt(indexPair.getElementId(), out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  synchronized public void store(List<IndexPair> indexPairs) {
+    ensureOutputStreamOpen();
+    try {
+      for (IndexPair indexPair : indexPairs) {
+        EncodingUtils.writeLongArray(indexPair.getBitSignature(), out);
+        EncodingUtils.writeInt(indexPair.getElementId(), out);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void ensureOutputStreamOpen() {
+    if (out == null) {
+      try {
+        out = new BufferedOutputStream(new FileOutputStream(path.toFile(),
+            appendToExistingStorage));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  public synchronized void closeOutput() {
+    if (out != null) {
+      try {
+        out.close();
+        out = null;
+        // signatures stored later on must not overwrite these ones
+        appendToExistingStorage = true;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  public synchronized void flushOutput() {
+    if (out != null) {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Maps all records that have been stored so far. Records that are already mapped are
+   * kept, so that only new records have to be scanned for their element ids.
+   */
+  public synchronized void openForRandomAccess() {
+    closeOutput();
+    try {
+      if (!path.toFile().exists()) {
+        return;
+      }
+      if (randomAccessFile == null) {
+        randomAccessFile = new RandomAccessFile(path.toFile(), "r");
+      }
+      FileChannel channel = randomAccessFile.getChannel();
+      long numRecords = channel.size() / recordSize;
+      if (numRecords > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Too many signatures: " + numRecords);
+      }
+      if (numRecords == numMappedRecords) {
+        return;
+      }
+
+      int numChunks = (int) ((numRecords + recordsPerChunk - 1) / recordsPerChunk);
+      ByteBuffer[] newChunks = Arrays.copyOf(chunks, numChunks);
+      // the last chunk may have grown
+      for (int chunk = numMappedRecords / recordsPerChunk; chunk < numChunks; chunk++) {
+        long firstRecord = (long) chunk * recordsPerChunk;
+        long chunkRecords = Math.min(recordsPerChunk, numRecords - firstRecord);
+        newChunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, firstRecord * recordSize,
+            chunkRecords * recordSize);
+      }
+      chunks = newChunks;
+
+      for (int ordinal = numMappedRecords; ordinal < numRecords; ordinal++) {
+        ordinals.put(getElementIdAt(ordinal), ordinal);
+      }
+      numMappedRecords = (int) numRecords;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Releases the mapping and the output stream.
+   */
+  public synchronized void close() {
+    closeOutput();
+    if (randomAccessFile != null) {
+      try {
+        randomAccessFile.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      randomAccessFile = null;
+    }
+    chunks = new ByteBuffer[0];
+    numMappedRecords = 0;
+    ordinals.clear();
+  }
+
+  public void clear() {
+    close();
+    path.toFile().delete();
+  }
+
+  /**
+   * Returns the number of mapped records.
+   */
+  public int getNumRecords() {
+    return numMappedRecords;
+  }
+
+  /**
+   * Returns the ordinal of the element's record or -1 if it is not mapped.
+   */
+  public int getOrdinal(int elementId) {
+    return ordinals.get(elementId);
+  }
+
+  public int getElementIdAt(int ordinal) {
+    return chunks[ordinal / recordsPerChunk].getInt(
+        (ordinal % recordsPerChunk) * recordSize + recordSize - 4);
+  }
+
+  /**
+   * Returns a read-only view on the signature of the record without copying it.
+   */
+  public LongBuffer getBitSignatureAt(int ordinal) {
+    ByteBuffer view = chunks[ordinal / recordsPerChunk].duplicate();
+    int offset = (ordinal % recordsPerChunk) * recordSize;
+    view.position(offset);
+    view.limit(offset + recordSize - 4);
+    return view.slice().asLongBuffer().asReadOnlyBuffer();
+  }
+
+  public void copyBitSignatureAt(int ordinal, long[] target) {
+    ByteBuffer chunk = chunks[ordinal / recordsPerChunk];
+    int offset = (ordinal % recordsPerChunk) * recordSize;
+    for (int i = 0; i < signatureSize; i++) {
+      target[i] = chunk.getLong(offset + 8 * i);
+    }
+  }
+
+  public boolean contains(int elementId) {
+    return ordinals.containsKey(elementId);
+  }
+
+  public int size() {
+    return ordinals.size();
+  }
+
+  public long[] getBitSignature(int elementId) {
+    long[] signature = new long[signatureSize];
+    copyBitSignature(elementId, signature);
+    return signature;
+  }
+
+  public void copyBitSignature(int elementId, long[] target) {
+    copyBitSignatureAt(getKnownOrdinal(elementId), target);
+  }
+
+  public int calculateHammingDistance(int elementId, long[] signature) {
+    checkSignatureSize(signature);
+    return calculateHammingDistanceAt(getKnownOrdinal(elementId), signature, Integer.MAX_VALUE);
+  }
+
+  public void calculateHammingDistances(long[] signature, int[] elementIds, int numElements,
+      int[] distances) {
+    calculateHammingDistances(signature, elementIds, numElements, Integer.MAX_VALUE, distances);
+  }
+
+  public void calculateHammingDistances(long[] signature, int[] elementIds, int numElements,
+      int maxDistance, int[] distances) {
+    checkSignatureSize(signature);
+    for (int i = 0; i < numElements; i++) {
+      distances[i] = calculateHammingDistanceAt(getKnownOrdinal(elementIds[i]), signature,
+          maxDistance);
+    }
+  }
+
+  /**
+   * Calculates the distance to the signature with the given ordinal and gives up as
+   * soon as it exceeds <code>maxDistance</code>.
+   */
+  private int calculateHammingDistanceAt(int ordinal, long[] signature, int maxDistance) {
+    ByteBuffer chunk = chunks[ordinal / recordsPerChunk];
+    int offset = (ordinal % recordsPerChunk) * recordSize;
+    int distance = 0;
+    int i = 0;
+    for (int unrolledLength = signatureSize & ~3; i < unrolledLength; i += 4, offset += 32) {
+      distance += Long.bitCount(chunk.getLong(offset) ^ signature[i])
+          + Long.bitCount(chunk.getLong(offset + 8) ^ signature[i + 1])
+          + Long.bitCount(chunk.getLong(offset + 16) ^ signature[i + 2])
+          + Long.bitCount(chunk.getLong(offset + 24) ^ signature[i + 3]);
+      if (distance > maxDistance) {
+        return distance;
+      }
+    }
+    for (; i < signatureSize; i++, offset += 8) {
+      distance += Long.bitCount(chunk.getLong(offset) ^ signature[i]);
+    }
+    return distance;
+  }
+
+  private void checkSignatureSize(long[] signature) {
+    if (signature.length != signatureSize) {
+      throw new IllegalArgumentException("Signature has " + signature.length
+          + " instead of " + signatureSize + " longs.");
+    }
+  }
+
+  private int getKnownOrdinal(int elementId) {
+    int ordinal = ordinals.get(elementId);
+    if (ordinal < 0) {
+      throw new IllegalArgumentException("Unknown element: " + elementId);
+    }
+    return ordinal;
+  }
+
+  /**
+   * Iterates over all records in the order they were stored.
+   */
+  public Iterator<IndexPair> iterator() {
+    openForRandomAccess();
+    final int numRecords = numMappedRecords;
+    return new Iterator<IndexPair>() {
+
+      private int ordinal = 0;
+
+      public boolean hasNext() {
+        return ordinal < numRecords;
+      }
+
+      public IndexPair next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        long[] signature = new long[signatureSize];
+        copyBitSignatureAt(ordinal, signature);
+        return new IndexPair(signature, getElementIdAt(ordinal++));
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  public BitSignatureIndex generateIndex() {
+    BitSignatureIndex index = new BitSignatureIndex();
+    for (IndexPair pair : this) {
+      index.add(pair);
+    }
+    return index;
+  }
+
+  /**
+   * Copies the signatures from the mapped records directly into the batch.
+   */
+  public void readInto(SignatureBatch batch) {
+    openForRandomAccess();
+    long[] signature = new long[signatureSize];
+    for (int ordinal = 0; ordinal < numMappedRecords; ordinal++) {
+      copyBitSignatureAt(ordinal, signature);
+      batch.add(signature, getElementIdAt(ordinal));
+    }
+  }
+
+}
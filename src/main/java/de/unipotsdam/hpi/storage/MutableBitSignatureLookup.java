@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+
+/**
+ * A {@link BitSignatureLookup} on the heap that further signatures can be added to, as
+ * needed by incremental indexing.
+ */
+public interface MutableBitSignatureLookup extends BitSignatureLookup {
+
+  /**
+   * Adds the signature of the element or replaces its former signature.
+   */
+  void add(IndexPair indexPair);
+
+  /**
+   * Returns the pair of the given element or <code>null</code> if it is unknown.
+   */
+  IndexPair getIndexPair(int elementId);
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+
+/**
+ * A read-only {@link BitSignatureLookup} that packs all signatures into direct memory
+ * instead of keeping an {@link IndexPair} and a <code>long[]</code> per element. The
+ * signatures are stored back to back in chunks of direct buffers and addressed by a
+ * dense ordinal; a primitive map translates element ids to ordinals.
+ * <p>
+ * The index is completely built by {@link #build(Iterable, int)} and never changed
+ * afterwards, so reads need neither locks nor copies.
+ */
+public class OffHeapBitSignatureIndex implements BitSignatureLookup {
+
+  // number of longs in a chunk (64 MB)
+  private static final int CHUNK_SIZE = 1 << 23;
+
+  private final int signatureSize;
+  private final int signaturesPerChunk;
+  private final LongBuffer[] chunks;
+  private final Int2IntOpenHashMap ordinals;
+
+  private OffHeapBitSignatureIndex(int signatureSize, int signaturesPerChunk,
+      LongBuffer[] chunks, Int2IntOpenHashMap ordinals) {
+    this.signatureSize = signatureSize;
+    this.signaturesPerChunk = signaturesPerChunk;
+    this.chunks = chunks;
+    this.ordinals = ordinals;
+  }
+
+  /**
+   * Copies the given signatures into a new index.
+   * 
+   * @param signatureSize
+   *          is the number of longs per signature
+   */
+  public static OffHeapBitSignatureIndex build(Iterable<IndexPair> pairs, int signatureSize) {
+    if (signatureSize < 1 || signatureSize > CHUNK_SIZE) {
+      throw new IllegalArgumentException("Illegal signature size: " + signatureSize);
+    }
+    int signaturesPerChunk = CHUNK_SIZE / signatureSize;
+    List<LongBuffer> chunks = new ArrayList<LongBuffer>();
+    Int2IntOpenHashMap ordinals = new Int2IntOpenHashMap();
+    ordinals.defaultReturnValue(-1);
+
+    LongBuffer chunk = null;
+    int ordinal = 0;
+    for (IndexPair pair : pairs) {
+      long[] signature = pair.getBitSignature();
+      if (signature.length != signatureSize) {
+        throw new IllegalArgumentException("Signature of element " + pair.getElementId()
+            + " has " + signature.length + " instead of " + signatureSize + " longs.");
+      }
+      if (ordinals.containsKey(pair.getElementId())) {
+        throw new IllegalArgumentException("Duplicate element: " + pair.getElementId());
+      }
+
+      if (ordinal % signaturesPerChunk == 0) {
+        chunk = allocateChunk(signaturesPerChunk * signatureSize);
+        chunks.add(chunk);
+      }
+      chunk.put(signature);
+      ordinals.put(pair.getElementId(), ordinal++);
+    }
+
+    return new OffHeapBitSignatureIndex(signatureSize, signaturesPerChunk,
+        chunks.toArray(new LongBuffer[chunks.size()]), ordinals);
+  }
+
+  private static LongBuffer allocateChunk(int numLongs) {
+    return ByteBuffer.allocateDirect(numLongs * (Long.SIZE / Byte.SIZE))
+        .order(ByteOrder.nativeOrder()).asLongBuffer();
+  }
+
+  public boolean contains(int elementId) {
+    return ordinals.containsKey(elementId);
+  }
+
+  public int size() {
+    return ordinals.size();
+  }
+
+  public long[] getBitSignature(int elementId) {
+    long[] signature = new long[signatureSize];
+    copyBitSignature(elementId, signature);
+    return signature;
+  }
+
+  public void copyBitSignature(int elementId, long[] target) {
+    int ordinal = getOrdinal(elementId);
+    LongBuffer chunk = chunks[ordinal / signaturesPerChunk];
+    int offset = (ordinal % signaturesPerChunk) * signatureSize;
+    for (int i = 0; i < signatureSize; i++) {
+      target[i] = chunk.get(offset + i);
+    }
+  }
+
+  public int calculateHammingDistance(int elementId, long[] signature) {
+    if (signature.length != signatureSize) {
+      throw new IllegalArgumentException("Signature has " + signature.length
+          + " instead of " + signatureSize + " longs.");
+    }
+    return calculateHammingDistanceAt(getOrdinal(elementId), signature, Integer.MAX_VALUE);
+  }
+
+  public void calculateHammingDistances(long[] signature, int[] elementIds, int numElements,
+      int[] distances) {
+    calculateHammingDistances(signature, elementIds, numElements, Integer.MAX_VALUE, distances);
+  }
+
+  public void calculateHammingDistances(long[] signature, int[] elementIds, int numElements,
+      int maxDistance, int[] distances) {
+    if (signature.length != signatureSize) {
+      throw new IllegalArgumentException("Signature has " + signature.length
+          + " instead of " + signatureSize + " longs.");
+    }
+    for (int i = 0; i < numElements; i++) {
+      distances[i] = calculateHammingDistanceAt(getOrdinal(elementIds[i]), signature, maxDistance);
+    }
+  }
+
+  /**
+   * Calculates the distance to the signature with the given ordinal and gives up as
+   * soon as it exceeds <code>maxDistance</code>.
+   */
+  private int calculateHammingDistanceAt(int ordinal, long[] signature, int maxDistance) {
+    LongBuffer chunk = chunks[ordinal / signaturesPerChunk];
+    int offset = (ordinal % signaturesPerChunk) * signatureSize;
+    int distance = 0;
+    int i = 0;
+    for (int unrolledLength = signatureSize & ~3; i < unrolledLength; i += 4) {
+      distance += Long.bitCount(chunk.get(offset + i) ^ signature[i])
+          + Long.bitCount(chunk.get(offset + i + 1) ^ signature[i + 1])
+          + Long.bitCount(chunk.get(offset + i + 2) ^ signature[i + 2])
+          + Long.bitCount(chunk.get(offset + i + 3) ^ signature[i + 3]);
+      if (distance > maxDistance) {
+        return distance;
+      }
+    }
+    for (; i < signatureSize; i++) {
+      distance += Long.bitCount(chunk.get(offset + i) ^ signature[i]);
+    }
+    return distance;
+  }
+
+  private int getOrdinal(int elementId) {
+    int ordinal = ordinals.get(elementId);
+    if (ordinal < 0) {
+      throw new IllegalArgumentException("Unknown element: " + elementId);
+    }
+    return ordinal;
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+
+import java.io.Serializable;
+
+/**
+ * Persists the element ids of reference blocks. A storage is shared by several blocks,
+ * which are distinguished by their ids, and is serialized along with them.
+ */
+public interface ReferenceBlockStorage extends Serializable {
+
+  /**
+   * Stores the given values as the content of the block. The storage may keep the array.
+   */
+  void writeBlock(int id, int[] values);
+
+  /**
+   * Stores <code>length</code> values beginning at <code>offset</code> as the content of
+   * the block. The storage does not keep the array.
+   */
+  void writeBlock(int id, int[] values, int offset, int length);
+
+  /**
+   * Writes several blocks at once. Blocks that are mapped to <code>null</code> are
+   * removed.
+   */
+  void writeBlocks(Int2ObjectMap<int[]> blocks);
+
+  /**
+   * Returns the content of the block. The returned array must not be modified.
+   */
+  int[] getBlock(int id);
+
+  /**
+   * Tells whether the block is in the block cache, so that it can be returned without
+   * reading it.
+   */
+  boolean isCached(int id);
+
+  /**
+   * Drops the cached blocks of this storage.
+   */
+  void clearCache();
+
+  /**
+   * Sets where the accesses to cached blocks are counted.
+   */
+  void setCacheStatistics(CacheStatistics statistics);
+
+  /**
+   * Sets the cache that keeps the decoded blocks. The shared cache is used if none is
+   * set.
+   */
+  void setBlockCache(BlockCache blockCache);
+
+  /**
+   * Releases any system resources. The storage is reopened when it is used again.
+   */
+  void close();
+}
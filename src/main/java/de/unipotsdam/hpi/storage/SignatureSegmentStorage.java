@@ -0,0 +1,324 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+
+/**
+ * Stores the index pairs of many blocks in a few large, memory-mapped segment files.
+ * Every block occupies a slot of fixed capacity, so that a block is rewritten in place
+ * and slots of removed blocks are reused. A slot consists of the number of its pairs
+ * followed by the pairs, each as the signature and the element id.
+ * <p>
+ * The segment files are only open while they are mapped, so the storage does not hold
+ * any file descriptors. All reads and writes use absolute positions. Changes are forced
+ * to disk in batches, every {@link #FORCE_INTERVAL} writes and on {@link #force()} or
+ * {@link #close()}. The slot table is serialized with the storage; the segments are
+ * mapped again when they are accessed after deserialization. Decoded blocks are cached
+ * in the {@link BlockCache} of the index.
+ */
+public class SignatureSegmentStorage implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  // number of bytes that a segment file should not exceed if it holds more than one slot
+  static final long SEGMENT_SIZE = 64L << 20;
+
+  // number of slot writes after which the changed segments are forced to disk
+  static final int FORCE_INTERVAL = 1024;
+
+  private static final int INT_SIZE_IN_BYTES = 4;
+
+  private static final String SEGMENT_FILE_PREFIX = "segment";
+
+  private final File directory;
+  private final int keySize;
+  private final int slotCapacity;
+  private final int slotsPerSegment;
+  // read without the lock by the lookups of cached slots
+  private volatile int numSlots = 0;
+  private final IntArrayList freeSlots = new IntArrayList();
+
+  transient private List<MappedByteBuffer> segments;
+  transient private BitSet changedSegments;
+  transient private int numUnforcedWrites;
+  transient private CacheStatistics cacheStatistics;
+  transient private BlockCache blockCache;
+
+  /**
+   * @param slotCapacity
+   *          is the maximum number of pairs of a block
+   */
+  public SignatureSegmentStorage(Path directory, int keySize, int slotCapacity) {
+    this(directory, keySize, slotCapacity, (int) Math.max(1,
+        SEGMENT_SIZE / getSlotSize(keySize, slotCapacity)));
+  }
+
+  SignatureSegmentStorage(Path directory, int keySize, int slotCapacity, int slotsPerSegment) {
+    long segmentSize = (long) slotsPerSegment * getSlotSize(keySize, slotCapacity);
+    if (segmentSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Segments of " + slotsPerSegment + " slots for "
+          + slotCapacity + " pairs cannot be mapped.");
+    }
+    this.directory = directory.toFile();
+    this.keySize = keySize;
+    this.slotCapacity = slotCapacity;
+    this.slotsPerSegment = slotsPerSegment;
+  }
+
+  private static long getSlotSize(int keySize, int slotCapacity) {
+    return INT_SIZE_IN_BYTES + (long) slotCapacity * getPairSize(keySize);
+  }
+
+  private static int getPairSize(int keySize) {
+    return 8 * keySize + INT_SIZE_IN_BYTES;
+  }
+
+  /**
+   * Reserves an empty slot, preferably one that has been released before.
+   */
+  public synchronized int allocateSlot() {
+    int slot = freeSlots.isEmpty() ? numSlots++ : freeSlots.popInt();
+    writeSize(slot, 0);
+    return slot;
+  }
+
+  /**
+   * Returns the slot for reuse. Its pairs must not be read afterwards.
+   */
+  public synchronized void releaseSlot(int slot) {
+    checkSlot(slot);
+    getBlockCache().invalidate(this, slot);
+    writeSize(slot, 0);
+    freeSlots.push(slot);
+  }
+
+  /**
+   * Replaces the pairs of the slot with the given pairs.
+   */
+  public synchronized void write(int slot, IndexPair[] pairs, int offset, int length) {
+    checkSlot(slot);
+    if (length > slotCapacity) {
+      throw new IllegalArgumentException("Cannot write " + length
+          + " pairs to a slot of capacity " + slotCapacity);
+    }
+    MappedByteBuffer segment = getSegment(slot / slotsPerSegment);
+    int position = getSlotPosition(slot) + INT_SIZE_IN_BYTES;
+    for (int i = offset; i < offset + length; i++) {
+      long[] signature = pairs[i].getBitSignature();
+      for (int j = 0; j < keySize; j++, position += 8) {
+        segment.putLong(position, signature[j]);
+      }
+      segment.putInt(position, pairs[i].getElementId());
+      position += INT_SIZE_IN_BYTES;
+    }
+    writeSize(slot, length);
+
+    IndexPair[] cachedPairs = new IndexPair[length];
+    System.arraycopy(pairs, offset, cachedPairs, 0, length);
+    getBlockCache().put(this, slot, cachedPairs,
+        BlockCache.weightOf(cachedPairs, keySize), cacheStatistics);
+  }
+
+  private void writeSize(int slot, int size) {
+    int segmentId = slot / slotsPerSegment;
+    getSegment(segmentId).putInt(getSlotPosition(slot), size);
+    changedSegments.set(segmentId);
+    if (++numUnforcedWrites >= FORCE_INTERVAL) {
+      force();
+    }
+  }
+
+  /**
+   * Returns the pairs of the slot. The returned array is shared and must not be
+   * modified.
+   */
+  public IndexPair[] read(final int slot) {
+    checkSlot(slot);
+    return getBlockCache().getOrLoad(this, slot, cacheStatistics,
+        new BlockCache.Loader<IndexPair[]>() {
+          public IndexPair[] load() {
+            return loadSlot(slot);
+          }
+
+          public long weightOf(IndexPair[] pairs) {
+            return BlockCache.weightOf(pairs, keySize);
+          }
+        });
+  }
+
+  /**
+   * Reads the slot under the lock, so that a concurrent write cannot be seen half done.
+   * A write caches its pairs only afterwards, which keeps the cache from taking pairs
+   * that were loaded before the write.
+   */
+  private IndexPair[] loadSlot(int slot) {
+    long startTime = System.nanoTime();
+    IndexPair[] pairs;
+    synchronized (this) {
+      MappedByteBuffer segment = getSegment(slot / slotsPerSegment);
+      int position = getSlotPosition(slot);
+      pairs = new IndexPair[segment.getInt(position)];
+      position += INT_SIZE_IN_BYTES;
+      for (int i = 0; i < pairs.length; i++) {
+        long[] signature = new long[keySize];
+        for (int j = 0; j < keySize; j++, position += 8) {
+          signature[j] = segment.getLong(position);
+        }
+        pairs[i] = new IndexPair(signature, segment.getInt(position));
+        position += INT_SIZE_IN_BYTES;
+      }
+    }
+    if (cacheStatistics != null) {
+      cacheStatistics.recordLoad(System.nanoTime() - startTime);
+    }
+    return pairs;
+  }
+
+  private int getSlotPosition(int slot) {
+    return (int) ((slot % slotsPerSegment) * getSlotSize(keySize, slotCapacity));
+  }
+
+  private void checkSlot(int slot) {
+    if (slot < 0 || slot >= numSlots) {
+      throw new IllegalArgumentException("No such slot: " + slot);
+    }
+  }
+
+  /**
+   * Returns the mapped segment and maps it first if necessary, e.g., after the storage
+   * has been deserialized.
+   */
+  private MappedByteBuffer getSegment(int segmentId) {
+    if (segments == null) {
+      segments = new ArrayList<MappedByteBuffer>();
+      changedSegments = new BitSet();
+    }
+    while (segments.size() <= segmentId) {
+      segments.add(null);
+    }
+    MappedByteBuffer segment = segments.get(segmentId);
+    if (segment == null) {
+      segment = mapSegment(segmentId);
+      segments.set(segmentId, segment);
+    }
+    return segment;
+  }
+
+  private MappedByteBuffer mapSegment(int segmentId) {
+    Path segmentPath = getSegmentPath(segmentId);
+    long segmentSize = slotsPerSegment * getSlotSize(keySize, slotCapacity);
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(segmentPath, StandardOpenOption.READ,
+          StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+      // the mapping stays valid after the channel is closed
+      return channel.map(MapMode.READ_WRITE, 0, segmentSize);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not map " + segmentPath, e);
+    } finally {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  Path getSegmentPath(int segmentId) {
+    return directory.toPath().resolve(SEGMENT_FILE_PREFIX + segmentId);
+  }
+
+  /**
+   * Writes the changed segments to disk.
+   */
+  public synchronized void force() {
+    if (segments != null) {
+      for (int segmentId = changedSegments.nextSetBit(0); segmentId >= 0;
+          segmentId = changedSegments.nextSetBit(segmentId + 1)) {
+        segments.get(segmentId).force();
+      }
+      changedSegments.clear();
+    }
+    numUnforcedWrites = 0;
+  }
+
+  public boolean isCached(int slot) {
+    return getBlockCache().contains(this, slot);
+  }
+
+  public void clearCache() {
+    getBlockCache().invalidateAll(this);
+  }
+
+  public void setCacheStatistics(CacheStatistics statistics) {
+    this.cacheStatistics = statistics;
+  }
+
+  public void setBlockCache(BlockCache blockCache) {
+    this.blockCache = blockCache;
+  }
+
+  private BlockCache getBlockCache() {
+    return blockCache == null ? BlockCache.getShared() : blockCache;
+  }
+
+  /**
+   * Forces the changes to disk and drops the mappings. The storage can still be used
+   * afterwards and maps the segments again.
+   */
+  public synchronized void close() {
+    force();
+    clearCache();
+    segments = null;
+  }
+
+  /**
+   * Returns the number of slots that have ever been allocated, including released ones.
+   */
+  public synchronized int getNumSlots() {
+    return numSlots;
+  }
+
+  public synchronized int getNumFreeSlots() {
+    return freeSlots.size();
+  }
+
+  public synchronized int getNumSegmentFiles() {
+    return (numSlots + slotsPerSegment - 1) / slotsPerSegment;
+  }
+
+  public int getSlotCapacity() {
+    return slotCapacity;
+  }
+
+}
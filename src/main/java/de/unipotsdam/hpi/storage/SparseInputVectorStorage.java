@@ -1,5 +1,8 @@
 package de.unipotsdam.hpi.storage;
 
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
@@ -7,30 +10,74 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import de.unipotsdam.hpi.input.InputVector;
 import de.unipotsdam.hpi.input.SparseInputVector;
+import de.unipotsdam.hpi.sparse.DefaultSparseIntList;
 import de.unipotsdam.hpi.util.EncodingUtils;
 import de.unipotsdam.hpi.util.Profiler;
 
+/**
+ * Stores sparse input vectors sequentially in a file. Once the output is closed, the
+ * vectors can be iterated. After {@link #openForRandomAccess()}, they can be looked up
+ * by id from a memory mapping of the file.
+ * <p>
+ * Vectors that are stored later on become visible to lookups with the next call of
+ * {@link #openForRandomAccess()}, which only scans and maps the new part of the file.
+ * Lookups read an immutable snapshot of the mapping and may run concurrently to
+ * storing and mapping new vectors.
+ */
 public class SparseInputVectorStorage {
 
+  private static final int NO_OFFSET = -1;
+
   private Path path;
   private BufferedOutputStream out;
+  private final int maxRegionSize;
+  private boolean appendToExistingStorage;
+  
+  // random access: the mapped parts of the file, the newest last
+  private volatile Chunk[] chunks;
+  // number of bytes of the file that are covered by the chunks
+  private long mappedLength = 0;
+  // tells whether vectors have been stored since the file was mapped
+  private volatile boolean hasUnmappedVectors = true;
 
   public SparseInputVectorStorage(Path path) {
+    this(path, false);
+  }
+
+  /**
+   * @param appendToExistingStorage tells whether new vectors are appended to an existing
+   *          file rather than replacing it
+   */
+  public SparseInputVectorStorage(Path path, boolean appendToExistingStorage) {
+    this(path, Integer.MAX_VALUE);
+    this.appendToExistingStorage = appendToExistingStorage;
+  }
+
+  SparseInputVectorStorage(Path path, int maxRegionSize) {
     this.path = path;
+    this.maxRegionSize = maxRegionSize;
   }
 
-  public void store(SparseInputVector vector) {
+  synchronized public void store(SparseInputVector vector) {
     ensureOutputStreamOpen();
     try {
       EncodingUtils.writeInt(vector.getId(), out);
       byte[] valuesAsBytes = vector.valuesToBytes();
       EncodingUtils.writeInt(valuesAsBytes.length, out);
       out.write(valuesAsBytes);
+      hasUnmappedVectors = true;
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -39,15 +86,22 @@ public class SparseInputVectorStorage {
   private void ensureOutputStreamOpen() {
     if (out == null) {
       try {
-        FileOutputStream fileStream = new FileOutputStream(path.toFile(), false);
+        if (!appendToExistingStorage) {
+          // the mapping must not outlive the file it refers to
+          chunks = null;
+          mappedLength = 0;
+        }
+        FileOutputStream fileStream = new FileOutputStream(path.toFile(), appendToExistingStorage);
         out = new BufferedOutputStream(fileStream);
+        // vectors stored later on must not overwrite these ones
+        appendToExistingStorage = true;
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
     }
   }
 
-  public void closeOutput() {
+  synchronized public void closeOutput() {
     if (out != null) {
       try {
         out.close();
@@ -58,7 +112,7 @@ public class SparseInputVectorStorage {
     }
   }
 
-  public void flushOutput() {
+  synchronized public void flushOutput() {
     if (out != null) {
       try {
         out.flush();
@@ -72,6 +126,182 @@ public class SparseInputVectorStorage {
     return new InputVectorFileIterator(path);
   }
 
+  /**
+   * Makes all vectors that have been stored so far available to {@link #getVector(int)}.
+   * Pending output is flushed first. Only the part of the file that has not been mapped
+   * yet is scanned to locate the vectors, so this method is cheap if no or only few
+   * vectors have been stored since its last call.
+   */
+  public void openForRandomAccess() {
+    if (!hasUnmappedVectors) {
+      return;
+    }
+    synchronized (this) {
+      if (!hasUnmappedVectors) {
+        return;
+      }
+      flushOutput();
+      Chunk chunk = mapNewVectors();
+      Chunk[] chunks = this.chunks == null ? new Chunk[0] : this.chunks;
+      if (chunk != null) {
+        chunks = Arrays.copyOf(chunks, chunks.length + 1);
+        chunks[chunks.length - 1] = chunk;
+        // merge chunks of similar sizes, so that there are only logarithmically many
+        while (chunks.length >= 2 && chunks[chunks.length - 1].offsets.size()
+            >= chunks[chunks.length - 2].offsets.size()) {
+          Chunk merged = chunks[chunks.length - 2].merge(chunks[chunks.length - 1]);
+          chunks = Arrays.copyOf(chunks, chunks.length - 1);
+          chunks[chunks.length - 1] = merged;
+        }
+      }
+      this.chunks = chunks;
+      hasUnmappedVectors = false;
+    }
+  }
+
+  /**
+   * Scans and maps the records after the mapped length of the file.
+   * 
+   * @return the chunk of the new records or <code>null</code> if there are none
+   */
+  private Chunk mapNewVectors() {
+    if (!path.toFile().exists()) {
+      return null;
+    }
+    Int2LongOpenHashMap offsets = new Int2LongOpenHashMap();
+    offsets.defaultReturnValue(NO_OFFSET);
+    List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+    long position = mappedLength;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        InputStream in = new BufferedInputStream(new FileInputStream(path.toFile()))) {
+      long fileSize = channel.size();
+      if (fileSize <= position) {
+        return null;
+      }
+      skipCompletely(in, position);
+      long regionStart = position;
+      while (position < fileSize) {
+        int id = EncodingUtils.readInt(in);
+        int numBytes = EncodingUtils.readInt(in);
+        long recordSize = 8L + numBytes;
+        if (recordSize > maxRegionSize) {
+          throw new IllegalStateException("Vector " + id + " does not fit into a region.");
+        }
+        
+        if (position + recordSize - regionStart > maxRegionSize) {
+          regions.add(channel.map(MapMode.READ_ONLY, regionStart, position - regionStart));
+          regionStart = position;
+        }
+        offsets.put(id, ((long) regions.size() << 32) | (position - regionStart));
+        
+        skipCompletely(in, numBytes);
+        position += recordSize;
+      }
+      if (position > regionStart) {
+        regions.add(channel.map(MapMode.READ_ONLY, regionStart, position - regionStart));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Could not open vector storage " + path, e);
+    }
+    
+    mappedLength = position;
+    return new Chunk(regions.toArray(new MappedByteBuffer[regions.size()]), offsets);
+  }
+
+  private static void skipCompletely(InputStream in, long numBytes) throws IOException {
+    while (numBytes > 0) {
+      long skipped = in.skip(numBytes);
+      if (skipped <= 0) {
+        throw new IOException("Unexpected end of vector file.");
+      }
+      numBytes -= skipped;
+    }
+  }
+
+  public boolean contains(int id) {
+    for (Chunk chunk : getChunks()) {
+      if (chunk.offsets.containsKey(id)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads the vector with the given id from the mapped file.
+   * 
+   * @throws IllegalArgumentException if there is no such vector
+   */
+  public SparseInputVector getVector(int id) {
+    Chunk[] chunks = getChunks();
+    long offset = NO_OFFSET;
+    MappedByteBuffer[] regions = null;
+    // newer chunks take precedence
+    for (int i = chunks.length - 1; i >= 0 && offset == NO_OFFSET; i--) {
+      offset = chunks[i].offsets.get(id);
+      regions = chunks[i].regions;
+    }
+    if (offset == NO_OFFSET) {
+      throw new IllegalArgumentException("Unknown vector: " + id);
+    }
+    MappedByteBuffer region = regions[(int) (offset >>> 32)];
+    int position = (int) offset + 8;
+    
+    // see DefaultSparseIntList#toBytes() for the layout
+    int size = region.getInt(position);
+    int numValues = region.getInt(position + 4);
+    int valuesPosition = position + 8;
+    int positionsPosition = valuesPosition + 4 * numValues;
+    DefaultSparseIntList sparseIntList = new DefaultSparseIntList(numValues);
+    for (int i = 0; i < numValues; i++) {
+      sparseIntList.add(region.getInt(positionsPosition + 4 * i), region.getInt(valuesPosition + 4 * i));
+    }
+    sparseIntList.setSize(size);
+    return new SparseInputVector(id, sparseIntList);
+  }
+
+  private Chunk[] getChunks() {
+    Chunk[] chunks = this.chunks;
+    if (chunks == null) {
+      throw new IllegalStateException("Vector storage is not open for random access.");
+    }
+    return chunks;
+  }
+
+  /**
+   * A mapped part of the file. It is not changed once it is published.
+   */
+  private static class Chunk {
+
+    // the part is mapped in regions that each hold complete records
+    private final MappedByteBuffer[] regions;
+    // element id -> region index in the upper and record position in the lower 32 bits
+    private final Int2LongOpenHashMap offsets;
+
+    private Chunk(MappedByteBuffer[] regions, Int2LongOpenHashMap offsets) {
+      this.regions = regions;
+      this.offsets = offsets;
+    }
+
+    /**
+     * Returns a new chunk with the records of both chunks. The records of the given,
+     * newer chunk take precedence.
+     */
+    private Chunk merge(Chunk newerChunk) {
+      MappedByteBuffer[] mergedRegions = Arrays.copyOf(regions,
+          regions.length + newerChunk.regions.length);
+      System.arraycopy(newerChunk.regions, 0, mergedRegions, regions.length,
+          newerChunk.regions.length);
+      Int2LongOpenHashMap mergedOffsets = new Int2LongOpenHashMap(offsets);
+      mergedOffsets.defaultReturnValue(NO_OFFSET);
+      long regionShift = (long) regions.length << 32;
+      for (Int2LongMap.Entry entry : newerChunk.offsets.int2LongEntrySet()) {
+        mergedOffsets.put(entry.getIntKey(), entry.getLongValue() + regionShift);
+      }
+      return new Chunk(mergedRegions, mergedOffsets);
+    }
+  }
+
   private static class InputVectorFileIterator implements Iterator<InputVector> {
 
     public static final String PK_READ_VECTORS = "Read input vectors";
@@ -66,7 +66,8 @@ abstract public class AbstractSettings {
 		for (Class<?> cls : hierarchy)
 			fillFieldsForClass(properties, usedProperties, cls);
 
-		Set<String> unusedProperties = properties.stringPropertyNames();
+		Set<String> unusedProperties = new HashSet<String>(
+				properties.stringPropertyNames());
 		unusedProperties.removeAll(usedProperties);
 		for (String unusableProperty : unusedProperties) {
 			System.err.println("Warning: Non-read property in property file.");
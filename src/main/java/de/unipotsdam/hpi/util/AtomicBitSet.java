@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.util;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A growable bitmap of non-negative ints that may be read concurrently to being
+ * written. Reads do not lock, while bits are set one at a time.
+ */
+public class AtomicBitSet implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private volatile AtomicLongArray words = new AtomicLongArray(1);
+  private volatile int cardinality = 0;
+
+  /**
+   * @return true if the bit was not set before
+   */
+  public synchronized boolean set(int index) {
+    if (index < 0) {
+      throw new IllegalArgumentException("Negative index: " + index);
+    }
+    int wordIndex = index >>> 6;
+    AtomicLongArray currentWords = words;
+    if (wordIndex >= currentWords.length()) {
+      AtomicLongArray newWords = new AtomicLongArray(Math.max(wordIndex + 1,
+          2 * currentWords.length()));
+      for (int i = 0; i < currentWords.length(); i++) {
+        newWords.set(i, currentWords.get(i));
+      }
+      words = currentWords = newWords;
+    }
+    long word = currentWords.get(wordIndex);
+    long mask = 1L << index;
+    if ((word & mask) != 0) {
+      return false;
+    }
+    currentWords.set(wordIndex, word | mask);
+    cardinality++;
+    return true;
+  }
+
+  public boolean get(int index) {
+    if (index < 0) {
+      return false;
+    }
+    AtomicLongArray currentWords = words;
+    int wordIndex = index >>> 6;
+    return wordIndex < currentWords.length() && (currentWords.get(wordIndex) & (1L << index)) != 0;
+  }
+
+  /**
+   * Returns the number of set bits.
+   */
+  public int cardinality() {
+    return cardinality;
+  }
+
+  public boolean isEmpty() {
+    return cardinality == 0;
+  }
+
+}
@@ -32,24 +32,120 @@ public class BitSignatureUtil {
 					"Vector 1: " + bitVector1.length + " elements. Vector 2: " +  bitVector2.length + " elements.");
 		}
 		
+		return calculateHammingDistance(bitVector1, 0, bitVector2, 0, bitVector1.length);
+	}
+
+	/**
+	 * Calculates the Hamming distance between two signatures that are stored at the given
+	 * offsets of (possibly flat) arrays. In contrast to
+	 * {@link #calculateHammingDistance(long[], long[])}, the lengths are not checked.
+	 */
+	public static int calculateHammingDistance(long[] signatures1, int offset1, long[] signatures2,
+			int offset2, int length) {
+		// four independent sums let the popcounts of consecutive words overlap
+		int distance0 = 0, distance1 = 0, distance2 = 0, distance3 = 0;
+		int i = 0;
+		for (int unrolledLength = length & ~3; i < unrolledLength; i += 4) {
+			distance0 += Long.bitCount(signatures1[offset1 + i] ^ signatures2[offset2 + i]);
+			distance1 += Long.bitCount(signatures1[offset1 + i + 1] ^ signatures2[offset2 + i + 1]);
+			distance2 += Long.bitCount(signatures1[offset1 + i + 2] ^ signatures2[offset2 + i + 2]);
+			distance3 += Long.bitCount(signatures1[offset1 + i + 3] ^ signatures2[offset2 + i + 3]);
+		}
+		for (; i < length; i++) {
+			distance0 += Long.bitCount(signatures1[offset1 + i] ^ signatures2[offset2 + i]);
+		}
+		return distance0 + distance1 + distance2 + distance3;
+	}
+
+	/**
+	 * Calculates the Hamming distance like
+	 * {@link #calculateHammingDistance(long[], int, long[], int, int)}, but gives up as soon
+	 * as the distance exceeds <code>maxDistance</code>.
+	 * 
+	 * @return the distance or, if it exceeds <code>maxDistance</code>, some greater value
+	 */
+	public static int calculateHammingDistance(long[] signatures1, int offset1, long[] signatures2,
+			int offset2, int length, int maxDistance) {
 		int distance = 0;
-		for (int i = 0; i < bitVector1.length; i++) {
-			long xor = (bitVector1[i] ^ bitVector2[i]);
-			distance += Long.bitCount(xor);
+		int i = 0;
+		for (int unrolledLength = length & ~3; i < unrolledLength; i += 4) {
+			distance += Long.bitCount(signatures1[offset1 + i] ^ signatures2[offset2 + i])
+					+ Long.bitCount(signatures1[offset1 + i + 1] ^ signatures2[offset2 + i + 1])
+					+ Long.bitCount(signatures1[offset1 + i + 2] ^ signatures2[offset2 + i + 2])
+					+ Long.bitCount(signatures1[offset1 + i + 3] ^ signatures2[offset2 + i + 3]);
+			if (distance > maxDistance) {
+				return distance;
+			}
+		}
+		for (; i < length; i++) {
+			distance += Long.bitCount(signatures1[offset1 + i] ^ signatures2[offset2 + i]);
 		}
-		
 		return distance;
 	}
 
+	/**
+	 * Calculates the Hamming distances between one signature and many candidate signatures
+	 * that are stored back to back in a flat array.
+	 * 
+	 * @param candidates contains <code>numCandidates</code> signatures of the length of <code>signature</code>
+	 * @param distances receives the distance to the i-th candidate at position i
+	 */
+	public static void calculateHammingDistances(long[] signature, long[] candidates,
+			int numCandidates, int[] distances) {
+		calculateHammingDistances(signature, candidates, numCandidates, Integer.MAX_VALUE, distances);
+	}
+
+	/**
+	 * Calculates the Hamming distances between one signature and many candidate signatures
+	 * like {@link #calculateHammingDistances(long[], long[], int, int[])}, but abandons
+	 * every candidate whose distance exceeds <code>maxDistance</code>. The distances of
+	 * such candidates are only known to be greater than <code>maxDistance</code>.
+	 */
+	public static void calculateHammingDistances(long[] signature, long[] candidates,
+			int numCandidates, int maxDistance, int[] distances) {
+		int length = signature.length;
+		if (candidates.length < numCandidates * length || distances.length < numCandidates) {
+			throw new IllegalArgumentException("Buffers are too small for " + numCandidates + " candidates.");
+		}
+		
+		for (int candidate = 0, offset = 0; candidate < numCandidates; candidate++, offset += length) {
+			distances[candidate] = calculateHammingDistance(signature, 0, candidates, offset, length, maxDistance);
+		}
+	}
+
 	public static double calculateBitVectorCosine(long[] bitVector1, long[] bitVector2) {
 		int hammingDistance = calculateHammingDistance(bitVector1, bitVector2);
-		double sameBitsRate = 1.0d - ((double) hammingDistance / ((double)(bitVector1.length << BitSignatureUtil.LOG_BASE_TYPE_SIZE)));
+		return calculateBitVectorCosine(hammingDistance, bitVector1.length);
+	}
+
+	/**
+	 * Approximates the cosine from the Hamming distance of two signatures that consist of
+	 * <code>signatureSize</code> longs.
+	 */
+	public static double calculateBitVectorCosine(int hammingDistance, int signatureSize) {
+		double sameBitsRate = 1.0d - ((double) hammingDistance / ((double)(signatureSize << BitSignatureUtil.LOG_BASE_TYPE_SIZE)));
 		
 		double arg = (1.0d - sameBitsRate) * Math.PI;
 		double cosineApproximation = Math.cos(arg);
 		return cosineApproximation;
 	}
 
+	/**
+	 * Compares two signatures that are stored at the given offsets of (possibly flat)
+	 * arrays, in the same order as {@link #COMPARATOR}.
+	 */
+	public static int compare(long[] signatures1, int offset1, long[] signatures2, int offset2, int length) {
+		for (int i = 0; i < length; i++) {
+			long word1 = signatures1[offset1 + i];
+			long word2 = signatures2[offset2 + i];
+			if (word1 != word2) {
+				// unsigned comparison
+				return (word1 + Long.MIN_VALUE) < (word2 + Long.MIN_VALUE) ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
 	public static final Comparator<long[]> COMPARATOR = new Comparator<long[]>() {
 	
 		public int compare(long[] signature1, long[] signature2) {
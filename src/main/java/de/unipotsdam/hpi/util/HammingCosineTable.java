@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.util;
+
+/**
+ * Maps the Hamming distances between signatures of a fixed size to the cosine
+ * similarities that {@link BitSignatureUtil#calculateBitVectorCosine(int, int)} yields,
+ * so that verification needs no trigonometry. It also converts similarity bounds into
+ * distance bounds, which allows to abandon the distance calculation of a candidate as
+ * soon as it cannot reach the bound anymore.
+ */
+public class HammingCosineTable {
+
+  private final int signatureSize;
+  private final double[] similarities;
+
+  /**
+   * @param signatureSize is the number of longs per signature
+   */
+  public HammingCosineTable(int signatureSize) {
+    this.signatureSize = signatureSize;
+    int numBits = signatureSize << BitSignatureUtil.LOG_BASE_TYPE_SIZE;
+    similarities = new double[numBits + 1];
+    for (int distance = 0; distance <= numBits; distance++) {
+      double similarity = BitSignatureUtil.calculateBitVectorCosine(distance, signatureSize);
+      // guard the monotonicity that getMaxDistance relies on against rounding
+      similarities[distance] = distance == 0 ? similarity
+          : Math.min(similarity, similarities[distance - 1]);
+    }
+  }
+
+  public int getSignatureSize() {
+    return signatureSize;
+  }
+
+  public double getSimilarity(int hammingDistance) {
+    return similarities[hammingDistance];
+  }
+
+  /**
+   * Returns the greatest Hamming distance whose similarity is at least the given one or
+   * -1 if even identical signatures are not similar enough.
+   */
+  public int getMaxDistance(double minSimilarity) {
+    // similarities are non-increasing, so search the last position that is similar enough
+    int low = 0, high = similarities.length - 1;
+    if (similarities[low] < minSimilarity) {
+      return -1;
+    }
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (similarities[middle] >= minSimilarity) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.util;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+/**
+ * A thread-safe set of primitive ints. Values are distributed over a number of
+ * independently locked {@link IntOpenHashSet}s, so that concurrent writers only
+ * contend if they hit the same stripe.
+ */
+public class StripedIntSet {
+
+  private final IntOpenHashSet[] stripes;
+  private final int mask;
+
+  /**
+   * @param concurrencyLevel
+   *          expected number of concurrent writers; rounded up to a power of two
+   */
+  public StripedIntSet(int concurrencyLevel) {
+    int numStripes = Integer.highestOneBit(Math.max(1, concurrencyLevel * 4 - 1)) << 1;
+    this.stripes = new IntOpenHashSet[numStripes];
+    this.mask = numStripes - 1;
+    for (int i = 0; i < numStripes; i++) {
+      stripes[i] = new IntOpenHashSet();
+    }
+  }
+
+  /**
+   * @return true if the value was not contained before
+   */
+  public boolean add(int value) {
+    IntOpenHashSet stripe = stripes[stripeFor(value)];
+    synchronized (stripe) {
+      return stripe.add(value);
+    }
+  }
+
+  public boolean contains(int value) {
+    IntOpenHashSet stripe = stripes[stripeFor(value)];
+    synchronized (stripe) {
+      return stripe.contains(value);
+    }
+  }
+
+  private int stripeFor(int value) {
+    // spread the bits, as consecutive ids are common
+    int hash = value * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.database;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IndexDeltaTest {
+
+  @Test
+  public void testBeamAroundKey() {
+    IndexDelta delta = new IndexDelta();
+    // insert out of order, including an unsigned "large" key
+    long[] keys = new long[] { 5, -1, 1, 3, 9, 7 };
+    for (int i = 0; i < keys.length; i++) {
+      delta.insert(new long[] { keys[i] }, (int) keys[i]);
+    }
+
+    IntArrayList neighbours = new IntArrayList();
+    delta.getNearestNeighboursElementIds(new long[] { 6 }, 2, neighbours);
+    Assert.assertEquals(new IntArrayList(new int[] { 3, 5, 7, 9 }), neighbours);
+
+    neighbours.clear();
+    delta.getNearestNeighboursElementIds(new long[] { 0 }, 2, neighbours);
+    Assert.assertEquals(new IntArrayList(new int[] { 1, 3 }), neighbours);
+
+    neighbours.clear();
+    delta.getNearestNeighboursElementIds(new long[] { -2 }, 1, neighbours);
+    Assert.assertEquals(new IntArrayList(new int[] { 9, -1 }), neighbours);
+  }
+
+  @Test
+  public void testRemoveFirst() {
+    IndexDelta delta = new IndexDelta();
+    for (int i = 40; i > 0; i--) {
+      delta.insert(new long[] { i }, i);
+    }
+    delta.removeFirst(30);
+
+    Assert.assertEquals(10, delta.size());
+    for (int i = 0; i < delta.size(); i++) {
+      Assert.assertEquals(31 + i, delta.getElementId(i));
+      Assert.assertArrayEquals(new long[] { 31 + i }, delta.getKey(i));
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.database;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TopKHeapTest {
+
+  @Test
+  public void testRetainsMostSimilarElements() {
+    TopKHeap heap = new TopKHeap(3);
+    heap.offer(1, 0.1d);
+    heap.offer(2, 0.9d);
+    heap.offer(3, 0.5d);
+    heap.offer(4, 0.7d);
+    heap.offer(5, -0.3d);
+
+    TopKResult result = heap.toResult();
+    Assert.assertArrayEquals(new int[] { 2, 4, 3 }, result.getElementIds());
+    Assert.assertArrayEquals(new double[] { 0.9d, 0.7d, 0.5d },
+        result.getSimilarities(), 0.0d);
+  }
+
+  @Test
+  public void testEqualSimilaritiesOrderedById() {
+    TopKHeap heap = new TopKHeap(2);
+    heap.offer(7, 0.5d);
+    heap.offer(3, 0.5d);
+    heap.offer(5, 0.5d);
+
+    TopKResult result = heap.toResult();
+    Assert.assertArrayEquals(new int[] { 3, 5 }, result.getElementIds());
+  }
+
+  @Test
+  public void testThreshold() {
+    TopKHeap heap = new TopKHeap(2);
+    Assert.assertEquals(Double.NEGATIVE_INFINITY, heap.getThreshold(), 0.0d);
+    heap.offer(1, 0.2d);
+    Assert.assertEquals(Double.NEGATIVE_INFINITY, heap.getThreshold(), 0.0d);
+    heap.offer(2, 0.4d);
+    Assert.assertEquals(0.2d, heap.getThreshold(), 0.0d);
+    Assert.assertFalse(heap.offer(3, 0.1d));
+    Assert.assertTrue(heap.offer(4, 0.3d));
+    Assert.assertEquals(0.3d, heap.getThreshold(), 0.0d);
+  }
+
+  @Test
+  public void testMatchesFullSort() {
+    int numElements = 1000;
+    int k = 50;
+    Random random = new Random(42);
+    double[] similarities = new double[numElements];
+    TopKHeap heap = new TopKHeap(k);
+    for (int i = 0; i < numElements; i++) {
+      similarities[i] = random.nextDouble() * 2 - 1;
+      heap.offer(i, similarities[i]);
+    }
+
+    TopKResult result = heap.toResult();
+    Assert.assertEquals(k, result.size());
+    for (int rank = 0; rank < k; rank++) {
+      int elementId = result.getElementId(rank);
+      Assert.assertEquals(similarities[elementId], result.getSimilarity(rank), 0.0d);
+
+      // exactly rank elements must be more similar
+      int moreSimilar = 0;
+      for (double similarity : similarities) {
+        if (similarity > result.getSimilarity(rank)) {
+          moreSimilar++;
+        }
+      }
+      Assert.assertEquals(rank, moreSimilar);
+    }
+  }
+
+  @Test
+  public void testClearAllowsReuse() {
+    TopKHeap heap = new TopKHeap(2);
+    heap.offer(1, 0.9d);
+    heap.offer(2, 0.8d);
+    heap.clear();
+    heap.offer(3, 0.1d);
+
+    TopKResult result = heap.toResult();
+    Assert.assertArrayEquals(new int[] { 3 }, result.getElementIds());
+  }
+}
@@ -16,6 +16,7 @@
 package de.unipotsdam.hpi.database;
 
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 
 import java.io.IOException;
 import java.nio.file.FileSystems;
@@ -29,6 +30,7 @@ import org.junit.Test;
 
 import de.unipotsdam.hpi.input.InputVector;
 import de.unipotsdam.hpi.input.IntArrayInputVector;
+import de.unipotsdam.hpi.sparse.SparseIntList;
 import de.unipotsdam.hpi.util.FileUtils;
 
 public class VectorDatabaseTest {
@@ -197,6 +199,616 @@ public class VectorDatabaseTest {
 		}
 	}
 	
+	@Test
+	public void testExactMatchesAlwaysFoundAfterRecoveryOfSerializedIndexes() throws IOException {
+		final int numInputVectors = 100;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(2);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testExactMatchesAlwaysFoundAfterRecoveryOfSerializedIndexes");
+		settings.setSaveBitSignatures(true);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		// aggregated block storages do not support the binary index format
+		settings.setAppendOnlyBlockStorage(false);
+		
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+		
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+		
+		vdb = new VectorDatabase(settings);
+		vdb.recover();
+		
+		for (int i = 0; i < numInputVectors; i++) {
+			InputVector queryVector = inputVectors.get(i);
+			Int2DoubleMap queryResult = vdb.getNearNeighborsWithDistance(
+					queryVector, BEAM_SIZE, MIN_SIMILARITY);
+			String msg = String.format("%s should contain vector %d",
+					queryResult, queryVector.getId());
+			Assert.assertTrue(msg, queryResult.containsKey(queryVector.getId()));
+		}
+	}
+	
+	@Test
+	public void testTopKContainsExactMatchFirst() throws IOException {
+		final int numInputVectors = 100;
+		final int k = 5;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(3);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testTopKContainsExactMatchFirst");
+		settings.setSaveBitSignatures(false);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		for (int i = 0; i < numInputVectors; i++) {
+			InputVector queryVector = inputVectors.get(i);
+			TopKResult queryResult = vdb.getTopKNearNeighbors(queryVector, 10, k);
+			Assert.assertEquals(k, queryResult.size());
+			Assert.assertEquals(1.0d, queryResult.getSimilarity(0), 0.0d);
+			Assert.assertTrue(queryResult + " should contain vector " + queryVector.getId(),
+					queryResult.contains(queryVector.getId()));
+
+			// the top-k result must agree with the threshold query
+			Int2DoubleMap thresholdResult = vdb.getNearNeighborsWithDistance(
+					queryVector, 10, queryResult.getSimilarity(k - 1));
+			for (int rank = 0; rank < k; rank++) {
+				Assert.assertEquals(thresholdResult.get(queryResult.getElementId(rank)),
+						queryResult.getSimilarity(rank), 0.0d);
+				if (rank > 0) {
+					Assert.assertTrue(queryResult.getSimilarity(rank - 1) >= queryResult.getSimilarity(rank));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testExactMatchesAlwaysFoundByParallelQueries() throws IOException {
+		final int numInputVectors = 100;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(5);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testExactMatchesAlwaysFoundByParallelQueries");
+		settings.setSaveBitSignatures(false);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		settings.setQueryParallelism(3);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		for (int i = 0; i < numInputVectors; i++) {
+			InputVector queryVector = inputVectors.get(i);
+			Int2DoubleMap queryResult = vdb.getNearNeighborsWithDistance(
+					queryVector, BEAM_SIZE, MIN_SIMILARITY);
+			String msg = String.format("%s should contain vector %d",
+					queryResult, queryVector.getId());
+			Assert.assertTrue(msg, queryResult.containsKey(queryVector.getId()));
+			
+			TopKResult topKResult = vdb.getTopKNearNeighbors(queryVector, BEAM_SIZE, 1);
+			Assert.assertEquals(queryVector.getId(), topKResult.getElementId(0));
+		}
+	}
+
+	@Test
+	public void testBatchQueriesMatchSingleQueries() throws IOException {
+		final int numInputVectors = 100;
+		double minSimilarity = 0.1d;
+		int beamSize = 5;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(3);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testBatchQueriesMatchSingleQueries");
+		settings.setSaveBitSignatures(false);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		Int2DoubleMap[] batchResults = vdb.getNearNeighborsWithDistance(inputVectors, beamSize, minSimilarity);
+		int[] elementIds = new int[numInputVectors];
+		for (int i = 0; i < numInputVectors; i++) {
+			elementIds[i] = inputVectors.get(i).getId();
+		}
+		TopKResult[] batchTopKResults = vdb.getTopKNearNeighbors(elementIds, beamSize, 3);
+		
+		Assert.assertEquals(numInputVectors, batchResults.length);
+		for (int i = 0; i < numInputVectors; i++) {
+			InputVector queryVector = inputVectors.get(i);
+			Int2DoubleMap singleResult = vdb.getNearNeighborsWithDistance(
+					queryVector, beamSize, minSimilarity);
+			Assert.assertEquals(singleResult, batchResults[i]);
+			
+			TopKResult singleTopKResult = vdb.getTopKNearNeighbors(queryVector.getId(), beamSize, 3);
+			Assert.assertArrayEquals(singleTopKResult.getElementIds(), batchTopKResults[i].getElementIds());
+		}
+	}
+
+	@Test
+	public void testExactMatchesAlwaysFoundWithOffHeapSignatures() throws IOException {
+		final int numInputVectors = 100;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(2);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testExactMatchesAlwaysFoundWithOffHeapSignatures");
+		settings.setSaveBitSignatures(false);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		settings.setOffHeapSignatures(true);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		for (int i = 0; i < numInputVectors; i++) {
+			InputVector queryVector = inputVectors.get(i);
+			Int2DoubleMap queryResult = vdb.getNearNeighborsWithDistance(
+					queryVector, BEAM_SIZE, MIN_SIMILARITY);
+			String msg = String.format("%s should contain vector %d",
+					queryResult, queryVector.getId());
+			Assert.assertTrue(msg, queryResult.containsKey(queryVector.getId()));
+			Assert.assertEquals(1.0d, queryResult.get(queryVector.getId()), 0.0d);
+		}
+	}
+
+	@Test
+	public void testExactMatchesAlwaysFoundWithMappedSignatures() throws IOException {
+		final int numInputVectors = 100;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(2);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testExactMatchesAlwaysFoundWithMappedSignatures");
+		settings.setSaveBitSignatures(true);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		settings.setMappedSignatures(true);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		VectorDatabase recoveredVdb = new VectorDatabase(settings);
+		recoveredVdb.recover();
+
+		for (int i = 0; i < numInputVectors; i++) {
+			InputVector queryVector = inputVectors.get(i);
+			for (VectorDatabase database : new VectorDatabase[] { vdb, recoveredVdb }) {
+				Int2DoubleMap queryResult = database.getNearNeighborsWithDistance(
+						queryVector, BEAM_SIZE, MIN_SIMILARITY);
+				String msg = String.format("%s should contain vector %d",
+						queryResult, queryVector.getId());
+				Assert.assertTrue(msg, queryResult.containsKey(queryVector.getId()));
+				Assert.assertEquals(1.0d, queryResult.get(queryVector.getId()), 0.0d);
+			}
+		}
+	}
+
+	@Test
+	public void testRerankingUsesExactSimilarities() throws IOException {
+		final int numInputVectors = 100;
+		int beamSize = 5;
+		int k = 3;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(1000);
+		settings.setLshSize(256);
+		settings.setNumPermutations(2);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testRerankingUsesExactSimilarities");
+		settings.setSaveBitSignatures(false);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		settings.setSaveInputVectors(true);
+		settings.setRerankSize(10);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		for (int i = 0; i < numInputVectors; i++) {
+			InputVector queryVector = inputVectors.get(i);
+			TopKResult result = vdb.getTopKNearNeighbors(queryVector, beamSize, k);
+			Assert.assertEquals(queryVector.getId(), result.getElementId(0));
+			Assert.assertEquals(1.0d, result.getSimilarity(0), 1e-9);
+
+			SparseIntList querySparseVector = queryVector.toSparseIntList();
+			for (int rank = 0; rank < result.size(); rank++) {
+				SparseIntList vector = vdb.getInputVector(result.getElementId(rank)).toSparseIntList();
+				double exactSimilarity = querySparseVector.scalarProduct(vector)
+						/ Math.sqrt(querySparseVector.scalarProduct(querySparseVector))
+						/ Math.sqrt(vector.scalarProduct(vector));
+				Assert.assertEquals(exactSimilarity, result.getSimilarity(rank), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testRerankingAfterSubmittingVectors() throws IOException {
+		final int numInputVectors = 50;
+		final int numNewInputVectors = 20;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(1000);
+		settings.setLshSize(256);
+		settings.setNumPermutations(2);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testRerankingAfterSubmittingVectors");
+		settings.setSaveBitSignatures(true);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		settings.setSaveInputVectors(true);
+		settings.setRerankSize(10);
+		settings.setIncrementalIndexing(true);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors + numNewInputVectors);
+		for (int i = 0; i < numInputVectors + numNewInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.subList(0, numInputVectors).iterator());
+
+		// the submitted vectors are stored, but the output is not closed
+		for (int i = numInputVectors; i < inputVectors.size(); i++) {
+			InputVector queryVector = inputVectors.get(i);
+			vdb.submitInputVectors(inputVectors.subList(i, i + 1).iterator());
+			TopKResult result = vdb.getTopKNearNeighbors(queryVector, BEAM_SIZE, 3);
+			Assert.assertEquals(queryVector.getId(), result.getElementId(0));
+			Assert.assertEquals(1.0d, result.getSimilarity(0), 1e-9);
+			Assert.assertEquals(queryVector.toSparseIntList(),
+					vdb.getInputVector(queryVector.getId()).toSparseIntList());
+		}
+	}
+
+	@Test
+	public void testExactMatchesAlwaysFoundWithExternalSort() throws IOException {
+		final int numInputVectors = 100;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(2);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testExactMatchesAlwaysFoundWithExternalSort");
+		settings.setSaveBitSignatures(true);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		settings.setSortingMemory(1);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		for (int i = 0; i < numInputVectors; i++) {
+			InputVector queryVector = inputVectors.get(i);
+			Int2DoubleMap queryResult = vdb.getNearNeighborsWithDistance(
+					queryVector, BEAM_SIZE, MIN_SIMILARITY);
+			String msg = String.format("%s should contain vector %d",
+					queryResult, queryVector.getId());
+			Assert.assertTrue(msg, queryResult.containsKey(queryVector.getId()));
+		}
+	}
+
+	@Test
+	public void testExactMatchesAlwaysFoundWithParallelLsh() throws IOException {
+		final int numInputVectors = 100;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(2);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testExactMatchesAlwaysFoundWithParallelLsh");
+		settings.setSaveBitSignatures(true);
+		settings.setSaveInputVectors(true);
+		settings.setPerformParallelLsh(true);
+		settings.setPerformParallelSorting(false);
+		// many small batches, so that the queues fill up
+		settings.setIngestBatchSize(7);
+		settings.setIngestQueueSize(1);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		for (int i = 0; i < numInputVectors; i++) {
+			InputVector queryVector = inputVectors.get(i);
+			Int2DoubleMap queryResult = vdb.getNearNeighborsWithDistance(
+					queryVector, BEAM_SIZE, MIN_SIMILARITY);
+			String msg = String.format("%s should contain vector %d",
+					queryResult, queryVector.getId());
+			Assert.assertTrue(msg, queryResult.containsKey(queryVector.getId()));
+			Assert.assertNotNull(vdb.getInputVector(queryVector.getId()));
+		}
+	}
+
+	@Test
+	public void testExactMatchesAlwaysFoundWithParallelIndexing() throws IOException {
+		final int numInputVectors = 200;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(3);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testExactMatchesAlwaysFoundWithParallelIndexing");
+		settings.setSaveBitSignatures(true);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		// two waves of concurrently built indexes, each with enough sorting memory
+		settings.setIndexingParallelism(2);
+		settings.setSortingMemory(32);
+		settings.setRadixSorting(true);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		for (int i = 0; i < numInputVectors; i++) {
+			InputVector queryVector = inputVectors.get(i);
+			Int2DoubleMap queryResult = vdb.getNearNeighborsWithDistance(
+					queryVector, BEAM_SIZE, MIN_SIMILARITY);
+			String msg = String.format("%s should contain vector %d",
+					queryResult, queryVector.getId());
+			Assert.assertTrue(msg, queryResult.containsKey(queryVector.getId()));
+		}
+	}
+
+	@Test
+	public void testIncrementallyIndexedVectorsAreFound() throws IOException {
+		final int numInputVectors = 100;
+		final int numNewInputVectors = 80;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(2);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testIncrementallyIndexedVectorsAreFound");
+		settings.setSaveBitSignatures(true);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		settings.setIncrementalIndexing(true);
+		settings.setMaxDeltaSize(30);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors + numNewInputVectors);
+		for (int i = 0; i < numInputVectors + numNewInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.subList(0, numInputVectors).iterator());
+
+		// new vectors are found right away, whether they are merged already or not
+		for (int i = numInputVectors; i < inputVectors.size(); i++) {
+			InputVector inputVector = inputVectors.get(i);
+			vdb.submitInputVectors(inputVectors.subList(i, i + 1).iterator());
+			Int2DoubleMap queryResult = vdb.getNearNeighborsWithDistance(
+					inputVector, BEAM_SIZE, MIN_SIMILARITY);
+			Assert.assertTrue(queryResult.containsKey(inputVector.getId()));
+		}
+
+		vdb.create();
+		Assert.assertEquals(0, vdb.getNumDeltaElements());
+
+		vdb = new VectorDatabase(settings);
+		vdb.recover();
+		for (int i = 0; i < inputVectors.size(); i++) {
+			InputVector queryVector = inputVectors.get(i);
+			Int2DoubleMap queryResult = vdb.getNearNeighborsWithDistance(
+					queryVector, BEAM_SIZE, MIN_SIMILARITY);
+			String msg = String.format("%s should contain vector %d",
+					queryResult, queryVector.getId());
+			Assert.assertTrue(msg, queryResult.containsKey(queryVector.getId()));
+		}
+	}
+
+	@Test
+	public void testDeletedVectorsAreNotFound() throws IOException {
+		final int numInputVectors = 100;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(2);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testDeletedVectorsAreNotFound");
+		settings.setSaveBitSignatures(true);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		settings.setIncrementalIndexing(true);
+		settings.setCompactionThreshold(0.5d);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		// stays below the compaction threshold, so only the tombstones hide the elements
+		for (int i = 0; i < numInputVectors; i += 4) {
+			vdb.delete(inputVectors.get(i).getId());
+		}
+		Assert.assertEquals(numInputVectors / 4, vdb.getNumPendingDeletes());
+		assertOnlyLiveVectorsFound(vdb, inputVectors);
+
+		vdb.compact();
+		Assert.assertEquals(0, vdb.getNumPendingDeletes());
+		assertOnlyLiveVectorsFound(vdb, inputVectors);
+
+		vdb.create();
+		vdb = new VectorDatabase(settings);
+		vdb.recover();
+		assertOnlyLiveVectorsFound(vdb, inputVectors);
+	}
+
+	@Test
+	public void testRecreatingIndexesDuringCompaction() throws IOException {
+		final int numInputVectors = 100;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(2);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testRecreatingIndexesDuringCompaction");
+		settings.setSaveBitSignatures(true);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+		settings.setCompactionThreshold(0.1d);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		// exceeds the compaction threshold, so a compaction runs in the background
+		for (int i = 0; i < numInputVectors; i += 4) {
+			vdb.delete(inputVectors.get(i).getId());
+		}
+		vdb.create();
+		Assert.assertEquals(0, vdb.getNumPendingDeletes());
+		assertOnlyLiveVectorsFound(vdb, inputVectors);
+
+		vdb = new VectorDatabase(settings);
+		vdb.recover();
+		assertOnlyLiveVectorsFound(vdb, inputVectors);
+	}
+
+	private void assertOnlyLiveVectorsFound(VectorDatabase vdb, List<InputVector> inputVectors) {
+		for (int i = 0; i < inputVectors.size(); i++) {
+			InputVector queryVector = inputVectors.get(i);
+			Int2DoubleMap queryResult = vdb.getNearNeighborsWithDistance(
+					queryVector, BEAM_SIZE, MIN_SIMILARITY);
+			Assert.assertEquals(i % 4 != 0, queryResult.containsKey(queryVector.getId()));
+		}
+	}
+
+	@Test
+	public void testQueryResultsSurviveLaterQueries() throws IOException {
+		final int numInputVectors = 50;
+		int beamSize = 5;
+		Settings settings = new Settings();
+		settings.setInputVectorSize(10000);
+		settings.setLshSize(1024);
+		settings.setNumPermutations(3);
+		settings.setBlockSize(20);
+		settings.setBasePath(ROOT_TEMP_FOLDER_NAME + "/testQueryResultsSurviveLaterQueries");
+		settings.setSaveBitSignatures(false);
+		settings.setPerformParallelLsh(false);
+		settings.setPerformParallelSorting(false);
+
+		List<InputVector> inputVectors = new ArrayList<InputVector>(
+				numInputVectors);
+		for (int i = 0; i < numInputVectors; i++) {
+			inputVectors.add(IntArrayInputVector
+					.generateInputRandomVector(settings.getInputVectorSize(), VECTOR_COMPONENT_RANGE));
+		}
+
+		VectorDatabase vdb = new VectorDatabase(settings);
+		vdb.bulkLoad(inputVectors.iterator());
+
+		// the query buffers are reused, but the results must not be shared
+		InputVector firstVector = inputVectors.get(0);
+		Int2DoubleMap firstResult = vdb.getNearNeighborsWithDistance(firstVector, beamSize, 0.0d);
+		Int2DoubleMap firstResultCopy = new Int2DoubleOpenHashMap(firstResult);
+		TopKResult firstTopKResult = vdb.getTopKNearNeighbors(firstVector, beamSize, 3);
+		int[] firstTopKIds = firstTopKResult.getElementIds().clone();
+
+		for (int i = 1; i < numInputVectors; i++) {
+			vdb.getNearNeighborsWithDistance(inputVectors.get(i), beamSize, 0.0d);
+			vdb.getTopKNearNeighbors(inputVectors.get(i), beamSize, 1 + i % 4);
+		}
+
+		Assert.assertEquals(firstResultCopy, firstResult);
+		Assert.assertArrayEquals(firstTopKIds, firstTopKResult.getElementIds());
+		Assert.assertEquals(firstResult, vdb.getNearNeighborsWithDistance(firstVector, beamSize, 0.0d));
+		Assert.assertArrayEquals(firstTopKIds,
+				vdb.getTopKNearNeighbors(firstVector, beamSize, 3).getElementIds());
+	}
+
 	@AfterClass
 	public static void cleanUp() {
 	  Path path = FileSystems.getDefault().getPath(ROOT_TEMP_FOLDER_NAME);
@@ -1,5 +1,8 @@
 package de.unipotsdam.hpi.indexing;
 
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
@@ -69,6 +72,139 @@ public abstract class AbstractBlockBasedIndexTest {
     }
   }
 
+  @Test
+  public void testIndexBulkLoadingFromIterator() {
+    int blockSize = 100;
+    int keySize = 4;
+    // not a multiple of the block fill
+    int numIndexPairs = 301;
+    AbstractBlockBasedIndex<?> index = createIndex(tempFolder, keySize, blockSize);
+
+    IndexPair[] indexPairs = new IndexPair[numIndexPairs];
+    for (int i = 0; i < numIndexPairs; i++) {
+      long[] key = new long[] { 0, (byte) (0xFF & (i >> 8)),
+          (byte) (0xFF & i), 1 };
+      indexPairs[i] = createIndexPair(key, i);
+    }
+    Arrays.sort(indexPairs, IndexPair.COMPARATOR);
+    index.bulkLoad(Arrays.asList(indexPairs).iterator());
+
+    Assert.assertEquals(numIndexPairs, index.size());
+    for (IndexPair indexPair : indexPairs) {
+      Assert.assertEquals(indexPair.getElementId(),
+          index.getElement(indexPair.getBitSignature()));
+    }
+  }
+
+  @Test
+  public void testIndexBulkLoadingFromSignatureBatch() {
+    int blockSize = 100;
+    int keySize = 2;
+    int numIndexPairs = 301;
+    AbstractBlockBasedIndex<?> index = createIndex(tempFolder, keySize, blockSize);
+
+    SignatureBatch batch = new SignatureBatch(keySize, numIndexPairs);
+    IndexPair[] indexPairs = new IndexPair[numIndexPairs];
+    for (int i = 0; i < numIndexPairs; i++) {
+      long[] key = new long[] { i >> 4, ~i };
+      indexPairs[i] = createIndexPair(key, i);
+      batch.add(key, i);
+    }
+    batch.sort(null);
+    index.bulkLoad(batch);
+
+    Assert.assertEquals(numIndexPairs, index.size());
+    for (IndexPair indexPair : indexPairs) {
+      Assert.assertEquals(indexPair.getElementId(),
+          index.getElement(indexPair.getBitSignature()));
+    }
+  }
+
+  @Test
+  public void testRemoveElements() throws IOException {
+    int blockSize = 100;
+    int keySize = 2;
+    int numIndexPairs = 301;
+    AbstractBlockBasedIndex<?> index = createIndex(tempFolder, keySize, blockSize);
+
+    IndexPair[] indexPairs = new IndexPair[numIndexPairs];
+    for (int i = 0; i < numIndexPairs; i++) {
+      indexPairs[i] = createIndexPair(new long[] { i, ~i }, i);
+    }
+    index.bulkLoad(indexPairs);
+
+    // the first block is emptied completely, the others lose every third element
+    IntSet removedElementIds = new IntOpenHashSet();
+    for (int i = 0; i < numIndexPairs; i++) {
+      if (i < 100 || i % 3 == 0) {
+        removedElementIds.add(i);
+      }
+    }
+    Assert.assertEquals(removedElementIds.size(), index.removeElements(removedElementIds));
+    Assert.assertEquals(0, index.removeElements(removedElementIds));
+
+    Assert.assertEquals(numIndexPairs - removedElementIds.size(), index.size());
+    for (IndexPair indexPair : indexPairs) {
+      if (!removedElementIds.contains(indexPair.getElementId())) {
+        Assert.assertEquals(indexPair.getElementId(),
+            index.getElement(indexPair.getBitSignature()));
+      }
+    }
+
+    // removed elements can be inserted again
+    index.insertElement(indexPairs[0]);
+    Assert.assertEquals(0, index.getElement(indexPairs[0].getBitSignature()));
+  }
+
+  @Test
+  public void testRemoveElementsByKeys() throws IOException {
+    int blockSize = 100;
+    int keySize = 2;
+    int numIndexPairs = 450;
+    AbstractBlockBasedIndex<?> index = createIndex(tempFolder, keySize, blockSize);
+
+    // every key is shared by 150 elements, which span several blocks
+    IndexPair[] indexPairs = new IndexPair[numIndexPairs];
+    for (int i = 0; i < numIndexPairs; i++) {
+      indexPairs[i] = createIndexPair(new long[] { i / 150, 0 }, i);
+    }
+    index.bulkLoad(indexPairs);
+
+    // the first block is emptied completely, and the second key is removed from the end
+    // of the second block as well as from the third block, which starts with that key
+    IntSet removedElementIds = new IntOpenHashSet();
+    for (int i = 0; i < 100; i++) {
+      removedElementIds.add(i);
+    }
+    removedElementIds.add(160);
+    removedElementIds.add(250);
+    long[][] keys = new long[][] { { 0, 0 }, { 1, 0 } };
+    Assert.assertEquals(removedElementIds.size(), index.removeElements(removedElementIds, keys));
+    Assert.assertEquals(0, index.removeElements(removedElementIds, keys));
+
+    Assert.assertEquals(numIndexPairs - removedElementIds.size(), index.size());
+    // the directory still finds the remaining blocks
+    Assert.assertEquals(300, index.getElement(new long[] { 2, 0 }));
+
+    // exactly the other elements are left
+    IntSet retainedElementIds = new IntOpenHashSet();
+    for (int i = 0; i < numIndexPairs; i++) {
+      if (!removedElementIds.contains(i)) {
+        retainedElementIds.add(i);
+      }
+    }
+    Assert.assertEquals(retainedElementIds.size(), index.removeElements(retainedElementIds));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIndexBulkLoadingFromIteratorRequiresSortedPairs() {
+    AbstractBlockBasedIndex<?> index = createIndex(tempFolder, 1, 10);
+
+    IndexPair[] indexPairs = new IndexPair[] { createIndexPair(new long[] { 2 }, 0),
+        createIndexPair(new long[] { 1 }, 1) };
+    index.bulkLoad(Arrays.asList(indexPairs).iterator());
+  }
+
   @Test
   public void testGetExistingElement() {
     int blockSize = 100;
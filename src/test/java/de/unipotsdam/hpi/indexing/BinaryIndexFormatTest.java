@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.permutation.NullPermutationFunction;
+import de.unipotsdam.hpi.storage.BitSignatureIndex;
+import de.unipotsdam.hpi.util.FileUtils;
+import de.unipotsdam.hpi.util.TestSettings;
+
+public class BinaryIndexFormatTest {
+
+  private static final String TEMP_FOLDER_NAME = BinaryIndexFormatTest.class.getName();
+  private static Path tempFolder;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    Path globalTempFolder = FileSystems.getDefault().getPath(
+        TestSettings.INDEX_TMP_FOLDER);
+    tempFolder = globalTempFolder.resolve(TEMP_FOLDER_NAME);
+    FileUtils.createDirectoryIfNotExists(globalTempFolder);
+    FileUtils.createDirectoryIfNotExists(tempFolder);
+  }
+
+  @Test
+  public void testReadIndexEqualsWrittenIndex() throws IOException {
+    assertReadIndexEqualsWrittenIndex("testReadIndexEqualsWrittenIndex", false);
+  }
+
+  @Test
+  public void testReadCompressedIndexEqualsWrittenIndex() throws IOException {
+    assertReadIndexEqualsWrittenIndex("testReadCompressedIndexEqualsWrittenIndex", true);
+  }
+
+  private void assertReadIndexEqualsWrittenIndex(String testName, boolean compressedBlocks)
+      throws IOException {
+    int keySize = 2;
+    int numIndexPairs = 500;
+    Path basePath = tempFolder.resolve(testName);
+    FileUtils.createDirectoryIfNotExists(basePath);
+    BitSignatureIndex bitSignatureIndex = new BitSignatureIndex();
+    ReferenceBlockBasedIndex index = new ReferenceBlockBasedIndex(basePath, keySize, 20,
+        bitSignatureIndex, new NullPermutationFunction(), true, compressedBlocks);
+
+    IndexPair[] indexPairs = new IndexPair[numIndexPairs];
+    for (int i = 0; i < numIndexPairs; i++) {
+      indexPairs[i] = new IndexPair(new long[] { i / 3, i }, i);
+      bitSignatureIndex.add(indexPairs[i]);
+    }
+    index.bulkLoad(indexPairs);
+
+    Path file = basePath.resolve(BinaryIndexFormat.FILE_NAME);
+    BinaryIndexFormat.write(index, file);
+    index.close();
+    ReferenceBlockBasedIndex readIndex = BinaryIndexFormat.read(file, basePath,
+        bitSignatureIndex, new NullPermutationFunction());
+    Assert.assertEquals(compressedBlocks, readIndex.getAppendOnlyStorage().isCompressed());
+
+    Assert.assertEquals(numIndexPairs, readIndex.size());
+    for (IndexPair indexPair : indexPairs) {
+      long[] key = indexPair.getBitSignature();
+      Assert.assertEquals(indexPair.getElementId(), readIndex.getElement(key));
+      Assert.assertArrayEquals(index.getNearestNeighboursElementIds(key, 10),
+          readIndex.getNearestNeighboursElementIds(key, 10));
+    }
+
+    // the read index remains writable
+    IndexPair newPair = new IndexPair(new long[] { 7, -1 }, numIndexPairs);
+    bitSignatureIndex.add(newPair);
+    readIndex.insertElement(newPair);
+    Assert.assertEquals(numIndexPairs, readIndex.getElement(newPair.getBitSignature()));
+    Assert.assertEquals(indexPairs[0].getElementId(), readIndex.getElement(indexPairs[0].getBitSignature()));
+    readIndex.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownVersionIsRejected() throws IOException {
+    Path file = tempFolder.resolve("testUnknownVersionIsRejected");
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file.toFile()));
+    out.writeInt(0x4C534849);
+    out.writeInt(Integer.MAX_VALUE);
+    out.write(new byte[64]);
+    out.close();
+
+    BinaryIndexFormat.read(file, tempFolder, new BitSignatureIndex(), new NullPermutationFunction());
+  }
+
+  @Test
+  public void testAggregatedBlockStoragesAreNotSupported() {
+    ReferenceBlockBasedIndex index = new ReferenceBlockBasedIndex(tempFolder, 1, 10,
+        new BitSignatureIndex(), new NullPermutationFunction());
+    Assert.assertFalse(BinaryIndexFormat.isSupported(index));
+  }
+
+  @AfterClass
+  public static void cleanUp() {
+    FileUtils.clearAndDeleteDirecotry(tempFolder);
+  }
+}
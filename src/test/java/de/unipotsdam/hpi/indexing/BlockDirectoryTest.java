@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+public class BlockDirectoryTest {
+
+  @Test
+  public void testFindBlock() {
+    BlockDirectory<TestBlock> directory = createDirectory(new long[][] { { 0, 2 },
+        { 0, 4 }, { 0, 4 }, { 1, 0 }, { -1, 0 } });
+
+    // smaller than all start keys
+    Assert.assertEquals(-1, directory.find(new long[] { 0, 1 }));
+    // exact matches return the first block with that start key
+    Assert.assertEquals(0, directory.find(new long[] { 0, 2 }));
+    Assert.assertEquals(1, directory.find(new long[] { 0, 4 }));
+    // otherwise the last block with a smaller start key
+    Assert.assertEquals(0, directory.find(new long[] { 0, 3 }));
+    Assert.assertEquals(2, directory.find(new long[] { 0, 5 }));
+    Assert.assertEquals(3, directory.find(new long[] { 2, 0 }));
+    // start keys are compared unsigned
+    Assert.assertEquals(4, directory.find(new long[] { -1, 5 }));
+  }
+
+  @Test
+  public void testFindBlockMatchesLinearScan() {
+    int numBlocks = 1000;
+    long[][] startKeys = new long[numBlocks][];
+    for (int i = 0; i < numBlocks; i++) {
+      startKeys[i] = new long[] { i / 10, 3 * i };
+    }
+    BlockDirectory<TestBlock> directory = createDirectory(startKeys);
+
+    for (int i = -1; i < numBlocks * 3 + 5; i++) {
+      long[] key = new long[] { i / 30, i };
+      int expected = -1;
+      for (int j = 0; j < numBlocks; j++) {
+        int comparison = BitSignatureUtil.COMPARATOR.compare(key, startKeys[j]);
+        if (comparison == 0) {
+          expected = j;
+          break;
+        } else if (comparison > 0) {
+          expected = j;
+        } else {
+          break;
+        }
+      }
+      Assert.assertEquals("Position for key " + i, expected, directory.find(key));
+    }
+  }
+
+  @Test
+  public void testInsertUpdateAndRemove() {
+    BlockDirectory<TestBlock> directory = createDirectory(new long[][] { { 10 }, { 30 } });
+
+    TestBlock newBlock = new TestBlock(new long[] { 20 });
+    directory.insert(1, newBlock);
+    Assert.assertEquals(3, directory.size());
+    Assert.assertSame(newBlock, directory.get(1));
+    Assert.assertEquals(1, directory.find(new long[] { 25 }));
+
+    newBlock.startKey = new long[] { 15 };
+    directory.update(1);
+    Assert.assertEquals(1, directory.find(new long[] { 15 }));
+    Assert.assertEquals(0, directory.find(new long[] { 14 }));
+
+    directory.remove(0);
+    Assert.assertEquals(2, directory.size());
+    Assert.assertEquals(-1, directory.find(new long[] { 14 }));
+    Assert.assertEquals(1, directory.find(new long[] { 30 }));
+  }
+
+  private BlockDirectory<TestBlock> createDirectory(long[][] startKeys) {
+    TestBlock firstBlock = null;
+    TestBlock lastBlock = null;
+    for (long[] startKey : startKeys) {
+      TestBlock block = new TestBlock(startKey);
+      if (lastBlock == null) {
+        firstBlock = block;
+      } else {
+        lastBlock.setNextBlock(block);
+        block.setPreviousBlock(lastBlock);
+      }
+      lastBlock = block;
+    }
+
+    BlockDirectory<TestBlock> directory = new BlockDirectory<TestBlock>(startKeys[0].length);
+    directory.rebuild(firstBlock);
+    return directory;
+  }
+
+  private static class TestBlock extends AbstractLinkedBlock<TestBlock> {
+
+    private static final long serialVersionUID = 1L;
+
+    public TestBlock(long[] startKey) {
+      this.startKey = startKey;
+    }
+
+    public void close() throws IOException {
+    }
+
+    public void recover() {
+    }
+  }
+}
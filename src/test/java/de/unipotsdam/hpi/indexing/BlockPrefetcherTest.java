@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.storage.AppendOnlyReferenceBlockStorage;
+import de.unipotsdam.hpi.storage.CacheStatistics;
+import de.unipotsdam.hpi.util.FileUtils;
+import de.unipotsdam.hpi.util.TestSettings;
+
+public class BlockPrefetcherTest {
+
+  private static final String TEMP_FOLDER_NAME = BlockPrefetcherTest.class.getName();
+  private static Path tempFolder;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    Path globalTempFolder = FileSystems.getDefault().getPath(
+        TestSettings.INDEX_TMP_FOLDER);
+    tempFolder = globalTempFolder.resolve(TEMP_FOLDER_NAME);
+    FileUtils.createDirectoryIfNotExists(tempFolder);
+  }
+
+  @Test
+  public void testBlocksWithinBeamAreLoaded() throws InterruptedException {
+    AppendOnlyReferenceBlockStorage storage = new AppendOnlyReferenceBlockStorage(
+        tempFolder.resolve("testBlocksWithinBeamAreLoaded"), true);
+    CacheStatistics statistics = new CacheStatistics();
+    storage.setCacheStatistics(statistics);
+    ReferenceBlock[] blocks = createLinkedBlocks(storage, 9, 10);
+    for (ReferenceBlock block : blocks) {
+      Assert.assertFalse(block.isCached());
+    }
+
+    // a beam of 15 elements reaches two blocks in each direction
+    BlockPrefetcher prefetcher = new BlockPrefetcher(2);
+    prefetcher.prefetchBeam(blocks[3], blocks[5], 15);
+    for (int i = 2; i <= 6; i++) {
+      if (i != 4) {
+        awaitCached(blocks[i]);
+      }
+    }
+    Assert.assertFalse(blocks[1].isCached());
+    Assert.assertFalse(blocks[4].isCached());
+    Assert.assertFalse(blocks[7].isCached());
+    Assert.assertEquals(4, statistics.getLoads());
+
+    // the query finds the blocks in the cache
+    Assert.assertEquals(30, blocks[3].getElements()[0]);
+    Assert.assertEquals(4, statistics.getLoads());
+    storage.close();
+  }
+
+  @Test
+  public void testDisabledPrefetcherLoadsNothing() {
+    AppendOnlyReferenceBlockStorage storage = new AppendOnlyReferenceBlockStorage(
+        tempFolder.resolve("testDisabledPrefetcherLoadsNothing"), true);
+    ReferenceBlock[] blocks = createLinkedBlocks(storage, 3, 10);
+
+    BlockPrefetcher prefetcher = new BlockPrefetcher(0);
+    Assert.assertFalse(prefetcher.isEnabled());
+    prefetcher.prefetchBeam(blocks[0], blocks[2], 100);
+    Assert.assertFalse(blocks[0].isCached());
+    Assert.assertFalse(blocks[2].isCached());
+    storage.close();
+  }
+
+  private ReferenceBlock[] createLinkedBlocks(AppendOnlyReferenceBlockStorage storage,
+      int numBlocks, int blockSize) {
+    ReferenceBlock[] blocks = new ReferenceBlock[numBlocks];
+    for (int i = 0; i < numBlocks; i++) {
+      blocks[i] = new ReferenceBlock(blockSize, 1, storage, i);
+      int[] elementIds = new int[blockSize];
+      for (int j = 0; j < blockSize; j++) {
+        elementIds[j] = i * blockSize + j;
+      }
+      blocks[i].bulkLoad(elementIds, new long[] { i });
+      if (i > 0) {
+        blocks[i - 1].setNextBlock(blocks[i]);
+        blocks[i].setPreviousBlock(blocks[i - 1]);
+      }
+    }
+    return blocks;
+  }
+
+  private void awaitCached(LinkedBlock<?> block) throws InterruptedException {
+    for (int i = 0; i < 500 && !block.isCached(); i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertTrue(block.isCached());
+  }
+
+  @AfterClass
+  public static void cleanUp() {
+    FileUtils.clearAndDeleteDirecotry(tempFolder);
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.nio.file.Path;
+
+import de.unipotsdam.hpi.permutation.NullPermutationFunction;
+
+/**
+ * Runs the index tests against compressed blocks in an append-only storage.
+ */
+public class CompressedReferenceBlockBasedIndexTest extends ReferenceBlockBasedIndexTest {
+
+  @Override
+  protected AbstractBlockBasedIndex<?> createIndex(Path basePath, int keySize,
+      int blockSize) {
+    return new ReferenceBlockBasedIndex(basePath, keySize, blockSize, bitSignatureIndex,
+        new NullPermutationFunction(), true, true);
+  }
+}
@@ -28,6 +28,8 @@ import org.junit.Test;
 
 import de.unipotsdam.hpi.permutation.NullPermutationFunction;
 import de.unipotsdam.hpi.storage.BitSignatureIndex;
+import de.unipotsdam.hpi.storage.BlockCache;
+import de.unipotsdam.hpi.storage.CacheStatistics;
 
 public class ReferenceBlockBasedIndexTest extends AbstractBlockBasedIndexTest {
 
@@ -85,6 +87,51 @@ public class ReferenceBlockBasedIndexTest extends AbstractBlockBasedIndexTest {
         expectedNeighbours.isEmpty());
   }
 
+  @Test
+  public void testCacheStatisticsCountBlockAccesses() {
+    AbstractBlockBasedIndex<?> index = createIndex(tempFolder, 4, 10);
+    IndexPair[] indexPairs = new IndexPair[120];
+    for (int i = 0; i < indexPairs.length; i++) {
+      indexPairs[i] = createIndexPair(new long[] { 0, 0, i, 0 }, i);
+    }
+    index.bulkLoad(indexPairs);
+    long[] key = new long[] { 0, 0, 50, 0 };
+    // the written blocks are cached, so evict them to start cold
+    BlockCache cache = BlockCache.getShared();
+    long capacity = cache.getCapacity();
+    cache.setCapacity(0);
+    cache.setCapacity(capacity);
+
+    index.getNearestNeighboursElementIds(key, 20);
+    CacheStatistics statistics = index.getCacheStatistics();
+    long misses = statistics.getMisses();
+    Assert.assertTrue(misses > 0);
+    Assert.assertTrue(statistics.getLoads() > 0);
+
+    long hits = statistics.getHits();
+    index.getNearestNeighboursElementIds(key, 20);
+    Assert.assertEquals(misses, statistics.getMisses());
+    Assert.assertTrue(statistics.getHits() > hits);
+  }
+
+  @Test
+  public void testBlocksAreKeptInTheSetBlockCache() {
+    AbstractBlockBasedIndex<?> index = createIndex(tempFolder, 4, 10);
+    BlockCache cache = new BlockCache(1 << 20);
+    index.setBlockCache(cache);
+    IndexPair[] indexPairs = new IndexPair[120];
+    for (int i = 0; i < indexPairs.length; i++) {
+      indexPairs[i] = createIndexPair(new long[] { 0, 0, i, 0 }, i);
+    }
+    index.bulkLoad(indexPairs);
+    cache.setCapacity(0);
+    cache.setCapacity(1 << 20);
+
+    index.getNearestNeighboursElementIds(new long[] { 0, 0, 50, 0 }, 20);
+    Assert.assertTrue(cache.size() > 0);
+    Assert.assertTrue(index.getCacheStatistics().getMisses() > 0);
+  }
+
   @Test
   public void testGetNearestNeighborsFromTheFront() {
     int blockSize = 10;
@@ -147,6 +194,54 @@ public class ReferenceBlockBasedIndexTest extends AbstractBlockBasedIndexTest {
   }
   
   
+  @Test
+  public void testBatchLookupMatchesSingleLookups() {
+    int blockSize = 10;
+    int keySize = 4;
+    int numIndexPairs = 120;
+    int beamSize = 15;
+    AbstractBlockBasedIndex<?> index = createIndex(tempFolder, keySize, blockSize);
+
+    IndexPair[] indexPairs = new IndexPair[numIndexPairs];
+    for (int i = 0; i < numIndexPairs; i++) {
+      // pairs of equal keys
+      long[] key = new long[] { 0, 0, (byte) (0xFF & (i / 2)), 0 };
+      IndexPair pair = createIndexPair(key, i);
+      indexPairs[i] = pair;
+    }
+    Arrays.sort(indexPairs, IndexPair.COMPARATOR);
+    index.bulkLoad(indexPairs);
+
+    long[][] sortedKeys = new long[][] { 
+        { 0, 0, 0, 0 },
+        { 0, 0, 0, 0 },
+        { 0, 0, 3, 1 },
+        { 0, 0, 7, 0 },
+        { 0, 0, 30, 0 },
+        { 0, 0, 31, 5 },
+        { 0, 0, 58, 0 },
+        { 0, 0, 59, 0 },
+        { 1, 0, 0, 0 },
+        { -1, 0, 0, 0 } };
+    int[][] batchNeighbours = index.getNearestNeighboursElementIds(sortedKeys, beamSize);
+
+    Assert.assertEquals(sortedKeys.length, batchNeighbours.length);
+    for (int i = 0; i < sortedKeys.length; i++) {
+      int[] singleNeighbours = index.getNearestNeighboursElementIds(sortedKeys[i], beamSize);
+      Assert.assertArrayEquals("Neighbours of key " + i, singleNeighbours, batchNeighbours[i]);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBatchLookupRequiresSortedKeys() {
+    AbstractBlockBasedIndex<?> index = createIndex(tempFolder, 1, 10);
+    IndexPair[] indexPairs = new IndexPair[] { createIndexPair(new long[] { 1 }, 1),
+        createIndexPair(new long[] { 2 }, 2) };
+    index.bulkLoad(indexPairs);
+
+    index.getNearestNeighboursElementIds(new long[][] { { 2 }, { 1 } }, 1);
+  }
+
   // both test cases are still pending as they are not implemented for this index yet
   @Ignore
   public void testDeleteElement() {
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.util.FileUtils;
+
+/**
+ * Runs the index tests against blocks that are kept in segment files.
+ */
+public class SegmentedSignatureStoringBlockBasedIndexTest extends
+    SignatureStoringBlockBasedIndexTest {
+
+  @Override
+  protected AbstractBlockBasedIndex<?> createIndex(Path basePath, int keySize,
+      int blockSize) {
+    return new SignatureStoringBlockBasedIndex(basePath, keySize, blockSize, true);
+  }
+
+  @Test
+  public void testRecoverFromSegmentFiles() throws Exception {
+    int blockSize = 10;
+    int keySize = 2;
+    int numIndexPairs = 200;
+    Path basePath = tempFolder.resolve("testRecoverFromSegmentFiles");
+    FileUtils.createDirectoryIfNotExists(basePath);
+    SignatureStoringBlockBasedIndex index = (SignatureStoringBlockBasedIndex) createIndex(
+        basePath, keySize, blockSize);
+
+    IndexPair[] indexPairs = new IndexPair[numIndexPairs];
+    for (int i = 0; i < numIndexPairs; i++) {
+      indexPairs[i] = new IndexPair(new long[] { i, ~i }, i);
+    }
+    index.bulkLoad(indexPairs);
+    index.deleteElement(indexPairs[0].getBitSignature());
+    // all blocks share a single segment file
+    Assert.assertEquals(1, index.getSegmentStorage().getNumSegmentFiles());
+
+    byte[] serializedIndex = serialize(index);
+    index.close();
+    index.getSegmentStorage().clearCache();
+
+    SignatureStoringBlockBasedIndex recoveredIndex = deserialize(serializedIndex);
+    recoveredIndex.recover();
+    Assert.assertEquals(numIndexPairs - 1, recoveredIndex.size());
+    for (int i = 1; i < numIndexPairs; i++) {
+      Assert.assertEquals(i, recoveredIndex.getElement(indexPairs[i].getBitSignature()));
+    }
+    Assert.assertTrue(recoveredIndex.getCacheStatistics().getLoads() > 0);
+
+    // the recovered index can still be changed
+    recoveredIndex.insertElement(indexPairs[0]);
+    Assert.assertEquals(0, recoveredIndex.getElement(indexPairs[0].getBitSignature()));
+    recoveredIndex.close();
+  }
+
+  private static byte[] serialize(Object object) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(object);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static SignatureStoringBlockBasedIndex deserialize(byte[] bytes) throws Exception {
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    try {
+      return (SignatureStoringBlockBasedIndex) in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.indexing;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.permutation.ListBasedPermutationFunction;
+import de.unipotsdam.hpi.permutation.PermutationFunction;
+
+public class SignatureBatchTest {
+
+  @Test
+  public void testSequentialSortMatchesIndexPairSort() {
+    runSortTest(50000, 2, null);
+  }
+
+  @Test
+  public void testParallelSortMatchesIndexPairSort() {
+    ForkJoinPool pool = new ForkJoinPool();
+    try {
+      runSortTest(200000, 3, pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCapacityBeyondMaximumArrayLengthIsRejected() {
+    // 16 * 200M longs do not fit into a single array
+    new SignatureBatch(16, 200000000);
+  }
+
+  @Test
+  public void testPermuteMatchesPermutationOfSingleSignatures() {
+    int keySize = 4;
+    Random random = new Random(42);
+    PermutationFunction permutationFunction = new ListBasedPermutationFunction(keySize * 64);
+    SignatureBatch batch = new SignatureBatch(keySize, 1);
+    long[][] signatures = new long[100][keySize];
+    for (int i = 0; i < signatures.length; i++) {
+      for (int j = 0; j < keySize; j++) {
+        signatures[i][j] = random.nextLong();
+      }
+      batch.add(signatures[i], i);
+    }
+
+    SignatureBatch permutedBatch = new SignatureBatch(keySize, 0);
+    permutedBatch.permute(batch, permutationFunction);
+
+    Assert.assertEquals(signatures.length, permutedBatch.size());
+    for (int i = 0; i < signatures.length; i++) {
+      Assert.assertEquals(i, permutedBatch.getElementId(i));
+      Assert.assertArrayEquals(permutationFunction.permute(signatures[i]),
+          permutedBatch.getSignature(i));
+    }
+  }
+
+  private void runSortTest(int numElements, int keySize, ForkJoinPool pool) {
+    Random random = new Random(42);
+    SignatureBatch batch = new SignatureBatch(keySize, 16);
+    IndexPair[] pairs = new IndexPair[numElements];
+    for (int i = 0; i < numElements; i++) {
+      long[] signature = new long[keySize];
+      for (int j = 0; j < keySize; j++) {
+        signature[j] = random.nextLong();
+      }
+      // many common prefixes and duplicates
+      if (i % 3 == 0) {
+        signature[0] = 0x00FF000000000000L | (signature[0] & 0xFFL);
+      }
+      if (i % 5 == 0) {
+        signature[keySize - 1] = -1L;
+      }
+      pairs[i] = new IndexPair(signature, i);
+      batch.add(signature, i);
+    }
+
+    Arrays.sort(pairs, IndexPair.COMPARATOR);
+    batch.sort(pool);
+
+    Assert.assertTrue(batch.isSorted());
+    boolean[] seenIds = new boolean[numElements];
+    for (int i = 0; i < numElements; i++) {
+      Assert.assertArrayEquals(pairs[i].getBitSignature(), batch.getSignature(i));
+      int elementId = batch.getElementId(i);
+      Assert.assertFalse(seenIds[elementId]);
+      seenIds[elementId] = true;
+    }
+  }
+
+}
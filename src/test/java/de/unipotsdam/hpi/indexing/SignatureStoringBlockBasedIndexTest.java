@@ -15,6 +15,7 @@
  */
 package de.unipotsdam.hpi.indexing;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -36,6 +37,31 @@ public class SignatureStoringBlockBasedIndexTest extends AbstractBlockBasedIndex
     return new IndexPair(signature, elementId);
   }
   
+  @Test
+  public void testDeletingAllElementsOfABlock() throws IOException {
+    SignatureStoringBlockBasedIndex index = (SignatureStoringBlockBasedIndex) createIndex(
+        tempFolder, 4, 10);
+    IndexPair[] indexPairs = new IndexPair[30];
+    for (int i = 0; i < indexPairs.length; i++) {
+      indexPairs[i] = new IndexPair(new long[] { 0, 0, i, 0 }, i);
+    }
+    index.bulkLoad(indexPairs);
+    int numBlocks = index.directory.size();
+
+    int position = index.getBlockPositionFor(indexPairs[12].getBitSignature());
+    for (IndexPair pair : index.directory.get(position).getElements()) {
+      index.deleteElement(pair.getBitSignature());
+    }
+    // the empty block is gone, so no key is looked up in it any more
+    Assert.assertEquals(numBlocks - 1, index.directory.size());
+    for (int i = 0; i < index.directory.size(); i++) {
+      Assert.assertTrue(index.directory.get(i).getSize() > 0);
+    }
+
+    index.insertElement(indexPairs[12]);
+    Assert.assertEquals(12, index.getElement(indexPairs[12].getBitSignature()));
+  }
+
   @Test
   public void testGetNearestNeighbors() {
     int blockSize = 10;
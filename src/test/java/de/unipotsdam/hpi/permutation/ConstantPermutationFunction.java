@@ -15,6 +15,8 @@
  */
 package de.unipotsdam.hpi.permutation;
 
+import java.util.Arrays;
+
 
 public class ConstantPermutationFunction extends AbstractPermutationFunction {
 
@@ -31,5 +33,17 @@ public class ConstantPermutationFunction extends AbstractPermutationFunction {
 		createPermutation(this.mapping, signature, permutation);
 		return permutation;
 	}
+
+	public long[] permute(long[] signature, long[] target) {
+		Arrays.fill(target, 0L);
+		createPermutation(this.mapping, signature, target);
+		return target;
+	}
+
+	public void permute(long[] signatures, int offset, long[] target, int targetOffset,
+			int length) {
+		Arrays.fill(target, targetOffset, targetOffset + length, 0L);
+		createPermutation(this.mapping, signatures, offset, target, targetOffset);
+	}
 	
 }
\ No newline at end of file
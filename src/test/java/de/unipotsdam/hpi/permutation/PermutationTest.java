@@ -72,4 +72,20 @@ public class PermutationTest {
 		Assert.assertArrayEquals(expected, permutation);
 	}
 
+	@Test
+	public void testPermutationIntoTarget() {
+		int[] mapping = new int[2 * BitSignatureUtil.BASE_TYPE_SIZE];
+		for (int i = 0; i < mapping.length; i++) {
+			mapping[i] = 2 * BitSignatureUtil.BASE_TYPE_SIZE - 1 - i;
+		}
+		ConstantPermutationFunction permutationFunction = new ConstantPermutationFunction(
+				mapping);
+		long[] signature = { 1L << 63, 3L };
+		// the target holds garbage from a previous permutation
+		long[] target = { -1L, -1L };
+		long[] permutation = permutationFunction.permute(signature, target);
+		Assert.assertSame(target, permutation);
+		Assert.assertArrayEquals(permutationFunction.permute(signature), permutation);
+	}
+
 }
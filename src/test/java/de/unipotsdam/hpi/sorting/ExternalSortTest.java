@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.sorting;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.util.FileUtils;
+import de.unipotsdam.hpi.util.TestSettings;
+
+public class ExternalSortTest {
+
+  private static final String TEMP_FOLDER_NAME = ExternalSortTest.class.getName();
+  private static Path tempFolder;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    Path globalTempFolder = FileSystems.getDefault().getPath(
+        TestSettings.INDEX_TMP_FOLDER);
+    tempFolder = globalTempFolder.resolve(TEMP_FOLDER_NAME);
+    FileUtils.createDirectoryIfNotExists(globalTempFolder);
+    FileUtils.createDirectoryIfNotExists(tempFolder);
+  }
+
+  @Test
+  public void testSpilledRunsAreMerged() {
+    int keySize = 2;
+    // about 100 pairs per run
+    ExternalSort externalSort = new ExternalSort(tempFolder, keySize, 100 * (64 + 8 * keySize),
+        new StandardLibSort<IndexPair>());
+    List<IndexPair> pairs = createRandomPairs(1050, keySize);
+    for (IndexPair pair : pairs) {
+      externalSort.add(pair);
+    }
+
+    List<IndexPair> sortedPairs = toList(externalSort.sort());
+    Assert.assertTrue(externalSort.getNumRuns() > 1);
+    externalSort.close();
+
+    assertSortedPermutation(pairs, sortedPairs);
+  }
+
+  @Test
+  public void testRunsAreMergedInSeveralPasses() {
+    int keySize = 2;
+    // about 10 pairs per run, of which at most 3 are merged at once
+    ExternalSort externalSort = new ExternalSort(tempFolder, keySize, 10 * (64 + 8 * keySize),
+        new StandardLibSort<IndexPair>(), 3);
+    List<IndexPair> pairs = createRandomPairs(255, keySize);
+    for (IndexPair pair : pairs) {
+      externalSort.add(pair);
+    }
+
+    List<IndexPair> sortedPairs = toList(externalSort.sort());
+    // the intermediate merges write further runs
+    Assert.assertTrue(externalSort.getNumRuns() > 26);
+    externalSort.close();
+
+    assertSortedPermutation(pairs, sortedPairs);
+  }
+
+  @Test
+  public void testPairsWithinBudgetAreSortedInMemory() {
+    int keySize = 3;
+    ExternalSort externalSort = new ExternalSort(tempFolder, keySize, 1L << 20,
+        new ParallelQuickSort<IndexPair>(10));
+    List<IndexPair> pairs = createRandomPairs(500, keySize);
+    for (IndexPair pair : pairs) {
+      externalSort.add(pair);
+    }
+
+    List<IndexPair> sortedPairs = toList(externalSort.sort());
+    Assert.assertEquals(0, externalSort.getNumRuns());
+    externalSort.close();
+
+    assertSortedPermutation(pairs, sortedPairs);
+  }
+
+  private List<IndexPair> createRandomPairs(int numPairs, int keySize) {
+    Random random = new Random(42);
+    List<IndexPair> pairs = new ArrayList<IndexPair>(numPairs);
+    for (int i = 0; i < numPairs; i++) {
+      long[] signature = new long[keySize];
+      for (int j = 0; j < keySize; j++) {
+        // few distinct values to provoke equal keys
+        signature[j] = random.nextInt(8) - 4;
+      }
+      pairs.add(new IndexPair(signature, i));
+    }
+    return pairs;
+  }
+
+  private List<IndexPair> toList(Iterator<IndexPair> iterator) {
+    List<IndexPair> list = new ArrayList<IndexPair>();
+    while (iterator.hasNext()) {
+      list.add(iterator.next());
+    }
+    return list;
+  }
+
+  private void assertSortedPermutation(List<IndexPair> pairs, List<IndexPair> sortedPairs) {
+    Assert.assertEquals(pairs.size(), sortedPairs.size());
+    for (int i = 1; i < sortedPairs.size(); i++) {
+      Assert.assertTrue(IndexPair.COMPARATOR.compare(sortedPairs.get(i - 1), sortedPairs.get(i)) <= 0);
+    }
+    IndexPair[] expected = pairs.toArray(new IndexPair[pairs.size()]);
+    IndexPair[] actual = sortedPairs.toArray(new IndexPair[sortedPairs.size()]);
+    Comparator<IndexPair> byId = new Comparator<IndexPair>() {
+
+      public int compare(IndexPair pair1, IndexPair pair2) {
+        return Integer.compare(pair1.getElementId(), pair2.getElementId());
+      }
+    };
+    Arrays.sort(expected, byId);
+    Arrays.sort(actual, byId);
+    Assert.assertArrayEquals(expected, actual);
+  }
+
+  @AfterClass
+  public static void cleanUp() {
+    FileUtils.clearAndDeleteDirecotry(tempFolder);
+  }
+
+}
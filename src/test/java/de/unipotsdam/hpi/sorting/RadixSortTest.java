@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.sorting;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+public class RadixSortTest {
+
+  @Test
+  public void testSortOnEmptyAndSingletonData() {
+    runTest(new long[0][], false, false);
+    runTest(new long[][] { { -1L, 2L } }, false, false);
+  }
+
+  @Test
+  public void testSequentialSortOnRandomSignatures() {
+    runTest(generateSignatures(50000, 2, false), false, false);
+  }
+
+  @Test
+  public void testParallelSortOnRandomSignatures() {
+    runTest(generateSignatures(200000, 3, false), true, false);
+  }
+
+  @Test
+  public void testSortOnSignaturesWithCommonPrefixes() {
+    long[][] signatures = generateSignatures(100000, 2, true);
+    runTest(signatures, false, false);
+    runTest(signatures, true, true);
+  }
+
+  @Test
+  public void testSortIndexPairs() {
+    long[][] signatures = generateSignatures(30000, 2, true);
+    IndexPair[] pairs = new IndexPair[signatures.length];
+    for (int i = 0; i < signatures.length; i++) {
+      pairs[i] = new IndexPair(signatures[i], i);
+    }
+    IndexPair[] expectedPairs = pairs.clone();
+    Arrays.sort(expectedPairs, IndexPair.COMPARATOR);
+
+    RadixSort<IndexPair> radixSort = new RadixSort<IndexPair>(RadixSort.INDEX_PAIR_KEYS, true);
+    radixSort.setComparator(IndexPair.COMPARATOR);
+    radixSort.sort(pairs);
+    radixSort.close();
+
+    for (int i = 0; i < pairs.length; i++) {
+      Assert.assertArrayEquals(expectedPairs[i].getBitSignature(), pairs[i].getBitSignature());
+    }
+  }
+
+  @Test
+  public void testSortRange() {
+    long[][] signatures = generateSignatures(20000, 2, false);
+    long[][] expectedSignatures = signatures.clone();
+    Arrays.sort(expectedSignatures, 100, 15000, BitSignatureUtil.COMPARATOR);
+
+    RadixSort<long[]> radixSort = new RadixSort<long[]>(RadixSort.SIGNATURE_KEYS, false);
+    radixSort.sort(signatures, 100, 15000);
+    radixSort.close();
+
+    for (int i = 0; i < signatures.length; i++) {
+      Assert.assertArrayEquals(expectedSignatures[i], signatures[i]);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSortRequiresSignaturesOfSameLength() {
+    RadixSort<long[]> radixSort = new RadixSort<long[]>(RadixSort.SIGNATURE_KEYS, false);
+    radixSort.sort(new long[][] { { 1L }, { 1L, 2L } });
+  }
+
+  private long[][] generateSignatures(int numSignatures, int keySize, boolean commonPrefixes) {
+    Random random = new Random(42);
+    long[][] signatures = new long[numSignatures][keySize];
+    for (int i = 0; i < numSignatures; i++) {
+      for (int j = 0; j < keySize; j++) {
+        signatures[i][j] = random.nextLong();
+      }
+      if (commonPrefixes) {
+        // only a few distinct values in the upper bytes and many duplicates
+        signatures[i][0] = (signatures[i][0] & 0xF0000000000000FFL) | 0x00ABCDEF00000000L;
+        if (random.nextBoolean()) {
+          signatures[i][keySize - 1] = 0;
+        }
+      }
+    }
+    return signatures;
+  }
+
+  private void runTest(long[][] signatures, boolean parallel, boolean withComparator) {
+    long[][] expectedSignatures = signatures.clone();
+    Arrays.sort(expectedSignatures, BitSignatureUtil.COMPARATOR);
+
+    long[][] sortedSignatures = signatures.clone();
+    RadixSort<long[]> radixSort = new RadixSort<long[]>(RadixSort.SIGNATURE_KEYS, parallel);
+    if (withComparator) {
+      radixSort.setComparator(BitSignatureUtil.COMPARATOR);
+    }
+    radixSort.sort(sortedSignatures);
+    radixSort.close();
+
+    Assert.assertEquals(expectedSignatures.length, sortedSignatures.length);
+    for (int i = 0; i < sortedSignatures.length; i++) {
+      Assert.assertArrayEquals(expectedSignatures[i], sortedSignatures[i]);
+    }
+  }
+
+}
@@ -55,6 +55,52 @@ public class AggregatedReferenceBlockStorageTest {
     Assert.assertArrayEquals(values2, loadedValues2);
   }
   
+  @Test
+  public void testPersistingCompressedEntries() {
+    Path filePath = tempFolder.resolve("AggregatedReferenceBlockStorageTest.testPersistingCompressedEntries");
+    AggregatedReferenceBlockStorage storage = new AggregatedReferenceBlockStorage(filePath, true);
+    
+    int[] values1 = new int[] { 5, 3, 1000000, -7, Integer.MAX_VALUE, Integer.MIN_VALUE };
+    int[] values2 = new int[] { 42 };
+    storage.writeBlock(1, values1);
+    storage.writeBlock(2, values2);
+    storage.clearCache();
+    
+    Assert.assertArrayEquals(values1, storage.getBlock(1));
+    Assert.assertArrayEquals(values2, storage.getBlock(2));
+    Assert.assertTrue(filePath.toFile().length() < 4 * (values1.length + values2.length));
+  }
+  
+  @Test
+  public void testWritingWithPartlyCachedEntries() {
+    for (boolean compressed : new boolean[] { false, true }) {
+      Path filePath = tempFolder.resolve(
+          "AggregatedReferenceBlockStorageTest.testWritingWithPartlyCachedEntries" + compressed);
+      AggregatedReferenceBlockStorage storage = new AggregatedReferenceBlockStorage(filePath,
+          compressed);
+      
+      int[][] values = new int[4][];
+      for (int id = 0; id < values.length; id++) {
+        values[id] = new int[10 + id];
+        for (int i = 0; i < values[id].length; i++) {
+          values[id][i] = 1000 * id + 300 * i;
+        }
+        storage.writeBlock(id, values[id]);
+      }
+      // block 1 has to be read from the file, the others are taken from the cache
+      BlockCache.getShared().invalidate(storage, 1);
+      values[2] = new int[] { 7, -7, 700000 };
+      storage.writeBlock(2, values[2]);
+      Assert.assertTrue(storage.isCached(2));
+      Assert.assertArrayEquals(values[2], storage.getBlock(2));
+      
+      storage.clearCache();
+      for (int id = 0; id < values.length; id++) {
+        Assert.assertArrayEquals(values[id], storage.getBlock(id));
+      }
+    }
+  }
+  
   @AfterClass
   public static void cleanUp() {
     FileUtils.clearAndDeleteDirecotry(tempFolder);
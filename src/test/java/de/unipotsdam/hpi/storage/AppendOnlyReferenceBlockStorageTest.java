@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.util.FileUtils;
+import de.unipotsdam.hpi.util.TestSettings;
+
+public class AppendOnlyReferenceBlockStorageTest {
+
+  private static final String TEMP_FOLDER_NAME = AppendOnlyReferenceBlockStorageTest.class.getName();
+  private static Path tempFolder;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    Path globalTempFolder = FileSystems.getDefault().getPath(
+        TestSettings.INDEX_TMP_FOLDER);
+    tempFolder = globalTempFolder.resolve(TEMP_FOLDER_NAME);
+    FileUtils.createDirectoryIfNotExists(globalTempFolder);
+    FileUtils.createDirectoryIfNotExists(tempFolder);
+  }
+
+  @Test
+  public void testWritingBlocksAppendsOnlyTheChangedBlock() {
+    Path filePath = tempFolder.resolve("testWritingBlocksAppendsOnlyTheChangedBlock");
+    AppendOnlyReferenceBlockStorage storage = new AppendOnlyReferenceBlockStorage(filePath);
+
+    int[] values = new int[] { 1, 2, 3, 4, 5 };
+    storage.writeBlock(1, values, 1, 3);
+    storage.writeBlock(2, new int[] { 6, 7 });
+    Assert.assertEquals(5 * 4, storage.getFileLength());
+
+    storage.writeBlock(1, new int[] { 8 });
+    Assert.assertEquals(6 * 4, storage.getFileLength());
+    Assert.assertArrayEquals(new int[] { 8 }, storage.getBlock(1));
+    Assert.assertArrayEquals(new int[] { 6, 7 }, storage.getBlock(2));
+
+    Int2ObjectMap<int[]> blocks = new Int2ObjectOpenHashMap<int[]>();
+    blocks.put(1, null);
+    blocks.put(3, new int[] { 9 });
+    storage.writeBlocks(blocks);
+    Assert.assertNull(storage.getBlock(1));
+    Assert.assertArrayEquals(new int[] { 9 }, storage.getBlock(3));
+
+    // the storage is reopened after closing
+    storage.close();
+    Assert.assertArrayEquals(new int[] { 6, 7 }, storage.getBlock(2));
+    storage.close();
+  }
+
+  @Test
+  public void testGarbageIsCompacted() {
+    Path filePath = tempFolder.resolve("testGarbageIsCompacted");
+    AppendOnlyReferenceBlockStorage storage = new AppendOnlyReferenceBlockStorage(filePath);
+
+    int[] values = new int[1000];
+    for (int round = 0; round < 1000; round++) {
+      for (int i = 0; i < values.length; i++) {
+        values[i] = round + i;
+      }
+      storage.writeBlock(round % 10, values);
+    }
+
+    Assert.assertTrue(storage.getFileLength() <= 2 * (10 * 4 * values.length) + (1 << 20));
+    for (int block = 0; block < 10; block++) {
+      int[] loadedValues = storage.getBlock(block);
+      Assert.assertEquals(990 + block, loadedValues[0]);
+      Assert.assertEquals(1000, loadedValues.length);
+    }
+    storage.close();
+  }
+
+  @AfterClass
+  public static void cleanUp() {
+    FileUtils.clearAndDeleteDirecotry(tempFolder);
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlockCacheTest {
+
+  private final Object owner = new Object();
+
+  @Test
+  public void testWeightStaysWithinCapacity() {
+    BlockCache cache = new BlockCache(100);
+    CacheStatistics statistics = new CacheStatistics();
+    for (int i = 0; i < 5; i++) {
+      cache.put(owner, i, "block" + i, 30, statistics);
+    }
+
+    Assert.assertEquals(90, cache.getWeight());
+    Assert.assertEquals(3, cache.size());
+    Assert.assertEquals(2, statistics.getEvictions());
+    // the least recently added blocks are evicted
+    Assert.assertNull(cache.get(owner, 0, statistics));
+    Assert.assertNull(cache.get(owner, 1, statistics));
+    Assert.assertEquals("block4", cache.get(owner, 4, statistics));
+    Assert.assertEquals(1, statistics.getHits());
+    Assert.assertEquals(2, statistics.getMisses());
+
+    // blocks beyond the capacity are not cached at all
+    cache.put(owner, 5, "huge", 101, statistics);
+    Assert.assertNull(cache.get(owner, 5, null));
+    Assert.assertEquals(3, cache.size());
+
+    cache.setCapacity(30);
+    Assert.assertEquals(1, cache.size());
+    Assert.assertEquals("block4", cache.get(owner, 4, null));
+  }
+
+  @Test
+  public void testScanDoesNotEvictFrequentlyUsedBlocks() {
+    BlockCache cache = new BlockCache(100);
+    cache.put(owner, 0, "hot", 10, null);
+    Assert.assertEquals("hot", cache.get(owner, 0, null));
+
+    for (int i = 1; i <= 50; i++) {
+      cache.put(owner, i, "cold" + i, 10, null);
+    }
+
+    Assert.assertEquals("hot", cache.get(owner, 0, null));
+    Assert.assertEquals("cold50", cache.get(owner, 50, null));
+    Assert.assertNull(cache.get(owner, 1, null));
+    Assert.assertTrue(cache.getWeight() <= 100);
+  }
+
+  @Test
+  public void testInvalidation() {
+    BlockCache cache = new BlockCache(100);
+    Object otherOwner = new Object();
+    cache.put(owner, 0, "a", 10, null);
+    cache.put(owner, 1, "b", 10, null);
+    cache.get(owner, 1, null);
+    cache.put(otherOwner, 0, "c", 10, null);
+
+    cache.invalidate(owner, 0);
+    Assert.assertNull(cache.get(owner, 0, null));
+    cache.invalidateAll(owner);
+    Assert.assertNull(cache.get(owner, 1, null));
+    Assert.assertEquals("c", cache.get(otherOwner, 0, null));
+    Assert.assertEquals(10, cache.getWeight());
+  }
+
+  @Test
+  public void testConcurrentMissesLoadBlockOnce() throws Exception {
+    final BlockCache cache = new BlockCache(100);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger numLoads = new AtomicInteger();
+    final BlockCache.Loader<String> loader = new BlockCache.Loader<String>() {
+      public String load() {
+        numLoads.incrementAndGet();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return "block";
+      }
+
+      public long weightOf(String value) {
+        return 10;
+      }
+    };
+
+    int numThreads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      final CountDownLatch started = new CountDownLatch(numThreads);
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int i = 0; i < numThreads; i++) {
+        results.add(executor.submit(new Callable<String>() {
+          public String call() {
+            started.countDown();
+            return cache.getOrLoad(owner, 0, null, loader);
+          }
+        }));
+      }
+      started.await();
+      Thread.sleep(100);
+      release.countDown();
+
+      for (Future<String> result : results) {
+        Assert.assertEquals("block", result.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals(1, numLoads.get());
+    Assert.assertEquals("block", cache.peek(owner, 0));
+  }
+
+  @Test
+  public void testInvalidatedLoadIsNotCached() throws Exception {
+    final BlockCache cache = new BlockCache(100);
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread loaderThread = new Thread() {
+      @Override
+      public void run() {
+        cache.getOrLoad(owner, 0, null, new BlockCache.Loader<String>() {
+          public String load() {
+            loading.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+            return "stale";
+          }
+
+          public long weightOf(String value) {
+            return 10;
+          }
+        });
+      }
+    };
+    loaderThread.start();
+    loading.await();
+    cache.invalidate(owner, 0);
+    release.countDown();
+    loaderThread.join();
+
+    Assert.assertNull(cache.peek(owner, 0));
+    Assert.assertEquals(0, cache.size());
+  }
+}
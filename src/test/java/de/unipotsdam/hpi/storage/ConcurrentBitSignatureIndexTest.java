@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+public class ConcurrentBitSignatureIndexTest {
+
+  @Test
+  public void testLookupsMatchHeapIndex() {
+    Random random = new Random(42);
+    BitSignatureIndex heapIndex = new BitSignatureIndex();
+    ConcurrentBitSignatureIndex concurrentIndex = new ConcurrentBitSignatureIndex(4);
+    for (int i = 0; i < 5000; i++) {
+      long[] signature = new long[] { random.nextLong(), random.nextLong() };
+      // negative ids must not be confused with empty slots
+      IndexPair pair = new IndexPair(signature, -7 * i);
+      heapIndex.add(pair);
+      concurrentIndex.add(pair);
+    }
+    // replacing a signature does not add an element
+    IndexPair replacement = new IndexPair(new long[] { 1L, 2L }, -7);
+    heapIndex.add(replacement);
+    concurrentIndex.add(replacement);
+
+    Assert.assertEquals(heapIndex.size(), concurrentIndex.size());
+    long[] query = heapIndex.getBitSignature(0);
+    for (int i = 0; i < 5000; i++) {
+      int elementId = -7 * i;
+      Assert.assertTrue(concurrentIndex.contains(elementId));
+      Assert.assertSame(heapIndex.getIndexPair(elementId), concurrentIndex.getIndexPair(elementId));
+      Assert.assertEquals(
+          BitSignatureUtil.calculateHammingDistance(heapIndex.getBitSignature(elementId), query),
+          concurrentIndex.calculateHammingDistance(elementId, query));
+    }
+    Assert.assertFalse(concurrentIndex.contains(1));
+    Assert.assertFalse(concurrentIndex.contains(-1));
+    Assert.assertNull(concurrentIndex.getIndexPair(1));
+  }
+
+  @Test
+  public void testReadersSeeAllAddedElementsWhileTableGrows() throws InterruptedException {
+    final ConcurrentBitSignatureIndex index = new ConcurrentBitSignatureIndex();
+    final int numElements = 100000;
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicInteger errors = new AtomicInteger();
+
+    Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread() {
+        @Override
+        public void run() {
+          while (!done.get()) {
+            // every element that is counted must be found with its signature
+            int size = index.size();
+            for (int elementId = Math.max(0, size - 100); elementId < size; elementId++) {
+              IndexPair pair = index.getIndexPair(elementId);
+              if (pair == null || pair.getBitSignature()[0] != elementId) {
+                errors.incrementAndGet();
+              }
+            }
+          }
+        }
+      };
+      readers[i].start();
+    }
+
+    for (int elementId = 0; elementId < numElements; elementId++) {
+      index.add(new IndexPair(new long[] { elementId }, elementId));
+    }
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    Assert.assertEquals(0, errors.get());
+    Assert.assertEquals(numElements, index.size());
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IdListCodecTest {
+
+  @Test
+  public void testDecodedIdsEqualEncodedIds() {
+    Random random = new Random(42);
+    int[] values = new int[1000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i % 10 == 0 ? random.nextInt() : random.nextInt(1 << 16);
+    }
+    values[1] = Integer.MIN_VALUE;
+    values[2] = Integer.MAX_VALUE;
+    values[3] = -1;
+
+    byte[] encoded = new byte[IdListCodec.maxEncodedLength(values.length - 10) + 3];
+    int end = IdListCodec.encode(values, 10, values.length - 10, encoded, 3);
+    int[] decoded = new int[values.length];
+    Assert.assertEquals(end, IdListCodec.decode(encoded, 3, decoded, values.length - 10));
+    for (int i = 10; i < values.length; i++) {
+      Assert.assertEquals(values[i], decoded[i - 10]);
+    }
+  }
+
+  @Test
+  public void testCloseIdsTakeOneByte() {
+    int[] values = new int[100];
+    for (int i = 0; i < values.length; i++) {
+      // neighboring ids differ by less than 64 in either direction
+      values[i] = 1000 + (i * 7) % 50;
+    }
+    byte[] encoded = new byte[IdListCodec.maxEncodedLength(values.length)];
+    int length = IdListCodec.encode(values, 0, values.length, encoded, 0);
+
+    // the first id is encoded relative to 0 and takes two bytes
+    Assert.assertEquals(values.length + 1, length);
+  }
+}
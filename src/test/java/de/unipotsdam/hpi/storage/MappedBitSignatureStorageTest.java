@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+import de.unipotsdam.hpi.util.FileUtils;
+import de.unipotsdam.hpi.util.TestSettings;
+
+public class MappedBitSignatureStorageTest {
+
+  private static final String TEMP_FOLDER_NAME = MappedBitSignatureStorageTest.class.getName();
+  private static Path tempFolder;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    Path globalTempFolder = FileSystems.getDefault().getPath(
+        TestSettings.INDEX_TMP_FOLDER);
+    tempFolder = globalTempFolder.resolve(TEMP_FOLDER_NAME);
+    FileUtils.createDirectoryIfNotExists(tempFolder);
+  }
+
+  @Test
+  public void testRandomAccess() {
+    Path filePath = tempFolder.resolve("testRandomAccess");
+    MappedBitSignatureStorage storage = new MappedBitSignatureStorage(filePath,
+        5 * BitSignatureUtil.BASE_TYPE_SIZE, false);
+
+    Random random = new Random(42);
+    IndexPair[] indexPairs = new IndexPair[50];
+    for (int i = 0; i < indexPairs.length; i++) {
+      long[] signature = new long[5];
+      for (int j = 0; j < signature.length; j++) {
+        signature[j] = random.nextLong();
+      }
+      indexPairs[i] = new IndexPair(signature, 1000 - i);
+      storage.store(indexPairs[i]);
+    }
+    storage.openForRandomAccess();
+
+    Assert.assertEquals(indexPairs.length, storage.getNumRecords());
+    Assert.assertEquals(indexPairs.length, storage.size());
+    Assert.assertFalse(storage.contains(1));
+    Assert.assertEquals(-1, storage.getOrdinal(1));
+
+    int[] elementIds = new int[indexPairs.length];
+    for (int i = 0; i < indexPairs.length; i++) {
+      IndexPair pair = indexPairs[i];
+      elementIds[i] = pair.getElementId();
+      Assert.assertEquals(i, storage.getOrdinal(pair.getElementId()));
+      Assert.assertEquals(pair.getElementId(), storage.getElementIdAt(i));
+      Assert.assertArrayEquals(pair.getBitSignature(), storage.getBitSignature(pair.getElementId()));
+
+      LongBuffer view = storage.getBitSignatureAt(i);
+      Assert.assertEquals(pair.getBitSignature().length, view.remaining());
+      for (int j = 0; j < pair.getBitSignature().length; j++) {
+        Assert.assertEquals(pair.getBitSignature()[j], view.get(j));
+      }
+    }
+
+    long[] query = indexPairs[0].getBitSignature();
+    int[] distances = new int[indexPairs.length];
+    storage.calculateHammingDistances(query, elementIds, elementIds.length, distances);
+    for (int i = 0; i < indexPairs.length; i++) {
+      int expectedDistance = 0;
+      for (int j = 0; j < query.length; j++) {
+        expectedDistance += Long.bitCount(query[j] ^ indexPairs[i].getBitSignature()[j]);
+      }
+      Assert.assertEquals(expectedDistance, distances[i]);
+      Assert.assertEquals(expectedDistance,
+          storage.calculateHammingDistance(elementIds[i], query));
+    }
+
+    storage.clear();
+  }
+
+  @Test
+  public void testSignaturesStoredAfterMappingBecomeVisible() {
+    Path filePath = tempFolder.resolve("testSignaturesStoredAfterMappingBecomeVisible");
+    MappedBitSignatureStorage storage = new MappedBitSignatureStorage(filePath,
+        BitSignatureUtil.BASE_TYPE_SIZE, false);
+
+    storage.store(new IndexPair(new long[] { 1 }, 1));
+    storage.openForRandomAccess();
+    storage.store(new IndexPair(new long[] { 2 }, 2));
+    Assert.assertFalse(storage.contains(2));
+
+    storage.openForRandomAccess();
+    Assert.assertEquals(2, storage.size());
+    Assert.assertArrayEquals(new long[] { 1 }, storage.getBitSignature(1));
+    Assert.assertArrayEquals(new long[] { 2 }, storage.getBitSignature(2));
+
+    int i = 0;
+    for (IndexPair pair : storage) {
+      Assert.assertEquals(++i, pair.getElementId());
+    }
+    Assert.assertEquals(2, i);
+
+    storage.clear();
+  }
+
+  @AfterClass
+  public static void cleanUp() {
+    FileUtils.clearAndDeleteDirecotry(tempFolder);
+  }
+}
@@ -0,0 +1,68 @@
+package de.unipotsdam.hpi.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.util.BitSignatureUtil;
+
+public class OffHeapBitSignatureIndexTest {
+
+  @Test
+  public void testLookupsMatchHeapIndex() {
+    int signatureSize = 3;
+    Random random = new Random(42);
+    List<IndexPair> pairs = new ArrayList<IndexPair>();
+    BitSignatureIndex heapIndex = new BitSignatureIndex();
+    for (int i = 0; i < 1000; i++) {
+      long[] signature = new long[signatureSize];
+      for (int j = 0; j < signatureSize; j++) {
+        signature[j] = random.nextLong();
+      }
+      IndexPair pair = new IndexPair(signature, 7 * i);
+      pairs.add(pair);
+      heapIndex.add(pair);
+    }
+
+    OffHeapBitSignatureIndex offHeapIndex = OffHeapBitSignatureIndex.build(pairs, signatureSize);
+
+    Assert.assertEquals(heapIndex.size(), offHeapIndex.size());
+    long[] query = pairs.get(0).getBitSignature();
+    long[] target = new long[signatureSize];
+    for (IndexPair pair : pairs) {
+      int elementId = pair.getElementId();
+      Assert.assertTrue(offHeapIndex.contains(elementId));
+      Assert.assertArrayEquals(pair.getBitSignature(), offHeapIndex.getBitSignature(elementId));
+      offHeapIndex.copyBitSignature(elementId, target);
+      Assert.assertArrayEquals(pair.getBitSignature(), target);
+      Assert.assertEquals(
+          BitSignatureUtil.calculateHammingDistance(pair.getBitSignature(), query),
+          offHeapIndex.calculateHammingDistance(elementId, query));
+    }
+    Assert.assertFalse(offHeapIndex.contains(1));
+
+    int[] elementIds = new int[pairs.size()];
+    for (int i = 0; i < elementIds.length; i++) {
+      elementIds[i] = pairs.get(i).getElementId();
+    }
+    int[] heapDistances = new int[elementIds.length];
+    int[] offHeapDistances = new int[elementIds.length];
+    heapIndex.calculateHammingDistances(query, elementIds, elementIds.length, heapDistances);
+    offHeapIndex.calculateHammingDistances(query, elementIds, elementIds.length, offHeapDistances);
+    Assert.assertArrayEquals(heapDistances, offHeapDistances);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownElement() {
+    List<IndexPair> pairs = new ArrayList<IndexPair>();
+    pairs.add(new IndexPair(new long[] { 1L }, 1));
+    OffHeapBitSignatureIndex index = OffHeapBitSignatureIndex.build(pairs, 1);
+
+    index.getBitSignature(2);
+  }
+
+}
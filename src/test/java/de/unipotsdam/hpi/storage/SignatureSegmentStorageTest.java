@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.storage;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.unipotsdam.hpi.indexing.IndexPair;
+import de.unipotsdam.hpi.util.FileUtils;
+import de.unipotsdam.hpi.util.TestSettings;
+
+public class SignatureSegmentStorageTest {
+
+  private static final String TEMP_FOLDER_NAME = SignatureSegmentStorageTest.class.getName();
+  private static Path tempFolder;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    Path globalTempFolder = FileSystems.getDefault().getPath(
+        TestSettings.INDEX_TMP_FOLDER);
+    tempFolder = globalTempFolder.resolve(TEMP_FOLDER_NAME);
+    FileUtils.createDirectoryIfNotExists(globalTempFolder);
+    FileUtils.createDirectoryIfNotExists(tempFolder);
+  }
+
+  @Test
+  public void testSlotsAreSpreadOverSegments() {
+    SignatureSegmentStorage storage = new SignatureSegmentStorage(tempFolder, 2, 3, 2);
+    IndexPair[] pairs = new IndexPair[] { new IndexPair(new long[] { 1, 2 }, 1),
+        new IndexPair(new long[] { 3, 4 }, 2), new IndexPair(new long[] { 5, 6 }, 3) };
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(i, storage.allocateSlot());
+      storage.write(i, pairs, i % 3, 3 - i % 3);
+    }
+    Assert.assertEquals(3, storage.getNumSegmentFiles());
+    Assert.assertTrue(Files.exists(storage.getSegmentPath(2)));
+
+    storage.clearCache();
+    for (int i = 0; i < 5; i++) {
+      IndexPair[] slotPairs = storage.read(i);
+      Assert.assertEquals(3 - i % 3, slotPairs.length);
+      Assert.assertEquals(pairs[i % 3], slotPairs[0]);
+    }
+    storage.close();
+  }
+
+  @Test
+  public void testReleasedSlotsAreReused() {
+    SignatureSegmentStorage storage = new SignatureSegmentStorage(tempFolder, 1, 2, 4);
+    int slot = storage.allocateSlot();
+    storage.allocateSlot();
+    storage.write(slot, new IndexPair[] { new IndexPair(new long[] { 7 }, 7) }, 0, 1);
+
+    storage.releaseSlot(slot);
+    Assert.assertEquals(1, storage.getNumFreeSlots());
+    Assert.assertEquals(slot, storage.allocateSlot());
+    Assert.assertEquals(0, storage.read(slot).length);
+    Assert.assertEquals(2, storage.getNumSlots());
+
+    try {
+      storage.write(slot, new IndexPair[3], 0, 3);
+      Assert.fail("Slots must not exceed their capacity.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    storage.close();
+  }
+
+  @AfterClass
+  public static void cleanUp() {
+    FileUtils.clearAndDeleteDirecotry(tempFolder);
+  }
+}
@@ -74,6 +74,65 @@ public class SparseInputVectorStorageTest {
     
   }
   
+  @Test
+  public void testRandomAccessAcrossRegions() {
+    Path filePath = tempFolder.resolve("testRandomAccessAcrossRegions");
+    int numVectors = 50;
+    
+    // small regions force the records to be spread over several mappings
+    SparseInputVectorStorage storage = new SparseInputVectorStorage(filePath, 200);
+    
+    List<SparseInputVector> testVectors = new ArrayList<SparseInputVector>();
+    for (int i = 0; i < numVectors; i++) {
+      DefaultSparseIntList backingIntList = new DefaultSparseIntList(i % 5 + 1);
+      for (int j = 0; j < i % 5 + 1; j++) {
+        backingIntList.add(3 * j, i - j);
+      }
+      backingIntList.setSize(20);
+      
+      SparseInputVector vector = new SparseInputVector(2 * i, backingIntList);
+      storage.store(vector);
+      testVectors.add(vector);
+    }
+    storage.closeOutput();
+    storage.openForRandomAccess();
+    
+    // look the vectors up in reverse order
+    for (int i = numVectors - 1; i >= 0; i--) {
+      SparseInputVector testVector = testVectors.get(i);
+      SparseInputVector readVector = storage.getVector(testVector.getId());
+      Assert.assertEquals(testVector.getId(), readVector.getId());
+      Assert.assertEquals(testVector.toSparseIntList(), readVector.toSparseIntList());
+    }
+    Assert.assertFalse(storage.contains(1));
+  }
+  
+  @Test
+  public void testVectorsStoredAfterOpeningBecomeVisible() {
+    Path filePath = tempFolder.resolve("testVectorsStoredAfterOpeningBecomeVisible");
+    SparseInputVectorStorage storage = new SparseInputVectorStorage(filePath, 200);
+    
+    List<SparseInputVector> testVectors = new ArrayList<SparseInputVector>();
+    for (int i = 0; i < 20; i++) {
+      DefaultSparseIntList backingIntList = new DefaultSparseIntList(2);
+      backingIntList.add(i, i + 1);
+      backingIntList.add(i + 1, i + 2);
+      backingIntList.setSize(30);
+      SparseInputVector vector = new SparseInputVector(i, backingIntList);
+      testVectors.add(vector);
+      
+      // the output stays open while the vectors are looked up
+      storage.store(vector);
+      storage.openForRandomAccess();
+      for (int j = 0; j <= i; j++) {
+        Assert.assertEquals(testVectors.get(j).toSparseIntList(),
+            storage.getVector(j).toSparseIntList());
+      }
+      Assert.assertFalse(storage.contains(i + 1));
+    }
+    storage.closeOutput();
+  }
+  
   @AfterClass
   public static void cleanUp() {
     FileUtils.clearAndDeleteDirecotry(tempFolder);
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AtomicBitSetTest {
+
+  @Test
+  public void testSetAndGet() {
+    AtomicBitSet bitSet = new AtomicBitSet();
+    Assert.assertTrue(bitSet.isEmpty());
+
+    Assert.assertTrue(bitSet.set(3));
+    Assert.assertFalse(bitSet.set(3));
+    // grows beyond the initial word
+    Assert.assertTrue(bitSet.set(1000));
+
+    Assert.assertTrue(bitSet.get(3));
+    Assert.assertTrue(bitSet.get(1000));
+    Assert.assertFalse(bitSet.get(4));
+    Assert.assertFalse(bitSet.get(100000));
+    Assert.assertFalse(bitSet.get(-1));
+    Assert.assertEquals(2, bitSet.cardinality());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetRejectsNegativeIndex() {
+    new AtomicBitSet().set(-1);
+  }
+}
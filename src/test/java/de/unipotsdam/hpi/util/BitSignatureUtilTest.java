@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BitSignatureUtilTest {
+
+  @Test
+  public void testHammingDistance() {
+    long[] signature1 = new long[] { 0L, -1L, 7L };
+    long[] signature2 = new long[] { 1L, 0L, 7L };
+
+    Assert.assertEquals(0, BitSignatureUtil.calculateHammingDistance(signature1, signature1));
+    Assert.assertEquals(65, BitSignatureUtil.calculateHammingDistance(signature1, signature2));
+  }
+
+  @Test
+  public void testBatchHammingDistancesMatchSingleDistances() {
+    Random random = new Random(42);
+    // cover the unrolled loop as well as the remainder
+    for (int length = 1; length <= 9; length++) {
+      int numCandidates = 20;
+      long[] signature = randomSignature(random, length);
+      long[] candidates = new long[numCandidates * length];
+      for (int i = 0; i < candidates.length; i++) {
+        candidates[i] = random.nextLong();
+      }
+
+      int[] distances = new int[numCandidates];
+      BitSignatureUtil.calculateHammingDistances(signature, candidates, numCandidates, distances);
+
+      for (int candidate = 0; candidate < numCandidates; candidate++) {
+        long[] candidateSignature = new long[length];
+        System.arraycopy(candidates, candidate * length, candidateSignature, 0, length);
+        Assert.assertEquals(
+            BitSignatureUtil.calculateHammingDistance(signature, candidateSignature),
+            distances[candidate]);
+      }
+    }
+  }
+
+  @Test
+  public void testBoundedHammingDistanceAbandonsDissimilarSignatures() {
+    Random random = new Random(42);
+    int length = 9;
+    for (int i = 0; i < 100; i++) {
+      long[] signature1 = randomSignature(random, length);
+      long[] signature2 = randomSignature(random, length);
+      int distance = BitSignatureUtil.calculateHammingDistance(signature1, signature2);
+
+      for (int maxDistance = distance - 40; maxDistance <= distance + 1; maxDistance += 10) {
+        int boundedDistance = BitSignatureUtil.calculateHammingDistance(signature1, 0,
+            signature2, 0, length, maxDistance);
+        if (distance <= maxDistance) {
+          Assert.assertEquals(distance, boundedDistance);
+        } else {
+          Assert.assertTrue(boundedDistance > maxDistance);
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBatchHammingDistancesRequireLargeEnoughBuffers() {
+    BitSignatureUtil.calculateHammingDistances(new long[2], new long[3], 2, new int[2]);
+  }
+
+  private long[] randomSignature(Random random, int length) {
+    long[] signature = new long[length];
+    for (int i = 0; i < length; i++) {
+      signature[i] = random.nextLong();
+    }
+    return signature;
+  }
+
+}
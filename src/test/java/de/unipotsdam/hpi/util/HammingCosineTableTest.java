@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HammingCosineTableTest {
+
+  @Test
+  public void testSimilaritiesMatchCalculatedCosines() {
+    int signatureSize = 2;
+    HammingCosineTable table = new HammingCosineTable(signatureSize);
+
+    for (int distance = 0; distance <= 128; distance++) {
+      Assert.assertEquals(BitSignatureUtil.calculateBitVectorCosine(distance, signatureSize),
+          table.getSimilarity(distance), 1e-15);
+    }
+    Assert.assertEquals(1.0d, table.getSimilarity(0), 0.0d);
+    Assert.assertEquals(-1.0d, table.getSimilarity(128), 1e-15);
+  }
+
+  @Test
+  public void testMaxDistanceIsTheLastSimilarEnoughDistance() {
+    HammingCosineTable table = new HammingCosineTable(1);
+
+    for (double minSimilarity = -1.0d; minSimilarity <= 1.0d; minSimilarity += 0.05d) {
+      int maxDistance = table.getMaxDistance(minSimilarity);
+      Assert.assertTrue(table.getSimilarity(maxDistance) >= minSimilarity);
+      if (maxDistance < 64) {
+        Assert.assertTrue(table.getSimilarity(maxDistance + 1) < minSimilarity);
+      }
+    }
+    Assert.assertEquals(0, table.getMaxDistance(1.0d));
+    Assert.assertEquals(64, table.getMaxDistance(-1.0d));
+    Assert.assertEquals(-1, table.getMaxDistance(1.5d));
+  }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Sebastian Kruse, Thorben Lindhauer
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unipotsdam.hpi.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripedIntSetTest {
+
+  @Test
+  public void testAddAndContains() {
+    StripedIntSet set = new StripedIntSet(4);
+    Assert.assertTrue(set.add(42));
+    Assert.assertFalse(set.add(42));
+    Assert.assertTrue(set.contains(42));
+    Assert.assertFalse(set.contains(43));
+    Assert.assertTrue(set.add(-42));
+  }
+
+  @Test
+  public void testConcurrentAddsSucceedOncePerValue() throws InterruptedException {
+    final int numThreads = 8;
+    final int numValues = 10000;
+    final StripedIntSet set = new StripedIntSet(numThreads);
+    final AtomicInteger successfulAdds = new AtomicInteger();
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; t++) {
+      Thread thread = new Thread(new Runnable() {
+
+        public void run() {
+          for (int value = 0; value < numValues; value++) {
+            if (set.add(value)) {
+              successfulAdds.incrementAndGet();
+            }
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(numValues, successfulAdds.get());
+  }
+}